@@ -1,29 +1,82 @@
 package com.hyp3r.services.kinesis.logback;
 
 import ch.qos.logback.classic.Level;
-import ch.qos.logback.classic.pattern.ThrowableProxyConverter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.classic.spi.IThrowableProxy;
-import ch.qos.logback.core.AppenderBase;
-import ch.qos.logback.core.html.IThrowableRenderer;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.services.kinesis.producer.IKinesisProducer;
 import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
 import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.hyp3r.services.kinesis.logback.models.KinesisLogEvent;
+import com.hyp3r.services.kinesis.logback.aggregation.AggregateFlusher;
+import com.hyp3r.services.kinesis.logback.batching.BatchController;
+import com.hyp3r.services.kinesis.logback.batching.RecordBatcher;
+import com.hyp3r.services.kinesis.logback.coalescing.EventCoalescer;
+import com.hyp3r.services.kinesis.logback.concurrent.Platform;
+import com.hyp3r.services.kinesis.logback.dispatch.LaneDispatcher;
+import com.hyp3r.services.kinesis.logback.dispatch.PriorityLane;
+import com.hyp3r.services.kinesis.logback.encoding.KinesisEventEncoder;
+import com.hyp3r.services.kinesis.logback.encoding.MdcProjection;
+import com.hyp3r.services.kinesis.logback.encoding.RecordChunker;
+import com.hyp3r.services.kinesis.logback.encoding.TemplateMode;
+import com.hyp3r.services.kinesis.logback.ext.MetadataContext;
+import com.hyp3r.services.kinesis.logback.ext.MetadataMarker;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import com.hyp3r.services.kinesis.logback.pressure.DegradationLevel;
+import com.hyp3r.services.kinesis.logback.pressure.PressureMonitor;
+import com.hyp3r.services.kinesis.logback.routing.KinesisRoute;
+import com.hyp3r.services.kinesis.logback.routing.RouteTable;
+import com.hyp3r.services.kinesis.logback.rules.AppenderRules;
+import com.hyp3r.services.kinesis.logback.rules.RulesConfig;
+import com.hyp3r.services.kinesis.logback.rules.RulesManager;
+import com.hyp3r.services.kinesis.logback.sharding.ShardBalancer;
+import com.hyp3r.services.kinesis.logback.staging.SlabPool;
 import lombok.Setter;
 import org.apache.commons.lang3.StringUtils;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-public class KinesisAppender<Event extends ILoggingEvent> extends AppenderBase<Event> {
+// Appending is thread-safe without the appender-wide monitor, so logging threads, virtual ones included, never queue on it
+public class KinesisAppender<Event extends ILoggingEvent> extends UnsynchronizedAppenderBase<Event> {
 
     private static final boolean DEFAULT_EVENTS_ONLY = true;
+    // Kinesis caps data plus partition key at 1 MiB, and partition keys at 256 characters
+    private static final int DEFAULT_MAX_RECORD_BYTES = 1024 * 1024 - 256;
+    private static final int DEFAULT_COALESCE_CAPACITY = 1024;
+    private static final int DEFAULT_COALESCE_SAMPLES = 5;
+    private static final int DEFAULT_LANE_CAPACITY = 10000;
+    private static final int DEFAULT_MAX_QUEUED_RECORDS = 50000;
+    private static final int DEFAULT_MAX_OUTSTANDING_RECORDS = 10000;
+    private static final long DEFAULT_RULES_POLL_MILLIS = 5000;
+    private static final long DEFAULT_BATCH_LINGER_MILLIS = 100;
+    private static final int DEFAULT_BATCH_MAX_EVENTS = 100;
+    private static final int DEFAULT_BATCH_EVENTS_FLOOR = 1;
+    private static final int DEFAULT_BATCH_EVENTS_CEILING = 1000;
+    private static final long DEFAULT_BATCH_LINGER_FLOOR_MILLIS = 5;
+    private static final long DEFAULT_BATCH_LINGER_CEILING_MILLIS = 1000;
+    private static final long DEFAULT_BATCH_TARGET_LATENCY_MILLIS = 1000;
+    private static final long BATCH_CONTROL_INTERVAL_MILLIS = 1000;
+    private static final long SHARD_BALANCE_INTERVAL_MILLIS = 1000;
+    private static final long DEFAULT_PRESSURE_RECOVERY_MILLIS = 10000;
+    private static final double DEFAULT_PRESSURE_INFO_SAMPLING = 0.1;
+    static final String PRESSURE_EVENT_TYPE = "kinesis_appender_pressure";
+    private static final String[] PARTITION_KEYS = new String[4096];
+
+    static {
+        for (int i = 0; i < PARTITION_KEYS.length; i++) {
+            PARTITION_KEYS[i] = UUID.randomUUID().toString();
+        }
+    }
 
     private boolean initializationFailed = false;
 
@@ -31,10 +84,58 @@ public class KinesisAppender<Event extends ILoggingEvent> extends AppenderBase<E
     @Setter private String environment;
     @Setter private String streamName;
     @Setter private String awsRegion;
-    @Setter private Boolean eventsOnly;
+    private Boolean eventsOnly;
+    @Setter private Integer maxDescriptionBytes;
+    @Setter private Integer maxStacktraceBytes;
+    @Setter private Integer maxRecordBytes;
+    @Setter private String templateMode;
+    @Setter private Boolean formatDescription;
+    @Setter private boolean chunkOversized;
+    @Setter private Integer batchMaxEvents;
+    @Setter private Long batchLingerMillis;
+    @Setter private boolean adaptiveBatching;
+    @Setter private Integer batchEventsFloor;
+    @Setter private Integer batchEventsCeiling;
+    @Setter private Long batchLingerFloorMillis;
+    @Setter private Long batchLingerCeilingMillis;
+    @Setter private Long batchTargetLatencyMillis;
+    @Setter private Long coalesceWindowMillis;
+    @Setter private Integer coalesceCapacity;
+    @Setter private Integer coalesceSamples;
+    @Setter private Integer laneCapacity;
+    @Setter private Integer maxQueuedRecords;
+    @Setter private Integer maxOutstandingRecords;
+    @Setter private String laneDraining;
+    @Setter private Long stagingCapacityBytes;
+    @Setter private String rulesFile;
+    @Setter private Long rulesPollMillis;
+    @Setter private boolean jmxEnabled;
+    @Setter private boolean balanceShards;
+    @Setter private boolean pressureMonitoring;
+    @Setter private Long pressureRecoveryMillis;
+    @Setter private Double pressureInfoSampling;
+    @Setter private String mdcInclude;
+    @Setter private String mdcExclude;
+    @Setter private String mdcRename;
 
-    @Setter private KinesisProducer kinesisProducer;
-    private static final Gson GSON = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
+    @Setter private IKinesisProducer kinesisProducer;
+
+    private final List<KinesisRoute> routes = new ArrayList<>();
+    private final List<PriorityLane> lanes = new ArrayList<>();
+    private RulesManager rulesManager;
+    private KinesisEventEncoder encoder;
+    private KinesisCallback callback = new KinesisCallback();
+    private EventCoalescer coalescer;
+    private ScheduledExecutorService coalesceFlusher;
+    private LaneDispatcher dispatcher;
+    private SlabPool stagingPool;
+    private RecordBatcher batcher;
+    private ScheduledExecutorService batchFlusher;
+    private volatile BatchController batchController;
+    private final ConcurrentHashMap<String, ShardBalancer> shardBalancers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService shardBalanceUpdater;
+    private long lastShardBalanceMillis;
+    private PressureMonitor pressureMonitor;
 
     @Override
     public void start() {
@@ -53,8 +154,75 @@ public class KinesisAppender<Event extends ILoggingEvent> extends AppenderBase<E
             addError("Invalid configuration - streamName cannot be null for appender: " + name);
         }
 
+        if ((coalesceWindowMillis != null && coalesceWindowMillis <= 0) || isNotPositive(coalesceCapacity) || isNotPositive(coalesceSamples)) {
+            initializationFailed = true;
+            addError("Invalid configuration - coalesceWindowMillis, coalesceCapacity and coalesceSamples must be positive for appender: " + name);
+        }
+
+        int outstandingLimit = Optional.ofNullable(maxOutstandingRecords).orElse(DEFAULT_MAX_OUTSTANDING_RECORDS);
+        int reservedTotal = 0;
+        for (PriorityLane lane : lanes) {
+            if ((lane.getLevel() != null && Level.toLevel(lane.getLevel(), null) == null) || isNotPositive(lane.getCapacity())
+                || isNotPositive(lane.getWeight()) || (lane.getReserved() != null && lane.getReserved() < 0)) {
+                initializationFailed = true;
+                addError("Invalid configuration - lane level must be a valid level, capacity and weight positive and reserved not negative for appender: " + name);
+            }
+            reservedTotal += Optional.ofNullable(lane.getReserved()).orElse(0);
+        }
+        if (isNotPositive(laneCapacity) || isNotPositive(maxQueuedRecords) || outstandingLimit <= reservedTotal
+            || (laneDraining != null && !laneDraining.equals("strict") && !laneDraining.equals("weighted"))) {
+            initializationFailed = true;
+            addError("Invalid configuration - lane settings must be positive, reserved capacity below maxOutstandingRecords and laneDraining strict or weighted for appender: " + name);
+        }
+
+        if (stagingCapacityBytes != null && (stagingCapacityBytes < SlabPool.SLAB_BYTES || lanes.isEmpty())) {
+            initializationFailed = true;
+            addError("Invalid configuration - stagingCapacityBytes must be at least " + SlabPool.SLAB_BYTES
+                + " and needs priority lanes for appender: " + name);
+        }
+
+        if ((pressureRecoveryMillis != null && pressureRecoveryMillis <= 0)
+            || (pressureInfoSampling != null && !(pressureInfoSampling >= 0 && pressureInfoSampling <= 1))) {
+            initializationFailed = true;
+            addError("Invalid configuration - pressureRecoveryMillis must be positive and pressureInfoSampling between 0 and 1 for appender: " + name);
+        }
+
         eventsOnly = Optional.ofNullable(eventsOnly).orElse(DEFAULT_EVENTS_ONLY);
 
+        // Filtering, sampling, routing and MDC projection can be swapped at runtime, everything else needs a restart
+        try {
+            rulesManager = new RulesManager(baseRules(), rulesFile, this::addError);
+        } catch (IllegalArgumentException e) {
+            initializationFailed = true;
+            addError("Invalid configuration - " + e.getMessage() + " for appender: " + name);
+        }
+        if (isNotPositive(batchMaxEvents) || (batchLingerMillis != null && batchLingerMillis <= 0)) {
+            initializationFailed = true;
+            addError("Invalid configuration - batchMaxEvents and batchLingerMillis must be positive for appender: " + name);
+        }
+        if (adaptiveBatching && !resolveBatchBounds()) {
+            initializationFailed = true;
+            addError("Invalid configuration - batch floors must be positive, at most batchMaxEvents and batchLingerMillis, ceilings at least those, and batchTargetLatencyMillis positive for appender: " + name);
+        }
+        if (rulesPollMillis != null && rulesPollMillis <= 0) {
+            initializationFailed = true;
+            addError("Invalid configuration - rulesPollMillis must be positive for appender: " + name);
+        }
+        maxRecordBytes = Optional.ofNullable(maxRecordBytes).orElse(DEFAULT_MAX_RECORD_BYTES);
+
+        if (isNotPositive(maxDescriptionBytes) || isNotPositive(maxStacktraceBytes) || isNotPositive(maxRecordBytes)
+            || maxRecordBytes > DEFAULT_MAX_RECORD_BYTES) {
+            initializationFailed = true;
+            addError("Invalid configuration - byte limits must be positive and maxRecordBytes at most " + DEFAULT_MAX_RECORD_BYTES
+                + " for appender: " + name);
+        }
+
+        TemplateMode messageTemplates = parseTemplateMode(templateMode);
+        if (messageTemplates == null || (Boolean.FALSE.equals(formatDescription) && messageTemplates == TemplateMode.NONE)) {
+            initializationFailed = true;
+            addError("Invalid configuration - templateMode must be none, pattern or id, and not none when formatDescription is false for appender: " + name);
+        }
+
         try {
             Regions.fromName(awsRegion);
         } catch (Exception e) {
@@ -63,6 +231,26 @@ public class KinesisAppender<Event extends ILoggingEvent> extends AppenderBase<E
         }
 
         if (!initializationFailed) {
+            rulesManager.startPolling(Optional.ofNullable(rulesPollMillis).orElse(DEFAULT_RULES_POLL_MILLIS), "kinesis-appender-rules-" + name);
+            if (jmxEnabled) {
+                rulesManager.registerMBean(name);
+            }
+            encoder = new KinesisEventEncoder(appName, environment,
+                Optional.ofNullable(maxDescriptionBytes).orElse(Integer.MAX_VALUE),
+                Optional.ofNullable(maxStacktraceBytes).orElse(Integer.MAX_VALUE),
+                messageTemplates, Optional.ofNullable(formatDescription).orElse(true));
+
+            if (coalesceWindowMillis != null) {
+                coalescer = new EventCoalescer(coalesceWindowMillis,
+                    Optional.ofNullable(coalesceCapacity).orElse(DEFAULT_COALESCE_CAPACITY),
+                    Optional.ofNullable(coalesceSamples).orElse(DEFAULT_COALESCE_SAMPLES),
+                    summary -> process(summary, false, true));
+                coalesceFlusher = Executors.newSingleThreadScheduledExecutor(
+                    Platform.concurrency().threadFactory("kinesis-appender-coalescer-" + name));
+                coalesceFlusher.scheduleWithFixedDelay(() -> coalescer.flush(System.currentTimeMillis()),
+                    coalesceWindowMillis, coalesceWindowMillis, TimeUnit.MILLISECONDS);
+            }
+
             if (kinesisProducer == null) {
                 KinesisProducerConfiguration config = new KinesisProducerConfiguration();
                 config.setRegion(awsRegion);
@@ -70,6 +258,65 @@ public class KinesisAppender<Event extends ILoggingEvent> extends AppenderBase<E
                 kinesisProducer = new KinesisProducer(config);
             }
 
+            if (adaptiveBatching) {
+                // Put latencies feed the batch controller, created below
+                callback = new KinesisCallback(this::onRecordResult);
+            }
+
+            if (balanceShards) {
+                lastShardBalanceMillis = System.currentTimeMillis();
+                shardBalanceUpdater = Executors.newSingleThreadScheduledExecutor(
+                    Platform.concurrency().threadFactory("kinesis-appender-shards-" + name));
+                shardBalanceUpdater.scheduleWithFixedDelay(this::updateShardBalancers,
+                    SHARD_BALANCE_INTERVAL_MILLIS, SHARD_BALANCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+
+            if (!lanes.isEmpty()) {
+                dispatcher = new LaneDispatcher(lanes,
+                    Optional.ofNullable(laneCapacity).orElse(DEFAULT_LANE_CAPACITY),
+                    Optional.ofNullable(maxQueuedRecords).orElse(DEFAULT_MAX_QUEUED_RECORDS),
+                    outstandingLimit, "weighted".equals(laneDraining), kinesisProducer, callback,
+                    "kinesis-appender-lanes-" + name);
+                if (stagingCapacityBytes != null) {
+                    stagingPool = new SlabPool(stagingCapacityBytes);
+                    dispatcher.setStaging(stagingPool);
+                    if (jmxEnabled) {
+                        stagingPool.registerMBean(name, this::addError);
+                    }
+                }
+                dispatcher.start();
+            }
+
+            if (batchMaxEvents != null || adaptiveBatching) {
+                long linger = Optional.ofNullable(batchLingerMillis).orElse(DEFAULT_BATCH_LINGER_MILLIS);
+                batcher = new RecordBatcher(Optional.ofNullable(batchMaxEvents).orElse(DEFAULT_BATCH_MAX_EVENTS), linger, maxRecordBytes,
+                    dispatcher == null ? 1 : dispatcher.getLaneCount(), (level, lane, stream, batch) -> sendRecord(lane, stream, null, batch));
+                batchFlusher = Executors.newSingleThreadScheduledExecutor(
+                    Platform.concurrency().threadFactory("kinesis-appender-batcher-" + name));
+                if (adaptiveBatching) {
+                    batchController = new BatchController(batcher, batchEventsFloor, batchEventsCeiling,
+                        batchLingerFloorMillis, batchLingerCeilingMillis, batchTargetLatencyMillis);
+                    if (jmxEnabled) {
+                        batchController.registerMBean(name, this::addError);
+                    }
+                    batchFlusher.scheduleWithFixedDelay(() -> batchController.adjust(System.currentTimeMillis()),
+                        BATCH_CONTROL_INTERVAL_MILLIS, BATCH_CONTROL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    // The linger time may drop to its floor, the flusher has to keep up with it
+                    linger = batchLingerFloorMillis;
+                }
+                long tick = Math.max(1, linger / 2);
+                batchFlusher.scheduleWithFixedDelay(() -> batcher.flush(System.currentTimeMillis()), tick, tick, TimeUnit.MILLISECONDS);
+            }
+
+            if (pressureMonitoring) {
+                pressureMonitor = new PressureMonitor(Optional.ofNullable(pressureRecoveryMillis).orElse(DEFAULT_PRESSURE_RECOVERY_MILLIS),
+                    Optional.ofNullable(pressureInfoSampling).orElse(DEFAULT_PRESSURE_INFO_SAMPLING), this::onPressureTransition);
+                if (jmxEnabled) {
+                    pressureMonitor.registerMBean(name, this::addError);
+                }
+                pressureMonitor.start("kinesis-appender-pressure-" + name);
+            }
+
             super.start();
         }
     }
@@ -77,63 +324,397 @@ public class KinesisAppender<Event extends ILoggingEvent> extends AppenderBase<E
     @Override
     public void stop() {
         if (!initializationFailed) {
+            // The logger context stops its appenders before telling its listeners, so the last partial interval of the
+            // aggregates has to go out while this appender still takes events
+            AggregateFlusher.flushAll();
+            // Then events are turned away, and those already being appended are dropped by the closed batcher and
+            // dispatcher rather than queued with nothing left to send them
+            super.stop();
+            rulesManager.close();
+            if (pressureMonitor != null) {
+                pressureMonitor.close();
+                pressureMonitor.unregisterMBean(this::addError);
+            }
+            if (coalescer != null) {
+                coalesceFlusher.shutdownNow();
+                coalescer.flushAll();
+            }
+            if (batcher != null) {
+                batchFlusher.shutdownNow();
+                batcher.close();
+            }
+            if (batchController != null) {
+                batchController.unregisterMBean(this::addError);
+            }
+            if (shardBalanceUpdater != null) {
+                shardBalanceUpdater.shutdownNow();
+            }
+            if (dispatcher != null) {
+                dispatcher.close();
+            }
+            if (stagingPool != null) {
+                stagingPool.unregisterMBean(this::addError);
+            }
             kinesisProducer.flushSync();
             kinesisProducer.destroy();
-            super.stop();
         }
     }
 
-    private static final ThrowableProxyConverter throwableRenderer = new ThrowableProxyConverter() {{
-        this.setOptionList(Collections.singletonList("full"));
-        this.start();
-    }};
-
     @Override
     protected void append(Event eventObject) {
-        KinesisLogEvent kinesisLogEvent = new KinesisLogEvent();
-        kinesisLogEvent.setAppName(appName);
-        kinesisLogEvent.setEnvironment(environment);
-        kinesisLogEvent.setLevel(eventObject.getLevel().toString());
-        kinesisLogEvent.setLoggerName(eventObject.getLoggerName());
-        kinesisLogEvent.setDescription(eventObject.getFormattedMessage());
-        if (eventObject.getLevel().isGreaterOrEqual(Level.WARN) && eventObject.getThrowableProxy() != null) {
-            StringBuilder sb = new StringBuilder();
-            sb.append(throwableRenderer.convert(eventObject));
-            kinesisLogEvent.setStacktrace(sb.toString());
+        process(eventObject, true, true);
+    }
+
+    private void process(ILoggingEvent eventObject, boolean coalesce, boolean degradable) {
+        // event_type and context come from the KinesisLogger call, or from the MDC for plain logger calls
+        MetadataMarker marker = MetadataMarker.of(eventObject);
+        KinesisMetadata metadata = marker == null ? null : marker.getMetadata();
+        // Plain logger calls carry their bound metadata in the MDC copy taken on the logging thread
+        MetadataContext bound = marker == null ? MetadataContext.EMPTY : marker.getBoundMetadata();
+        Map<String, String> mdc = eventObject.getMDCPropertyMap();
+        String eventType = marker != null && marker.getEventType() != null ? marker.getEventType() : mdc.get(KinesisEventEncoder.EVENT_TYPE_KEY);
+        String context = marker != null && marker.getContext() != null ? marker.getContext() : mdc.get(KinesisEventEncoder.CONTEXT_KEY);
+
+        // Read once, so a reload never applies half way through an event
+        AppenderRules rules = rulesManager.current();
+        if (!rules.accepts(eventObject.getLevel(), eventType)) {
+            // Non event logs are not sent to kinesis when eventsOnly is true
+            return;
         }
-        kinesisLogEvent.setTimestamp(new Date(eventObject.getTimeStamp()));
-        kinesisLogEvent.setMetadata(new HashMap<>(eventObject.getMDCPropertyMap()));
 
-        // Place event_type and context on top level
-        if (kinesisLogEvent.getMetadata().containsKey("event_type")) {
-            kinesisLogEvent.setEventType(kinesisLogEvent.getMetadata().get("event_type"));
-            kinesisLogEvent.getMetadata().remove("event_type");
+        // Under memory pressure events are shed before they cost anything further
+        PressureMonitor monitor = degradable ? pressureMonitor : null;
+        if (monitor != null && !monitor.admits(eventObject.getLevel())) {
+            return;
+        }
+        boolean details = monitor == null || monitor.current().keepsDetails();
+
+        if (marker != null && marker.getRows() != null) {
+            processRows(eventObject, marker, rules, bound, mdc, eventType, context, details);
+            return;
         }
 
-        if (kinesisLogEvent.getMetadata().containsKey("context")) {
-            kinesisLogEvent.setContext(kinesisLogEvent.getMetadata().get("context"));
-            kinesisLogEvent.getMetadata().remove("context");
+        if (coalesce && coalescer != null && !coalescer.offer(eventObject, eventType, metadata != null ? metadata : mdc)) {
+            // Counted as a repeat, it goes out as part of the window's summary
+            return;
         }
 
-        if (eventsOnly.equals(true) && kinesisLogEvent.getEventType() == null) {
-            // Do not send to kinesis non event logs if flag is true
+        List<RouteTable.Route> matchedRoutes = rules.getRouteTable().match(eventObject.getLevel(), eventObject.getLoggerName(), eventType, metadata, bound, mdc);
+
+        if (matchedRoutes.isEmpty()) {
+            if (!rules.sample()) {
+                return;
+            }
+            send(eventObject.getLevel(), eventType, streamName, null,
+                encoder.encode(eventObject, marker, bound, eventType, context, details, rules.getMdcProjection(), streamName));
             return;
         }
 
-        String eventJson = GSON.toJson(kinesisLogEvent);
+        // Routes sharing an MDC projection, usually all of them, share the same encoded bytes, as long as template ids
+        // are not announced on each stream
+        byte[] eventBytes = null;
+        MdcProjection encodedProjection = null;
+        String encodedStream = null;
+        for (RouteTable.Route route : matchedRoutes) {
+            if (!route.sample()) {
+                continue;
+            }
+            MdcProjection projection = route.projection(rules.getMdcProjection());
+            if (eventBytes == null || projection != encodedProjection || !encodedFor(encodedStream, route.getStreamName())) {
+                eventBytes = encoder.encode(eventObject, marker, bound, eventType, context, details, projection, route.getStreamName());
+                encodedProjection = projection;
+                encodedStream = route.getStreamName();
+            }
+            send(eventObject.getLevel(), eventType, route.getStreamName(), route.partitionKey(metadata, bound, mdc), eventBytes);
+        }
+    }
+
+    // Rows of a bulk write are filtered once on their shared metadata, then routed, sampled and sent one by one. Unless a
+    // route matches on an MDC key, which a row may provide, every row of a chunk goes to the same routes.
+    private void processRows(ILoggingEvent eventObject, MetadataMarker marker, AppenderRules rules, MetadataContext bound,
+                             Map<String, String> mdc, String eventType, String context, boolean details) {
+        if (rules.getRouteTable().matchesOnMetadata()) {
+            processRoutedRows(eventObject, marker, rules, bound, mdc, eventType, context, details);
+            return;
+        }
+        Level level = eventObject.getLevel();
+        KinesisMetadata shared = marker.getMetadata();
+        List<KinesisMetadata> rows = marker.getRows();
+        List<RouteTable.Route> matchedRoutes = rules.getRouteTable().match(level, eventObject.getLoggerName(), eventType, shared, bound, mdc);
+
+        if (matchedRoutes.isEmpty()) {
+            for (byte[] rowBytes : encoder.encodeRows(eventObject, marker, bound, eventType, context, details, rules.getMdcProjection(), streamName)) {
+                if (rules.sample()) {
+                    send(level, eventType, streamName, null, rowBytes);
+                }
+            }
+            return;
+        }
+
+        byte[][] encoded = null;
+        MdcProjection encodedProjection = null;
+        String encodedStream = null;
+        for (RouteTable.Route route : matchedRoutes) {
+            MdcProjection projection = route.projection(rules.getMdcProjection());
+            if (encoded == null || projection != encodedProjection || !encodedFor(encodedStream, route.getStreamName())) {
+                encoded = encoder.encodeRows(eventObject, marker, bound, eventType, context, details, projection, route.getStreamName());
+                encodedProjection = projection;
+                encodedStream = route.getStreamName();
+            }
+            for (int i = 0; i < encoded.length; i++) {
+                if (route.sample()) {
+                    send(level, eventType, route.getStreamName(), route.partitionKey(rows.get(i), shared, bound, mdc), encoded[i]);
+                }
+            }
+        }
+    }
+
+    // Routes are matched row by row, and the chunk is encoded once for each MDC projection, and stream when template ids
+    // are announced on each, that some row is sent with
+    private void processRoutedRows(ILoggingEvent eventObject, MetadataMarker marker, AppenderRules rules, MetadataContext bound,
+                                   Map<String, String> mdc, String eventType, String context, boolean details) {
+        Level level = eventObject.getLevel();
+        KinesisMetadata shared = marker.getMetadata();
+        List<KinesisMetadata> rows = marker.getRows();
+        Map<MdcProjection, Map<String, byte[][]>> encodings = new HashMap<>(2);
+        for (int i = 0; i < rows.size(); i++) {
+            KinesisMetadata row = rows.get(i);
+            List<RouteTable.Route> matchedRoutes = rules.getRouteTable().match(level, eventObject.getLoggerName(), eventType, row, shared, bound, mdc);
+            if (matchedRoutes.isEmpty()) {
+                if (rules.sample()) {
+                    byte[][] encoded = encodedRows(encodings, eventObject, marker, bound, eventType, context, details, rules.getMdcProjection(), streamName);
+                    send(level, eventType, streamName, null, encoded[i]);
+                }
+                continue;
+            }
+            for (RouteTable.Route route : matchedRoutes) {
+                if (route.sample()) {
+                    byte[][] encoded = encodedRows(encodings, eventObject, marker, bound, eventType, context, details,
+                        route.projection(rules.getMdcProjection()), route.getStreamName());
+                    send(level, eventType, route.getStreamName(), route.partitionKey(row, shared, bound, mdc), encoded[i]);
+                }
+            }
+        }
+    }
+
+    private byte[][] encodedRows(Map<MdcProjection, Map<String, byte[][]>> encodings, ILoggingEvent eventObject, MetadataMarker marker,
+                                 MetadataContext bound, String eventType, String context, boolean details, MdcProjection projection, String stream) {
+        Map<String, byte[][]> byStream = encodings.computeIfAbsent(projection, p -> new HashMap<>(2));
+        String key = encoder.announcesPerStream() ? stream : "";
+        byte[][] encoded = byStream.get(key);
+        if (encoded == null) {
+            encoded = encoder.encodeRows(eventObject, marker, bound, eventType, context, details, projection, stream);
+            byStream.put(key, encoded);
+        }
+        return encoded;
+    }
+
+    // Whether bytes encoded for one stream can be sent to another
+    private boolean encodedFor(String encodedStream, String stream) {
+        return !encoder.announcesPerStream() || stream.equals(encodedStream);
+    }
+
+    // Oversized events are split into chunks sharing their chunk id as partition key, or dropped before they reach the producer
+    private void send(Level level, String eventType, String stream, String partitionKey, byte[] eventBytes) {
+        // Picked here so batches only mix events bound for the same lane
+        int lane = dispatcher == null ? 0 : dispatcher.laneOf(level, eventType);
+        // Events with a partition key of their own are never batched, so they keep their ordering
+        if (batcher != null && partitionKey == null && batcher.offer(level, lane, stream, eventBytes)) {
+            return;
+        }
+        if (eventBytes.length <= maxRecordBytes) {
+            sendRecord(lane, stream, partitionKey, eventBytes);
+        } else if (chunkOversized) {
+            String chunkId = UUID.randomUUID().toString();
+            for (byte[] chunk : RecordChunker.split(eventBytes, chunkId, maxRecordBytes)) {
+                sendRecord(lane, stream, chunkId, chunk);
+            }
+        } else {
+            addError("Dropping event of " + eventBytes.length + " bytes, over the maxRecordBytes limit of " + maxRecordBytes
+                + " for appender: " + name);
+        }
+    }
+
+    // With priority lanes configured records are queued for the lane dispatcher, otherwise they go to the producer directly.
+    // Records without a partition key of their own have no ordering needs, with balanceShards they are steered by hash key.
+    private void sendRecord(int lane, String stream, String partitionKey, byte[] eventBytes) {
+        ShardBalancer balancer = balanceShards && partitionKey == null ? shardBalancer(stream) : null;
+        int bucket = balancer == null ? -1 : balancer.pick();
+        String explicitHashKey = balancer == null ? null : balancer.hashKey(bucket);
+        FutureCallback<UserRecordResult> recordCallback = balancer == null ? callback : balancer.callback(bucket);
+        if (partitionKey == null) {
+            partitionKey = randomPartitionKey();
+        }
+        if (dispatcher != null) {
+            dispatcher.offer(lane, stream, partitionKey, explicitHashKey, balancer == null ? null : recordCallback, eventBytes);
+            return;
+        }
         try {
-            ListenableFuture<UserRecordResult> f = kinesisProducer.addUserRecord(
-                streamName,
-                UUID.randomUUID().toString(), ByteBuffer.wrap(eventJson.getBytes("UTF-8"))
-            );
-            Futures.addCallback(f, new KinesisCallback());
+            ListenableFuture<UserRecordResult> f = explicitHashKey == null
+                ? kinesisProducer.addUserRecord(stream, partitionKey, ByteBuffer.wrap(eventBytes))
+                : kinesisProducer.addUserRecord(stream, partitionKey, explicitHashKey, ByteBuffer.wrap(eventBytes));
+            Futures.addCallback(f, recordCallback);
         } catch (Exception e) {
             addError("Failed to send event to kinesis: " + e.getMessage(), e);
         }
     }
 
+    private ShardBalancer shardBalancer(String stream) {
+        ShardBalancer balancer = shardBalancers.get(stream);
+        if (balancer == null) {
+            balancer = shardBalancers.computeIfAbsent(stream, s -> new ShardBalancer(callback));
+        }
+        return balancer;
+    }
+
+    private void updateShardBalancers() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastShardBalanceMillis;
+        lastShardBalanceMillis = now;
+        for (ShardBalancer balancer : shardBalancers.values()) {
+            balancer.update(elapsed);
+        }
+    }
+
+    private void onRecordResult(UserRecordResult result) {
+        BatchController controller = batchController;
+        if (controller != null) {
+            controller.onResult(result);
+        }
+    }
+
+    // Each change of level is reported as an event of its own, which the ladder never sheds
+    private void onPressureTransition(DegradationLevel from, DegradationLevel to, double heapRatio, double gcRatio) {
+        String message = "Memory pressure moved appender " + name + " from " + from + " to " + to;
+        if (to.compareTo(from) > 0) {
+            addWarn(message);
+        } else {
+            addInfo(message);
+        }
+        KinesisMetadata metadata = KinesisMetadata.create()
+            .put("from", from.name())
+            .put("to", to.name())
+            .put("heap_ratio", heapRatio)
+            .put("gc_ratio", gcRatio);
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.WARN);
+        event.setLoggerName(KinesisAppender.class.getName());
+        event.setThreadName(Thread.currentThread().getName());
+        event.setMessage(message);
+        event.setTimeStamp(System.currentTimeMillis());
+        event.setMDCPropertyMap(Collections.emptyMap());
+        event.setMarker(new MetadataMarker(PRESSURE_EVENT_TYPE, null, metadata, MetadataContext.EMPTY, null));
+        process(event, false, false);
+    }
+
+    // Records without a route partition key are spread over the shards by a key drawn from a fixed pool, rather than a new UUID each
+    private static String randomPartitionKey() {
+        return PARTITION_KEYS[ThreadLocalRandom.current().nextInt(PARTITION_KEYS.length)];
+    }
+
+    public void addRoute(KinesisRoute route) {
+        routes.add(route);
+    }
+
+    public void setEventsOnly(Boolean eventsOnly) {
+        this.eventsOnly = eventsOnly;
+        if (rulesManager != null) {
+            rulesManager.setBase(baseRules());
+        }
+    }
+
+    private RulesConfig baseRules() {
+        RulesConfig baseRules = new RulesConfig();
+        baseRules.setEventsOnly(Optional.ofNullable(eventsOnly).orElse(DEFAULT_EVENTS_ONLY));
+        baseRules.setRoutes(new ArrayList<>(routes));
+        baseRules.setMdcInclude(mdcInclude);
+        baseRules.setMdcExclude(mdcExclude);
+        baseRules.setMdcRename(mdcRename);
+        return baseRules;
+    }
+
+    /**
+     * The rules currently in effect, also reachable over JMX when {@code jmxEnabled} is set.
+     */
+    public RulesManager getRulesManager() {
+        return rulesManager;
+    }
+
+    /**
+     * The adaptive batching decisions, also reachable over JMX when {@code jmxEnabled} is set. Null unless
+     * {@code adaptiveBatching} is set.
+     */
+    public BatchController getBatchController() {
+        return batchController;
+    }
+
+    /**
+     * The shard load and steering of {@code stream}, null until a record was balanced onto it.
+     */
+    public ShardBalancer getShardBalancer(String stream) {
+        return shardBalancers.get(stream);
+    }
+
+    /**
+     * Usage of the off-heap staging area, also reachable over JMX when {@code jmxEnabled} is set. Null unless
+     * {@code stagingCapacityBytes} is set.
+     */
+    public SlabPool getStagingPool() {
+        return stagingPool;
+    }
+
+    /**
+     * The current degradation level and its signals, also reachable over JMX when {@code jmxEnabled} is set. Null unless
+     * {@code pressureMonitoring} is set.
+     */
+    public PressureMonitor getPressureMonitor() {
+        return pressureMonitor;
+    }
+
+    public void addLane(PriorityLane lane) {
+        lanes.add(lane);
+    }
+
+    /**
+     * Records dropped per priority lane, empty when no lanes are configured.
+     */
+    public Map<String, Long> getDroppedByLane() {
+        return dispatcher == null ? Collections.emptyMap() : dispatcher.getDropped();
+    }
+
     // Config Param Validators
     private boolean isBlankOrContainsWhitespace(String configParam) {
         return StringUtils.isBlank(configParam) || configParam.contains(" ");
     }
+
+    // Null for anything but none, pattern or id
+    private static TemplateMode parseTemplateMode(String templateMode) {
+        if (templateMode == null || templateMode.equals("none")) {
+            return TemplateMode.NONE;
+        }
+        if (templateMode.equals("pattern")) {
+            return TemplateMode.PATTERN;
+        }
+        if (templateMode.equals("id")) {
+            return TemplateMode.ID;
+        }
+        return null;
+    }
+
+    // Bounds left unset default around the starting batch size and linger time
+    private boolean resolveBatchBounds() {
+        int events = Optional.ofNullable(batchMaxEvents).orElse(DEFAULT_BATCH_MAX_EVENTS);
+        long linger = Optional.ofNullable(batchLingerMillis).orElse(DEFAULT_BATCH_LINGER_MILLIS);
+        batchEventsFloor = Optional.ofNullable(batchEventsFloor).orElse(Math.min(DEFAULT_BATCH_EVENTS_FLOOR, events));
+        batchEventsCeiling = Optional.ofNullable(batchEventsCeiling).orElse(Math.max(DEFAULT_BATCH_EVENTS_CEILING, events));
+        batchLingerFloorMillis = Optional.ofNullable(batchLingerFloorMillis).orElse(Math.min(DEFAULT_BATCH_LINGER_FLOOR_MILLIS, linger));
+        batchLingerCeilingMillis = Optional.ofNullable(batchLingerCeilingMillis).orElse(Math.max(DEFAULT_BATCH_LINGER_CEILING_MILLIS, linger));
+        batchTargetLatencyMillis = Optional.ofNullable(batchTargetLatencyMillis).orElse(DEFAULT_BATCH_TARGET_LATENCY_MILLIS);
+        return batchEventsFloor > 0 && batchEventsFloor <= events && events <= batchEventsCeiling && batchLingerFloorMillis > 0
+            && batchLingerFloorMillis <= linger && linger <= batchLingerCeilingMillis && batchTargetLatencyMillis > 0;
+    }
+
+    private boolean isNotPositive(Integer configParam) {
+        return configParam != null && configParam <= 0;
+    }
 }
@@ -4,10 +4,28 @@ import com.amazonaws.services.kinesis.producer.UserRecordResult;
 import com.google.common.util.concurrent.FutureCallback;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.function.Consumer;
+
 @Slf4j
 public class KinesisCallback implements FutureCallback<UserRecordResult> {
+    private final Consumer<UserRecordResult> results;
+
+    public KinesisCallback() {
+        this(null);
+    }
+
+    /**
+     * Hands every completed record to {@code results}, used to watch put latencies.
+     */
+    public KinesisCallback(Consumer<UserRecordResult> results) {
+        this.results = results;
+    }
+
     @Override
     public void onSuccess(UserRecordResult result) {
+        if (results != null && result != null) {
+            results.accept(result);
+        }
         log.trace("Done");
     }
 
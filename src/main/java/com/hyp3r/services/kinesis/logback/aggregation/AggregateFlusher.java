@@ -0,0 +1,77 @@
+package com.hyp3r.services.kinesis.logback.aggregation;
+
+import com.hyp3r.services.kinesis.logback.concurrent.Platform;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flushes every registered {@link Aggregator} once per interval from a single background thread. The interval defaults
+ * to a minute and can be set with {@code -Dkinesis.appender.aggregateIntervalMillis} or {@link #setIntervalMillis(long)}.
+ * Call {@link #flushAll()} before stopping the logger context so the last partial interval is not lost.
+ */
+public final class AggregateFlusher {
+    public static final String INTERVAL_PROPERTY = "kinesis.appender.aggregateIntervalMillis";
+    public static final long DEFAULT_INTERVAL_MILLIS = 60_000;
+
+    private static final List<Aggregator> AGGREGATORS = new CopyOnWriteArrayList<>();
+    private static long intervalMillis = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MILLIS);
+    private static ScheduledExecutorService executor;
+    private static ScheduledFuture<?> schedule;
+
+    private AggregateFlusher() {
+    }
+
+    public static synchronized void register(Aggregator aggregator) {
+        AGGREGATORS.add(aggregator);
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                Platform.concurrency().threadFactory("kinesis-appender-aggregates"));
+            reschedule();
+        }
+    }
+
+    public static synchronized void unregister(Aggregator aggregator) {
+        AGGREGATORS.remove(aggregator);
+    }
+
+    public static synchronized long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public static synchronized void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("aggregate interval must be positive");
+        }
+        AggregateFlusher.intervalMillis = intervalMillis;
+        if (executor != null) {
+            reschedule();
+        }
+    }
+
+    public static void flushAll() {
+        for (Aggregator aggregator : AGGREGATORS) {
+            aggregator.flush();
+        }
+    }
+
+    private static void reschedule() {
+        if (schedule != null) {
+            schedule.cancel(false);
+        }
+        schedule = executor.scheduleAtFixedRate(AggregateFlusher::flushQuietly, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    // An exception would cancel the schedule, the next interval retries instead
+    private static void flushQuietly() {
+        try {
+            flushAll();
+        } catch (RuntimeException ignored) {
+        }
+    }
+}
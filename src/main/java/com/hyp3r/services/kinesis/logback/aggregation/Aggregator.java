@@ -0,0 +1,290 @@
+package com.hyp3r.services.kinesis.logback.aggregation;
+
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process counters, sums and gauges keyed by event type and tag set, emitted as one aggregate record per key on
+ * {@link #flush()}. Updates never block: the key table is a concurrent map and the values are striped adders, so
+ * threads updating the same key do not contend on a single cache line.
+ *
+ * Tags are key/value pairs, {@code "region", "us-east-1", "status", "200"}, and should be of low cardinality. Keys not
+ * updated during an interval are evicted by its flush, and once {@code maxKeys} keys are live, updates to new keys are
+ * dropped and counted in {@link #getDroppedUpdates()}.
+ */
+public class Aggregator {
+    public static final int DEFAULT_MAX_KEYS = 10_000;
+
+    public interface Sink {
+        void emit(String eventType, KinesisMetadata metadata);
+    }
+
+    private final Sink sink;
+    private final int maxKeys;
+    private final ConcurrentMap<Key, Accumulator> accumulators = new ConcurrentHashMap<>();
+    private final LongAdder droppedUpdates = new LongAdder();
+    private final Object flushLock = new Object();
+    private long intervalStartMillis = System.currentTimeMillis();
+
+    public Aggregator(Sink sink) {
+        this(sink, DEFAULT_MAX_KEYS);
+    }
+
+    public Aggregator(Sink sink, int maxKeys) {
+        this.sink = sink;
+        this.maxKeys = maxKeys;
+    }
+
+    public void count(String eventType, long delta, String... tags) {
+        Accumulator accumulator = acquire(eventType, tags);
+        if (accumulator != null) {
+            try {
+                accumulator.count(delta);
+            } finally {
+                accumulator.release();
+            }
+        }
+    }
+
+    public void sum(String eventType, double value, String... tags) {
+        Accumulator accumulator = acquire(eventType, tags);
+        if (accumulator != null) {
+            try {
+                accumulator.sum(value);
+            } finally {
+                accumulator.release();
+            }
+        }
+    }
+
+    public void gauge(String eventType, double value, String... tags) {
+        Accumulator accumulator = acquire(eventType, tags);
+        if (accumulator != null) {
+            try {
+                accumulator.gauge(value);
+            } finally {
+                accumulator.release();
+            }
+        }
+    }
+
+    public int getKeys() {
+        return accumulators.size();
+    }
+
+    public long getDroppedUpdates() {
+        return droppedUpdates.sum();
+    }
+
+    /**
+     * Emits one record for every key updated since the last flush and resets its values, and evicts the keys that were
+     * not. Updates racing with the flush land in either this interval or the next one, none are lost: an eviction waits
+     * for updates already holding the evicted key and emits them with this interval, later ones go to a new key.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            long now = System.currentTimeMillis();
+            long intervalMillis = now - intervalStartMillis;
+            intervalStartMillis = now;
+            for (Map.Entry<Key, Accumulator> entry : accumulators.entrySet()) {
+                Key key = entry.getKey();
+                Accumulator accumulator = entry.getValue();
+                KinesisMetadata metadata = accumulator.drain(key.tags, intervalMillis);
+                if (metadata == null && accumulators.remove(key, accumulator)) {
+                    accumulator.retire();
+                    metadata = accumulator.drain(key.tags, intervalMillis);
+                }
+                if (metadata != null) {
+                    sink.emit(key.eventType, metadata);
+                }
+            }
+        }
+    }
+
+    // The accumulator of a key, held until released so it is not evicted half way through an update
+    private Accumulator acquire(String eventType, String[] tags) {
+        while (true) {
+            Accumulator accumulator = accumulator(eventType, tags);
+            if (accumulator == null || accumulator.hold()) {
+                return accumulator;
+            }
+        }
+    }
+
+    private Accumulator accumulator(String eventType, String[] tags) {
+        if (eventType == null || eventType.isEmpty()) {
+            return null;
+        }
+        // The lookup key wraps the caller's array, it is only copied when a new key is added
+        Key key = new Key(eventType, tags == null ? new String[0] : tags);
+        Accumulator accumulator = accumulators.get(key);
+        if (accumulator == null) {
+            if (accumulators.size() >= maxKeys) {
+                droppedUpdates.increment();
+                return null;
+            }
+            accumulator = accumulators.computeIfAbsent(key.copy(), k -> new Accumulator());
+        }
+        return accumulator;
+    }
+
+    private static final class Key {
+        private final String eventType;
+        private final String[] tags;
+        private final int hash;
+
+        private Key(String eventType, String[] tags) {
+            this.eventType = eventType;
+            this.tags = tags;
+            this.hash = 31 * eventType.hashCode() + Arrays.hashCode(tags);
+        }
+
+        private Key copy() {
+            return new Key(eventType, tags.clone());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && eventType.equals(other.eventType) && Arrays.equals(tags, other.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Accumulator {
+        private static final int COUNT = 1;
+        private static final int SUM = 2;
+        private static final int GAUGE = 4;
+        private static final long UNSET = Double.doubleToRawLongBits(Double.NaN);
+
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder samples = new LongAdder();
+        // Gauges keep the last, lowest and highest value of the interval as raw double bits
+        private final AtomicLong last = new AtomicLong(UNSET);
+        private final AtomicLong min = new AtomicLong(UNSET);
+        private final AtomicLong max = new AtomicLong(UNSET);
+        // Kinds of update the key has seen, so a flush only drains the values in use
+        private volatile int kinds;
+        // Updates in progress, and whether the key was evicted
+        private final LongAdder holders = new LongAdder();
+        private volatile boolean retired;
+
+        // Fails once the key is evicted, the update then goes to the key's new accumulator
+        private boolean hold() {
+            holders.increment();
+            if (retired) {
+                holders.decrement();
+                return false;
+            }
+            return true;
+        }
+
+        private void release() {
+            holders.decrement();
+        }
+
+        // Called once the key is out of the map, returns when no update is left that may still write to it
+        private void retire() {
+            retired = true;
+            while (holders.sum() != 0) {
+                Thread.yield();
+            }
+        }
+
+        private void mark(int kind) {
+            if ((kinds & kind) == 0) {
+                synchronized (this) {
+                    kinds |= kind;
+                }
+            }
+        }
+
+        private void count(long delta) {
+            mark(COUNT);
+            count.add(delta);
+        }
+
+        private void sum(double value) {
+            mark(SUM);
+            sum.add(value);
+            samples.increment();
+        }
+
+        private void gauge(double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            mark(GAUGE);
+            last.set(Double.doubleToRawLongBits(value));
+            update(min, value, true);
+            update(max, value, false);
+        }
+
+        private static void update(AtomicLong bound, double value, boolean lower) {
+            while (true) {
+                long bits = bound.get();
+                if (bits != UNSET) {
+                    double current = Double.longBitsToDouble(bits);
+                    if (lower ? value >= current : value <= current) {
+                        return;
+                    }
+                }
+                if (bound.compareAndSet(bits, Double.doubleToRawLongBits(value))) {
+                    return;
+                }
+            }
+        }
+
+        // The aggregate record of the interval, or null when the key was not updated
+        private KinesisMetadata drain(String[] tags, long intervalMillis) {
+            int kinds = this.kinds;
+            long count = (kinds & COUNT) != 0 ? this.count.sumThenReset() : 0;
+            long samples = (kinds & SUM) != 0 ? this.samples.sumThenReset() : 0;
+            double sum = samples != 0 ? this.sum.sumThenReset() : 0;
+            long last = (kinds & GAUGE) != 0 ? this.last.getAndSet(UNSET) : UNSET;
+            if (count == 0 && samples == 0 && last == UNSET) {
+                return null;
+            }
+
+            KinesisMetadata metadata = KinesisMetadata.withCapacity(tags.length / 2 + 8);
+            for (int i = 0; i < tags.length; i += 2) {
+                metadata.put(tags[i], i + 1 < tags.length ? tags[i + 1] : null);
+            }
+            metadata.put("interval_millis", intervalMillis);
+            if ((kinds & COUNT) != 0) {
+                metadata.put("count", count);
+            }
+            if (samples != 0) {
+                metadata.put("sum", sum);
+                metadata.put("samples", samples);
+            }
+            if (last != UNSET) {
+                // A gauge update racing with the flush may have set the last value but not yet the bounds
+                long min = this.min.getAndSet(UNSET);
+                long max = this.max.getAndSet(UNSET);
+                metadata.put("gauge", Double.longBitsToDouble(last));
+                metadata.put("gauge_min", Double.longBitsToDouble(min == UNSET ? last : min));
+                metadata.put("gauge_max", Double.longBitsToDouble(max == UNSET ? last : max));
+            }
+            return metadata;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.hyp3r.services.kinesis.logback.batching;
+
+import com.amazonaws.services.kinesis.producer.Attempt;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.hyp3r.services.kinesis.logback.jmx.Jmx;
+
+import javax.management.ObjectName;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Tunes the {@code maxEvents} and {@code lingerMillis} of a {@link RecordBatcher} between configured bounds, from the
+ * arrival rate, how full sent batches were and the put latency reported by the producer. Both settings increase
+ * additively and decrease multiplicatively, once per control interval:
+ *
+ * <ul>
+ * <li>Linger is halved when linger plus put latency exceeds the target latency, or when traffic is too quiet for
+ * waiting to gather a second event. It grows by a step while batches go out half empty and the latency allows.</li>
+ * <li>Max events is halved when put latency alone exceeds the target, and grows by a step while most batches fill up
+ * to it.</li>
+ * </ul>
+ */
+public class BatchController implements BatchControllerMBean {
+    private static final int STEPS = 20;
+
+    private final RecordBatcher batcher;
+    private final int minEvents;
+    private final int maxEvents;
+    private final long minLingerMillis;
+    private final long maxLingerMillis;
+    private final long targetLatencyMillis;
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder putMillis = new LongAdder();
+
+    private long lastMillis;
+    private long lastOffered;
+    private long lastBatches;
+    private long lastEvents;
+    private long lastCapped;
+    private volatile double arrivalRate;
+    private volatile double fillRatio;
+    private volatile double putLatencyMillis;
+    private volatile long adjustments;
+    private ObjectName objectName;
+
+    public BatchController(RecordBatcher batcher, int minEvents, int maxEvents, long minLingerMillis, long maxLingerMillis,
+                           long targetLatencyMillis) {
+        this.batcher = batcher;
+        this.minEvents = minEvents;
+        this.maxEvents = maxEvents;
+        this.minLingerMillis = minLingerMillis;
+        this.maxLingerMillis = maxLingerMillis;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.lastMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Records the put latency of a completed record: the buffering delay and duration of its last attempt.
+     */
+    public void onResult(UserRecordResult result) {
+        List<Attempt> attempts = result.getAttempts();
+        if (attempts != null && !attempts.isEmpty()) {
+            Attempt last = attempts.get(attempts.size() - 1);
+            putMillis.add(last.getDelay() + last.getDuration());
+            puts.increment();
+        }
+    }
+
+    /**
+     * Looks at the interval since the last call and adjusts the batcher. Called from a single thread.
+     */
+    public void adjust(long nowMillis) {
+        long elapsed = nowMillis - lastMillis;
+        if (elapsed <= 0) {
+            return;
+        }
+        long offered = batcher.getOffered();
+        long batches = batcher.getSentBatches();
+        long events = batcher.getSentEvents();
+        long capped = batcher.getCappedBatches();
+        long intervalBatches = batches - lastBatches;
+        long intervalEvents = events - lastEvents;
+        long intervalCapped = capped - lastCapped;
+        arrivalRate = (offered - lastOffered) * 1000.0 / elapsed;
+        lastMillis = nowMillis;
+        lastOffered = offered;
+        lastBatches = batches;
+        lastEvents = events;
+        lastCapped = capped;
+
+        long count = puts.sumThenReset();
+        long total = putMillis.sumThenReset();
+        if (count > 0) {
+            putLatencyMillis = (double) total / count;
+        }
+        int currentEvents = batcher.getMaxEvents();
+        long currentLinger = batcher.getLingerMillis();
+        if (intervalBatches == 0) {
+            // Nothing was sent, there is nothing to learn from
+            fillRatio = 0;
+            return;
+        }
+        fillRatio = (double) intervalEvents / intervalBatches / currentEvents;
+
+        long linger = currentLinger;
+        boolean mostlyCapped = intervalCapped * 2 >= intervalBatches;
+        double expectedPerLinger = arrivalRate * currentLinger / 1000;
+        if (currentLinger + putLatencyMillis > targetLatencyMillis || (!mostlyCapped && expectedPerLinger < 2)) {
+            linger = Math.max(minLingerMillis, currentLinger / 2);
+        } else if (!mostlyCapped && fillRatio < 0.5) {
+            linger = Math.min(maxLingerMillis, currentLinger + step(minLingerMillis, maxLingerMillis));
+            // Never step past the target latency
+            linger = Math.max(currentLinger, Math.min(linger, targetLatencyMillis - (long) putLatencyMillis));
+        }
+
+        int size = currentEvents;
+        if (putLatencyMillis > targetLatencyMillis) {
+            size = Math.max(minEvents, currentEvents / 2);
+        } else if (mostlyCapped) {
+            size = (int) Math.min(maxEvents, currentEvents + step(minEvents, maxEvents));
+        }
+
+        if (linger != currentLinger || size != currentEvents) {
+            batcher.setLingerMillis(linger);
+            batcher.setMaxEvents(size);
+            adjustments++;
+        }
+    }
+
+    private static long step(long min, long max) {
+        return Math.max(1, (max - min) / STEPS);
+    }
+
+    public void registerMBean(String appenderName, Consumer<String> errors) {
+        objectName = Jmx.register(this, appenderName, "batching", errors);
+    }
+
+    public void unregisterMBean(Consumer<String> errors) {
+        Jmx.unregister(objectName, errors);
+        objectName = null;
+    }
+
+    @Override
+    public int getMaxEvents() {
+        return batcher.getMaxEvents();
+    }
+
+    @Override
+    public long getLingerMillis() {
+        return batcher.getLingerMillis();
+    }
+
+    @Override
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    @Override
+    public double getFillRatio() {
+        return fillRatio;
+    }
+
+    @Override
+    public double getPutLatencyMillis() {
+        return putLatencyMillis;
+    }
+
+    @Override
+    public long getAdjustments() {
+        return adjustments;
+    }
+}
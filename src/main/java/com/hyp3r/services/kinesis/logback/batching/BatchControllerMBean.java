@@ -0,0 +1,28 @@
+package com.hyp3r.services.kinesis.logback.batching;
+
+/**
+ * JMX view of an appender's adaptive batching decisions.
+ */
+public interface BatchControllerMBean {
+
+    int getMaxEvents();
+
+    long getLingerMillis();
+
+    /**
+     * Events offered to the batcher per second, over the last control interval.
+     */
+    double getArrivalRate();
+
+    /**
+     * Average events per sent batch as a share of {@code maxEvents}, over the last control interval.
+     */
+    double getFillRatio();
+
+    /**
+     * Average time from a record reaching the producer to its last put attempt completing.
+     */
+    double getPutLatencyMillis();
+
+    long getAdjustments();
+}
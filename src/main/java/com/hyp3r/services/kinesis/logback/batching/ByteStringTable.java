@@ -0,0 +1,159 @@
+package com.hyp3r.services.kinesis.logback.batching;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed table of byte strings, each carrying an int value and a use count. Looking up a slice of a larger
+ * array allocates nothing; added strings are copied into a shared arena.
+ */
+final class ByteStringTable {
+    private byte[] arena = new byte[4096];
+    private int arenaSize;
+    private int[] offsets = new int[64];
+    private int[] lengths = new int[64];
+    private int[] hashes = new int[64];
+    private int[] values = new int[64];
+    private int[] uses = new int[64];
+    private int size;
+    // Entry index + 1 per slot, 0 for empty
+    private int[] slots = new int[128];
+
+    static int hash(byte[] bytes, int off, int len) {
+        int hash = 0x811c9dc5;
+        for (int i = off; i < off + len; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int find(byte[] bytes, int off, int len, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && lengths[entry] == len && equal(entry, bytes, off, len)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equal(int entry, byte[] bytes, int off, int len) {
+        int start = offsets[entry];
+        for (int i = 0; i < len; i++) {
+            if (arena[start + i] != bytes[off + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int add(byte[] bytes, int off, int len, int hash, int value) {
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            values = Arrays.copyOf(values, capacity);
+            uses = Arrays.copyOf(uses, capacity);
+        }
+        if (arenaSize + len > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + len));
+        }
+        System.arraycopy(bytes, off, arena, arenaSize, len);
+        int entry = size++;
+        offsets[entry] = arenaSize;
+        lengths[entry] = len;
+        hashes[entry] = hash;
+        values[entry] = value;
+        uses[entry] = 0;
+        arenaSize += len;
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insert(entry);
+        }
+        return entry;
+    }
+
+    private void insert(int entry) {
+        int mask = slots.length - 1;
+        int slot = hashes[entry] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int entry = 0; entry < size; entry++) {
+            insert(entry);
+        }
+    }
+
+    byte[] arena() {
+        return arena;
+    }
+
+    int offset(int entry) {
+        return offsets[entry];
+    }
+
+    int length(int entry) {
+        return lengths[entry];
+    }
+
+    int value(int entry) {
+        return values[entry];
+    }
+
+    void setValue(int entry, int value) {
+        values[entry] = value;
+    }
+
+    int uses(int entry) {
+        return uses[entry];
+    }
+
+    void use(int entry) {
+        uses[entry]++;
+    }
+
+    void clear() {
+        size = 0;
+        arenaSize = 0;
+        Arrays.fill(slots, 0);
+    }
+
+    /**
+     * Keeps only the entries whose value is at least {@code minValue}, compacting the arena.
+     */
+    void retain(int minValue) {
+        int kept = 0;
+        int keptArena = 0;
+        for (int entry = 0; entry < size; entry++) {
+            if (values[entry] < minValue) {
+                continue;
+            }
+            System.arraycopy(arena, offsets[entry], arena, keptArena, lengths[entry]);
+            offsets[kept] = keptArena;
+            lengths[kept] = lengths[entry];
+            hashes[kept] = hashes[entry];
+            values[kept] = values[entry];
+            uses[kept] = uses[entry];
+            keptArena += lengths[entry];
+            kept++;
+        }
+        size = kept;
+        arenaSize = keptArena;
+        Arrays.fill(slots, 0);
+        for (int entry = 0; entry < size; entry++) {
+            insert(entry);
+        }
+    }
+}
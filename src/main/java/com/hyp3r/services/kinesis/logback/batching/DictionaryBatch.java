@@ -0,0 +1,228 @@
+package com.hyp3r.services.kinesis.logback.batching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary format of a Kinesis record holding several JSON events, written by {@link DictionaryBatchEncoder}. Every batch
+ * decodes on its own.
+ *
+ * A batch starts with {@link #MAGIC} and a version byte, followed by one token stream per event. Objects and arrays are
+ * delimited by start and end tokens, with commas and colons left implied. The first time a string is used in a batch
+ * it is written out and gets the next dictionary index; later uses refer to it by index, in a single byte for the
+ * first 128 strings. Strings that are unlikely to repeat are written as literals without taking an index. Integers
+ * are zigzag varints, and other numbers, booleans and null keep their JSON text. Strings keep their escaped JSON form,
+ * so {@link #decode(byte[])} gives back the original records byte for byte.
+ */
+public final class DictionaryBatch {
+    public static final byte[] MAGIC = {(byte) 0xB7, 'K'};
+    public static final byte VERSION = 1;
+
+    static final int OBJECT_START = 0x01;
+    static final int OBJECT_END = 0x02;
+    static final int ARRAY_START = 0x03;
+    static final int ARRAY_END = 0x04;
+    static final int REF = 0x05;
+    static final int DEFINE = 0x06;
+    static final int LITERAL = 0x07;
+    static final int INT = 0x08;
+    static final int RAW = 0x09;
+    // Single byte references, to indexes 0 to 127
+    static final int SHORT_REF = 0x80;
+
+    private DictionaryBatch() {
+    }
+
+    /**
+     * Receives decoded records. The buffer is reused for the next record, so it is only valid during the call.
+     */
+    public interface RecordSink {
+        void accept(byte[] buffer, int offset, int length);
+    }
+
+    public static boolean isBatch(byte[] record) {
+        return isBatch(record, 0, record.length);
+    }
+
+    public static boolean isBatch(byte[] record, int offset, int length) {
+        return length >= 3 && record[offset] == MAGIC[0] && record[offset + 1] == MAGIC[1];
+    }
+
+    /**
+     * The JSON records of a batch, in the order they were added.
+     */
+    public static List<byte[]> decode(byte[] batch) {
+        List<byte[]> records = new ArrayList<>();
+        decode(batch, 0, batch.length, (buffer, offset, length) -> records.add(Arrays.copyOfRange(buffer, offset, offset + length)));
+        return records;
+    }
+
+    /**
+     * Hands the JSON records of the batch held in {@code length} bytes at {@code offset} to {@code sink} one at a time,
+     * without keeping them. Returns the number of records.
+     */
+    public static int decode(byte[] batch, int offset, int length, RecordSink sink) {
+        if (!isBatch(batch, offset, length)) {
+            throw new IllegalArgumentException("not a dictionary batch");
+        }
+        if (batch[offset + 2] != VERSION) {
+            throw new IllegalArgumentException("unsupported dictionary batch version " + batch[offset + 2]);
+        }
+        Decoder decoder = new Decoder(batch, offset + 3, offset + length);
+        int records = 0;
+        while (decoder.pos < decoder.end) {
+            decoder.out = 0;
+            decoder.value(decoder.next());
+            sink.accept(decoder.buffer, 0, decoder.out);
+            records++;
+        }
+        return records;
+    }
+
+    private static final class Decoder {
+        private final byte[] in;
+        private final int end;
+        private int pos;
+        // Offsets and lengths of the dictionary strings within the batch
+        private int[] strings = new int[128];
+        private int dictionarySize;
+        private byte[] buffer = new byte[1024];
+        private int out;
+
+        private Decoder(byte[] in, int pos, int end) {
+            this.in = in;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        private int next() {
+            if (pos >= end) {
+                throw new IllegalArgumentException("truncated dictionary batch");
+            }
+            return in[pos++] & 0xFF;
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = next();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint in dictionary batch");
+        }
+
+        private int length() {
+            long length = varint();
+            if (length > end - pos) {
+                throw new IllegalArgumentException("truncated dictionary batch");
+            }
+            return (int) length;
+        }
+
+        private void value(int token) {
+            if (token >= SHORT_REF) {
+                reference(token - SHORT_REF);
+                return;
+            }
+            switch (token) {
+                case OBJECT_START:
+                    write('{');
+                    for (int member = 0, t = next(); t != OBJECT_END; member++, t = next()) {
+                        if (member > 0) {
+                            write(',');
+                        }
+                        value(t);
+                        write(':');
+                        value(next());
+                    }
+                    write('}');
+                    break;
+                case ARRAY_START:
+                    write('[');
+                    for (int element = 0, t = next(); t != ARRAY_END; element++, t = next()) {
+                        if (element > 0) {
+                            write(',');
+                        }
+                        value(t);
+                    }
+                    write(']');
+                    break;
+                case REF:
+                    long index = varint();
+                    if (index > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("unknown dictionary index " + index);
+                    }
+                    reference((int) index);
+                    break;
+                case DEFINE:
+                    int length = length();
+                    if (dictionarySize * 2 == strings.length) {
+                        strings = Arrays.copyOf(strings, strings.length * 2);
+                    }
+                    strings[dictionarySize * 2] = pos;
+                    strings[dictionarySize * 2 + 1] = length;
+                    dictionarySize++;
+                    quoted(pos, length);
+                    pos += length;
+                    break;
+                case LITERAL:
+                    length = length();
+                    quoted(pos, length);
+                    pos += length;
+                    break;
+                case INT:
+                    long zigzag = varint();
+                    writeAscii(Long.toString((zigzag >>> 1) ^ -(zigzag & 1)));
+                    break;
+                case RAW:
+                    length = length();
+                    write(in, pos, length);
+                    pos += length;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unexpected token " + token + " in dictionary batch");
+            }
+        }
+
+        private void reference(int index) {
+            if (index >= dictionarySize) {
+                throw new IllegalArgumentException("unknown dictionary index " + index);
+            }
+            quoted(strings[index * 2], strings[index * 2 + 1]);
+        }
+
+        private void quoted(int offset, int length) {
+            write('"');
+            write(in, offset, length);
+            write('"');
+        }
+
+        private void ensure(int extra) {
+            if (out + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, out + extra));
+            }
+        }
+
+        private void write(int b) {
+            ensure(1);
+            buffer[out++] = (byte) b;
+        }
+
+        private void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buffer, out, length);
+            out += length;
+        }
+
+        private void writeAscii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                buffer[out++] = (byte) s.charAt(i);
+            }
+        }
+    }
+}
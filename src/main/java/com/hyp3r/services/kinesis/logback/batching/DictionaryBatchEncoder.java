@@ -0,0 +1,291 @@
+package com.hyp3r.services.kinesis.logback.batching;
+
+import java.util.Arrays;
+
+/**
+ * Packs JSON records into a {@link DictionaryBatch} of at most {@code maxBytes}. Not thread-safe.
+ *
+ * Across batches the encoder keeps a score per string: strings that repeated within earlier batches always go into the
+ * dictionary, values that keep turning up only once are written as literals, so they do not push hot strings out of
+ * the single byte index range. Object keys are always dictionary encoded.
+ */
+public class DictionaryBatchEncoder {
+    private static final int HEADER_BYTES = DictionaryBatch.MAGIC.length + 1;
+    private static final int MAX_KEY_BYTES = 256;
+    private static final int MAX_VALUE_BYTES = 64;
+    private static final int MAX_SCORE = 16;
+    private static final int COLD_SCORE = -2;
+    private static final int MAX_TRACKED_STRINGS = 8192;
+
+    private final int maxBytes;
+    // Strings of the current batch: dictionary index, or -1 for strings written as literals so far
+    private final ByteStringTable batch = new ByteStringTable();
+    // Strings seen in earlier batches and their score
+    private final ByteStringTable scores = new ByteStringTable();
+    private int dictionarySize;
+    private int count;
+    private byte[] buffer = new byte[4096];
+    private int pos;
+
+    public DictionaryBatchEncoder(int maxBytes) {
+        this.maxBytes = maxBytes;
+        reset();
+    }
+
+    private void reset() {
+        batch.clear();
+        dictionarySize = 0;
+        count = 0;
+        pos = 0;
+        write(DictionaryBatch.MAGIC, 0, DictionaryBatch.MAGIC.length);
+        write(DictionaryBatch.VERSION);
+    }
+
+    // No token is more than twice the size of its JSON text plus a few bytes
+    private static int worstCase(int recordBytes) {
+        return 2 * recordBytes + 16;
+    }
+
+    /**
+     * Whether a record of this size can go into a batch at all.
+     */
+    public boolean accepts(int recordBytes) {
+        return worstCase(recordBytes) <= maxBytes - HEADER_BYTES;
+    }
+
+    /**
+     * Whether a record of this size certainly fits into the current batch.
+     */
+    public boolean fits(int recordBytes) {
+        return worstCase(recordBytes) <= maxBytes - pos;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int size() {
+        return pos;
+    }
+
+    /**
+     * Adds one JSON object, as written by the event encoder. Callers check {@link #fits(int)} first.
+     */
+    public void add(byte[] record) {
+        if (!fits(record.length)) {
+            throw new IllegalStateException("record of " + record.length + " bytes may not fit the batch");
+        }
+        int end = value(record, skipWhitespace(record, 0), false);
+        if (skipWhitespace(record, end) != record.length) {
+            throw new IllegalArgumentException("trailing data after JSON record");
+        }
+        count++;
+    }
+
+    /**
+     * Returns the batch and starts a new one.
+     */
+    public byte[] finish() {
+        byte[] result = Arrays.copyOf(buffer, pos);
+        updateScores();
+        reset();
+        return result;
+    }
+
+    private void updateScores() {
+        for (int entry = 0; entry < batch.size(); entry++) {
+            int length = batch.length(entry);
+            byte[] arena = batch.arena();
+            int offset = batch.offset(entry);
+            int hash = ByteStringTable.hash(arena, offset, length);
+            int tracked = scores.find(arena, offset, length, hash);
+            if (tracked < 0) {
+                if (scores.size() >= MAX_TRACKED_STRINGS) {
+                    // Forget everything that is not hot, then stop tracking new strings until there is room again
+                    scores.retain(1);
+                    if (scores.size() >= MAX_TRACKED_STRINGS) {
+                        continue;
+                    }
+                }
+                tracked = scores.add(arena, offset, length, hash, 0);
+            }
+            int score = scores.value(tracked) + (batch.uses(entry) > 1 ? 1 : -1);
+            scores.setValue(tracked, Math.max(COLD_SCORE * 2, Math.min(MAX_SCORE, score)));
+        }
+    }
+
+    // Encodes the JSON value starting at i, returns the position after it
+    private int value(byte[] json, int i, boolean key) {
+        switch (json[i]) {
+            case '{':
+                write(DictionaryBatch.OBJECT_START);
+                i = skipWhitespace(json, i + 1);
+                if (json[i] != '}') {
+                    while (true) {
+                        i = skipWhitespace(json, value(json, i, true));
+                        expect(json, i, ':');
+                        i = skipWhitespace(json, value(json, skipWhitespace(json, i + 1), false));
+                        if (json[i] == '}') {
+                            break;
+                        }
+                        expect(json, i, ',');
+                        i = skipWhitespace(json, i + 1);
+                    }
+                }
+                write(DictionaryBatch.OBJECT_END);
+                return i + 1;
+            case '[':
+                write(DictionaryBatch.ARRAY_START);
+                i = skipWhitespace(json, i + 1);
+                if (json[i] != ']') {
+                    while (true) {
+                        i = skipWhitespace(json, value(json, i, false));
+                        if (json[i] == ']') {
+                            break;
+                        }
+                        expect(json, i, ',');
+                        i = skipWhitespace(json, i + 1);
+                    }
+                }
+                write(DictionaryBatch.ARRAY_END);
+                return i + 1;
+            case '"':
+                int end = i + 1;
+                while (json[end] != '"') {
+                    end += json[end] == '\\' ? 2 : 1;
+                }
+                string(json, i + 1, end - i - 1, key);
+                return end + 1;
+            default:
+                end = i;
+                while (end < json.length && json[end] != ',' && json[end] != '}' && json[end] != ']' && json[end] > ' ') {
+                    end++;
+                }
+                scalar(json, i, end - i);
+                return end;
+        }
+    }
+
+    private void string(byte[] json, int offset, int length, boolean key) {
+        if (length > (key ? MAX_KEY_BYTES : MAX_VALUE_BYTES)) {
+            literal(json, offset, length);
+            return;
+        }
+        int hash = ByteStringTable.hash(json, offset, length);
+        int entry = batch.find(json, offset, length, hash);
+        if (entry >= 0) {
+            batch.use(entry);
+            int index = batch.value(entry);
+            if (index >= 0) {
+                reference(index);
+            } else {
+                // A literal that repeats after all
+                batch.setValue(entry, dictionarySize++);
+                define(json, offset, length);
+            }
+            return;
+        }
+        boolean cold = !key && isCold(json, offset, length, hash);
+        entry = batch.add(json, offset, length, hash, cold ? -1 : dictionarySize);
+        batch.use(entry);
+        if (cold) {
+            literal(json, offset, length);
+        } else {
+            dictionarySize++;
+            define(json, offset, length);
+        }
+    }
+
+    private boolean isCold(byte[] json, int offset, int length, int hash) {
+        int tracked = scores.find(json, offset, length, hash);
+        return tracked >= 0 && scores.value(tracked) <= COLD_SCORE;
+    }
+
+    private void reference(int index) {
+        if (index < 128) {
+            write(DictionaryBatch.SHORT_REF + index);
+        } else {
+            write(DictionaryBatch.REF);
+            varint(index);
+        }
+    }
+
+    private void define(byte[] json, int offset, int length) {
+        write(DictionaryBatch.DEFINE);
+        varint(length);
+        write(json, offset, length);
+    }
+
+    private void literal(byte[] json, int offset, int length) {
+        write(DictionaryBatch.LITERAL);
+        varint(length);
+        write(json, offset, length);
+    }
+
+    private void scalar(byte[] json, int offset, int length) {
+        if (isCanonicalLong(json, offset, length)) {
+            long value = 0;
+            for (int i = json[offset] == '-' ? offset + 1 : offset; i < offset + length; i++) {
+                value = value * 10 + (json[i] - '0');
+            }
+            value = json[offset] == '-' ? -value : value;
+            write(DictionaryBatch.INT);
+            varint((value << 1) ^ (value >> 63));
+        } else {
+            write(DictionaryBatch.RAW);
+            varint(length);
+            write(json, offset, length);
+        }
+    }
+
+    // Integers that print back exactly as written: no leading zeros, no -0, at most 18 digits
+    private static boolean isCanonicalLong(byte[] json, int offset, int length) {
+        int start = json[offset] == '-' ? offset + 1 : offset;
+        int digits = offset + length - start;
+        if (digits == 0 || digits > 18 || (json[start] == '0' && (digits > 1 || start > offset))) {
+            return false;
+        }
+        for (int i = start; i < offset + length; i++) {
+            if (json[i] < '0' || json[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(byte[] json, int i) {
+        while (i < json.length && (json[i] == ' ' || json[i] == '\n' || json[i] == '\r' || json[i] == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void expect(byte[] json, int i, char c) {
+        if (i >= json.length || json[i] != c) {
+            throw new IllegalArgumentException("malformed JSON record, expected '" + c + "' at " + i);
+        }
+    }
+
+    private void varint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        write((int) value);
+    }
+
+    private void write(int b) {
+        if (pos == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[pos++] = (byte) b;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        if (pos + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, pos + length));
+        }
+        System.arraycopy(bytes, offset, buffer, pos, length);
+        pos += length;
+    }
+}
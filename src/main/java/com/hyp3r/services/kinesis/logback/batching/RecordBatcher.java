@@ -0,0 +1,218 @@
+package com.hyp3r.services.kinesis.logback.batching;
+
+import ch.qos.logback.classic.Level;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Groups encoded events into one {@link DictionaryBatch} record per stream and lane. A batch is handed to the sink once
+ * it holds {@code maxEvents} events, once the next event might not fit into {@code maxBytes}, or by {@link #flush(long)}
+ * once its first event is {@code lingerMillis} old. Each batch goes out with the highest level among its events, and
+ * with the lane its events were offered for, so events only share a batch when they would share a priority lane.
+ */
+public class RecordBatcher {
+
+    public interface Sink {
+        void send(Level level, int lane, String stream, byte[] batch);
+    }
+
+    private final int maxBytes;
+    private final Sink sink;
+    // Batches by stream, one map per lane
+    private final List<ConcurrentHashMap<String, Batch>> batches;
+    private volatile int maxEvents;
+    private volatile long lingerMillis;
+    private volatile boolean closed;
+    // Running totals for the batch controller
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder sentBatches = new LongAdder();
+    private final LongAdder sentEvents = new LongAdder();
+    private final LongAdder cappedBatches = new LongAdder();
+
+    public RecordBatcher(int maxEvents, long lingerMillis, int maxBytes, Sink sink) {
+        this(maxEvents, lingerMillis, maxBytes, 1, sink);
+    }
+
+    /**
+     * A batcher keeping the events of each of {@code lanes} lanes apart, see
+     * {@link com.hyp3r.services.kinesis.logback.dispatch.LaneDispatcher#laneOf(Level, String)}.
+     */
+    public RecordBatcher(int maxEvents, long lingerMillis, int maxBytes, int lanes, Sink sink) {
+        this.maxEvents = maxEvents;
+        this.lingerMillis = lingerMillis;
+        this.maxBytes = maxBytes;
+        this.sink = sink;
+        this.batches = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            batches.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    private final class Batch {
+        private final int lane;
+        private final String stream;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final DictionaryBatchEncoder encoder = new DictionaryBatchEncoder(maxBytes);
+        private Level level = Level.ALL;
+        private long startMillis;
+
+        private Batch(int lane, String stream) {
+            this.lane = lane;
+            this.stream = stream;
+        }
+
+        // Called with the lock held
+        private byte[] finish() {
+            sentBatches.increment();
+            sentEvents.add(encoder.count());
+            byte[] batch = encoder.finish();
+            level = Level.ALL;
+            return batch;
+        }
+    }
+
+    /**
+     * Adds an event to the batch of its stream. Returns false, leaving the event to the caller, if it is too large to
+     * be batched or the batcher is closed.
+     */
+    public boolean offer(Level level, String stream, byte[] record) {
+        return offer(level, 0, stream, record);
+    }
+
+    /**
+     * Adds an event to the batch of its stream in {@code lane}.
+     */
+    public boolean offer(Level level, int lane, String stream, byte[] record) {
+        ConcurrentHashMap<String, Batch> laneBatches = batches.get(lane);
+        Batch batch = laneBatches.get(stream);
+        if (batch == null) {
+            batch = laneBatches.computeIfAbsent(stream, s -> new Batch(lane, s));
+        }
+        if (!batch.encoder.accepts(record.length)) {
+            return false;
+        }
+
+        byte[] full = null;
+        Level fullLevel = null;
+        byte[] complete = null;
+        Level completeLevel = null;
+        batch.lock.lock();
+        try {
+            // Checked under the lock, so close() either flushes this event or the caller gets it back
+            if (closed) {
+                return false;
+            }
+            offered.increment();
+            if (!batch.encoder.fits(record.length)) {
+                fullLevel = batch.level;
+                full = batch.finish();
+            }
+            if (batch.encoder.count() == 0) {
+                batch.startMillis = System.currentTimeMillis();
+            }
+            batch.encoder.add(record);
+            if (level.isGreaterOrEqual(batch.level)) {
+                batch.level = level;
+            }
+            if (batch.encoder.count() >= maxEvents) {
+                cappedBatches.increment();
+                completeLevel = batch.level;
+                complete = batch.finish();
+            }
+        } finally {
+            batch.lock.unlock();
+        }
+
+        // Sent outside the lock, so a slow sink never holds up other callers
+        if (full != null) {
+            sink.send(fullLevel, lane, stream, full);
+        }
+        if (complete != null) {
+            sink.send(completeLevel, lane, stream, complete);
+        }
+        return true;
+    }
+
+    /**
+     * Sends every batch whose first event is at least {@code lingerMillis} old.
+     */
+    public void flush(long nowMillis) {
+        for (ConcurrentHashMap<String, Batch> laneBatches : batches) {
+            for (Batch batch : laneBatches.values()) {
+                flush(batch, nowMillis - lingerMillis);
+            }
+        }
+    }
+
+    public void flushAll() {
+        for (ConcurrentHashMap<String, Batch> laneBatches : batches) {
+            for (Batch batch : laneBatches.values()) {
+                flush(batch, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Sends every batch and leaves events offered from now on to their callers.
+     */
+    public void close() {
+        closed = true;
+        flushAll();
+    }
+
+    private void flush(Batch batch, long startedBefore) {
+        byte[] records = null;
+        Level level = null;
+        batch.lock.lock();
+        try {
+            if (batch.encoder.count() > 0 && batch.startMillis <= startedBefore) {
+                level = batch.level;
+                records = batch.finish();
+            }
+        } finally {
+            batch.lock.unlock();
+        }
+        if (records != null) {
+            sink.send(level, batch.lane, batch.stream, records);
+        }
+    }
+
+    public long getOffered() {
+        return offered.sum();
+    }
+
+    public long getSentBatches() {
+        return sentBatches.sum();
+    }
+
+    public long getSentEvents() {
+        return sentEvents.sum();
+    }
+
+    /**
+     * Batches sent because they reached {@code maxEvents}, rather than the byte limit or the linger time.
+     */
+    public long getCappedBatches() {
+        return cappedBatches.sum();
+    }
+
+    public int getMaxEvents() {
+        return maxEvents;
+    }
+
+    public void setMaxEvents(int maxEvents) {
+        this.maxEvents = maxEvents;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public void setLingerMillis(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+}
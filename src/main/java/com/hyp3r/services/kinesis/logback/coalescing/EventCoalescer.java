@@ -0,0 +1,218 @@
+package com.hyp3r.services.kinesis.logback.coalescing;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.hyp3r.services.kinesis.logback.ext.MetadataContext;
+import com.hyp3r.services.kinesis.logback.ext.MetadataMarker;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Collapses bursts of identical events. Events are keyed by message template, level, logger and event type; the first
+ * occurrence in a window is passed through and the repeats that follow are only counted. Once the window is over a
+ * single summary event is handed to the sink, carrying the first occurrence's fields plus {@link #REPEAT_COUNT}, the
+ * first and last repeat timestamps and a few samples of metadata that differed from the first occurrence. The summary
+ * keeps the first occurrence's bound metadata: the one its marker carries, or for plain logger calls the context bound
+ * on the thread offering it, which is the logging thread unless the appender sits behind an asynchronous one.
+ *
+ * The table is a fixed-size array of slots updated with CAS, one key per slot. An event whose slot is held by another
+ * live key is simply passed through, so memory stays bounded and a repeat costs a hash, a slot read and an increment.
+ */
+public class EventCoalescer {
+    public static final String REPEAT_COUNT = "repeat_count";
+    public static final String FIRST_REPEAT = "first_repeat_timestamp";
+    public static final String LAST_REPEAT = "last_repeat_timestamp";
+    public static final String METADATA_SAMPLES = "metadata_samples";
+
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final long windowMillis;
+    private final int maxSamples;
+    private final Consumer<ILoggingEvent> sink;
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    public EventCoalescer(long windowMillis, int capacity, int maxSamples, Consumer<ILoggingEvent> sink) {
+        this.windowMillis = windowMillis;
+        this.maxSamples = maxSamples;
+        this.sink = sink;
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Returns true if the event should be sent, false if it was counted as a repeat. {@code sample} is the metadata to
+     * compare against the first occurrence, typically the call metadata or the MDC.
+     */
+    public boolean offer(ILoggingEvent event, String eventType, Object sample) {
+        long now = event.getTimeStamp();
+        int hash = hash(event.getMessage(), event.getLevel(), event.getLoggerName(), eventType);
+        int idx = hash & mask;
+
+        for (;;) {
+            Entry current = slots.get(idx);
+            boolean live = current != null && now < current.windowEnd;
+            if (live && current.matches(hash, event, eventType)) {
+                if (current.repeat(now, sample, maxSamples)) {
+                    return false;
+                }
+                // Closed by a flush, the slot has already moved on
+                continue;
+            }
+            if (live) {
+                return true;
+            }
+            Entry fresh = new Entry(hash, event, eventType, sample, now + windowMillis, maxSamples);
+            if (slots.compareAndSet(idx, current, fresh)) {
+                if (current != null) {
+                    close(current);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Emits the summaries of every window that ended before {@code now}.
+     */
+    public void flush(long now) {
+        for (int i = 0; i < slots.length(); i++) {
+            Entry entry = slots.get(i);
+            if (entry != null && now >= entry.windowEnd && slots.compareAndSet(i, entry, null)) {
+                close(entry);
+            }
+        }
+    }
+
+    public void flushAll() {
+        flush(Long.MAX_VALUE);
+    }
+
+    private static int hash(String template, Level level, String loggerName, String eventType) {
+        int h = Objects.hashCode(template);
+        h = 31 * h + level.levelInt;
+        h = 31 * h + Objects.hashCode(loggerName);
+        h = 31 * h + Objects.hashCode(eventType);
+        return h ^ (h >>> 16);
+    }
+
+    private void close(Entry entry) {
+        int repeats = entry.repeats.getAndSet(CLOSED);
+        if (repeats > 0) {
+            sink.accept(entry.summary(repeats));
+        }
+    }
+
+    private static final class Entry {
+        private final int hash;
+        private final ILoggingEvent first;
+        private final String eventType;
+        private final Object baseline;
+        private final MetadataContext bound;
+        private final long windowEnd;
+
+        private final AtomicInteger repeats = new AtomicInteger();
+        private final AtomicLong firstRepeat = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastRepeat = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicReferenceArray<Object> samples;
+        private final AtomicInteger sampled = new AtomicInteger();
+
+        private Entry(int hash, ILoggingEvent first, String eventType, Object baseline, long windowEnd, int maxSamples) {
+            this.hash = hash;
+            this.first = first;
+            this.eventType = eventType;
+            this.baseline = baseline;
+            MetadataMarker marker = MetadataMarker.of(first);
+            this.bound = marker == null ? MetadataContext.current() : marker.getBoundMetadata();
+            this.windowEnd = windowEnd;
+            this.samples = new AtomicReferenceArray<>(maxSamples);
+        }
+
+        private boolean matches(int hash, ILoggingEvent event, String eventType) {
+            return this.hash == hash
+                && first.getLevel() == event.getLevel()
+                && Objects.equals(first.getMessage(), event.getMessage())
+                && Objects.equals(first.getLoggerName(), event.getLoggerName())
+                && Objects.equals(this.eventType, eventType);
+        }
+
+        private boolean repeat(long timestamp, Object sample, int maxSamples) {
+            int count;
+            do {
+                count = repeats.get();
+                if (count == CLOSED) {
+                    return false;
+                }
+            } while (!repeats.compareAndSet(count, count + 1));
+
+            firstRepeat.accumulateAndGet(timestamp, Math::min);
+            lastRepeat.accumulateAndGet(timestamp, Math::max);
+            if (sample != null && sampled.get() < maxSamples && !sample.equals(baseline) && !isSampled(sample)) {
+                int slot = sampled.getAndIncrement();
+                if (slot < maxSamples) {
+                    samples.set(slot, sample);
+                }
+            }
+            return true;
+        }
+
+        private boolean isSampled(Object sample) {
+            for (int i = 0; i < samples.length(); i++) {
+                if (sample.equals(samples.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private ILoggingEvent summary(int count) {
+            long firstTimestamp = firstRepeat.get() == Long.MAX_VALUE ? first.getTimeStamp() : firstRepeat.get();
+            long lastTimestamp = Math.max(lastRepeat.get(), firstTimestamp);
+
+            MetadataMarker marker = MetadataMarker.of(first);
+            KinesisMetadata metadata = marker == null || marker.getMetadata() == null
+                ? KinesisMetadata.create() : marker.getMetadata().copy();
+            metadata.put(REPEAT_COUNT, count)
+                .put(FIRST_REPEAT, KinesisMetadata.formatDate(new Date(firstTimestamp)))
+                .put(LAST_REPEAT, KinesisMetadata.formatDate(new Date(lastTimestamp)));
+            List<Object> sampleList = new ArrayList<>();
+            for (int i = 0; i < samples.length(); i++) {
+                Object sample = samples.get(i);
+                if (sample != null) {
+                    sampleList.add(sample instanceof KinesisMetadata ? ((KinesisMetadata) sample).toMap() : sample);
+                }
+            }
+            if (!sampleList.isEmpty()) {
+                metadata.put(METADATA_SAMPLES, sampleList);
+            }
+
+            LoggingEvent summary = new LoggingEvent();
+            summary.setLevel(first.getLevel());
+            summary.setLoggerName(first.getLoggerName());
+            summary.setThreadName(first.getThreadName());
+            summary.setLoggerContextRemoteView(first.getLoggerContextVO());
+            // Pattern and arguments rather than the formatted message, so the summary keeps its template
+            summary.setMessage(first.getMessage());
+            summary.setArgumentArray(first.getArgumentArray());
+            summary.setTimeStamp(lastTimestamp);
+            summary.setMDCPropertyMap(first.getMDCPropertyMap());
+            summary.setMarker(new MetadataMarker(eventType, marker == null ? null : marker.getContext(), metadata, bound,
+                marker == null ? null : marker.getLoggerMetadata()));
+            return summary;
+        }
+    }
+}
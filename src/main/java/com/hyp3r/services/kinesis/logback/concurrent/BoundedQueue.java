@@ -0,0 +1,18 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+public interface BoundedQueue<T> {
+
+    /**
+     * Returns false, without waiting, when the queue is full.
+     */
+    boolean offer(T element);
+
+    /**
+     * Returns null, without waiting, when the queue is empty.
+     */
+    T poll();
+
+    boolean isEmpty();
+
+    int size();
+}
@@ -0,0 +1,24 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads, queues and counters behind the appender's background work. {@link Platform#concurrency()} returns the
+ * implementation suited to the running JVM.
+ */
+public interface ConcurrencySupport {
+
+    String getName();
+
+    /**
+     * Threads for background work such as draining lanes or polling the rules file. They never keep the JVM alive.
+     */
+    ThreadFactory threadFactory(String name);
+
+    /**
+     * A non-blocking queue holding at most {@code capacity} elements, safe for any number of producers and consumers.
+     */
+    <T> BoundedQueue<T> newQueue(int capacity);
+
+    Counter newCounter();
+}
@@ -0,0 +1,10 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+public interface Counter {
+
+    long incrementAndGet();
+
+    long decrementAndGet();
+
+    long get();
+}
@@ -0,0 +1,86 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Baseline implementation: daemon platform threads, {@link ArrayBlockingQueue} and {@link AtomicLong}.
+ */
+public final class Java8Concurrency implements ConcurrencySupport {
+    public static final Java8Concurrency INSTANCE = new Java8Concurrency();
+
+    private Java8Concurrency() {
+    }
+
+    @Override
+    public String getName() {
+        return "java8";
+    }
+
+    @Override
+    public ThreadFactory threadFactory(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public <T> BoundedQueue<T> newQueue(int capacity) {
+        return new ArrayQueue<>(capacity);
+    }
+
+    @Override
+    public Counter newCounter() {
+        return new AtomicCounter();
+    }
+
+    private static final class ArrayQueue<T> implements BoundedQueue<T> {
+        private final ArrayBlockingQueue<T> queue;
+
+        private ArrayQueue(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public boolean offer(T element) {
+            return queue.offer(element);
+        }
+
+        @Override
+        public T poll() {
+            return queue.poll();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return queue.size();
+        }
+    }
+
+    private static final class AtomicCounter implements Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        @Override
+        public long incrementAndGet() {
+            return value.incrementAndGet();
+        }
+
+        @Override
+        public long decrementAndGet() {
+            return value.decrementAndGet();
+        }
+
+        @Override
+        public long get() {
+            return value.get();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+/**
+ * Picks the {@link ConcurrencySupport} for the running JVM. The jar is multi-release: on Java 21 and later this class is
+ * replaced by one returning virtual threads and VarHandle based queues and counters. Setting
+ * {@code -Dkinesis.appender.concurrency=java8} keeps the baseline implementation on any JVM.
+ */
+public final class Platform {
+    public static final String CONCURRENCY_PROPERTY = "kinesis.appender.concurrency";
+
+    private static final ConcurrencySupport CONCURRENCY = Java8Concurrency.INSTANCE;
+
+    private Platform() {
+    }
+
+    public static ConcurrencySupport concurrency() {
+        return CONCURRENCY;
+    }
+}
@@ -0,0 +1,348 @@
+package com.hyp3r.services.kinesis.logback.dispatch;
+
+import ch.qos.logback.classic.Level;
+import com.amazonaws.services.kinesis.producer.IKinesisProducer;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hyp3r.services.kinesis.logback.concurrent.BoundedQueue;
+import com.hyp3r.services.kinesis.logback.concurrent.ConcurrencySupport;
+import com.hyp3r.services.kinesis.logback.concurrent.Counter;
+import com.hyp3r.services.kinesis.logback.concurrent.Platform;
+import com.hyp3r.services.kinesis.logback.routing.RouteTable;
+import com.hyp3r.services.kinesis.logback.staging.SlabPool;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds records to the producer through bounded priority lanes, so a flood of low priority records cannot delay or
+ * crowd out the ones that matter during an incident.
+ *
+ * A single drain thread moves records to the producer while its outstanding record count is below
+ * {@code maxOutstanding}. Each lane may reserve part of that capacity: a lane only sends while the outstanding count
+ * leaves room for the reservations of every lane above it. Lanes are drained either in strict priority order or by
+ * weighted round robin. When {@code maxQueued} records are waiting, room for a new record is made by dropping the oldest
+ * record of the lowest non-empty lane below it; a record that has no lower lane to displace is dropped itself.
+ *
+ * Queues, counters and the drain thread come from {@link Platform#concurrency()} unless given explicitly. With a
+ * {@link SlabPool} set, queued record data is kept off the heap.
+ */
+public class LaneDispatcher {
+    public static final String DEFAULT_LANE = "default";
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SATURATED_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Lane[] lanes;
+    private final int maxQueued;
+    private final int maxOutstanding;
+    private final boolean weighted;
+    private final IKinesisProducer producer;
+    private final FutureCallback<UserRecordResult> callback;
+    private final Counter queued;
+    private final Thread drainer;
+    private volatile boolean running = true;
+    private SlabPool staging;
+
+    public LaneDispatcher(List<PriorityLane> config, int laneCapacity, int maxQueued, int maxOutstanding,
+                          boolean weighted, IKinesisProducer producer, FutureCallback<UserRecordResult> callback,
+                          String threadName) {
+        this(config, laneCapacity, maxQueued, maxOutstanding, weighted, producer, callback, threadName, Platform.concurrency());
+    }
+
+    public LaneDispatcher(List<PriorityLane> config, int laneCapacity, int maxQueued, int maxOutstanding,
+                          boolean weighted, IKinesisProducer producer, FutureCallback<UserRecordResult> callback,
+                          String threadName, ConcurrencySupport concurrency) {
+        this.lanes = new Lane[config.size() + 1];
+        int reservedAbove = 0;
+        for (int i = 0; i < config.size(); i++) {
+            lanes[i] = new Lane(config.get(i), i, maxOutstanding - reservedAbove, laneCapacity, concurrency);
+            reservedAbove += lanes[i].reserved;
+        }
+        PriorityLane fallback = new PriorityLane();
+        fallback.setName(DEFAULT_LANE);
+        lanes[config.size()] = new Lane(fallback, config.size(), maxOutstanding - reservedAbove, laneCapacity, concurrency);
+
+        this.maxQueued = maxQueued;
+        this.maxOutstanding = maxOutstanding;
+        this.weighted = weighted;
+        this.producer = producer;
+        this.callback = callback;
+        this.queued = concurrency.newCounter();
+        this.drainer = concurrency.threadFactory(threadName).newThread(this::drain);
+    }
+
+    /**
+     * Copies the data of queued records into {@code staging}, falling back to the heap while it is full. Set before
+     * {@link #start()}.
+     */
+    public void setStaging(SlabPool staging) {
+        this.staging = staging;
+    }
+
+    public void start() {
+        drainer.start();
+    }
+
+    /**
+     * Queues a record on the lane matching {@code level} and {@code eventType}. Returns false if it had to be dropped.
+     */
+    public boolean offer(Level level, String eventType, String stream, String partitionKey, byte[] data) {
+        return offer(level, eventType, stream, partitionKey, null, null, data);
+    }
+
+    /**
+     * Queues a record with an explicit hash key, and a callback of its own instead of the dispatcher's when not null.
+     */
+    public boolean offer(Level level, String eventType, String stream, String partitionKey, String explicitHashKey,
+                         FutureCallback<UserRecordResult> recordCallback, byte[] data) {
+        return offer(laneOf(level, eventType), stream, partitionKey, explicitHashKey, recordCallback, data);
+    }
+
+    /**
+     * Queues a record on a lane picked beforehand with {@link #laneOf(Level, String)}, for records such as batches
+     * whose events were grouped by lane. Records offered once the dispatcher is closed are dropped.
+     */
+    public boolean offer(int laneIndex, String stream, String partitionKey, String explicitHashKey,
+                         FutureCallback<UserRecordResult> recordCallback, byte[] data) {
+        Lane lane = lanes[laneIndex];
+        if (!running) {
+            lane.dropped.incrementAndGet();
+            return false;
+        }
+        if (queued.incrementAndGet() > maxQueued && !shedBelow(lane)) {
+            queued.decrementAndGet();
+            lane.dropped.incrementAndGet();
+            return false;
+        }
+
+        ByteBuffer staged = staging == null ? null : staging.stage(data);
+        Record record = new Record(stream, partitionKey, explicitHashKey, recordCallback, staged == null ? data : null, staged);
+        if (!lane.queue.offer(record)) {
+            queued.decrementAndGet();
+            lane.dropped.incrementAndGet();
+            release(record);
+            return false;
+        }
+        if (!running) {
+            // Closed while queueing, close() may already have emptied the lanes and nothing would drain this one
+            discard(lane);
+            return false;
+        }
+        LockSupport.unpark(drainer);
+        return true;
+    }
+
+    private void discard(Lane lane) {
+        Record record;
+        while ((record = lane.queue.poll()) != null) {
+            queued.decrementAndGet();
+            lane.dropped.incrementAndGet();
+            release(record);
+        }
+    }
+
+    /**
+     * Index of the lane matching {@code level} and {@code eventType}, in priority order, the default lane being last.
+     */
+    public int laneOf(Level level, String eventType) {
+        for (int i = 0; i < lanes.length - 1; i++) {
+            if (lanes[i].matches(level, eventType)) {
+                return i;
+            }
+        }
+        return lanes.length - 1;
+    }
+
+    /**
+     * Number of lanes, the default lane included.
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    // Drops the oldest record of the lowest non-empty lane with a lower priority than the given one
+    private boolean shedBelow(Lane lane) {
+        for (int i = lanes.length - 1; i > lane.priority; i--) {
+            Record record = lanes[i].queue.poll();
+            if (record != null) {
+                release(record);
+                queued.decrementAndGet();
+                lanes[i].dropped.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drain() {
+        int[] credits = new int[lanes.length];
+        while (running) {
+            Lane lane = weighted ? nextWeighted(credits) : nextStrict();
+            if (lane == null) {
+                LockSupport.parkNanos(this, queued.get() == 0 ? IDLE_PARK_NANOS : SATURATED_PARK_NANOS);
+                continue;
+            }
+            Record record = lane.queue.poll();
+            if (record != null) {
+                queued.decrementAndGet();
+                send(record);
+            }
+        }
+    }
+
+    // Highest non-empty lane that has producer capacity left
+    private Lane nextStrict() {
+        int outstanding = producer.getOutstandingRecordsCount();
+        for (Lane lane : lanes) {
+            if (!lane.queue.isEmpty() && outstanding < lane.limit) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    // Each lane sends up to its weight per round, in priority order
+    private Lane nextWeighted(int[] credits) {
+        int outstanding = producer.getOutstandingRecordsCount();
+        for (int round = 0; round < 2; round++) {
+            boolean sendable = false;
+            for (int i = 0; i < lanes.length; i++) {
+                Lane lane = lanes[i];
+                if (lane.queue.isEmpty() || outstanding >= lane.limit) {
+                    continue;
+                }
+                sendable = true;
+                if (credits[i] > 0) {
+                    credits[i]--;
+                    return lane;
+                }
+            }
+            if (!sendable) {
+                return null;
+            }
+            for (int i = 0; i < lanes.length; i++) {
+                credits[i] = lanes[i].weight;
+            }
+        }
+        return null;
+    }
+
+    private void send(Record record) {
+        FutureCallback<UserRecordResult> recordCallback = record.callback != null ? record.callback : callback;
+        ByteBuffer data = record.staged != null ? record.staged : ByteBuffer.wrap(record.data);
+        try {
+            ListenableFuture<UserRecordResult> f = record.explicitHashKey == null
+                ? producer.addUserRecord(record.stream, record.partitionKey, data)
+                : producer.addUserRecord(record.stream, record.partitionKey, record.explicitHashKey, data);
+            Futures.addCallback(f, recordCallback);
+        } catch (Exception e) {
+            recordCallback.onFailure(e);
+        } finally {
+            // The producer has copied the data by the time addUserRecord returns
+            release(record);
+        }
+    }
+
+    private void release(Record record) {
+        if (record.staged != null) {
+            staging.release(record.staged);
+        }
+    }
+
+    /**
+     * Stops the drain thread and hands every record still queued to the producer, highest lane first, regardless of
+     * capacity.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Lane lane : lanes) {
+            Record record;
+            while ((record = lane.queue.poll()) != null) {
+                queued.decrementAndGet();
+                send(record);
+            }
+        }
+    }
+
+    public int getQueued() {
+        return (int) queued.get();
+    }
+
+    public int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+
+    /**
+     * Records dropped per lane since start, in priority order.
+     */
+    public Map<String, Long> getDropped() {
+        Map<String, Long> dropped = new LinkedHashMap<>();
+        for (Lane lane : lanes) {
+            dropped.put(lane.name, lane.dropped.get());
+        }
+        return dropped;
+    }
+
+    private static final class Record {
+        private final String stream;
+        private final String partitionKey;
+        private final String explicitHashKey;
+        private final FutureCallback<UserRecordResult> callback;
+        private final byte[] data;
+        private final ByteBuffer staged;
+
+        private Record(String stream, String partitionKey, String explicitHashKey, FutureCallback<UserRecordResult> callback,
+                       byte[] data, ByteBuffer staged) {
+            this.stream = stream;
+            this.partitionKey = partitionKey;
+            this.explicitHashKey = explicitHashKey;
+            this.callback = callback;
+            this.data = data;
+            this.staged = staged;
+        }
+    }
+
+    private static final class Lane {
+        private final String name;
+        private final int priority;
+        private final Set<String> eventTypes;
+        private final Level level;
+        private final int reserved;
+        private final int weight;
+        // Outstanding record count above which this lane waits
+        private final int limit;
+        private final BoundedQueue<Record> queue;
+        private final Counter dropped;
+
+        private Lane(PriorityLane config, int priority, int limit, int defaultCapacity, ConcurrencySupport concurrency) {
+            this.name = StringUtils.defaultIfBlank(config.getName(), "lane-" + priority);
+            this.priority = priority;
+            this.eventTypes = RouteTable.splitEventTypes(config.getEventType());
+            this.level = config.getLevel() == null ? null : Level.toLevel(config.getLevel(), null);
+            this.reserved = config.getReserved() == null ? 0 : config.getReserved();
+            this.weight = config.getWeight() == null ? 1 : config.getWeight();
+            this.limit = limit;
+            this.queue = concurrency.newQueue(config.getCapacity() == null ? defaultCapacity : config.getCapacity());
+            this.dropped = concurrency.newCounter();
+        }
+
+        private boolean matches(Level eventLevel, String eventType) {
+            if (level != null && (eventLevel == null || !eventLevel.isGreaterOrEqual(level))) {
+                return false;
+            }
+            return eventTypes.isEmpty() || (eventType != null && eventTypes.contains(eventType));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.hyp3r.services.kinesis.logback.dispatch;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Logback configuration for a single priority lane. Lanes are listed from highest to lowest priority, and a record goes
+ * to the first lane whose criteria it meets; criteria left unset match everything. Records matching no lane go to an
+ * implicit default lane below all configured ones.
+ */
+@Getter
+@Setter
+public class PriorityLane {
+    private String name;
+
+    // Match criteria
+    private String eventType;
+    private String level;
+
+    // Queueing and draining settings
+    private Integer capacity;
+    private Integer reserved;
+    private Integer weight;
+}
@@ -0,0 +1,129 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Consumer-side counterpart of {@link RecordChunker}. Records are fed in as they are read from the stream, in any
+ * order; regular events are handed back as they are, chunks are held until every part of their event has arrived.
+ *
+ * At most {@code maxPending} incomplete events are kept, and parts older than {@code expiryMillis} are dropped, so a
+ * lost chunk does not pin memory forever.
+ */
+public class ChunkReassembler {
+    private static final byte[] CHUNK_PREFIX = ("{\"" + RecordChunker.CHUNK_ID_KEY + "\":").getBytes(StandardCharsets.UTF_8);
+
+    private final int maxPending;
+    private final long expiryMillis;
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    public ChunkReassembler() {
+        this(1000, 5 * 60 * 1000L);
+    }
+
+    public ChunkReassembler(int maxPending, long expiryMillis) {
+        this.maxPending = maxPending;
+        this.expiryMillis = expiryMillis;
+    }
+
+    public static boolean isChunk(byte[] record) {
+        return isChunk(record, 0, record.length);
+    }
+
+    public static boolean isChunk(byte[] record, int offset, int length) {
+        if (length < CHUNK_PREFIX.length) {
+            return false;
+        }
+        for (int i = 0; i < CHUNK_PREFIX.length; i++) {
+            if (record[offset + i] != CHUNK_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the complete event for {@code record}: the record itself when it is not a chunk, the reassembled event
+     * when it is the last missing part, and null while parts are still missing.
+     */
+    public synchronized byte[] accept(byte[] record) {
+        if (!isChunk(record)) {
+            return record;
+        }
+        JsonObject chunk = new JsonParser().parse(new String(record, StandardCharsets.UTF_8)).getAsJsonObject();
+        String id = chunk.get(RecordChunker.CHUNK_ID_KEY).getAsString();
+        int index = chunk.get(RecordChunker.CHUNK_INDEX_KEY).getAsInt();
+        int count = chunk.get(RecordChunker.CHUNK_COUNT_KEY).getAsInt();
+        byte[] data = Base64.getDecoder().decode(chunk.get(RecordChunker.DATA_KEY).getAsString());
+
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        Pending parts = pending.get(id);
+        if (parts == null) {
+            if (count < 1) {
+                return null;
+            }
+            if (count == 1) {
+                return data;
+            }
+            parts = new Pending(count, now);
+            pending.put(id, parts);
+            if (pending.size() > maxPending) {
+                Iterator<Pending> oldest = pending.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        if (index < 0 || index >= parts.parts.length || parts.parts[index] != null) {
+            return null;
+        }
+        parts.parts[index] = data;
+        parts.size += data.length;
+        if (++parts.received < parts.parts.length) {
+            return null;
+        }
+
+        pending.remove(id);
+        byte[] event = new byte[parts.size];
+        int pos = 0;
+        for (byte[] part : parts.parts) {
+            System.arraycopy(part, 0, event, pos, part.length);
+            pos += part.length;
+        }
+        return event;
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    // Entries are in arrival order of their first part, so expired ones are at the head
+    private void expire(long now) {
+        Iterator<Pending> it = pending.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().firstSeen < expiryMillis) {
+                return;
+            }
+            it.remove();
+        }
+    }
+
+    private static final class Pending {
+        private final byte[][] parts;
+        private final long firstSeen;
+        private int received;
+        private int size;
+
+        private Pending(int count, long firstSeen) {
+            this.parts = new byte[count][];
+            this.firstSeen = firstSeen;
+        }
+    }
+}
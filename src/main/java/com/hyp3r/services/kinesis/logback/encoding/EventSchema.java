@@ -0,0 +1,38 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The metadata keys of an event known at compile time, escaped once when the schema is built. Generated event emitters
+ * hold one per event and fill in {@link #newMetadata()} by index, so no key is looked up or escaped per event.
+ */
+public final class EventSchema {
+    private final String[] keys;
+    private final byte[][] encodedKeys;
+
+    public EventSchema(String... keys) {
+        Set<String> seen = new HashSet<>();
+        this.keys = keys.clone();
+        this.encodedKeys = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            if (!seen.add(keys[i])) {
+                throw new IllegalArgumentException("Duplicate event key " + keys[i]);
+            }
+            encodedKeys[i] = new JsonWriter(keys[i].length() + 8).writeString(keys[i]).writeByte(':').toByteArray();
+        }
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Metadata holding every key of the schema in order, with null values.
+     */
+    public KinesisMetadata newMetadata() {
+        return KinesisMetadata.ofKeys(keys, encodedKeys);
+    }
+}
@@ -0,0 +1,227 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal growable UTF-8 JSON writer. Instances are not thread safe and are meant to be reused through
+ * {@link #reset()}.
+ */
+public final class JsonWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final int MAX_CACHED_STRINGS = 4096;
+    private static final int MAX_CACHED_STRING_LENGTH = 256;
+    private static final ConcurrentHashMap<String, byte[]> ESCAPED_STRINGS = new ConcurrentHashMap<>();
+
+    private byte[] buf;
+    private int pos;
+
+    public JsonWriter() {
+        this(1024);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    public JsonWriter reset() {
+        pos = 0;
+        return this;
+    }
+
+    public int size() {
+        return pos;
+    }
+
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    private void ensure(int extra) {
+        if (pos + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + extra));
+        }
+    }
+
+    public JsonWriter writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+        return this;
+    }
+
+    public JsonWriter writeRaw(byte[] bytes) {
+        return writeRaw(bytes, 0, bytes.length);
+    }
+
+    public JsonWriter writeRaw(byte[] bytes, int off, int len) {
+        ensure(len);
+        System.arraycopy(bytes, off, buf, pos, len);
+        pos += len;
+        return this;
+    }
+
+    public JsonWriter writeAscii(CharSequence s) {
+        int len = s.length();
+        ensure(len);
+        for (int i = 0; i < len; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public JsonWriter writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return writeAscii("-9223372036854775808");
+        }
+        ensure(20);
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+        return this;
+    }
+
+    /**
+     * Writes a quoted, escaped JSON string. Short strings that repeat across events (keys, logger names, event types)
+     * should go through {@link #writeCachedString(String)} instead.
+     */
+    public JsonWriter writeString(String s) {
+        writeByte('"');
+        writeEscaped(s, 0, s.length());
+        return writeByte('"');
+    }
+
+    public JsonWriter writeCachedString(String s) {
+        return writeRaw(quoted(s));
+    }
+
+    /**
+     * Escaped characters of {@code s} between {@code start} and {@code end}, without quotes.
+     */
+    public JsonWriter writeEscaped(CharSequence s, int start, int end) {
+        ensure(end - start);
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                if (pos == buf.length) {
+                    ensure(end - i);
+                }
+                buf[pos++] = (byte) c;
+            } else {
+                i = writeEscapedChar(s, i, end);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Like {@link #writeEscaped(CharSequence, int, int)}, but stops before the escaped output would exceed
+     * {@code maxBytes}. Returns the index of the first char that was not written, {@code end} if all of them were.
+     */
+    public int writeEscaped(CharSequence s, int start, int end, int maxBytes) {
+        int limit = maxBytes > Integer.MAX_VALUE - pos ? Integer.MAX_VALUE : pos + maxBytes;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                if (pos >= limit) {
+                    return i;
+                }
+                ensure(1);
+                buf[pos++] = (byte) c;
+            } else {
+                int mark = pos;
+                int last = writeEscapedChar(s, i, end);
+                if (pos > limit) {
+                    pos = mark;
+                    return i;
+                }
+                i = last;
+            }
+        }
+        return end;
+    }
+
+    // Returns the index of the last char consumed
+    private int writeEscapedChar(CharSequence s, int i, int end) {
+        char c = s.charAt(i);
+        ensure(6);
+        switch (c) {
+            case '"':
+                buf[pos++] = '\\';
+                buf[pos++] = '"';
+                return i;
+            case '\\':
+                buf[pos++] = '\\';
+                buf[pos++] = '\\';
+                return i;
+            case '\n':
+                buf[pos++] = '\\';
+                buf[pos++] = 'n';
+                return i;
+            case '\r':
+                buf[pos++] = '\\';
+                buf[pos++] = 'r';
+                return i;
+            case '\t':
+                buf[pos++] = '\\';
+                buf[pos++] = 't';
+                return i;
+            default:
+                break;
+        }
+        if (c < 0x20) {
+            buf[pos++] = '\\';
+            buf[pos++] = 'u';
+            buf[pos++] = '0';
+            buf[pos++] = '0';
+            buf[pos++] = HEX[c >> 4];
+            buf[pos++] = HEX[c & 0xF];
+        } else if (c < 0x800) {
+            buf[pos++] = (byte) (0xC0 | (c >> 6));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buf[pos++] = (byte) (0xF0 | (cp >> 18));
+            buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+            return i + 1;
+        } else if (Character.isSurrogate(c)) {
+            buf[pos++] = '?';
+        } else {
+            buf[pos++] = (byte) (0xE0 | (c >> 12));
+            buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    /**
+     * The quoted and escaped UTF-8 form of {@code s}, cached for short strings.
+     */
+    public static byte[] quoted(String s) {
+        byte[] cached = ESCAPED_STRINGS.get(s);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] bytes = new JsonWriter(s.length() + 8).writeString(s).toByteArray();
+        if (s.length() <= MAX_CACHED_STRING_LENGTH && ESCAPED_STRINGS.size() < MAX_CACHED_STRINGS) {
+            ESCAPED_STRINGS.putIfAbsent(s, bytes);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,533 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.hyp3r.services.kinesis.logback.ext.GlobalMetadata;
+import com.hyp3r.services.kinesis.logback.ext.MetadataContext;
+import com.hyp3r.services.kinesis.logback.ext.MetadataMarker;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a logging event straight to JSON bytes in the {@link com.hyp3r.services.kinesis.logback.models.KinesisLogEvent}
+ * layout. Null fields are omitted. Typed metadata carried by a {@link MetadataMarker} is written as native JSON values,
+ * and global metadata is merged in from its pre-serialized snapshot.
+ *
+ * Depending on the {@link TemplateMode}, events also carry their raw message pattern or its template id and their typed
+ * arguments, and the formatted description may be left out altogether.
+ */
+public class KinesisEventEncoder {
+    public static final String EVENT_TYPE_KEY = "event_type";
+    public static final String CONTEXT_KEY = "context";
+    public static final String TRUNCATED_SUFFIX = "...[truncated]";
+
+    private static final byte[] LEVEL = field("level");
+    private static final byte[] LOGGER_NAME = field("logger_name");
+    private static final byte[] EVENT_TYPE = field(EVENT_TYPE_KEY);
+    private static final byte[] CONTEXT = field(CONTEXT_KEY);
+    private static final byte[] DESCRIPTION = field("description");
+    private static final byte[] TEMPLATE = field("template");
+    private static final byte[] TEMPLATE_ID = field("template_id");
+    private static final byte[] ARGS = field("args");
+    private static final byte[] STACKTRACE = field("stacktrace");
+    private static final byte[] TIMESTAMP = field("timestamp");
+    private static final byte[] METADATA = field("metadata");
+
+    private final byte[] header;
+    private final int maxDescriptionBytes;
+    private final int maxStacktraceBytes;
+    private final TemplateMode templateMode;
+    private final boolean formatDescription;
+    private final MessageTemplates templates = new MessageTemplates();
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    public KinesisEventEncoder(String appName, String environment) {
+        this(appName, environment, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * An encoder cutting the description and stacktrace fields off once their escaped UTF-8 form reaches the given
+     * number of bytes, {@link #TRUNCATED_SUFFIX} marking where. Truncation happens while the field is written, so the
+     * full-size JSON is never built.
+     */
+    public KinesisEventEncoder(String appName, String environment, int maxDescriptionBytes, int maxStacktraceBytes) {
+        this(appName, environment, maxDescriptionBytes, maxStacktraceBytes, TemplateMode.NONE, true);
+    }
+
+    /**
+     * An encoder adding message templates and arguments as set by {@code templateMode}. The description is only
+     * formatted and written when {@code formatDescription} is set; string arguments share its byte limit.
+     */
+    public KinesisEventEncoder(String appName, String environment, int maxDescriptionBytes, int maxStacktraceBytes,
+                               TemplateMode templateMode, boolean formatDescription) {
+        this.maxDescriptionBytes = maxDescriptionBytes;
+        this.maxStacktraceBytes = maxStacktraceBytes;
+        this.templateMode = templateMode;
+        this.formatDescription = formatDescription;
+        JsonWriter out = new JsonWriter().writeByte('{');
+        if (appName != null) {
+            out.writeRaw(field("app_name")).writeString(appName).writeByte(',');
+        }
+        if (environment != null) {
+            out.writeRaw(field("environment")).writeString(environment).writeByte(',');
+        }
+        this.header = out.toByteArray();
+    }
+
+    private static byte[] field(String name) {
+        return new JsonWriter().writeString(name).writeByte(':').toByteArray();
+    }
+
+    private static final class State {
+        private static final int INITIAL_BYTES = 2048;
+        // A buffer grown past this by an unusually large event is dropped rather than kept for the thread's lifetime
+        private static final int MAX_RETAINED_BYTES = 64 * 1024;
+
+        private JsonWriter out = new JsonWriter(INITIAL_BYTES);
+        private final TimestampFormat timestampFormat = new TimestampFormat();
+
+        // Metadata sources of the event being encoded
+        private KinesisMetadata metadata;
+        private KinesisMetadata shared;
+        private MetadataContext bound;
+        private Map<String, String> mdc;
+        private MdcProjection projection;
+        private KinesisMetadata loggerMetadata;
+
+        private void clear() {
+            metadata = null;
+            shared = null;
+            bound = null;
+            mdc = null;
+            projection = null;
+            loggerMetadata = null;
+        }
+
+        // Called once the bytes of the event were copied out
+        private void trim() {
+            if (out.buffer().length > MAX_RETAINED_BYTES) {
+                out = new JsonWriter(INITIAL_BYTES);
+            }
+        }
+    }
+
+    public byte[] encode(ILoggingEvent event, MetadataMarker marker, MetadataContext bound, String eventType, String context) {
+        return encode(event, marker, bound, eventType, context, true);
+    }
+
+    /**
+     * Without {@code details} the stacktrace is left out and the metadata is written empty, to keep records small
+     * while the JVM is under memory pressure.
+     */
+    public byte[] encode(ILoggingEvent event, MetadataMarker marker, MetadataContext bound, String eventType, String context,
+                         boolean details) {
+        return encode(event, marker, bound, eventType, context, details, MdcProjection.ALL);
+    }
+
+    /**
+     * Only the MDC keys kept by {@code projection} are written, under their projected names.
+     */
+    public byte[] encode(ILoggingEvent event, MetadataMarker marker, MetadataContext bound, String eventType, String context,
+                         boolean details, MdcProjection projection) {
+        return encode(event, marker, bound, eventType, context, details, projection, null);
+    }
+
+    /**
+     * Encodes an event bound for {@code stream}, which decides whether a template id comes with its pattern, see
+     * {@link #announcesPerStream()}.
+     */
+    public byte[] encode(ILoggingEvent event, MetadataMarker marker, MetadataContext bound, String eventType, String context,
+                         boolean details, MdcProjection projection, String stream) {
+        State st = state.get();
+        JsonWriter out = st.out.reset();
+        writeFields(out, st, event, eventType, context, details, stream);
+        if (details) {
+            st.metadata = marker == null ? null : marker.getMetadata();
+            st.bound = bound;
+            st.mdc = event.getMDCPropertyMap();
+            st.projection = projection;
+            st.loggerMetadata = marker == null ? null : marker.getLoggerMetadata();
+            try {
+                boolean first = writeMetadata(out, st, st.metadata, CALL, true);
+                writeSources(out, st, first);
+            } finally {
+                st.clear();
+            }
+        }
+        out.writeByte('}');
+
+        out.writeByte('}');
+        byte[] encoded = out.toByteArray();
+        st.trim();
+        return encoded;
+    }
+
+    /**
+     * Encodes every row of a bulk write, carried by {@code marker}, as an event of its own. The row metadata takes
+     * precedence over the marker's shared metadata, then come the usual sources. Everything but the row metadata is
+     * written once: the fields before the metadata, and the metadata of the other sources for rows not shadowing any
+     * of it.
+     */
+    public byte[][] encodeRows(ILoggingEvent event, MetadataMarker marker, MetadataContext bound, String eventType,
+                               String context, boolean details, MdcProjection projection, String stream) {
+        List<KinesisMetadata> rows = marker.getRows();
+        byte[][] encoded = new byte[rows.size()][];
+        State st = state.get();
+        JsonWriter out = st.out.reset();
+        writeFields(out, st, event, eventType, context, details, stream);
+        if (!details) {
+            Arrays.fill(encoded, out.writeByte('}').writeByte('}').toByteArray());
+            st.trim();
+            return encoded;
+        }
+        byte[] fields = out.toByteArray();
+
+        st.shared = marker.getMetadata();
+        st.bound = bound;
+        st.mdc = event.getMDCPropertyMap();
+        st.projection = projection;
+        st.loggerMetadata = marker.getLoggerMetadata();
+        try {
+            out.reset();
+            writeSources(out, st, true);
+            byte[] sources = out.toByteArray();
+            GlobalMetadata.Snapshot globals = GlobalMetadata.current();
+            for (int i = 0; i < encoded.length; i++) {
+                KinesisMetadata row = rows.get(i);
+                out.reset().writeRaw(fields);
+                if (row == null || row.isEmpty()) {
+                    out.writeRaw(sources);
+                } else if (!shadowsSources(st, row, globals)) {
+                    writeMetadata(out, st, row, CALL, true);
+                    if (sources.length > 0) {
+                        out.writeByte(',').writeRaw(sources);
+                    }
+                } else {
+                    st.metadata = row;
+                    writeSources(out, st, writeMetadata(out, st, row, CALL, true));
+                    st.metadata = null;
+                }
+                encoded[i] = out.writeByte('}').writeByte('}').toByteArray();
+            }
+        } finally {
+            st.clear();
+            st.trim();
+        }
+        return encoded;
+    }
+
+    // Everything up to the opening brace of the metadata
+    private void writeFields(JsonWriter out, State st, ILoggingEvent event, String eventType, String context, boolean details,
+                             String stream) {
+        out.writeRaw(header);
+        out.writeRaw(LEVEL).writeCachedString(event.getLevel().levelStr);
+        if (event.getLoggerName() != null) {
+            out.writeByte(',').writeRaw(LOGGER_NAME).writeCachedString(event.getLoggerName());
+        }
+        if (eventType != null) {
+            out.writeByte(',').writeRaw(EVENT_TYPE).writeCachedString(eventType);
+        }
+        if (context != null) {
+            out.writeByte(',').writeRaw(CONTEXT).writeString(context);
+        }
+        if (formatDescription) {
+            String description = event.getFormattedMessage();
+            if (description != null) {
+                out.writeByte(',').writeRaw(DESCRIPTION);
+                writeTruncated(out, description, maxDescriptionBytes);
+            }
+        }
+        if (templateMode != TemplateMode.NONE && event.getMessage() != null) {
+            writeTemplate(out, event, stream);
+        }
+        if (details && event.getLevel().isGreaterOrEqual(Level.WARN) && event.getThrowableProxy() != null) {
+            out.writeByte(',').writeRaw(STACKTRACE).writeByte('"');
+            if (!StackTraceWriter.write(out, event.getThrowableProxy(), maxStacktraceBytes)) {
+                out.writeAscii(TRUNCATED_SUFFIX);
+            }
+            out.writeByte('"');
+        }
+        out.writeByte(',').writeRaw(TIMESTAMP);
+        st.timestampFormat.write(out, event.getTimeStamp());
+
+        out.writeByte(',').writeRaw(METADATA).writeByte('{');
+    }
+
+    private static void writeTruncated(JsonWriter out, String s, int maxBytes) {
+        out.writeByte('"');
+        if (out.writeEscaped(s, 0, s.length(), maxBytes) < s.length()) {
+            out.writeAscii(TRUNCATED_SUFFIX);
+        }
+        out.writeByte('"');
+    }
+
+    /**
+     * Whether the bytes of an event depend on the stream they are encoded for, which is the case when only template ids
+     * are sent and their patterns are announced on each stream.
+     */
+    public boolean announcesPerStream() {
+        return templateMode == TemplateMode.ID;
+    }
+
+    private void writeTemplate(JsonWriter out, ILoggingEvent event, String stream) {
+        MessageTemplates.Template template = templates.get(event.getMessage());
+        if (templateMode == TemplateMode.PATTERN
+            || template.announce(stream == null ? "" : stream, event.getTimeStamp())) {
+            out.writeByte(',').writeRaw(TEMPLATE).writeRaw(template.pattern());
+        }
+        if (templateMode == TemplateMode.ID) {
+            out.writeByte(',').writeRaw(TEMPLATE_ID).writeRaw(template.id());
+        }
+
+        Object[] args = event.getArgumentArray();
+        if (args == null || args.length == 0) {
+            return;
+        }
+        out.writeByte(',').writeRaw(ARGS).writeByte('[');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                out.writeByte(',');
+            }
+            if (args[i] instanceof String) {
+                writeTruncated(out, (String) args[i], maxDescriptionBytes);
+            } else {
+                writeObject(out, args[i]);
+            }
+        }
+        out.writeByte(']');
+    }
+
+    // Metadata sources in order of precedence, a key is only written from the highest source that has it
+    private static final int CALL = 0;
+    private static final int SHARED = 1;
+    private static final int BOUND = 2;
+    private static final int MDC = 3;
+    private static final int LOGGER = 4;
+    private static final int GLOBAL = 5;
+
+    private static boolean shadowed(State st, String key, int source) {
+        return (source > CALL && st.metadata != null && st.metadata.containsKey(key))
+            || (source > SHARED && st.shared != null && st.shared.containsKey(key))
+            || (source > BOUND && st.bound != null && st.bound.containsKey(key))
+            || (source > MDC && inMdc(st, key))
+            || (source > LOGGER && st.loggerMetadata != null && st.loggerMetadata.containsKey(key));
+    }
+
+    private static boolean inMdc(State st, String key) {
+        String mdcKey = st.projection == MdcProjection.ALL ? key : st.projection.sourceOf(key);
+        return mdcKey != null && st.mdc.containsKey(mdcKey) && !mirrorsBound(st, mdcKey);
+    }
+
+    // Bound metadata is mirrored into the MDC as strings; those copies are left out, the binding is written instead
+    private static boolean mirrorsBound(State st, String mdcKey) {
+        return st.bound != null && st.bound.containsKey(mdcKey);
+    }
+
+    // Every source below the call metadata
+    private static boolean writeSources(JsonWriter out, State st, boolean first) {
+        first = writeMetadata(out, st, st.shared, SHARED, first);
+        first = writeBound(out, st, first);
+        first = writeMdc(out, st, first);
+        first = writeMetadata(out, st, st.loggerMetadata, LOGGER, first);
+        return writeGlobals(out, st, first);
+    }
+
+    // Whether a row has a key of a lower source, which then has to be written without it
+    private static boolean shadowsSources(State st, KinesisMetadata row, GlobalMetadata.Snapshot globals) {
+        for (int i = 0; i < row.size(); i++) {
+            String key = row.key(i);
+            if (shadowed(st, key, GLOBAL)) {
+                return true;
+            }
+            for (int g = 0; g < globals.size(); g++) {
+                if (globals.key(g).equals(key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean writeMetadata(JsonWriter out, State st, KinesisMetadata metadata, int source, boolean first) {
+        if (metadata == null) {
+            return first;
+        }
+        for (int i = 0; i < metadata.size(); i++) {
+            String key = metadata.key(i);
+            if (shadowed(st, key, source)) {
+                continue;
+            }
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            byte[] encodedKey = metadata.encodedKey(i);
+            if (encodedKey != null) {
+                out.writeRaw(encodedKey);
+            } else {
+                out.writeCachedString(key).writeByte(':');
+            }
+            writeValue(out, metadata, i);
+        }
+        return first;
+    }
+
+    private static boolean writeBound(JsonWriter out, State st, boolean first) {
+        if (st.bound == null) {
+            return first;
+        }
+        for (MetadataContext node = st.bound; !node.isEmpty(); node = node.parent()) {
+            if (node.isShadowedIn(st.bound) || shadowed(st, node.key(), BOUND)) {
+                continue;
+            }
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            out.writeCachedString(node.key()).writeByte(':');
+            writeObject(out, node.value());
+        }
+        return first;
+    }
+
+    private static void writeValue(JsonWriter out, KinesisMetadata metadata, int i) {
+        switch (metadata.type(i)) {
+            case KinesisMetadata.LONG:
+                out.writeLong(metadata.longValue(i));
+                break;
+            case KinesisMetadata.DOUBLE:
+                writeDouble(out, metadata.doubleValue(i));
+                break;
+            case KinesisMetadata.BOOLEAN:
+                out.writeAscii(metadata.booleanValue(i) ? "true" : "false");
+                break;
+            case KinesisMetadata.NULL:
+                out.writeAscii("null");
+                break;
+            case KinesisMetadata.STRING:
+                out.writeString((String) metadata.ref(i));
+                break;
+            default:
+                writeObject(out, metadata.ref(i));
+        }
+    }
+
+    private static void writeDouble(JsonWriter out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Not representable in JSON
+            out.writeString(Double.toString(value));
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            out.writeLong((long) value).writeAscii(".0");
+        } else {
+            out.writeAscii(Double.toString(value));
+        }
+    }
+
+    // Nested values of maps and lists
+    private static void writeObject(JsonWriter out, Object value) {
+        if (value == null) {
+            out.writeAscii("null");
+        } else if (value instanceof String) {
+            out.writeString((String) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(out, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeAscii((Boolean) value ? "true" : "false");
+        } else if (value instanceof Map) {
+            out.writeByte('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    out.writeByte(',');
+                }
+                first = false;
+                out.writeString(String.valueOf(entry.getKey())).writeByte(':');
+                writeObject(out, entry.getValue());
+            }
+            out.writeByte('}');
+        } else if (value instanceof Iterable) {
+            out.writeByte('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (!first) {
+                    out.writeByte(',');
+                }
+                first = false;
+                writeObject(out, element);
+            }
+            out.writeByte(']');
+        } else if (value instanceof Date) {
+            out.writeString(KinesisMetadata.formatDate((Date) value));
+        } else {
+            out.writeString(value.toString());
+        }
+    }
+
+    // A single pass over the MDC, each key projected with one table probe
+    private static boolean writeMdc(JsonWriter out, State st, boolean first) {
+        MdcProjection projection = st.projection;
+        for (Map.Entry<String, String> entry : st.mdc.entrySet()) {
+            String key = entry.getKey();
+            if (EVENT_TYPE_KEY.equals(key) || CONTEXT_KEY.equals(key) || mirrorsBound(st, key)) {
+                continue;
+            }
+            int slot = projection.find(key);
+            String name = slot >= 0 ? projection.name(slot) : projection.keepsUnlisted() ? key : null;
+            if (name == null || shadowed(st, name, MDC)) {
+                continue;
+            }
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            if (slot >= 0) {
+                out.writeRaw(projection.field(slot));
+            } else {
+                out.writeCachedString(key).writeByte(':');
+            }
+            if (entry.getValue() == null) {
+                out.writeAscii("null");
+            } else {
+                out.writeString(entry.getValue());
+            }
+        }
+        return first;
+    }
+
+    private static boolean writeGlobals(JsonWriter out, State st, boolean first) {
+        GlobalMetadata.Snapshot globals = GlobalMetadata.current();
+        if (globals.isEmpty()) {
+            return first;
+        }
+
+        boolean overridden = false;
+        for (int i = 0; i < globals.size() && !overridden; i++) {
+            overridden = shadowed(st, globals.key(i), GLOBAL);
+        }
+        if (!overridden) {
+            if (!first) {
+                out.writeByte(',');
+            }
+            out.writeRaw(globals.allEntries());
+            return false;
+        }
+
+        for (int i = 0; i < globals.size(); i++) {
+            if (shadowed(st, globals.key(i), GLOBAL)) {
+                continue;
+            }
+            if (!first) {
+                out.writeByte(',');
+            }
+            first = false;
+            out.writeRaw(globals.entry(i));
+        }
+        return first;
+    }
+}
@@ -0,0 +1,266 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Which MDC keys an event carries into its metadata, and under which names. Configured as comma separated lists: an
+ * allowlist of keys to keep, a denylist of keys to drop and {@code from:to} renames. When an allowlist is set only its
+ * keys and renamed keys are kept. The denylist wins over both, and a rename target replaces an MDC key of the same name.
+ * Bound metadata is not projected: the encoder writes it from the binding and skips its copies in the MDC.
+ *
+ * The rules are compiled into small open-addressed tables, so the encoder projects each MDC entry with a single probe
+ * while it iterates the MDC, and renamed keys are written from pre-escaped bytes. Projections are equal when they keep
+ * and rename the same keys, however their lists were written.
+ */
+public final class MdcProjection {
+    public static final MdcProjection ALL = new MdcProjection(new String[0], new String[0], false);
+
+    // MDC key to the name it is written under, null when dropped
+    private final KeyTable names;
+    // Written name back to its MDC key, for renamed and allowed keys
+    private final KeyTable sources;
+    private final byte[][] fields;
+    private final boolean allowlist;
+
+    private MdcProjection(String[] keys, String[] outputs, boolean allowlist) {
+        this.names = new KeyTable(keys, outputs);
+        this.allowlist = allowlist;
+        this.fields = new byte[names.keys.length][];
+        int kept = 0;
+        for (String output : outputs) {
+            kept += output == null ? 0 : 1;
+        }
+        String[] outputKeys = new String[kept];
+        String[] sourceKeys = new String[kept];
+        kept = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (outputs[i] != null) {
+                outputKeys[kept] = outputs[i];
+                sourceKeys[kept++] = keys[i];
+            }
+        }
+        this.sources = new KeyTable(outputKeys, sourceKeys);
+        for (int slot = 0; slot < fields.length; slot++) {
+            String output = names.values[slot];
+            if (output != null) {
+                fields[slot] = new JsonWriter().writeString(output).writeByte(':').toByteArray();
+            }
+        }
+    }
+
+    /**
+     * Compiles the three lists, {@link #ALL} when none is set. Throws an {@link IllegalArgumentException} if a rename is
+     * not of the form {@code from:to} or two keys would be written under the same name.
+     */
+    public static MdcProjection compile(String include, String exclude, String rename) {
+        if (StringUtils.isBlank(include) && StringUtils.isBlank(exclude) && StringUtils.isBlank(rename)) {
+            return ALL;
+        }
+        String[] includes = split(include);
+        String[] excludes = split(exclude);
+        String[] renames = split(rename);
+
+        KeyList rules = new KeyList(includes.length + excludes.length + 2 * renames.length);
+        for (String key : includes) {
+            rules.put(key, key);
+        }
+        String[] targets = new String[renames.length];
+        for (int i = 0; i < renames.length; i++) {
+            int colon = renames[i].indexOf(':');
+            String from = colon < 0 ? "" : renames[i].substring(0, colon).trim();
+            targets[i] = colon < 0 ? "" : renames[i].substring(colon + 1).trim();
+            if (from.isEmpty() || targets[i].isEmpty()) {
+                throw new IllegalArgumentException("mdcRename entries must look like from:to, not " + renames[i]);
+            }
+            rules.put(from, targets[i]);
+        }
+        for (String target : targets) {
+            rules.putIfAbsent(target, null);
+        }
+        for (String key : excludes) {
+            rules.put(key, null);
+        }
+
+        KeyList written = new KeyList(rules.size);
+        for (int i = 0; i < rules.size; i++) {
+            String output = rules.values[i];
+            if (output != null && !written.putIfAbsent(output, rules.keys[i])) {
+                throw new IllegalArgumentException("mdcInclude and mdcRename write two keys as " + output);
+            }
+        }
+        return new MdcProjection(rules.keysArray(), rules.valuesArray(), includes.length > 0);
+    }
+
+    private static String[] split(String list) {
+        if (StringUtils.isBlank(list)) {
+            return new String[0];
+        }
+        return StringUtils.stripAll(StringUtils.split(list, ','));
+    }
+
+    /**
+     * The slot of an MDC key with a rule of its own, or -1 when {@link #keepsUnlisted()} decides.
+     */
+    int find(String mdcKey) {
+        return names.find(mdcKey);
+    }
+
+    /**
+     * The name an MDC key with a rule is written under, or null when it is dropped.
+     */
+    String name(int slot) {
+        return names.values[slot];
+    }
+
+    // The escaped name and colon, ready to be written
+    byte[] field(int slot) {
+        return fields[slot];
+    }
+
+    /**
+     * Whether MDC keys without a rule of their own are kept under their own name.
+     */
+    boolean keepsUnlisted() {
+        return !allowlist;
+    }
+
+    /**
+     * The MDC key written as {@code name}, or null if none can be. Used to let a written MDC key shadow lower metadata
+     * sources.
+     */
+    public String sourceOf(String name) {
+        int slot = sources.find(name);
+        if (slot >= 0) {
+            return sources.values[slot];
+        }
+        return allowlist || names.find(name) >= 0 ? null : name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MdcProjection)) {
+            return false;
+        }
+        MdcProjection other = (MdcProjection) o;
+        if (allowlist != other.allowlist || names.size != other.names.size) {
+            return false;
+        }
+        for (int slot = 0; slot < names.keys.length; slot++) {
+            String key = names.keys[slot];
+            if (key != null) {
+                int otherSlot = other.names.find(key);
+                if (otherSlot < 0 || !Objects.equals(names.values[slot], other.names.values[otherSlot])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = allowlist ? 1 : 0;
+        for (int slot = 0; slot < names.keys.length; slot++) {
+            if (names.keys[slot] != null) {
+                hash += names.keys[slot].hashCode() ^ Objects.hashCode(names.values[slot]);
+            }
+        }
+        return hash;
+    }
+
+    // Open addressing with linear probing, at most half full
+    private static final class KeyTable {
+        private final String[] keys;
+        private final String[] values;
+        private final int mask;
+        private final int size;
+
+        private KeyTable(String[] keys, String[] values) {
+            int capacity = 2;
+            while (capacity < 2 * keys.length) {
+                capacity <<= 1;
+            }
+            this.keys = new String[capacity];
+            this.values = new String[capacity];
+            this.mask = capacity - 1;
+            this.size = keys.length;
+            for (int i = 0; i < keys.length; i++) {
+                int slot = hash(keys[i]) & mask;
+                while (this.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = keys[i];
+                this.values[slot] = values[i];
+            }
+        }
+
+        private int find(String key) {
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                String candidate = keys[slot];
+                if (candidate == null) {
+                    return -1;
+                }
+                if (candidate.equals(key)) {
+                    return slot;
+                }
+            }
+        }
+
+        private static int hash(String key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+
+    // Insertion ordered pairs used while compiling, where a later rule for the same key replaces an earlier one
+    private static final class KeyList {
+        private final String[] keys;
+        private final String[] values;
+        private int size;
+
+        private KeyList(int capacity) {
+            keys = new String[capacity];
+            values = new String[capacity];
+        }
+
+        private void put(String key, String value) {
+            int i = indexOf(key);
+            if (i < 0) {
+                i = size++;
+                keys[i] = key;
+            }
+            values[i] = value;
+        }
+
+        private boolean putIfAbsent(String key, String value) {
+            if (indexOf(key) >= 0) {
+                return false;
+            }
+            put(key, value);
+            return true;
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private String[] keysArray() {
+            return Arrays.copyOf(keys, size);
+        }
+
+        private String[] valuesArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
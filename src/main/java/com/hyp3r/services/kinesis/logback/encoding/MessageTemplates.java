@@ -0,0 +1,84 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message patterns and their template ids, encoded once and cached. An id is the 64 bit FNV-1a hash of the pattern's
+ * UTF-16 code units, in hex, so any consumer can compute it from a pattern.
+ *
+ * When only ids are sent, a pattern is announced on each stream the first time it is used there, and again every
+ * {@link #ANNOUNCE_INTERVAL_MILLIS}, so consumers that start reading later, or lost the record announcing it, learn it
+ * within that interval.
+ */
+public class MessageTemplates {
+    public static final long ANNOUNCE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int MAX_CACHED_TEMPLATES = 4096;
+    private static final int MAX_CACHED_PATTERN_LENGTH = 4096;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<>();
+
+    public static String templateId(String pattern) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        String hex = Long.toHexString(hash);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * The cached template of {@code pattern}. Patterns that do not fit the cache get a fresh template every time, which
+     * also means they are always sent along with their id.
+     */
+    public Template get(String pattern) {
+        Template template = templates.get(pattern);
+        if (template != null) {
+            return template;
+        }
+        template = new Template(pattern);
+        if (pattern.length() <= MAX_CACHED_PATTERN_LENGTH && templates.size() < MAX_CACHED_TEMPLATES) {
+            Template existing = templates.putIfAbsent(pattern, template);
+            return existing != null ? existing : template;
+        }
+        return template;
+    }
+
+    public static final class Template {
+        private final byte[] pattern;
+        private final byte[] id;
+        // Stream to when the pattern was last announced on it
+        private final ConcurrentHashMap<String, Long> announced = new ConcurrentHashMap<>(4);
+
+        private Template(String pattern) {
+            this.pattern = new JsonWriter(pattern.length() + 8).writeString(pattern).toByteArray();
+            this.id = JsonWriter.quoted(templateId(pattern));
+        }
+
+        // Quoted, escaped UTF-8 pattern
+        byte[] pattern() {
+            return pattern;
+        }
+
+        // Quoted template id
+        byte[] id() {
+            return id;
+        }
+
+        // True when the pattern is due on stream, either never announced there or last announced an interval before now.
+        // Callers racing on it may all see true.
+        boolean announce(String stream, long now) {
+            Long last = announced.get(stream);
+            if (last != null && now - last < ANNOUNCE_INTERVAL_MILLIS) {
+                return false;
+            }
+            announced.put(stream, now);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Splits an encoded event that is too large for a single Kinesis record into parts. Every part is a small JSON envelope
+ * carrying the shared chunk id, its index, the number of parts and a base64 slice of the event; consumers put the event
+ * back together with {@link ChunkReassembler}.
+ */
+public final class RecordChunker {
+    public static final String CHUNK_ID_KEY = "chunk_id";
+    public static final String CHUNK_INDEX_KEY = "chunk_index";
+    public static final String CHUNK_COUNT_KEY = "chunk_count";
+    public static final String DATA_KEY = "data";
+
+    // Field names, punctuation and the digits of index and count
+    private static final int ENVELOPE_OVERHEAD = 96;
+
+    private RecordChunker() {
+    }
+
+    public static List<byte[]> split(byte[] record, String chunkId, int maxChunkBytes) {
+        byte[] quotedId = JsonWriter.quoted(chunkId);
+        int available = maxChunkBytes - ENVELOPE_OVERHEAD - quotedId.length;
+        if (available < 4) {
+            throw new IllegalArgumentException("maxChunkBytes too small to hold a chunk: " + maxChunkBytes);
+        }
+        // Base64 turns every 3 bytes into 4
+        int sliceBytes = available / 4 * 3;
+        int count = (record.length + sliceBytes - 1) / sliceBytes;
+
+        Base64.Encoder base64 = Base64.getEncoder();
+        List<byte[]> chunks = new ArrayList<>(count);
+        JsonWriter out = new JsonWriter(maxChunkBytes);
+        for (int i = 0; i < count; i++) {
+            int from = i * sliceBytes;
+            byte[] slice = new byte[Math.min(sliceBytes, record.length - from)];
+            System.arraycopy(record, from, slice, 0, slice.length);
+
+            out.reset().writeByte('{');
+            out.writeCachedString(CHUNK_ID_KEY).writeByte(':').writeRaw(quotedId).writeByte(',');
+            out.writeCachedString(CHUNK_INDEX_KEY).writeByte(':').writeLong(i).writeByte(',');
+            out.writeCachedString(CHUNK_COUNT_KEY).writeByte(':').writeLong(count).writeByte(',');
+            out.writeCachedString(DATA_KEY).writeByte(':').writeByte('"').writeRaw(base64.encode(slice)).writeByte('"');
+            out.writeByte('}');
+            chunks.add(out.toByteArray());
+        }
+        return chunks;
+    }
+}
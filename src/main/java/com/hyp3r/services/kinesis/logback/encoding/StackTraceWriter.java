@@ -0,0 +1,84 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.core.CoreConstants;
+
+/**
+ * Writes a throwable in the layout of logback's full {@code ThrowableProxyConverter}, straight into a {@link JsonWriter}
+ * and one frame at a time, so a deep stack trace is never rendered to a single string and can be cut off at a byte
+ * budget.
+ */
+final class StackTraceWriter {
+    private final JsonWriter out;
+    private final int limit;
+    private boolean truncated;
+
+    private StackTraceWriter(JsonWriter out, int maxBytes) {
+        this.out = out;
+        this.limit = maxBytes > Integer.MAX_VALUE - out.size() ? Integer.MAX_VALUE : out.size() + maxBytes;
+    }
+
+    /**
+     * Writes the escaped stack trace of {@code tp}, without quotes. Returns false if it was cut off at {@code maxBytes}.
+     */
+    static boolean write(JsonWriter out, IThrowableProxy tp, int maxBytes) {
+        StackTraceWriter writer = new StackTraceWriter(out, maxBytes);
+        writer.append(null, 1, tp);
+        return !writer.truncated;
+    }
+
+    private void append(String prefix, int indent, IThrowableProxy tp) {
+        if (tp == null || truncated) {
+            return;
+        }
+        tabs(indent - 1);
+        if (prefix != null) {
+            text(prefix);
+        }
+        text(tp.getClassName());
+        text(": ");
+        text(String.valueOf(tp.getMessage()));
+        text(CoreConstants.LINE_SEPARATOR);
+
+        StackTraceElementProxy[] frames = tp.getStackTraceElementProxyArray();
+        int commonFrames = tp.getCommonFrames();
+        for (int i = 0; i < frames.length - commonFrames && !truncated; i++) {
+            tabs(indent);
+            text(frames[i].getSTEAsString());
+            text(CoreConstants.LINE_SEPARATOR);
+        }
+        if (commonFrames > 0) {
+            tabs(indent);
+            text("... ");
+            text(Integer.toString(commonFrames));
+            text(" common frames omitted");
+            text(CoreConstants.LINE_SEPARATOR);
+        }
+
+        IThrowableProxy[] suppressed = tp.getSuppressed();
+        if (suppressed != null) {
+            for (IThrowableProxy current : suppressed) {
+                append(CoreConstants.SUPPRESSED, indent + 1, current);
+            }
+        }
+        append(CoreConstants.CAUSED_BY, indent, tp.getCause());
+    }
+
+    private void tabs(int count) {
+        for (int i = 0; i < count; i++) {
+            text("\t");
+        }
+    }
+
+    private void text(String s) {
+        if (truncated) {
+            return;
+        }
+        if (limit == Integer.MAX_VALUE) {
+            out.writeEscaped(s, 0, s.length());
+        } else if (out.writeEscaped(s, 0, s.length(), limit - out.size()) < s.length()) {
+            truncated = true;
+        }
+    }
+}
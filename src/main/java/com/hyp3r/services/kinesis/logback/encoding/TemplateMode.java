@@ -0,0 +1,14 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+/**
+ * What an event carries besides, or instead of, its formatted description.
+ */
+public enum TemplateMode {
+    // Only the formatted description
+    NONE,
+    // The raw message pattern and its typed arguments
+    PATTERN,
+    // A stable id of the message pattern and its typed arguments. The pattern itself is only sent with the first event
+    // using it on each stream, and again every MessageTemplates.ANNOUNCE_INTERVAL_MILLIS, so consumers can learn the id
+    ID
+}
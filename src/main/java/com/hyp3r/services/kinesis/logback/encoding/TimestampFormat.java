@@ -0,0 +1,34 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Writes timestamps as {@code yyyy-MM-dd'T'HH:mm:ss.SSSZ} in the default time zone. Everything but the milliseconds
+ * is formatted once per second and reused, so consecutive events in the same second cost a few byte copies.
+ */
+final class TimestampFormat {
+    private static final String PATTERN_SECONDS = "yyyy-MM-dd'T'HH:mm:ss.";
+    private static final String PATTERN_ZONE = "Z";
+
+    private final SimpleDateFormat secondsFormat = new SimpleDateFormat(PATTERN_SECONDS);
+    private final SimpleDateFormat zoneFormat = new SimpleDateFormat(PATTERN_ZONE);
+
+    private long cachedSecond = Long.MIN_VALUE;
+    private byte[] cachedPrefix;
+    private byte[] cachedZone;
+
+    void write(JsonWriter out, long timestamp) {
+        long second = Math.floorDiv(timestamp, 1000L);
+        if (second != cachedSecond) {
+            Date date = new Date(second * 1000L);
+            cachedPrefix = secondsFormat.format(date).getBytes();
+            cachedZone = zoneFormat.format(date).getBytes();
+            cachedSecond = second;
+        }
+        int millis = (int) Math.floorMod(timestamp, 1000L);
+        out.writeByte('"').writeRaw(cachedPrefix)
+            .writeByte('0' + millis / 100).writeByte('0' + (millis / 10) % 10).writeByte('0' + millis % 10)
+            .writeRaw(cachedZone).writeByte('"');
+    }
+}
@@ -0,0 +1,102 @@
+package com.hyp3r.services.kinesis.logback.ext;
+
+import ch.qos.logback.classic.Level;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * Writes many events of one type, such as one per row of a batch job, returned by
+ * {@link KinesisLogger#batch(String, KinesisMetadata)}. The event type, shared metadata, bound metadata and logger
+ * metadata are captured once when the writer is created. Rows are collected into chunks, and each chunk goes through
+ * logback as a single logging event, so the logger level, filters and appenders are consulted once per chunk. The
+ * Kinesis appender then sends every row as an event of its own, with the row metadata taking precedence over the shared
+ * metadata, through its usual batching, lanes and backpressure.
+ *
+ * Rows are kept until their chunk is sent, so each row needs a {@link KinesisMetadata} of its own. A writer is meant for
+ * a single thread; close it, or call {@link #flush()}, to send the last rows.
+ */
+public final class BulkWriter implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_ROWS = 500;
+
+    private final KinesisLogger logger;
+    private final Level level;
+    private final String eventType;
+    private final String context;
+    private final KinesisMetadata sharedMetadata;
+    private final MetadataContext boundMetadata;
+    private final KinesisMetadata loggerMetadata;
+    private final String message;
+    private int chunkRows = DEFAULT_CHUNK_ROWS;
+    private KinesisMetadata[] rows = new KinesisMetadata[DEFAULT_CHUNK_ROWS];
+    private int size;
+    private long written;
+
+    BulkWriter(KinesisLogger logger, Level level, String eventType, String context, KinesisMetadata sharedMetadata,
+               KinesisMetadata loggerMetadata, String message) {
+        this.logger = logger;
+        this.level = level;
+        this.eventType = StringUtils.isNotBlank(eventType) ? eventType : null;
+        this.context = StringUtils.isNotBlank(context) ? context : null;
+        this.sharedMetadata = sharedMetadata;
+        this.boundMetadata = MetadataContext.current();
+        this.loggerMetadata = loggerMetadata;
+        this.message = message;
+    }
+
+    /**
+     * Sets how many rows go into one logging event, {@link #DEFAULT_CHUNK_ROWS} by default.
+     */
+    public BulkWriter chunkRows(int chunkRows) {
+        if (chunkRows <= 0) {
+            throw new IllegalArgumentException("chunkRows must be positive");
+        }
+        flush();
+        this.chunkRows = chunkRows;
+        this.rows = new KinesisMetadata[chunkRows];
+        return this;
+    }
+
+    /**
+     * Adds a row, sending the chunk once it is full. Rows are dropped right away while the level is disabled.
+     */
+    public BulkWriter add(KinesisMetadata row) {
+        if (!logger.isLevelEnabled(level)) {
+            return this;
+        }
+        rows[size++] = row;
+        if (size == chunkRows) {
+            flush();
+        }
+        return this;
+    }
+
+    /**
+     * Sends the rows added since the last chunk.
+     */
+    public void flush() {
+        if (size == 0) {
+            return;
+        }
+        // The chunk is handed over as is, asynchronous appenders may still read it after this call
+        KinesisMetadata[] chunk = size == rows.length ? rows : Arrays.copyOf(rows, size);
+        rows = new KinesisMetadata[chunkRows];
+        written += size;
+        size = 0;
+        logger.kRows(level, new MetadataMarker(eventType, context, sharedMetadata, boundMetadata, loggerMetadata,
+            Arrays.asList(chunk)), message);
+    }
+
+    /**
+     * Number of rows sent so far, rows still waiting in the current chunk excluded.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
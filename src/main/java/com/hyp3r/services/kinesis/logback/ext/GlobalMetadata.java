@@ -0,0 +1,104 @@
+package com.hyp3r.services.kinesis.logback.ext;
+
+import com.hyp3r.services.kinesis.logback.encoding.JsonWriter;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process wide metadata added to every event by the appender at encode time. Changes swap in a new immutable
+ * {@link Snapshot} whose entries are already serialized to JSON, so reading globals costs nothing per event.
+ */
+public final class GlobalMetadata {
+    private static final AtomicReference<Snapshot> CURRENT = new AtomicReference<>(Snapshot.EMPTY);
+
+    private GlobalMetadata() {
+    }
+
+    public static Snapshot current() {
+        return CURRENT.get();
+    }
+
+    static void put(String key, String value) {
+        Snapshot prev;
+        Snapshot next;
+        do {
+            prev = CURRENT.get();
+            Map<String, String> values = new LinkedHashMap<>(prev.values);
+            values.put(key, value);
+            next = new Snapshot(prev.version + 1, values);
+        } while (!CURRENT.compareAndSet(prev, next));
+    }
+
+    static void clear() {
+        Snapshot prev;
+        do {
+            prev = CURRENT.get();
+        } while (!CURRENT.compareAndSet(prev, new Snapshot(prev.version + 1, Collections.emptyMap())));
+    }
+
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, Collections.emptyMap());
+
+        private final long version;
+        private final Map<String, String> values;
+        private final String[] keys;
+        private final byte[][] entries;
+        private final byte[] allEntries;
+
+        private Snapshot(long version, Map<String, String> values) {
+            this.version = version;
+            this.values = Collections.unmodifiableMap(values);
+            this.keys = values.keySet().toArray(new String[0]);
+            this.entries = new byte[keys.length][];
+
+            JsonWriter all = new JsonWriter();
+            JsonWriter entry = new JsonWriter();
+            for (int i = 0; i < keys.length; i++) {
+                entry.reset().writeString(keys[i]).writeByte(':').writeString(values.get(keys[i]));
+                entries[i] = entry.toByteArray();
+                if (i > 0) {
+                    all.writeByte(',');
+                }
+                all.writeRaw(entries[i]);
+            }
+            this.allEntries = all.toByteArray();
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public Map<String, String> getValues() {
+            return values;
+        }
+
+        public boolean isEmpty() {
+            return keys.length == 0;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public String key(int i) {
+            return keys[i];
+        }
+
+        /**
+         * The serialized {@code "key":"value"} pair of entry {@code i}.
+         */
+        public byte[] entry(int i) {
+            return entries[i];
+        }
+
+        /**
+         * All serialized pairs, comma separated.
+         */
+        public byte[] allEntries() {
+            return allEntries;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.hyp3r.services.kinesis.logback.ext;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a method of an event interface as an event. The annotation processor generates an {@code <Interface>Emitter}
+ * class next to the interface, implementing each method by writing its parameters as metadata under their snake_case
+ * names, or the name given with {@link KinesisField}:
+ *
+ * <pre>
+ * public interface CheckoutEvents {
+ *     &#64;KinesisEvent("checkout_completed")
+ *     void checkout(long orderId, double amount);
+ * }
+ *
+ * CheckoutEvents events = new CheckoutEventsEmitter(KinesisLoggerFactory.getLogger(Checkout.class));
+ * events.checkout(42, 9.99);
+ * </pre>
+ *
+ * Primitive parameters are written without boxing, enums as their name and other objects as {@link KinesisLogger}
+ * metadata values are. A {@link Throwable} parameter is attached to the event instead of written as a field.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface KinesisEvent {
+
+    /**
+     * The {@code event_type} of the event.
+     */
+    String value();
+
+    /**
+     * One of TRACE, DEBUG, INFO, WARN or ERROR.
+     */
+    String level() default "INFO";
+
+    String context() default "";
+
+    /**
+     * Sent as the description, as it is.
+     */
+    String message() default "";
+}
@@ -0,0 +1,18 @@
+package com.hyp3r.services.kinesis.logback.ext;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names the metadata key of a {@link KinesisEvent} method parameter, in place of its snake_case name.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.PARAMETER)
+public @interface KinesisField {
+
+    String value();
+}
@@ -1,105 +1,174 @@
 package com.hyp3r.services.kinesis.logback.ext;
 
 import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.TurboFilterList;
+import com.hyp3r.services.kinesis.logback.aggregation.AggregateFlusher;
+import com.hyp3r.services.kinesis.logback.aggregation.Aggregator;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
-import org.slf4j.MDC;
 import org.slf4j.ext.LoggerWrapper;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class KinesisLogger extends LoggerWrapper implements Logger {
+    private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+    private static final int ALL_LEVELS = 0x1F;
+    private static final AtomicInteger LEVEL_EPOCH = new AtomicInteger();
+
+    private volatile LevelFlags levelFlags;
+    private volatile KinesisMetadata loggerMetadata;
+    private volatile Aggregator aggregator;
+
     public KinesisLogger(Logger logger) {
         super(logger, LoggerWrapper.class.getName());
+        if (logger instanceof ch.qos.logback.classic.Logger) {
+            KinesisLoggerFactory.listenTo(((ch.qos.logback.classic.Logger) logger).getLoggerContext());
+        }
     }
 
     public void kTrace(String eventType, String fmt, Object... args) {
-        kLevel(Level.TRACE, eventType, null, null, fmt, null, args);
+        kLevel(Level.TRACE, eventType, null, null, null, fmt, null, args);
     }
 
     public void kDebug(String eventType, String fmt, Object... args) {
-        kDebug(eventType, null, fmt, args);
+        kLevel(Level.DEBUG, eventType, null, null, null, fmt, null, args);
     }
 
     public void kDebug(String eventType, Map<String, Object> mdc, String fmt, Object... args) {
-        kDebug(eventType, null, mdc, fmt, args);
+        kLevel(Level.DEBUG, eventType, null, mdc, null, fmt, null, args);
     }
+
     public void kDebug(String eventType, String context, Map<String, Object> mdc, String fmt, Object... args) {
-        kLevel(Level.DEBUG, eventType, context, mdc, fmt, null, args);
+        kLevel(Level.DEBUG, eventType, context, mdc, null, fmt, null, args);
+    }
+
+    public void kDebug(String eventType, KinesisMetadata metadata, String fmt, Object... args) {
+        kLevel(Level.DEBUG, eventType, null, null, metadata, fmt, null, args);
+    }
+
+    public void kDebug(String eventType, String context, KinesisMetadata metadata, String fmt, Object... args) {
+        kLevel(Level.DEBUG, eventType, context, null, metadata, fmt, null, args);
     }
 
     public void kInfo(String eventType, String fmt, Object... args) {
-        kInfo(eventType, null, fmt, args);
+        kLevel(Level.INFO, eventType, null, null, null, fmt, null, args);
     }
 
     public void kInfo(String eventType, Map<String, Object> mdc, String fmt, Object... args) {
-        kInfo(eventType, null, mdc, fmt, args);
+        kLevel(Level.INFO, eventType, null, mdc, null, fmt, null, args);
     }
 
     public void kInfo(String eventType, String context, Map<String, Object> mdc, String fmt, Object... args) {
-        kLevel(Level.INFO, eventType, context, mdc, fmt, null, args);
+        kLevel(Level.INFO, eventType, context, mdc, null, fmt, null, args);
+    }
+
+    public void kInfo(String eventType, KinesisMetadata metadata, String fmt, Object... args) {
+        kLevel(Level.INFO, eventType, null, null, metadata, fmt, null, args);
+    }
+
+    public void kInfo(String eventType, String context, KinesisMetadata metadata, String fmt, Object... args) {
+        kLevel(Level.INFO, eventType, context, null, metadata, fmt, null, args);
     }
 
     public void kWarn(String eventType, String fmt, Object... args) {
-        kWarn(eventType, null, fmt, args);
+        kLevel(Level.WARN, eventType, null, null, null, fmt, null, args);
     }
 
     public void kWarn(String eventType, Map<String, Object> mdc, String fmt, Object... args) {
-        kWarn(eventType, null, mdc, fmt, args);
+        kLevel(Level.WARN, eventType, null, mdc, null, fmt, null, args);
     }
 
     public void kWarn(String eventType, String context, Map<String, Object> mdc, String fmt, Object... args) {
-        kLevel(Level.WARN, eventType, context, mdc, fmt, null, args);
+        kLevel(Level.WARN, eventType, context, mdc, null, fmt, null, args);
+    }
+
+    public void kWarn(String eventType, KinesisMetadata metadata, String fmt, Object... args) {
+        kLevel(Level.WARN, eventType, null, null, metadata, fmt, null, args);
+    }
+
+    public void kWarn(String eventType, String context, KinesisMetadata metadata, String fmt, Object... args) {
+        kLevel(Level.WARN, eventType, context, null, metadata, fmt, null, args);
     }
 
     public void kError(String eventType, String fmt, Object... args) {
-        kError(eventType, null, fmt, args);
+        kLevel(Level.ERROR, eventType, null, null, null, fmt, null, args);
     }
 
     public void kError(String eventType, Map<String, Object> mdc, String fmt, Object... args) {
-        kError(eventType, null, mdc, fmt, args);
+        kLevel(Level.ERROR, eventType, null, mdc, null, fmt, null, args);
     }
 
     public void kError(String eventType, String context, Map<String, Object> mdc, String fmt, Object... args) {
-        kLevel(Level.ERROR, eventType, context, mdc, fmt, null, args);
+        kLevel(Level.ERROR, eventType, context, mdc, null, fmt, null, args);
+    }
+
+    public void kError(String eventType, KinesisMetadata metadata, String fmt, Object... args) {
+        kLevel(Level.ERROR, eventType, null, null, metadata, fmt, null, args);
+    }
+
+    public void kError(String eventType, String context, KinesisMetadata metadata, String fmt, Object... args) {
+        kLevel(Level.ERROR, eventType, context, null, metadata, fmt, null, args);
+    }
+
+    /**
+     * Sends {@code metadata} with a fixed message, taking neither a map nor format arguments. This is the entry point of
+     * emitters generated for {@link KinesisEvent} methods, which check {@link #isLevelEnabled(Level)} before building
+     * the metadata. {@code ex} is attached to ERROR events and described in the metadata at any level.
+     */
+    public void kEvent(Level level, String eventType, String context, KinesisMetadata metadata, String message, Throwable ex) {
+        kLevel(level, eventType, context, null, metadata, message, ex, (Object[]) null);
     }
 
     public void kError(String eventType, String fmt, Throwable ex) {
-        kError(eventType, null, fmt, ex);
+        kLevel(Level.ERROR, eventType, null, null, null, fmt, ex);
     }
 
     public void kError(String eventType, Map<String, Object> mdc, String fmt, Throwable ex) {
-        kError(eventType, null, mdc, fmt, ex);
+        kLevel(Level.ERROR, eventType, null, mdc, null, fmt, ex);
     }
 
     public void kError(String eventType, String context, Map<String, Object> mdc, String fmt, Throwable ex) {
-        kLevel(Level.ERROR, eventType, context, mdc, fmt, ex);
+        kLevel(Level.ERROR, eventType, context, mdc, null, fmt, ex);
+    }
+
+    public void kError(String eventType, KinesisMetadata metadata, String fmt, Throwable ex) {
+        kLevel(Level.ERROR, eventType, null, null, metadata, fmt, ex);
+    }
+
+    public void kError(String eventType, String context, KinesisMetadata metadata, String fmt, Throwable ex) {
+        kLevel(Level.ERROR, eventType, context, null, metadata, fmt, ex);
     }
 
+    /**
+     * Metadata bound to the current {@link MetadataContext} until closed. Use the {@link MetadataContext} wrap helpers to
+     * carry bound metadata over to other threads.
+     */
     public static class MetadataBinding implements AutoCloseable {
-        private final List<MDC.MDCCloseable> bindings;
-        private MetadataBinding(MDC.MDCCloseable mdcCloseable) {
-            bindings = new ArrayList<>();
-            bindings.add(mdcCloseable);
+        // Entries this binding added and has not removed yet, including those added on top of another binding's
+        private int bound;
+
+        private MetadataBinding(String key, Object val) {
+            and(key, val);
         }
+
         @Override
         public void close() {
-            for (MDC.MDCCloseable binding : bindings) {
-                binding.close();
-            }
+            // Bindings closed out of order only drop their own entries
+            MetadataContext.set(MetadataContext.current().without(this, bound));
+            bound = 0;
         }
 
         public MetadataBinding and(String key, Object val) {
-            bindings.add(MDC.putCloseable(key, formatValue(val)));
+            MetadataContext.set(MetadataContext.current().with(key, val, this));
+            bound++;
             return this;
         }
     }
 
     public MetadataBinding bindMetadata(String key, Object val) {
-        return new MetadataBinding(MDC.putCloseable(key, formatValue(val)));
+        return new MetadataBinding(key, val);
     }
 
     public static class EventTimer implements AutoCloseable {
@@ -124,7 +193,7 @@ public class KinesisLogger extends LoggerWrapper implements Logger {
             if (stopped) return;
             stopped = true;
             long endMillis = System.currentTimeMillis();
-            logger.kInfo(eventType, context, Collections.singletonMap("took_millis", endMillis-startMillis), "");
+            logger.kInfo(eventType, context, KinesisMetadata.withCapacity(1).put("took_millis", endMillis - startMillis), "");
         }
     }
 
@@ -136,69 +205,203 @@ public class KinesisLogger extends LoggerWrapper implements Logger {
         return timer(eventType, null);
     }
 
-    private static DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
-    private static String formatValue(Object val) {
-        if (val == null) return "null";
-        if (val instanceof Date) return dateFormat.format((Date) val);
-        return val.toString();
+    /**
+     * Starts a bulk write of INFO events of {@code eventType}, one per row added to the returned writer, all carrying
+     * {@code sharedMetadata}. Meant for batch jobs sending an event per processed row. Filters see one event per chunk
+     * of rows, while routes matching on an MDC key are matched against each row's own metadata.
+     */
+    public BulkWriter batch(String eventType, KinesisMetadata sharedMetadata) {
+        return batch(Level.INFO, eventType, null, sharedMetadata, "");
     }
 
-    private static ConcurrentHashMap<String, String> globalMetadata = new ConcurrentHashMap<>();
+    public BulkWriter batch(Level level, String eventType, String context, KinesisMetadata sharedMetadata, String message) {
+        return new BulkWriter(this, level, eventType, context, sharedMetadata, loggerMetadata, message);
+    }
 
-    public static void addGlobalMetadata(String key, Object val) {
-        globalMetadata.put(key, formatValue(val));
+    /**
+     * Counts occurrences of {@code eventType} without sending an event each time. Tags are key/value pairs; once per
+     * aggregate interval an INFO event is sent per event type and tag set, carrying the tags and a {@code count}.
+     */
+    public void count(String eventType, String... tags) {
+        count(eventType, 1, tags);
     }
 
-    public static void clearGlobalMetadata() {
-        globalMetadata.clear();
+    public void count(String eventType, long delta, String... tags) {
+        if (isLevelEnabled(Level.INFO)) {
+            aggregator().count(eventType, delta, tags);
+        }
     }
 
-    private void kLevel(Level level, String eventType, String context, Map<String, Object> mdc, String fmt, Throwable ex, Object... args) {
-        ArrayList<MetadataBinding> boundMetadata = new ArrayList<>();
-        if (mdc != null) {
-            for (Map.Entry<String, Object> entry : mdc.entrySet()) {
-                boundMetadata.add(bindMetadata(entry.getKey(), entry.getValue()));
+    /**
+     * Adds up values per event type and tag set, the aggregate event carries the {@code sum} and number of
+     * {@code samples}.
+     */
+    public void sum(String eventType, double value, String... tags) {
+        if (isLevelEnabled(Level.INFO)) {
+            aggregator().sum(eventType, value, tags);
+        }
+    }
+
+    /**
+     * Records the current value of a measurement, the aggregate event carries the last value as {@code gauge} and the
+     * extremes of the interval as {@code gauge_min} and {@code gauge_max}.
+     */
+    public void gauge(String eventType, double value, String... tags) {
+        if (isLevelEnabled(Level.INFO)) {
+            aggregator().gauge(eventType, value, tags);
+        }
+    }
+
+    /**
+     * Sends the aggregates of every logger now, for example before the logger context stops.
+     */
+    public static void flushAggregates() {
+        AggregateFlusher.flushAll();
+    }
+
+    private Aggregator aggregator() {
+        Aggregator current = aggregator;
+        if (current == null) {
+            synchronized (this) {
+                current = aggregator;
+                if (current == null) {
+                    current = new Aggregator((eventType, metadata) -> kInfo(eventType, metadata, ""));
+                    AggregateFlusher.register(current);
+                    aggregator = current;
+                }
             }
         }
-        for (Map.Entry<String, String> entry : globalMetadata.entrySet()) {
-            if (MDC.get(entry.getKey()) == null) {
-                boundMetadata.add(bindMetadata(entry.getKey(), entry.getValue()));
+        return current;
+    }
+
+    /**
+     * Adds metadata to every event sent through this logger. Values bound on the thread or passed in the call take
+     * precedence, and logger metadata takes precedence over global metadata.
+     */
+    public synchronized void addLoggerMetadata(String key, Object val) {
+        KinesisMetadata metadata = loggerMetadata == null ? KinesisMetadata.create() : loggerMetadata.copy();
+        loggerMetadata = metadata.put(key, val);
+    }
+
+    public synchronized void clearLoggerMetadata() {
+        loggerMetadata = null;
+    }
+
+    // Enabled levels are cached per logger and recomputed after any level change in the logger context
+    private static final class LevelFlags {
+        private final int epoch;
+        private final int mask;
+        // Turbo filters may accept events below the logger level, and are added without a level change
+        private final TurboFilterList turboFilters;
+
+        private LevelFlags(int epoch, int mask, TurboFilterList turboFilters) {
+            this.epoch = epoch;
+            this.mask = mask;
+            this.turboFilters = turboFilters;
+        }
+    }
+
+    static void invalidateLevels() {
+        LEVEL_EPOCH.incrementAndGet();
+    }
+
+    private static int levelBit(Level level) {
+        return 1 << (level.toInt() / Level.DEBUG_INT);
+    }
+
+    /**
+     * Whether events of {@code level} pass this logger's level, read from flags cached until the next level change.
+     * While the logger context has turbo filters every level is enabled, leaving the decision to logback.
+     */
+    public boolean isLevelEnabled(Level level) {
+        LevelFlags flags = levelFlags;
+        int epoch = LEVEL_EPOCH.get();
+        if (flags == null || flags.epoch != epoch) {
+            flags = computeLevelFlags(epoch);
+            levelFlags = flags;
+        }
+        return (flags.mask & levelBit(level)) != 0 || (flags.turboFilters != null && !flags.turboFilters.isEmpty());
+    }
+
+    private LevelFlags computeLevelFlags(int epoch) {
+        if (!(logger instanceof ch.qos.logback.classic.Logger)) {
+            return new LevelFlags(epoch, ALL_LEVELS, null);
+        }
+        ch.qos.logback.classic.Logger logbackLogger = (ch.qos.logback.classic.Logger) logger;
+        int effectiveLevel = logbackLogger.getEffectiveLevel().toInt();
+        int mask = 0;
+        for (Level level : LEVELS) {
+            if (level.toInt() >= effectiveLevel) {
+                mask |= levelBit(level);
             }
         }
+        return new LevelFlags(epoch, mask, logbackLogger.getLoggerContext().getTurboFilterList());
+    }
+
+    /**
+     * Adds metadata to every event sent through the appender. The value is serialized once here rather than per event.
+     */
+    public static void addGlobalMetadata(String key, Object val) {
+        GlobalMetadata.put(key, MetadataContext.format(val));
+    }
 
-        if (StringUtils.isNotBlank(eventType)) {
-            boundMetadata.add(bindMetadata("event_type", eventType));
+    public static void clearGlobalMetadata() {
+        GlobalMetadata.clear();
+    }
+
+    private void kLevel(Level level, String eventType, String context, Map<String, Object> mdc, KinesisMetadata metadata,
+                        String fmt, Throwable ex, Object... args) {
+        if (!isLevelEnabled(level)) {
+            return;
         }
 
-        if (StringUtils.isNotBlank(context)) {
-            boundMetadata.add(bindMetadata("context", context));
+        if (mdc != null) {
+            metadata = KinesisMetadata.from(mdc);
+        }
+        if (ex != null) {
+            // Never modify metadata handed in by the caller, it may be reused
+            metadata = metadata == null ? KinesisMetadata.withCapacity(2) : metadata.copy();
+            metadata.put("exception", ex.getClass().getName());
+            metadata.put("exceptionMessage", ex.getMessage());
         }
+
+        MetadataMarker marker = new MetadataMarker(
+            StringUtils.isNotBlank(eventType) ? eventType : null,
+            StringUtils.isNotBlank(context) ? context : null,
+            metadata,
+            MetadataContext.current(),
+            loggerMetadata
+        );
+        log(level, marker, fmt, ex, args);
+    }
+
+    // A chunk of rows of a BulkWriter, as one logging event
+    void kRows(Level level, MetadataMarker marker, String message) {
+        if (isLevelEnabled(level)) {
+            log(level, marker, message, null, (Object[]) null);
+        }
+    }
+
+    private void log(Level level, MetadataMarker marker, String fmt, Throwable ex, Object... args) {
         switch (level.toInt()) {
             case Level.DEBUG_INT:
-                logger.debug(fmt, args);
+                logger.debug(marker, fmt, args);
                 break;
             case Level.INFO_INT:
-                logger.info(fmt, args);
+                logger.info(marker, fmt, args);
                 break;
             case Level.WARN_INT:
-                logger.warn(fmt, args);
+                logger.warn(marker, fmt, args);
                 break;
             case Level.ERROR_INT:
                 if (ex == null) {
-                    logger.error(fmt, args);
+                    logger.error(marker, fmt, args);
                 } else {
-                    boundMetadata.add(bindMetadata("exception", ex.getClass().getName()));
-                    boundMetadata.add(bindMetadata("exceptionMessage", ex.getMessage()));
-                    logger.error(fmt, ex);
+                    logger.error(marker, fmt, ex);
                 }
                 break;
             default:
-                logger.trace(fmt, args);
-        }
-
-        for (MetadataBinding closeable : boundMetadata) {
-            closeable.close();
+                logger.trace(marker, fmt, args);
         }
     }
 }
-
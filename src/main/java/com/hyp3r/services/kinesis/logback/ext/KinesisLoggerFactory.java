@@ -1,13 +1,76 @@
 package com.hyp3r.services.kinesis.logback.ext;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import org.slf4j.ILoggerFactory;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public class KinesisLoggerFactory {
+    private static final ConcurrentMap<String, KinesisLogger> LOGGERS = new ConcurrentHashMap<>();
+
+    static {
+        ILoggerFactory loggerFactory = LoggerFactory.getILoggerFactory();
+        if (loggerFactory instanceof LoggerContext) {
+            listenTo((LoggerContext) loggerFactory);
+        }
+    }
+
     public static KinesisLogger getLogger(String name) {
-        return new KinesisLogger(LoggerFactory.getLogger(name));
+        KinesisLogger logger = LOGGERS.get(name);
+        if (logger == null) {
+            logger = LOGGERS.computeIfAbsent(name, n -> new KinesisLogger(LoggerFactory.getLogger(n)));
+        }
+        return logger;
     }
 
     public static KinesisLogger getLogger(Class<?> clazz) {
         return getLogger(clazz.getName());
     }
+
+    /**
+     * Registers the listener invalidating cached levels on {@code context}, unless it already has one. Called for the
+     * context of every {@link KinesisLogger}, including ones built around a logger directly.
+     */
+    static synchronized void listenTo(LoggerContext context) {
+        for (LoggerContextListener listener : context.getCopyOfListenerList()) {
+            if (listener instanceof LevelChangeListener) {
+                return;
+            }
+        }
+        context.addListener(new LevelChangeListener());
+        // Levels may have changed before the listener was there
+        KinesisLogger.invalidateLevels();
+    }
+
+    // Levels are inherited, so any change or reset invalidates the cached flags of every logger
+    private static class LevelChangeListener implements LoggerContextListener {
+        @Override
+        public boolean isResetResistant() {
+            return true;
+        }
+
+        @Override
+        public void onStart(LoggerContext context) {
+            KinesisLogger.invalidateLevels();
+        }
+
+        @Override
+        public void onReset(LoggerContext context) {
+            KinesisLogger.invalidateLevels();
+        }
+
+        @Override
+        public void onStop(LoggerContext context) {
+            KinesisLogger.invalidateLevels();
+        }
+
+        @Override
+        public void onLevelChange(ch.qos.logback.classic.Logger logger, Level level) {
+            KinesisLogger.invalidateLevels();
+        }
+    }
 }
@@ -0,0 +1,359 @@
+package com.hyp3r.services.kinesis.logback.ext;
+
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Immutable metadata bound with {@link KinesisLogger#bindMetadata(String, Object)}.
+ *
+ * A context is a persistent linked list: adding a key creates one node pointing at its parent, so capturing the current
+ * context to hand it to another thread is a single reference read. Each thread holds at most one reference to its
+ * current context, which keeps the footprint small on pools and virtual threads alike. Bound values are also mirrored
+ * into the MDC as strings, so layouts using {@code %X} and plain logger calls still see them. The wrap helpers capture the
+ * caller's context and attach it around the task on whichever thread runs it; they are named after the type they
+ * wrap, so lambdas passed to them are never ambiguous.
+ *
+ * Switching contexts only updates the MDC for the entries that differ between the two: attaching a context of n entries
+ * on a pool thread with none costs n MDC puts on entry and n removals on exit, and binding or closing a single entry
+ * costs one MDC update plus, on close, a lookup of its key in the entries left.
+ */
+public final class MetadataContext {
+    public static final MetadataContext EMPTY = new MetadataContext(null, null, null, null);
+
+    private static final ThreadLocal<MetadataContext> CURRENT = new ThreadLocal<>();
+
+    private final String key;
+    private final Object value;
+    private final MetadataContext parent;
+    // The binding that added this entry, kept when entries are rebuilt so the binding can still find them
+    private final Object owner;
+    private final int depth;
+
+    private MetadataContext(String key, Object value, MetadataContext parent, Object owner) {
+        this.key = key;
+        this.value = value;
+        this.parent = parent;
+        this.owner = owner;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    public static MetadataContext current() {
+        MetadataContext context = CURRENT.get();
+        return context == null ? EMPTY : context;
+    }
+
+    static void set(MetadataContext context) {
+        MetadataContext previous = current();
+        if (context == null || context == EMPTY) {
+            context = EMPTY;
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        mirror(previous, context);
+    }
+
+    // Bound values are mirrored into the MDC as strings, where plain logger calls, other appenders and asynchronous
+    // appenders, which copy the MDC into the event on the logging thread, read them. Entries below the newest one both
+    // contexts share are left as they are.
+    private static void mirror(MetadataContext previous, MetadataContext next) {
+        if (previous == next) {
+            return;
+        }
+        MetadataContext shared = shared(previous, next);
+        for (MetadataContext node = previous; node != shared; node = node.parent) {
+            MetadataContext restored = shared.find(node.key);
+            if (restored == null) {
+                MDC.remove(node.key);
+            } else {
+                MDC.put(node.key, format(restored.value));
+            }
+        }
+        if (next == shared) {
+            return;
+        }
+        // Oldest first, so newer entries overwrite the ones they shadow
+        MetadataContext[] added = new MetadataContext[next.depth - shared.depth];
+        int i = 0;
+        for (MetadataContext node = next; node != shared; node = node.parent) {
+            added[i++] = node;
+        }
+        while (i > 0) {
+            MetadataContext node = added[--i];
+            MDC.put(node.key, format(node.value));
+        }
+    }
+
+    // The newest entry both contexts are built on, EMPTY at worst
+    private static MetadataContext shared(MetadataContext a, MetadataContext b) {
+        while (a.depth > b.depth) {
+            a = a.parent;
+        }
+        while (b.depth > a.depth) {
+            b = b.parent;
+        }
+        while (a != b) {
+            a = a.parent;
+            b = b.parent;
+        }
+        return a;
+    }
+
+    // The newest entry for key, null if there is none
+    private MetadataContext find(String key) {
+        for (MetadataContext node = this; node != EMPTY; node = node.parent) {
+            if (node.key.equals(key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    static String format(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Date) {
+            return KinesisMetadata.formatDate((Date) value);
+        }
+        return value.toString();
+    }
+
+    public MetadataContext with(String key, Object value) {
+        return new MetadataContext(key, value, this, null);
+    }
+
+    MetadataContext with(String key, Object value, Object owner) {
+        return new MetadataContext(key, value, this, owner);
+    }
+
+    public boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    /**
+     * The key of the newest entry. Together with {@link #value()} and {@link #parent()} this walks entries newest
+     * first; an older entry with the same key as a newer one is shadowed.
+     */
+    public String key() {
+        return key;
+    }
+
+    public Object value() {
+        return value;
+    }
+
+    public MetadataContext parent() {
+        return parent;
+    }
+
+    public boolean containsKey(String key) {
+        return find(key) != null;
+    }
+
+    /**
+     * Whether this entry is shadowed by a newer entry for the same key in {@code head}.
+     */
+    public boolean isShadowedIn(MetadataContext head) {
+        for (MetadataContext node = head; node != this && node != EMPTY; node = node.parent) {
+            if (node.key.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Removes the {@code count} entries added by owner, wherever they sit, keeping every other entry in its order
+    MetadataContext without(Object owner, int count) {
+        List<MetadataContext> kept = new ArrayList<>();
+        int remaining = count;
+        MetadataContext node = this;
+        for (; remaining > 0 && node != EMPTY; node = node.parent) {
+            if (node.owner == owner) {
+                remaining--;
+            } else {
+                kept.add(node);
+            }
+        }
+        if (remaining == count) {
+            return this;
+        }
+        MetadataContext rebuilt = node;
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            MetadataContext entry = kept.get(i);
+            rebuilt = rebuilt.with(entry.key, entry.value, entry.owner);
+        }
+        return rebuilt;
+    }
+
+    public void run(Runnable task) {
+        MetadataContext previous = CURRENT.get();
+        set(this);
+        try {
+            task.run();
+        } finally {
+            set(previous);
+        }
+    }
+
+    public <T> T call(Callable<T> task) throws Exception {
+        MetadataContext previous = CURRENT.get();
+        set(this);
+        try {
+            return task.call();
+        } finally {
+            set(previous);
+        }
+    }
+
+    private <T> T get(Supplier<T> task) {
+        MetadataContext previous = CURRENT.get();
+        set(this);
+        try {
+            return task.get();
+        } finally {
+            set(previous);
+        }
+    }
+
+    public static Runnable wrap(Runnable task) {
+        MetadataContext captured = current();
+        return () -> captured.run(task);
+    }
+
+    public static <T> Callable<T> wrapCallable(Callable<T> task) {
+        MetadataContext captured = current();
+        return () -> captured.call(task);
+    }
+
+    public static <T> Supplier<T> wrapSupplier(Supplier<T> task) {
+        MetadataContext captured = current();
+        return () -> captured.get(task);
+    }
+
+    public static <T, R> Function<T, R> wrapFunction(Function<T, R> task) {
+        MetadataContext captured = current();
+        return t -> captured.get(() -> task.apply(t));
+    }
+
+    public static <T> Consumer<T> wrapConsumer(Consumer<T> task) {
+        MetadataContext captured = current();
+        return t -> captured.run(() -> task.accept(t));
+    }
+
+    public static <T, U, R> BiFunction<T, U, R> wrapBiFunction(BiFunction<T, U, R> task) {
+        MetadataContext captured = current();
+        return (t, u) -> captured.get(() -> task.apply(t, u));
+    }
+
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> task, Executor executor) {
+        return CompletableFuture.supplyAsync(wrapSupplier(task), executor);
+    }
+
+    public static CompletableFuture<Void> runAsync(Runnable task, Executor executor) {
+        return CompletableFuture.runAsync(wrap(task), executor);
+    }
+
+    /**
+     * An executor running every task with the context that was current when the task was submitted.
+     */
+    public static Executor wrapExecutor(Executor executor) {
+        return command -> executor.execute(wrap(command));
+    }
+
+    public static ExecutorService wrapExecutorService(ExecutorService executor) {
+        return new ContextExecutorService(executor);
+    }
+
+    private static final class ContextExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+
+        private ContextExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(wrap(command));
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return delegate.submit(wrapCallable(task));
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return delegate.submit(wrap(task));
+        }
+
+        @Override
+        public <T> Future<T> submit(Runnable task, T result) {
+            return delegate.submit(wrap(task), result);
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+            return delegate.invokeAll(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+            return delegate.invokeAny(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+            return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+        }
+
+        private static <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+            List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+            for (Callable<T> task : tasks) {
+                wrapped.add(wrapCallable(task));
+            }
+            return wrapped;
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.hyp3r.services.kinesis.logback.ext;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.slf4j.Marker;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Carries the event type, context and typed metadata of a single {@code KinesisLogger} call to the appender, instead
+ * of round tripping them through the thread's MDC as strings.
+ */
+public final class MetadataMarker implements Marker {
+    public static final String NAME = "KINESIS_METADATA";
+
+    private final String eventType;
+    private final String context;
+    private final KinesisMetadata metadata;
+    private final MetadataContext boundMetadata;
+    private final KinesisMetadata loggerMetadata;
+    private final List<KinesisMetadata> rows;
+
+    public MetadataMarker(String eventType, String context, KinesisMetadata metadata, MetadataContext boundMetadata,
+                          KinesisMetadata loggerMetadata) {
+        this(eventType, context, metadata, boundMetadata, loggerMetadata, null);
+    }
+
+    /**
+     * A marker for a chunk of rows written through a {@link BulkWriter}, {@code metadata} being shared by every row.
+     */
+    public MetadataMarker(String eventType, String context, KinesisMetadata metadata, MetadataContext boundMetadata,
+                          KinesisMetadata loggerMetadata, List<KinesisMetadata> rows) {
+        this.eventType = eventType;
+        this.context = context;
+        this.metadata = metadata;
+        this.boundMetadata = boundMetadata;
+        this.loggerMetadata = loggerMetadata;
+        this.rows = rows;
+    }
+
+    public static MetadataMarker of(ILoggingEvent event) {
+        Marker marker = event.getMarker();
+        return marker instanceof MetadataMarker ? (MetadataMarker) marker : null;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    /**
+     * Metadata passed in the call, may be null.
+     */
+    public KinesisMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * The metadata context captured on the calling thread.
+     */
+    public MetadataContext getBoundMetadata() {
+        return boundMetadata;
+    }
+
+    /**
+     * Static metadata of the logger that made the call, may be null.
+     */
+    public KinesisMetadata getLoggerMetadata() {
+        return loggerMetadata;
+    }
+
+    /**
+     * The metadata of each row of a bulk write, null for single events. The appender sends every row as an event.
+     */
+    public List<KinesisMetadata> getRows() {
+        return rows;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void add(Marker reference) {
+        throw new UnsupportedOperationException("MetadataMarker does not accept references");
+    }
+
+    @Override
+    public boolean remove(Marker reference) {
+        return false;
+    }
+
+    @Override
+    @Deprecated
+    public boolean hasChildren() {
+        return false;
+    }
+
+    @Override
+    public boolean hasReferences() {
+        return false;
+    }
+
+    @Override
+    public Iterator<Marker> iterator() {
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public boolean contains(Marker other) {
+        return this == other;
+    }
+
+    @Override
+    public boolean contains(String name) {
+        return NAME.equals(name);
+    }
+
+    @Override
+    public String toString() {
+        return NAME;
+    }
+}
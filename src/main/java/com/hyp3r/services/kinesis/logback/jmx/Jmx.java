@@ -0,0 +1,48 @@
+package com.hyp3r.services.kinesis.logback.jmx;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+
+/**
+ * Registers the appender's MBeans on the platform MBean server, as
+ * {@code com.hyp3r.kinesis:type=KinesisAppender,name=<appender>} followed by {@code ,component=<component>} for the
+ * parts of an appender that have MBeans of their own. Failures are reported to the appender's status rather than thrown,
+ * so monitoring never keeps an appender from starting or stopping.
+ */
+public final class Jmx {
+    public static final String DOMAIN = "com.hyp3r.kinesis";
+
+    private Jmx() {
+    }
+
+    /**
+     * Registers {@code bean} under the name of its appender and {@code component}, or the appender's own name when
+     * {@code component} is null. Returns the name to unregister it with, or null if registration failed.
+     */
+    public static ObjectName register(Object bean, String appenderName, String component, Consumer<String> errors) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=KinesisAppender,name=" + ObjectName.quote(String.valueOf(appenderName))
+                + (component == null ? "" : ",component=" + component));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+            return objectName;
+        } catch (Exception e) {
+            errors.accept("Failed to register " + (component == null ? "appender" : component) + " MBean: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters an MBean registered by {@link #register}, doing nothing when {@code objectName} is null.
+     */
+    public static void unregister(ObjectName objectName, Consumer<String> errors) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            errors.accept("Failed to unregister MBean " + objectName + ": " + e.getMessage());
+        }
+    }
+}
@@ -5,6 +5,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 @Getter
@@ -20,7 +21,11 @@ public class KinesisLogEvent {
     private String eventType;
     private String context;
     private String description;
+    private String template;
+    @SerializedName("template_id")
+    private String templateId;
+    private List<Object> args;
     private String stacktrace;
     private Date timestamp;
-    private Map<String, String> metadata;
+    private Map<String, Object> metadata;
 }
@@ -0,0 +1,340 @@
+package com.hyp3r.services.kinesis.logback.models;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Ordered, typed metadata. Numbers and booleans are kept in primitive slots so they are neither boxed nor turned into
+ * strings on their way to the encoder, which writes them as native JSON values. Later puts of the same key replace
+ * earlier ones.
+ */
+public final class KinesisMetadata {
+    public static final byte STRING = 0;
+    public static final byte LONG = 1;
+    public static final byte DOUBLE = 2;
+    public static final byte BOOLEAN = 3;
+    public static final byte MAP = 4;
+    public static final byte LIST = 5;
+    public static final byte NULL = 6;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+        .withZone(ZoneId.systemDefault());
+
+    private String[] keys;
+    private byte[] types;
+    private long[] primitives;
+    private Object[] refs;
+    // Keys already escaped as JSON strings followed by a colon, null where a key has to be escaped by the encoder
+    private byte[][] encodedKeys;
+    private int size;
+
+    private KinesisMetadata(int capacity) {
+        keys = new String[capacity];
+        types = new byte[capacity];
+        primitives = new long[capacity];
+        refs = new Object[capacity];
+    }
+
+    public static KinesisMetadata create() {
+        return new KinesisMetadata(4);
+    }
+
+    public static KinesisMetadata withCapacity(int capacity) {
+        return new KinesisMetadata(capacity);
+    }
+
+    /**
+     * Metadata holding the distinct {@code keys}, all null until given a value with the {@code set} methods, for code
+     * that knows its keys ahead of time. {@code encodedKeys} are written by the encoder as they are, and neither array
+     * is copied or modified.
+     */
+    public static KinesisMetadata ofKeys(String[] keys, byte[][] encodedKeys) {
+        KinesisMetadata metadata = new KinesisMetadata(0);
+        metadata.keys = keys;
+        metadata.types = new byte[keys.length];
+        Arrays.fill(metadata.types, NULL);
+        metadata.primitives = new long[keys.length];
+        metadata.refs = new Object[keys.length];
+        metadata.encodedKeys = encodedKeys;
+        metadata.size = keys.length;
+        return metadata;
+    }
+
+    public static KinesisMetadata from(Map<String, ?> values) {
+        KinesisMetadata metadata = new KinesisMetadata(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            metadata.put(entry.getKey(), entry.getValue());
+        }
+        return metadata;
+    }
+
+    public KinesisMetadata copy() {
+        KinesisMetadata copy = new KinesisMetadata(size);
+        System.arraycopy(keys, 0, copy.keys, 0, size);
+        System.arraycopy(types, 0, copy.types, 0, size);
+        System.arraycopy(primitives, 0, copy.primitives, 0, size);
+        System.arraycopy(refs, 0, copy.refs, 0, size);
+        copy.encodedKeys = encodedKeys == null ? null : Arrays.copyOf(encodedKeys, size);
+        copy.size = size;
+        return copy;
+    }
+
+    private int slot(String key) {
+        int idx = indexOf(key);
+        if (idx >= 0) {
+            return idx;
+        }
+        if (size == keys.length) {
+            int capacity = Math.max(4, size << 1);
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            primitives = Arrays.copyOf(primitives, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+            if (encodedKeys != null) {
+                encodedKeys = Arrays.copyOf(encodedKeys, capacity);
+            }
+        }
+        keys[size] = key;
+        return size++;
+    }
+
+    public KinesisMetadata put(String key, long value) {
+        return set(slot(key), value);
+    }
+
+    public KinesisMetadata put(String key, double value) {
+        return set(slot(key), value);
+    }
+
+    public KinesisMetadata put(String key, boolean value) {
+        return set(slot(key), value);
+    }
+
+    public KinesisMetadata put(String key, String value) {
+        return set(slot(key), value);
+    }
+
+    public KinesisMetadata put(String key, Map<String, ?> value) {
+        return set(slot(key), value);
+    }
+
+    public KinesisMetadata put(String key, List<?> value) {
+        return set(slot(key), value);
+    }
+
+    /**
+     * Stores {@code value} in the slot matching its runtime type. Values of unknown types are stored as their
+     * {@code toString()}, dates in the same format as event timestamps.
+     */
+    public KinesisMetadata put(String key, Object value) {
+        return set(slot(key), value);
+    }
+
+    /**
+     * Replaces the value of the entry at {@code i}, keeping its key.
+     */
+    public KinesisMetadata set(int i, long value) {
+        types[i] = LONG;
+        primitives[i] = value;
+        refs[i] = null;
+        return this;
+    }
+
+    public KinesisMetadata set(int i, double value) {
+        types[i] = DOUBLE;
+        primitives[i] = Double.doubleToRawLongBits(value);
+        refs[i] = null;
+        return this;
+    }
+
+    public KinesisMetadata set(int i, boolean value) {
+        types[i] = BOOLEAN;
+        primitives[i] = value ? 1L : 0L;
+        refs[i] = null;
+        return this;
+    }
+
+    public KinesisMetadata set(int i, String value) {
+        return setRef(i, value == null ? NULL : STRING, value);
+    }
+
+    public KinesisMetadata set(int i, Map<String, ?> value) {
+        return setRef(i, value == null ? NULL : MAP, value);
+    }
+
+    public KinesisMetadata set(int i, List<?> value) {
+        return setRef(i, value == null ? NULL : LIST, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public KinesisMetadata set(int i, Object value) {
+        if (value == null) {
+            return set(i, (String) null);
+        }
+        if (value instanceof String) {
+            return set(i, (String) value);
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return set(i, ((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return set(i, ((Number) value).doubleValue());
+        }
+        if (value instanceof Boolean) {
+            return set(i, ((Boolean) value).booleanValue());
+        }
+        if (value instanceof Map) {
+            return set(i, (Map<String, ?>) value);
+        }
+        if (value instanceof List) {
+            return set(i, (List<?>) value);
+        }
+        if (value instanceof Date) {
+            return set(i, formatDate((Date) value));
+        }
+        return set(i, value.toString());
+    }
+
+    private KinesisMetadata setRef(int i, byte type, Object value) {
+        types[i] = type;
+        primitives[i] = 0L;
+        refs[i] = value;
+        return this;
+    }
+
+    public static String formatDate(Date date) {
+        return DATE_FORMAT.format(Instant.ofEpochMilli(date.getTime()));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int indexOf(String key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    public String key(int i) {
+        return keys[i];
+    }
+
+    /**
+     * The key at {@code i} as a quoted JSON string followed by a colon, or null if it was not given in that form.
+     */
+    public byte[] encodedKey(int i) {
+        return encodedKeys == null ? null : encodedKeys[i];
+    }
+
+    public byte type(int i) {
+        return types[i];
+    }
+
+    public long longValue(int i) {
+        return primitives[i];
+    }
+
+    public double doubleValue(int i) {
+        return Double.longBitsToDouble(primitives[i]);
+    }
+
+    public boolean booleanValue(int i) {
+        return primitives[i] != 0L;
+    }
+
+    public Object ref(int i) {
+        return refs[i];
+    }
+
+    /**
+     * The value at {@code i} rendered as a string, boxing primitives. Meant for routing decisions, not encoding.
+     */
+    public String stringValue(int i) {
+        switch (types[i]) {
+            case LONG:
+                return Long.toString(longValue(i));
+            case DOUBLE:
+                return Double.toString(doubleValue(i));
+            case BOOLEAN:
+                return Boolean.toString(booleanValue(i));
+            case NULL:
+                return null;
+            default:
+                return refs[i].toString();
+        }
+    }
+
+    public String get(String key) {
+        int idx = indexOf(key);
+        return idx < 0 ? null : stringValue(idx);
+    }
+
+    /**
+     * The entries as a map of boxed values, in insertion order.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            switch (types[i]) {
+                case LONG:
+                    map.put(keys[i], longValue(i));
+                    break;
+                case DOUBLE:
+                    map.put(keys[i], doubleValue(i));
+                    break;
+                case BOOLEAN:
+                    map.put(keys[i], booleanValue(i));
+                    break;
+                default:
+                    map.put(keys[i], refs[i]);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KinesisMetadata)) {
+            return false;
+        }
+        KinesisMetadata other = (KinesisMetadata) o;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!keys[i].equals(other.keys[i]) || types[i] != other.types[i] || primitives[i] != other.primitives[i]
+                || !Objects.equals(refs[i], other.refs[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = size;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + keys[i].hashCode();
+            hash = 31 * hash + Long.hashCode(primitives[i]);
+            hash = 31 * hash + Objects.hashCode(refs[i]);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,42 @@
+package com.hyp3r.services.kinesis.logback.pressure;
+
+import ch.qos.logback.classic.Level;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Steps of the appender's degradation ladder, each one shedding more than the one before.
+ */
+public enum DegradationLevel {
+    NORMAL,
+    /** DEBUG and TRACE events are dropped. */
+    DROP_DEBUG,
+    /** As above, and only a sample of INFO events is kept. */
+    SAMPLE_INFO,
+    /** As above, and stacktraces and metadata are left out. */
+    STRIP_DETAILS,
+    /** Only errors are kept, without stacktraces and metadata. */
+    ERRORS_ONLY;
+
+    /**
+     * Whether an event of {@code level} is kept, keeping INFO events with probability {@code infoSampling} once they
+     * are sampled.
+     */
+    public boolean admits(Level level, double infoSampling) {
+        switch (this) {
+            case NORMAL:
+                return true;
+            case DROP_DEBUG:
+                return level.isGreaterOrEqual(Level.INFO);
+            case ERRORS_ONLY:
+                return level.isGreaterOrEqual(Level.ERROR);
+            default:
+                return level.isGreaterOrEqual(Level.WARN)
+                    || (level.isGreaterOrEqual(Level.INFO) && ThreadLocalRandom.current().nextDouble() < infoSampling);
+        }
+    }
+
+    public boolean keepsDetails() {
+        return compareTo(STRIP_DETAILS) < 0;
+    }
+}
@@ -0,0 +1,279 @@
+package com.hyp3r.services.kinesis.logback.pressure;
+
+import ch.qos.logback.classic.Level;
+import com.hyp3r.services.kinesis.logback.concurrent.Platform;
+import com.hyp3r.services.kinesis.logback.jmx.Jmx;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Watches heap occupancy and garbage collection time and picks a {@link DegradationLevel} from them.
+ *
+ * Heap occupancy is read from the tenured pools after each collection, which is what the live set looks like, rather
+ * than from current usage, which swings with allocation. Collection usage thresholds are set on those pools at the first
+ * step of the ladder, unless something else already set one, so a collection ending over it is evaluated at once
+ * rather than on the next tick. GC time comes from the collectors' notifications, summed per tick and smoothed.
+ *
+ * The level rises to whatever the signals call for as soon as they call for it. It falls one step at a time, and only
+ * once the signals have stayed under the thresholds of the current step, less {@link #HYSTERESIS}, for
+ * {@code recoveryMillis}, so a heap hovering around a threshold does not flap between two levels.
+ */
+public class PressureMonitor implements PressureMonitorMBean, NotificationListener {
+    public static final long TICK_MILLIS = 1000;
+    public static final double HYSTERESIS = 0.05;
+
+    // Heap ratio and GC time ratio entering each level above NORMAL
+    private static final double[] HEAP_THRESHOLDS = {0.75, 0.85, 0.90, 0.95};
+    private static final double[] GC_THRESHOLDS = {0.10, 0.20, 0.30, 0.50};
+    private static final double GC_SMOOTHING = 0.3;
+    private static final DegradationLevel[] LEVELS = DegradationLevel.values();
+
+    /**
+     * Told about each change of level, on the monitor's thread.
+     */
+    public interface Listener {
+        void onTransition(DegradationLevel from, DegradationLevel to, double heapRatio, double gcRatio);
+    }
+
+    private final long recoveryMillis;
+    private final double infoSampling;
+    private final Listener listener;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongAdder gcMillis = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final AtomicLongArray transitions = new AtomicLongArray(LEVELS.length);
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final List<MemoryPoolMXBean> thresholdsSet = new ArrayList<>();
+    private volatile DegradationLevel level = DegradationLevel.NORMAL;
+    private volatile double heapRatio;
+    private volatile double gcRatio;
+    // Since when the signals have been under the current level, -1 while they are not
+    private long recoveringSince = -1;
+    private long lastTickMillis;
+    private ScheduledExecutorService executor;
+    private ObjectName objectName;
+
+    public PressureMonitor(long recoveryMillis, double infoSampling, Listener listener) {
+        this.recoveryMillis = recoveryMillis;
+        this.infoSampling = infoSampling;
+        this.listener = listener;
+    }
+
+    public void start(String threadName) {
+        for (MemoryPoolMXBean pool : tenuredPools()) {
+            long max = pool.getUsage().getMax();
+            if (max > 0 && pool.getCollectionUsageThreshold() == 0) {
+                pool.setCollectionUsageThreshold((long) (max * HEAP_THRESHOLDS[0]));
+                thresholdsSet.add(pool);
+            }
+        }
+        listen(ManagementFactory.getMemoryMXBean());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            listen(collector);
+        }
+        lastTickMillis = System.currentTimeMillis();
+        executor = Executors.newSingleThreadScheduledExecutor(Platform.concurrency().threadFactory(threadName));
+        executor.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException ignored) {
+                // Already gone
+            }
+        }
+        emitters.clear();
+        for (MemoryPoolMXBean pool : thresholdsSet) {
+            pool.setCollectionUsageThreshold(0);
+        }
+        thresholdsSet.clear();
+    }
+
+    private void listen(Object bean) {
+        if (bean instanceof NotificationEmitter) {
+            NotificationEmitter emitter = (NotificationEmitter) bean;
+            emitter.addNotificationListener(this, null, null);
+            emitters.add(emitter);
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            gcMillis.add(info.getGcInfo().getDuration());
+        } else if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            ScheduledExecutorService current = executor;
+            if (current != null) {
+                // Notifications arrive on a JVM thread that should not be held up
+                current.execute(() -> evaluate(System.currentTimeMillis(), sampleHeapRatio(), gcRatio));
+            }
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        long elapsed = Math.max(1, now - lastTickMillis);
+        lastTickMillis = now;
+        double sample = Math.min(1, (double) gcMillis.sumThenReset() / elapsed);
+        double smoothed = gcRatio + GC_SMOOTHING * (sample - gcRatio);
+        evaluate(now, sampleHeapRatio(), smoothed);
+    }
+
+    /**
+     * Moves the ladder for the given signals as seen at {@code nowMillis}, and returns the level now in effect.
+     */
+    public DegradationLevel evaluate(long nowMillis, double heapRatio, double gcRatio) {
+        DegradationLevel from;
+        DegradationLevel to;
+        lock.lock();
+        try {
+            this.heapRatio = heapRatio;
+            this.gcRatio = gcRatio;
+            from = level;
+            to = from;
+            int target = target(heapRatio, gcRatio, 0);
+            if (target > from.ordinal()) {
+                to = LEVELS[target];
+                recoveringSince = -1;
+            } else if (target(heapRatio, gcRatio, HYSTERESIS) < from.ordinal()) {
+                if (recoveringSince < 0) {
+                    recoveringSince = nowMillis;
+                } else if (nowMillis - recoveringSince >= recoveryMillis) {
+                    to = LEVELS[from.ordinal() - 1];
+                    // The next step down waits a full recovery period of its own
+                    recoveringSince = nowMillis;
+                }
+            } else {
+                recoveringSince = -1;
+            }
+            if (to != from) {
+                level = to;
+                transitions.incrementAndGet(to.ordinal());
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (to != from) {
+            listener.onTransition(from, to, heapRatio, gcRatio);
+        }
+        return to;
+    }
+
+    // Highest level whose heap or GC threshold, lowered by slack, the signals reach
+    private static int target(double heapRatio, double gcRatio, double slack) {
+        int target = 0;
+        for (int i = 0; i < HEAP_THRESHOLDS.length; i++) {
+            if (heapRatio >= HEAP_THRESHOLDS[i] - slack || gcRatio >= GC_THRESHOLDS[i] - slack) {
+                target = i + 1;
+            }
+        }
+        return target;
+    }
+
+    private static double sampleHeapRatio() {
+        double ratio = 0;
+        for (MemoryPoolMXBean pool : tenuredPools()) {
+            MemoryUsage afterCollection = pool.getCollectionUsage();
+            long max = pool.getUsage().getMax();
+            if (afterCollection != null && max > 0) {
+                ratio = Math.max(ratio, (double) afterCollection.getUsed() / max);
+            }
+        }
+        return ratio;
+    }
+
+    // Eden and survivor spaces are nearly empty or full after a collection by design and say nothing about the live set,
+    // the heap pools supporting both kinds of threshold are the ones holding long lived objects
+    private static List<MemoryPoolMXBean> tenuredPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool.isCollectionUsageThresholdSupported()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * Whether an event of {@code eventLevel} is kept at the current level. Events turned away are counted as shed.
+     */
+    public boolean admits(Level eventLevel) {
+        if (level.admits(eventLevel, infoSampling)) {
+            return true;
+        }
+        shed.increment();
+        return false;
+    }
+
+    public DegradationLevel current() {
+        return level;
+    }
+
+    public void registerMBean(String appenderName, Consumer<String> errors) {
+        objectName = Jmx.register(this, appenderName, "pressure", errors);
+    }
+
+    public void unregisterMBean(Consumer<String> errors) {
+        Jmx.unregister(objectName, errors);
+        objectName = null;
+    }
+
+    @Override
+    public String getLevel() {
+        return level.name();
+    }
+
+    @Override
+    public double getHeapRatio() {
+        return heapRatio;
+    }
+
+    @Override
+    public double getGcRatio() {
+        return gcRatio;
+    }
+
+    @Override
+    public Map<String, Long> getTransitions() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (DegradationLevel each : LEVELS) {
+            counts.put(each.name(), transitions.get(each.ordinal()));
+        }
+        return counts;
+    }
+
+    @Override
+    public long getShedEvents() {
+        return shed.sum();
+    }
+}
@@ -0,0 +1,31 @@
+package com.hyp3r.services.kinesis.logback.pressure;
+
+import java.util.Map;
+
+/**
+ * JMX view of an appender's memory pressure monitor.
+ */
+public interface PressureMonitorMBean {
+
+    String getLevel();
+
+    /**
+     * Heap occupancy after the last collection, as a share of the maximum.
+     */
+    double getHeapRatio();
+
+    /**
+     * Share of time spent in garbage collection, smoothed over recent seconds.
+     */
+    double getGcRatio();
+
+    /**
+     * Number of transitions into each level since start.
+     */
+    Map<String, Long> getTransitions();
+
+    /**
+     * Events dropped by the degradation ladder since start.
+     */
+    long getShedEvents();
+}
@@ -0,0 +1,267 @@
+package com.hyp3r.services.kinesis.logback.processor;
+
+import com.hyp3r.services.kinesis.logback.ext.KinesisEvent;
+import com.hyp3r.services.kinesis.logback.ext.KinesisField;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates an {@code <Interface>Emitter} for every interface declaring {@link KinesisEvent} methods. Each method of
+ * the emitter checks the logger level, fills in a metadata object laid out by a precomputed
+ * {@link com.hyp3r.services.kinesis.logback.encoding.EventSchema} and hands it to
+ * {@link com.hyp3r.services.kinesis.logback.ext.KinesisLogger#kEvent}. Mistakes in the interface are reported as
+ * compile errors on the offending element.
+ */
+@SupportedAnnotationTypes("com.hyp3r.services.kinesis.logback.ext.KinesisEvent")
+public class KinesisEventProcessor extends AbstractProcessor {
+    private static final Set<String> LEVELS = new HashSet<>(Arrays.asList("TRACE", "DEBUG", "INFO", "WARN", "ERROR"));
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> interfaces = new LinkedHashSet<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(KinesisEvent.class)) {
+            interfaces.add((TypeElement) element.getEnclosingElement());
+        }
+        for (TypeElement type : interfaces) {
+            if (isValid(type)) {
+                generate(type);
+            }
+        }
+        return true;
+    }
+
+    private boolean isValid(TypeElement type) {
+        if (type.getKind() != ElementKind.INTERFACE || !type.getTypeParameters().isEmpty()
+            || type.getModifiers().contains(Modifier.PRIVATE)) {
+            return error(type, "@KinesisEvent methods must be declared in a non generic, non private interface");
+        }
+        boolean valid = true;
+        for (ExecutableElement method : abstractMethods(type)) {
+            valid &= isValid(method);
+        }
+        return valid;
+    }
+
+    private boolean isValid(ExecutableElement method) {
+        KinesisEvent event = method.getAnnotation(KinesisEvent.class);
+        if (event == null) {
+            return error(method, "Every abstract method of an event interface needs @KinesisEvent");
+        }
+        if (method.getReturnType().getKind() != TypeKind.VOID || !method.getTypeParameters().isEmpty()) {
+            return error(method, "@KinesisEvent methods must return void and take no type parameters");
+        }
+        if (event.value().trim().isEmpty() || event.value().contains(" ")) {
+            return error(method, "@KinesisEvent event type cannot be blank or contain whitespace");
+        }
+        if (!LEVELS.contains(event.level())) {
+            return error(method, "@KinesisEvent level must be one of TRACE, DEBUG, INFO, WARN or ERROR");
+        }
+        boolean valid = true;
+        boolean throwable = false;
+        Set<String> keys = new HashSet<>();
+        for (VariableElement parameter : method.getParameters()) {
+            TypeMirror type = parameter.asType();
+            if (isThrowable(type)) {
+                if (throwable) {
+                    valid = error(parameter, "@KinesisEvent methods take at most one Throwable");
+                }
+                throwable = true;
+            } else if (type.getKind() == TypeKind.ARRAY || type.getKind() == TypeKind.CHAR || type.getKind() == TypeKind.TYPEVAR) {
+                valid = error(parameter, "Unsupported @KinesisEvent parameter type " + type);
+            } else if (!keys.add(key(parameter))) {
+                valid = error(parameter, "Duplicate @KinesisEvent key " + key(parameter));
+            }
+        }
+        return valid;
+    }
+
+    private void generate(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String emitterName = flatName(type) + "Emitter";
+        List<ExecutableElement> methods = abstractMethods(type);
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("// Generated by ").append(KinesisEventProcessor.class.getName()).append(" from ")
+            .append(type.getQualifiedName()).append(", do not edit\n");
+        out.append("public final class ").append(emitterName).append(" implements ").append(type.getQualifiedName()).append(" {\n");
+        for (int m = 0; m < methods.size(); m++) {
+            out.append("    private static final com.hyp3r.services.kinesis.logback.encoding.EventSchema SCHEMA_").append(m)
+                .append(" = new com.hyp3r.services.kinesis.logback.encoding.EventSchema(");
+            boolean first = true;
+            for (VariableElement parameter : methods.get(m).getParameters()) {
+                if (!isThrowable(parameter.asType())) {
+                    out.append(first ? "" : ", ").append(literal(key(parameter)));
+                    first = false;
+                }
+            }
+            out.append(");\n");
+        }
+        out.append("\n    private final com.hyp3r.services.kinesis.logback.ext.KinesisLogger logger;\n\n");
+        out.append("    public ").append(emitterName).append("(com.hyp3r.services.kinesis.logback.ext.KinesisLogger logger) {\n");
+        out.append("        this.logger = logger;\n    }\n\n");
+        out.append("    public ").append(emitterName).append("(Class<?> loggerClass) {\n");
+        out.append("        this(com.hyp3r.services.kinesis.logback.ext.KinesisLoggerFactory.getLogger(loggerClass));\n    }\n");
+        for (int m = 0; m < methods.size(); m++) {
+            writeMethod(out, methods.get(m), m);
+        }
+        out.append("}\n");
+
+        String qualifiedName = packageName.isEmpty() ? emitterName : packageName + "." + emitterName;
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(out.toString());
+            }
+        } catch (IOException e) {
+            error(type, "Failed to write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void writeMethod(StringBuilder out, ExecutableElement method, int m) {
+        KinesisEvent event = method.getAnnotation(KinesisEvent.class);
+        String level = "ch.qos.logback.classic.Level." + event.level();
+        out.append("\n    @Override\n    public void ").append(method.getSimpleName()).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableElement parameter = parameters.get(i);
+            out.append(i == 0 ? "" : ", ").append("final ").append(parameter.asType()).append(' ').append(parameter.getSimpleName());
+        }
+        out.append(") {\n");
+        out.append("        if (!this.logger.isLevelEnabled(").append(level).append(")) {\n            return;\n        }\n");
+        out.append("        com.hyp3r.services.kinesis.logback.models.KinesisMetadata metadata$ = SCHEMA_").append(m).append(".newMetadata();\n");
+        String throwable = "null";
+        int index = 0;
+        for (VariableElement parameter : parameters) {
+            TypeMirror type = parameter.asType();
+            String name = parameter.getSimpleName().toString();
+            if (isThrowable(type)) {
+                throwable = name;
+                continue;
+            }
+            out.append("        metadata$.set(").append(index++).append(", ").append(value(type, name)).append(");\n");
+        }
+        out.append("        this.logger.kEvent(").append(level).append(", ").append(literal(event.value())).append(", ")
+            .append(event.context().isEmpty() ? "null" : literal(event.context())).append(", metadata$, ")
+            .append(literal(event.message())).append(", ").append(throwable).append(");\n");
+        out.append("    }\n");
+    }
+
+    // Each parameter goes to the KinesisMetadata.set overload storing it without boxing or conversion at runtime, with a
+    // cast only where it widens to the overload's type, so the generated code compiles cleanly under -Xlint:cast
+    private String value(TypeMirror type, String name) {
+        switch (type.getKind()) {
+            case BYTE:
+            case SHORT:
+            case INT:
+                return "(long) " + name;
+            case FLOAT:
+                return "(double) " + name;
+            default:
+                if (isEnum(type)) {
+                    return name + " == null ? null : " + name + ".name()";
+                }
+                return name;
+        }
+    }
+
+    private List<ExecutableElement> abstractMethods(TypeElement type) {
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            Element owner = method.getEnclosingElement();
+            if (method.getModifiers().contains(Modifier.ABSTRACT) && !((TypeElement) owner).getQualifiedName().contentEquals("java.lang.Object")) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    private static String key(VariableElement parameter) {
+        KinesisField field = parameter.getAnnotation(KinesisField.class);
+        return field != null ? field.value() : snakeCase(parameter.getSimpleName().toString());
+    }
+
+    static String snakeCase(String name) {
+        StringBuilder out = new StringBuilder(name.length() + 4);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                // Runs of capitals stay one word, as in httpURLCount to http_url_count
+                boolean wordStart = i > 0 && (!Character.isUpperCase(name.charAt(i - 1))
+                    || (i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1))));
+                if (wordStart) {
+                    out.append('_');
+                }
+                out.append(Character.toLowerCase(c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    // Nested interfaces get their enclosing type names as a prefix, so emitters of same-named interfaces never clash
+    private static String flatName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        for (Element outer = type.getEnclosingElement(); outer instanceof TypeElement; outer = outer.getEnclosingElement()) {
+            name.insert(0, outer.getSimpleName() + "_");
+        }
+        return name.toString();
+    }
+
+    private boolean isThrowable(TypeMirror type) {
+        TypeElement throwable = processingEnv.getElementUtils().getTypeElement("java.lang.Throwable");
+        return type.getKind() == TypeKind.DECLARED && processingEnv.getTypeUtils().isAssignable(type, throwable.asType());
+    }
+
+    private static boolean isEnum(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    private static String literal(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private boolean error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+}
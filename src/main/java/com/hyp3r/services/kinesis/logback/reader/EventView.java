@@ -0,0 +1,358 @@
+package com.hyp3r.services.kinesis.logback.reader;
+
+import com.hyp3r.services.kinesis.logback.encoding.JsonWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read-only view of one JSON event, giving access to the fields of a {@link FieldSelector} by index. Nothing is parsed
+ * until the first field is read; then the event is scanned once, up to the last selected field, and only the bounds of
+ * the selected values are kept. Other values are skipped over without being decoded, and a value is only turned into a
+ * string or number by the accessor reading it.
+ *
+ * A view points into the buffer it was reset to and is reused for the next event, so it must not be kept beyond the
+ * callback it was handed to. Use {@link #toByteArray()} to keep an event.
+ */
+public final class EventView {
+    private final FieldSelector selector;
+    private final int[] starts;
+    private final int[] ends;
+    private byte[] buffer;
+    private int offset;
+    private int length;
+    private boolean scanned;
+    private int found;
+    private int pos;
+    private int end;
+
+    public EventView(FieldSelector selector) {
+        this.selector = selector;
+        this.starts = new int[selector.size()];
+        this.ends = new int[selector.size()];
+    }
+
+    public EventView reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        scanned = false;
+        return this;
+    }
+
+    public FieldSelector getSelector() {
+        return selector;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOfRange(buffer, offset, offset + length);
+    }
+
+    public boolean has(int field) {
+        scan();
+        return starts[field] >= 0;
+    }
+
+    public boolean isNull(int field) {
+        return !has(field) || buffer[starts[field]] == 'n';
+    }
+
+    /**
+     * Offset of the field's raw JSON value within {@link #buffer()}, -1 if the event does not have it.
+     */
+    public int valueOffset(int field) {
+        scan();
+        return starts[field];
+    }
+
+    public int valueLength(int field) {
+        scan();
+        return starts[field] < 0 ? 0 : ends[field] - starts[field];
+    }
+
+    /**
+     * The field's value as JSON text, objects and arrays included, or null if the event does not have it.
+     */
+    public String getRaw(int field) {
+        if (!has(field)) {
+            return null;
+        }
+        return new String(buffer, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The decoded string value of the field, the JSON text of other values, or null if the field is missing or null.
+     */
+    public String getString(int field) {
+        if (isNull(field)) {
+            return null;
+        }
+        int start = starts[field];
+        if (buffer[start] != '"') {
+            return getRaw(field);
+        }
+        return unescape(start + 1, ends[field] - 1);
+    }
+
+    /**
+     * Whether the field is the string {@code expected}, compared in escaped form without decoding the value.
+     */
+    public boolean stringEquals(int field, String expected) {
+        if (!has(field)) {
+            return false;
+        }
+        byte[] quoted = JsonWriter.quoted(expected);
+        int start = starts[field];
+        if (ends[field] - start != quoted.length) {
+            return false;
+        }
+        for (int i = 0; i < quoted.length; i++) {
+            if (buffer[start + i] != quoted[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The field as a long, {@code defaultValue} if it is missing or not a number. Fractions are cut off.
+     */
+    public long getLong(int field, long defaultValue) {
+        if (!has(field)) {
+            return defaultValue;
+        }
+        int i = starts[field];
+        int stop = ends[field];
+        boolean negative = buffer[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == stop) {
+            return defaultValue;
+        }
+        long value = 0;
+        for (; i < stop; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                double fallback = getDouble(field, Double.NaN);
+                return Double.isNaN(fallback) ? defaultValue : (long) fallback;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * The field as a double, {@code defaultValue} if it is missing or not a number.
+     */
+    public double getDouble(int field, double defaultValue) {
+        if (!has(field)) {
+            return defaultValue;
+        }
+        byte first = buffer[starts[field]];
+        if (first != '-' && (first < '0' || first > '9')) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(new String(buffer, starts[field], ends[field] - starts[field], StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(int field, boolean defaultValue) {
+        if (!has(field)) {
+            return defaultValue;
+        }
+        byte first = buffer[starts[field]];
+        return first == 't' || (first != 'f' && defaultValue);
+    }
+
+    private void scan() {
+        if (scanned) {
+            return;
+        }
+        Arrays.fill(starts, -1);
+        found = 0;
+        pos = offset;
+        end = offset + length;
+        whitespace();
+        expect('{');
+        object(selector.root);
+        scanned = true;
+    }
+
+    // Returns early, leaving the rest of the event unread, once every selected field was found
+    private void object(FieldSelector.Node node) {
+        pos++;
+        whitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            whitespace();
+            expect('"');
+            int keyStart = pos + 1;
+            skipString();
+            int k = node.find(buffer, keyStart, pos - 1 - keyStart);
+            whitespace();
+            expect(':');
+            pos++;
+            whitespace();
+            if (k < 0) {
+                skipValue();
+            } else {
+                int field = node.fields[k];
+                FieldSelector.Node child = node.children[k];
+                int start = pos;
+                if (child != null && peek() == '{') {
+                    object(child);
+                } else {
+                    skipValue();
+                }
+                if (field >= 0) {
+                    if (starts[field] < 0) {
+                        found++;
+                    }
+                    starts[field] = start;
+                    ends[field] = pos;
+                }
+                if (found == starts.length) {
+                    return;
+                }
+            }
+            whitespace();
+            byte b = peek();
+            pos++;
+            if (b == '}') {
+                return;
+            }
+            if (b != ',') {
+                throw malformed();
+            }
+        }
+    }
+
+    private void skipValue() {
+        byte b = peek();
+        if (b == '"') {
+            skipString();
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            do {
+                b = peek();
+                if (b == '"') {
+                    skipString();
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+                pos++;
+            } while (depth > 0);
+        } else {
+            while (pos < end && (b = buffer[pos]) != ',' && b != '}' && b != ']' && b > ' ') {
+                pos++;
+            }
+        }
+    }
+
+    // From the opening quote to just past the closing one
+    private void skipString() {
+        pos++;
+        while (true) {
+            byte b = peek();
+            if (b == '\\') {
+                pos += 2;
+            } else {
+                pos++;
+                if (b == '"') {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void whitespace() {
+        while (pos < end && buffer[pos] <= ' ' && buffer[pos] >= 0) {
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        if (pos >= end) {
+            throw malformed();
+        }
+        return buffer[pos];
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw malformed();
+        }
+    }
+
+    private IllegalArgumentException malformed() {
+        scanned = false;
+        return new IllegalArgumentException("malformed event at offset " + (pos - offset));
+    }
+
+    private String unescape(int start, int stop) {
+        int escape = start;
+        while (escape < stop && buffer[escape] != '\\') {
+            escape++;
+        }
+        if (escape == stop) {
+            return new String(buffer, start, stop - start, StandardCharsets.UTF_8);
+        }
+        StringBuilder out = new StringBuilder(stop - start);
+        int from = start;
+        for (int i = escape; i < stop; i++) {
+            if (buffer[i] != '\\') {
+                continue;
+            }
+            out.append(new String(buffer, from, i - from, StandardCharsets.UTF_8));
+            byte c = buffer[++i];
+            switch (c) {
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    out.append((char) Integer.parseInt(new String(buffer, i + 1, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                    break;
+                default:
+                    out.append((char) c);
+            }
+            from = i + 1;
+        }
+        return out.append(new String(buffer, from, stop - from, StandardCharsets.UTF_8)).toString();
+    }
+}
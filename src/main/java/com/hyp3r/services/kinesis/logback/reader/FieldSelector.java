@@ -0,0 +1,107 @@
+package com.hyp3r.services.kinesis.logback.reader;
+
+import com.hyp3r.services.kinesis.logback.encoding.JsonWriter;
+
+import java.util.Arrays;
+
+/**
+ * The fields an {@link EventView} gives access to, as dotted paths such as {@code event_type} or
+ * {@code metadata.order_id}. Fields are read by their index in {@link #of(String...)}. Keys are matched on their escaped
+ * JSON form, as written by the appender, so the reader never decodes a key.
+ */
+public final class FieldSelector {
+    private final String[] paths;
+    final Node root = new Node();
+
+    private FieldSelector(String[] paths) {
+        this.paths = paths.clone();
+        for (int field = 0; field < paths.length; field++) {
+            Node node = root;
+            String[] keys = paths[field].split("\\.", -1);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].isEmpty()) {
+                    throw new IllegalArgumentException("Invalid field path " + paths[field]);
+                }
+                int k = node.add(keys[i]);
+                if (i == keys.length - 1) {
+                    if (node.fields[k] >= 0) {
+                        throw new IllegalArgumentException("Duplicate field path " + paths[field]);
+                    }
+                    node.fields[k] = field;
+                } else {
+                    if (node.children[k] == null) {
+                        node.children[k] = new Node();
+                    }
+                    node = node.children[k];
+                }
+            }
+        }
+    }
+
+    public static FieldSelector of(String... paths) {
+        return new FieldSelector(paths);
+    }
+
+    public int size() {
+        return paths.length;
+    }
+
+    public String path(int field) {
+        return paths[field];
+    }
+
+    /**
+     * The index of {@code path}, -1 if it was not selected.
+     */
+    public int indexOf(String path) {
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i].equals(path)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The selected keys of one object level. A key may be a field of its own, lead to nested fields, or both.
+    static final class Node {
+        byte[][] keys = new byte[0][];
+        int[] fields = new int[0];
+        Node[] children = new Node[0];
+
+        private int add(String key) {
+            byte[] quoted = JsonWriter.quoted(key);
+            byte[] escaped = Arrays.copyOfRange(quoted, 1, quoted.length - 1);
+            for (int k = 0; k < keys.length; k++) {
+                if (Arrays.equals(keys[k], escaped)) {
+                    return k;
+                }
+            }
+            int k = keys.length;
+            keys = Arrays.copyOf(keys, k + 1);
+            keys[k] = escaped;
+            fields = Arrays.copyOf(fields, k + 1);
+            fields[k] = -1;
+            children = Arrays.copyOf(children, k + 1);
+            return k;
+        }
+
+        int find(byte[] buffer, int offset, int length) {
+            for (int k = 0; k < keys.length; k++) {
+                byte[] key = keys[k];
+                if (key.length == length && matches(key, buffer, offset)) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean matches(byte[] key, byte[] buffer, int offset) {
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.hyp3r.services.kinesis.logback.reader;
+
+import com.hyp3r.services.kinesis.logback.batching.DictionaryBatch;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Unpacks Kinesis records aggregated by the KPL: {@link #MAGIC}, an {@code AggregatedRecord} protocol buffer and the MD5
+ * of that buffer. The protocol buffer is walked in place and the data of each user record is handed on as a slice of
+ * the Kinesis record, without copying it or building message objects. As in the KCL, records with the magic bytes but a
+ * wrong digest are taken to be plain records.
+ *
+ * Instances keep a digest and are not thread-safe.
+ */
+public final class KplDeaggregator {
+    public static final byte[] MAGIC = {(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+
+    private static final int DIGEST_BYTES = 16;
+    // Field numbers of AggregatedRecord.records and Record.data
+    private static final int RECORDS_FIELD = 3;
+    private static final int DATA_FIELD = 3;
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+
+    private final MessageDigest md5;
+    private final byte[] digest = new byte[DIGEST_BYTES];
+    private int pos;
+
+    public KplDeaggregator() {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean isAggregated(byte[] record, int offset, int length) {
+        if (length < MAGIC.length + DIGEST_BYTES) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (record[offset + i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        int messageEnd = offset + length - DIGEST_BYTES;
+        md5.update(record, offset + MAGIC.length, messageEnd - offset - MAGIC.length);
+        try {
+            md5.digest(digest, 0, DIGEST_BYTES);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < DIGEST_BYTES; i++) {
+            if (digest[i] != record[messageEnd + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands the data of every user record in an aggregated record to {@code sink}, in order, and returns their number.
+     * Only call it for records {@link #isAggregated(byte[], int, int)} accepted.
+     */
+    public int deaggregate(byte[] record, int offset, int length, DictionaryBatch.RecordSink sink) {
+        int end = offset + length - DIGEST_BYTES;
+        int records = 0;
+        pos = offset + MAGIC.length;
+        while (pos < end) {
+            long tag = varint(record, end);
+            if ((int) (tag >>> 3) == RECORDS_FIELD && (tag & 7) == LENGTH_DELIMITED) {
+                int recordEnd = delimitedEnd(record, end);
+                userRecord(record, recordEnd, sink);
+                records++;
+            } else {
+                skip(record, end, (int) (tag & 7));
+            }
+        }
+        return records;
+    }
+
+    private void userRecord(byte[] record, int end, DictionaryBatch.RecordSink sink) {
+        int dataOffset = -1;
+        int dataEnd = -1;
+        while (pos < end) {
+            long tag = varint(record, end);
+            if ((int) (tag >>> 3) == DATA_FIELD && (tag & 7) == LENGTH_DELIMITED) {
+                dataEnd = delimitedEnd(record, end);
+                dataOffset = pos;
+                pos = dataEnd;
+            } else {
+                skip(record, end, (int) (tag & 7));
+            }
+        }
+        if (dataOffset < 0) {
+            throw new IllegalArgumentException("aggregated record without data");
+        }
+        sink.accept(record, dataOffset, dataEnd - dataOffset);
+    }
+
+    private void skip(byte[] record, int end, int wireType) {
+        switch (wireType) {
+            case VARINT:
+                varint(record, end);
+                break;
+            case FIXED64:
+                pos += 8;
+                break;
+            case LENGTH_DELIMITED:
+                pos = delimitedEnd(record, end);
+                break;
+            case FIXED32:
+                pos += 4;
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported wire type " + wireType + " in aggregated record");
+        }
+        if (pos > end) {
+            throw new IllegalArgumentException("truncated aggregated record");
+        }
+    }
+
+    // Reads the length prefix and returns where the field ends
+    private int delimitedEnd(byte[] record, int end) {
+        long length = varint(record, end);
+        if (length > end - pos) {
+            throw new IllegalArgumentException("truncated aggregated record");
+        }
+        return pos + (int) length;
+    }
+
+    private long varint(byte[] record, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= end) {
+                throw new IllegalArgumentException("truncated aggregated record");
+            }
+            int b = record[pos++] & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint in aggregated record");
+    }
+}
@@ -0,0 +1,123 @@
+package com.hyp3r.services.kinesis.logback.reader;
+
+import com.hyp3r.services.kinesis.logback.batching.DictionaryBatch;
+import com.hyp3r.services.kinesis.logback.encoding.ChunkReassembler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Consumer-side reader of the records written by the appender. A Kinesis record, as returned by {@code GetRecords} or
+ * the KCL without deaggregation, is unpacked in layers: KPL aggregation, gzip compression of a user record,
+ * {@link DictionaryBatch} batches and {@link ChunkReassembler} chunks. Each JSON event found is handed to the visitor
+ * as an {@link EventView} giving lazy access to the selected fields.
+ *
+ * Plain and aggregated events are read in place in the record's buffer. Only batched events are expanded, one at a
+ * time into a reused buffer, and only compressed and chunked records are copied.
+ *
+ * A reader keeps state between records, such as incomplete chunks, and is meant for a single consumer thread.
+ */
+public class RecordReader {
+    private static final int GZIP_MAGIC_0 = 0x1F;
+    private static final int GZIP_MAGIC_1 = 0x8B;
+
+    private final EventView view;
+    private final ChunkReassembler chunks;
+    private final KplDeaggregator kpl = new KplDeaggregator();
+    private final DictionaryBatch.RecordSink userRecords = this::userRecord;
+    private final DictionaryBatch.RecordSink events = this::event;
+    private byte[] inflateBuffer = new byte[8192];
+    private Consumer<EventView> visitor;
+    private int count;
+
+    public RecordReader(FieldSelector selector) {
+        this(selector, new ChunkReassembler());
+    }
+
+    public RecordReader(FieldSelector selector, ChunkReassembler chunks) {
+        this.view = new EventView(selector);
+        this.chunks = chunks;
+    }
+
+    /**
+     * Reads the remaining bytes of {@code data}, in place when it is backed by an array, without moving its position.
+     */
+    public int read(ByteBuffer data, Consumer<EventView> visitor) {
+        if (data.hasArray()) {
+            return read(data.array(), data.arrayOffset() + data.position(), data.remaining(), visitor);
+        }
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return read(copy, 0, copy.length, visitor);
+    }
+
+    public int read(byte[] record, Consumer<EventView> visitor) {
+        return read(record, 0, record.length, visitor);
+    }
+
+    /**
+     * Hands every complete event in the record to {@code visitor} and returns their number. Chunks of an event still
+     * missing parts count as no events until the last part is read.
+     */
+    public int read(byte[] record, int offset, int length, Consumer<EventView> visitor) {
+        this.visitor = visitor;
+        count = 0;
+        try {
+            if (kpl.isAggregated(record, offset, length)) {
+                kpl.deaggregate(record, offset, length, userRecords);
+            } else {
+                userRecord(record, offset, length);
+            }
+        } finally {
+            this.visitor = null;
+        }
+        return count;
+    }
+
+    private void userRecord(byte[] data, int offset, int length) {
+        if (length > 2 && (data[offset] & 0xFF) == GZIP_MAGIC_0 && (data[offset + 1] & 0xFF) == GZIP_MAGIC_1) {
+            // Events are handed on before the next user record is inflated into the same buffer
+            int inflated = inflate(data, offset, length);
+            payload(inflateBuffer, 0, inflated);
+        } else {
+            payload(data, offset, length);
+        }
+    }
+
+    private void payload(byte[] data, int offset, int length) {
+        if (DictionaryBatch.isBatch(data, offset, length)) {
+            DictionaryBatch.decode(data, offset, length, events);
+        } else if (ChunkReassembler.isChunk(data, offset, length)) {
+            byte[] event = chunks.accept(Arrays.copyOfRange(data, offset, offset + length));
+            if (event != null) {
+                payload(event, 0, event.length);
+            }
+        } else {
+            event(data, offset, length);
+        }
+    }
+
+    private void event(byte[] data, int offset, int length) {
+        count++;
+        visitor.accept(view.reset(data, offset, length));
+    }
+
+    private int inflate(byte[] data, int offset, int length) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data, offset, length))) {
+            int size = 0;
+            for (int n; (n = in.read(inflateBuffer, size, inflateBuffer.length - size)) >= 0; ) {
+                size += n;
+                if (size == inflateBuffer.length) {
+                    inflateBuffer = Arrays.copyOf(inflateBuffer, size * 2);
+                }
+            }
+            return size;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("malformed gzip record", e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.hyp3r.services.kinesis.logback.routing;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Logback configuration for a single route. All configured match criteria must hold for an event to be sent to
+ * {@code streamName}; criteria left unset match everything.
+ */
+@Getter
+@Setter
+public class KinesisRoute {
+    private String name;
+    private String streamName;
+
+    // Match criteria
+    private String eventType;
+    private String level;
+    private String loggerPrefix;
+    private String mdcKey;
+    private String mdcValue;
+
+    // Per route delivery settings
+    private Double sampleRate;
+    private String partitionKey;
+
+    // MDC projection replacing the appender's for events sent on this route
+    private String mdcInclude;
+    private String mdcExclude;
+    private String mdcRename;
+}
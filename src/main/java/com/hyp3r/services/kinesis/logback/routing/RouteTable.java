@@ -0,0 +1,324 @@
+package com.hyp3r.services.kinesis.logback.routing;
+
+import ch.qos.logback.classic.Level;
+import com.hyp3r.services.kinesis.logback.encoding.MdcProjection;
+import com.hyp3r.services.kinesis.logback.ext.MetadataContext;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable dispatch structure compiled from a list of {@link KinesisRoute}s.
+ *
+ * Routes are indexed by their most selective criterion: event type routes live in a hash map, logger prefix routes in
+ * a character trie and only routes matching solely on level or MDC are scanned. Candidates found through an index are
+ * then checked against the rest of their criteria. MDC criteria and partition keys are looked up in the call metadata,
+ * the bound metadata and then the MDC; for the rows of a bulk write, in the row before the shared metadata.
+ */
+public final class RouteTable {
+    public static final RouteTable EMPTY = new RouteTable(Collections.emptyList());
+
+    private final Map<String, Route[]> byEventType;
+    private final PrefixTrie byLoggerPrefix;
+    private final Route[] unindexed;
+    private final int size;
+    private final boolean matchesOnMetadata;
+
+    private RouteTable(List<Route> routes) {
+        Map<String, List<Route>> eventTypeIndex = new HashMap<>();
+        List<Route> unindexedRoutes = new ArrayList<>();
+        PrefixTrie trie = new PrefixTrie();
+        boolean anyMdcKey = false;
+
+        for (Route route : routes) {
+            anyMdcKey |= route.mdcKey != null;
+            if (!route.eventTypes.isEmpty()) {
+                for (String eventType : route.eventTypes) {
+                    eventTypeIndex.computeIfAbsent(eventType, k -> new ArrayList<>()).add(route);
+                }
+            } else if (route.loggerPrefix != null) {
+                trie.add(route.loggerPrefix, route);
+            } else {
+                unindexedRoutes.add(route);
+            }
+        }
+
+        Map<String, Route[]> index = new HashMap<>();
+        for (Map.Entry<String, List<Route>> entry : eventTypeIndex.entrySet()) {
+            index.put(entry.getKey(), entry.getValue().toArray(new Route[0]));
+        }
+        this.byEventType = index;
+        this.byLoggerPrefix = trie;
+        this.unindexed = unindexedRoutes.toArray(new Route[0]);
+        this.size = routes.size();
+        this.matchesOnMetadata = anyMdcKey;
+    }
+
+    public static RouteTable compile(List<KinesisRoute> routes) {
+        return compile(routes, MdcProjection.ALL);
+    }
+
+    /**
+     * Compiles routes whose MDC projection defaults to {@code defaultProjection}. Equal projections are compiled into a
+     * single instance, so routes sharing one, even if configured separately, share the encoding of an event.
+     */
+    public static RouteTable compile(List<KinesisRoute> routes, MdcProjection defaultProjection) {
+        Map<MdcProjection, MdcProjection> projections = new HashMap<>();
+        projections.put(defaultProjection, defaultProjection);
+        List<Route> compiled = new ArrayList<>(routes.size());
+        for (KinesisRoute route : routes) {
+            compiled.add(new Route(route, projections));
+        }
+        return new RouteTable(compiled);
+    }
+
+    /**
+     * The event types of a comma separated {@code eventType} setting, as used by routes and priority lanes; empty when
+     * the setting is blank.
+     */
+    public static Set<String> splitEventTypes(String eventType) {
+        if (StringUtils.isBlank(eventType)) {
+            return Collections.emptySet();
+        }
+        Set<String> eventTypes = new HashSet<>();
+        for (String type : eventType.split(",")) {
+            if (StringUtils.isNotBlank(type)) {
+                eventTypes.add(type.trim());
+            }
+        }
+        return Collections.unmodifiableSet(eventTypes);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether some route matches on an MDC key, which the metadata of an event can provide, so the rows of a bulk write
+     * may be routed differently from one another.
+     */
+    public boolean matchesOnMetadata() {
+        return matchesOnMetadata;
+    }
+
+    /**
+     * Returns every route matching the event, in no particular order. An empty list means the event should go to the
+     * appender's default stream.
+     */
+    public List<Route> match(Level level, String loggerName, String eventType, KinesisMetadata metadata, MetadataContext bound, Map<String, String> mdc) {
+        return match(level, loggerName, eventType, null, metadata, bound, mdc);
+    }
+
+    /**
+     * Returns every route matching one row of a bulk write, with MDC criteria looked up in the row before the shared
+     * metadata.
+     */
+    public List<Route> match(Level level, String loggerName, String eventType, KinesisMetadata row, KinesisMetadata metadata,
+                             MetadataContext bound, Map<String, String> mdc) {
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Route> matched = null;
+        if (eventType != null) {
+            Route[] candidates = byEventType.get(eventType);
+            if (candidates != null) {
+                matched = collect(candidates, level, loggerName, row, metadata, bound, mdc, matched);
+            }
+        }
+        if (loggerName != null) {
+            matched = byLoggerPrefix.collect(loggerName, level, row, metadata, bound, mdc, matched);
+        }
+        matched = collect(unindexed, level, loggerName, row, metadata, bound, mdc, matched);
+
+        return matched == null ? Collections.emptyList() : matched;
+    }
+
+    private static List<Route> collect(Route[] candidates, Level level, String loggerName, KinesisMetadata row,
+                                       KinesisMetadata metadata, MetadataContext bound, Map<String, String> mdc, List<Route> matched) {
+        for (Route candidate : candidates) {
+            if (candidate.matches(level, loggerName, row, metadata, bound, mdc)) {
+                if (matched == null) {
+                    matched = new ArrayList<>(2);
+                }
+                matched.add(candidate);
+            }
+        }
+        return matched;
+    }
+
+    public static final class Route {
+        private final String name;
+        private final String streamName;
+        private final Set<String> eventTypes;
+        private final Level level;
+        private final String loggerPrefix;
+        private final String mdcKey;
+        private final String mdcValue;
+        private final double sampleRate;
+        private final String partitionKey;
+        private final MdcProjection projection;
+
+        private Route(KinesisRoute config, Map<MdcProjection, MdcProjection> projections) {
+            this.name = StringUtils.defaultIfBlank(config.getName(), config.getStreamName());
+            this.streamName = config.getStreamName();
+            this.eventTypes = splitEventTypes(config.getEventType());
+            this.level = config.getLevel() == null ? null : Level.toLevel(config.getLevel(), null);
+            this.loggerPrefix = StringUtils.trimToNull(config.getLoggerPrefix());
+            this.mdcKey = StringUtils.trimToNull(config.getMdcKey());
+            this.mdcValue = config.getMdcValue();
+            this.sampleRate = config.getSampleRate() == null ? 1.0 : config.getSampleRate();
+            this.partitionKey = StringUtils.trimToNull(config.getPartitionKey());
+            try {
+                MdcProjection routeProjection = MdcProjection.compile(config.getMdcInclude(), config.getMdcExclude(), config.getMdcRename());
+                this.projection = routeProjection == MdcProjection.ALL ? null : projections.computeIfAbsent(routeProjection, p -> p);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("route " + e.getMessage(), e);
+            }
+        }
+
+        // The event type, when configured, is guaranteed by the index lookup
+        private boolean matches(Level eventLevel, String loggerName, KinesisMetadata row, KinesisMetadata metadata,
+                                MetadataContext bound, Map<String, String> mdc) {
+            if (level != null && (eventLevel == null || !eventLevel.isGreaterOrEqual(level))) {
+                return false;
+            }
+            if (loggerPrefix != null && (loggerName == null || !loggerName.startsWith(loggerPrefix))) {
+                return false;
+            }
+            if (mdcKey != null) {
+                String value = lookup(mdcKey, row, metadata, bound, mdc);
+                if (value == null || (mdcValue != null && !mdcValue.equals(value))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean sample() {
+            return sampleRate >= 1.0 || (sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+        }
+
+        /**
+         * The partition key for this route, taken from the configured MDC key, or null when a random key should be
+         * used.
+         */
+        public String partitionKey(KinesisMetadata metadata, MetadataContext bound, Map<String, String> mdc) {
+            if (partitionKey == null) {
+                return null;
+            }
+            return partitionKey(null, metadata, bound, mdc);
+        }
+
+        /**
+         * The partition key for one row of a bulk write, looked up in the row before the shared metadata.
+         */
+        public String partitionKey(KinesisMetadata row, KinesisMetadata shared, MetadataContext bound, Map<String, String> mdc) {
+            if (partitionKey == null) {
+                return null;
+            }
+            return StringUtils.defaultIfEmpty(lookup(partitionKey, row, shared, bound, mdc), null);
+        }
+
+        // Same precedence as in the encoded event: row, call metadata, bound metadata, then the MDC
+        private static String lookup(String key, KinesisMetadata row, KinesisMetadata metadata, MetadataContext bound, Map<String, String> mdc) {
+            int rowIdx = row == null ? -1 : row.indexOf(key);
+            if (rowIdx >= 0) {
+                return row.stringValue(rowIdx);
+            }
+            if (metadata != null) {
+                int idx = metadata.indexOf(key);
+                if (idx >= 0) {
+                    return metadata.stringValue(idx);
+                }
+            }
+            for (MetadataContext node = bound; node != null && !node.isEmpty(); node = node.parent()) {
+                if (node.key().equals(key)) {
+                    return node.value() == null ? null : node.value().toString();
+                }
+            }
+            return mdc == null ? null : mdc.get(key);
+        }
+
+        /**
+         * The MDC projection of this route, or {@code defaultProjection} when it has none of its own.
+         */
+        public MdcProjection projection(MdcProjection defaultProjection) {
+            return projection == null ? defaultProjection : projection;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getStreamName() {
+            return streamName;
+        }
+    }
+
+    // Character trie over logger names; every node on the path of a logger name holds the routes whose prefix ends there
+    private static final class PrefixTrie {
+        private final Node root = new Node();
+
+        void add(String prefix, Route route) {
+            Node node = root;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i), true);
+            }
+            node.routes.add(route);
+        }
+
+        List<Route> collect(String loggerName, Level level, KinesisMetadata row, KinesisMetadata metadata, MetadataContext bound,
+                            Map<String, String> mdc, List<Route> matched) {
+            Node node = root;
+            for (int i = 0; i < loggerName.length() && node != null; i++) {
+                node = node.child(loggerName.charAt(i), false);
+                if (node != null && !node.routes.isEmpty()) {
+                    for (Route route : node.routes) {
+                        if (route.matches(level, loggerName, row, metadata, bound, mdc)) {
+                            if (matched == null) {
+                                matched = new ArrayList<>(2);
+                            }
+                            matched.add(route);
+                        }
+                    }
+                }
+            }
+            return matched;
+        }
+
+        private static final class Node {
+            private char[] keys = new char[0];
+            private Node[] children = new Node[0];
+            private final List<Route> routes = new ArrayList<>(1);
+
+            Node child(char c, boolean create) {
+                int idx = Arrays.binarySearch(keys, c);
+                if (idx >= 0) {
+                    return children[idx];
+                }
+                if (!create) {
+                    return null;
+                }
+                int insertAt = -idx - 1;
+                char[] newKeys = new char[keys.length + 1];
+                Node[] newChildren = new Node[children.length + 1];
+                System.arraycopy(keys, 0, newKeys, 0, insertAt);
+                System.arraycopy(children, 0, newChildren, 0, insertAt);
+                newKeys[insertAt] = c;
+                newChildren[insertAt] = new Node();
+                System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+                System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+                keys = newKeys;
+                children = newChildren;
+                return newChildren[insertAt];
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.hyp3r.services.kinesis.logback.rules;
+
+import ch.qos.logback.classic.Level;
+import com.hyp3r.services.kinesis.logback.encoding.MdcProjection;
+import com.hyp3r.services.kinesis.logback.routing.KinesisRoute;
+import com.hyp3r.services.kinesis.logback.routing.RouteTable;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable, compiled form of a {@link RulesConfig}. The appender reads the current instance once per event, so a
+ * reload takes effect atomically between two events and never half way through one.
+ */
+public final class AppenderRules {
+    private final RulesConfig source;
+    private final long version;
+    private final boolean eventsOnly;
+    private final Level level;
+    private final Set<String> excludedEventTypes;
+    private final double sampleRate;
+    private final MdcProjection mdcProjection;
+    private final RouteTable routeTable;
+
+    private AppenderRules(RulesConfig source, long version, MdcProjection mdcProjection) {
+        this.source = source;
+        this.version = version;
+        this.eventsOnly = source.getEventsOnly() == null || source.getEventsOnly();
+        this.level = source.getLevel() == null ? null : Level.toLevel(source.getLevel(), null);
+        this.excludedEventTypes = source.getExcludeEventTypes() == null
+            ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(source.getExcludeEventTypes()));
+        this.sampleRate = source.getSampleRate() == null ? 1.0 : source.getSampleRate();
+        this.mdcProjection = mdcProjection;
+        this.routeTable = source.getRoutes() == null ? RouteTable.EMPTY : RouteTable.compile(source.getRoutes(), mdcProjection);
+    }
+
+    /**
+     * Validates and compiles {@code config}, throwing an {@link IllegalArgumentException} describing the first problem.
+     */
+    public static AppenderRules compile(RulesConfig config, long version) {
+        if (config.getLevel() != null && Level.toLevel(config.getLevel(), null) == null) {
+            throw new IllegalArgumentException("level is not a valid level: " + config.getLevel());
+        }
+        if (config.getSampleRate() != null && isInvalidRate(config.getSampleRate())) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+        List<KinesisRoute> routes = config.getRoutes();
+        if (routes != null) {
+            for (KinesisRoute route : routes) {
+                if (StringUtils.isBlank(route.getStreamName()) || route.getStreamName().contains(" ")) {
+                    throw new IllegalArgumentException("route streamName cannot be null or contain whitespace");
+                }
+                if (route.getSampleRate() != null && isInvalidRate(route.getSampleRate())) {
+                    throw new IllegalArgumentException("route sampleRate must be between 0 and 1");
+                }
+                if (route.getLevel() != null && Level.toLevel(route.getLevel(), null) == null) {
+                    throw new IllegalArgumentException("route level is not a valid level: " + route.getLevel());
+                }
+            }
+        }
+        MdcProjection mdcProjection = MdcProjection.compile(config.getMdcInclude(), config.getMdcExclude(), config.getMdcRename());
+        return new AppenderRules(config, version, mdcProjection);
+    }
+
+    private static boolean isInvalidRate(double rate) {
+        return !(rate >= 0.0 && rate <= 1.0);
+    }
+
+    /**
+     * Whether an event passes the filters, before routing.
+     */
+    public boolean accepts(Level eventLevel, String eventType) {
+        if (eventsOnly && eventType == null) {
+            return false;
+        }
+        if (level != null && !eventLevel.isGreaterOrEqual(level)) {
+            return false;
+        }
+        return eventType == null || !excludedEventTypes.contains(eventType);
+    }
+
+    /**
+     * Samples an event that matched no route.
+     */
+    public boolean sample() {
+        return sampleRate >= 1.0 || (sampleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * The MDC projection of events that match no route, and of routes without one of their own.
+     */
+    public MdcProjection getMdcProjection() {
+        return mdcProjection;
+    }
+
+    public RouteTable getRouteTable() {
+        return routeTable;
+    }
+
+    public RulesConfig getSource() {
+        return source;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
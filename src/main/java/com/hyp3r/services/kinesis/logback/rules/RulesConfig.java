@@ -0,0 +1,47 @@
+package com.hyp3r.services.kinesis.logback.rules;
+
+import com.hyp3r.services.kinesis.logback.routing.KinesisRoute;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * The runtime-changeable part of the appender configuration, as written in a rules file or passed over JMX. Settings
+ * left null keep the value from the logback configuration.
+ */
+@Getter
+@Setter
+public class RulesConfig {
+    // Filtering
+    private Boolean eventsOnly;
+    private String level;
+    private List<String> excludeEventTypes;
+
+    // Sampling of events that match no route
+    private Double sampleRate;
+
+    // Routing
+    private List<KinesisRoute> routes;
+
+    // MDC projection of events that match no route, and of routes without one of their own
+    private String mdcInclude;
+    private String mdcExclude;
+    private String mdcRename;
+
+    /**
+     * A config with every setting of {@code overlay} that is not null, and the ones of {@code base} otherwise.
+     */
+    public static RulesConfig merge(RulesConfig base, RulesConfig overlay) {
+        RulesConfig merged = new RulesConfig();
+        merged.eventsOnly = overlay.eventsOnly != null ? overlay.eventsOnly : base.eventsOnly;
+        merged.level = overlay.level != null ? overlay.level : base.level;
+        merged.excludeEventTypes = overlay.excludeEventTypes != null ? overlay.excludeEventTypes : base.excludeEventTypes;
+        merged.sampleRate = overlay.sampleRate != null ? overlay.sampleRate : base.sampleRate;
+        merged.routes = overlay.routes != null ? overlay.routes : base.routes;
+        merged.mdcInclude = overlay.mdcInclude != null ? overlay.mdcInclude : base.mdcInclude;
+        merged.mdcExclude = overlay.mdcExclude != null ? overlay.mdcExclude : base.mdcExclude;
+        merged.mdcRename = overlay.mdcRename != null ? overlay.mdcRename : base.mdcRename;
+        return merged;
+    }
+}
@@ -0,0 +1,171 @@
+package com.hyp3r.services.kinesis.logback.rules;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.hyp3r.services.kinesis.logback.concurrent.Platform;
+import com.hyp3r.services.kinesis.logback.jmx.Jmx;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Holds the current {@link AppenderRules} of an appender and swaps them when the rules file changes or new rules arrive
+ * over JMX. Rules that fail to parse or validate are reported and the current ones stay in effect. Nothing here touches
+ * the producer, so records in flight are unaffected by a reload.
+ *
+ * Updates are serialized with a {@link ReentrantLock} rather than {@code synchronized}, so a file read on a virtual
+ * polling thread never pins its carrier.
+ */
+public class RulesManager implements RulesManagerMBean {
+    private static final Gson GSON = new GsonBuilder().create();
+
+    private RulesConfig base;
+    private RulesConfig overlay = new RulesConfig();
+    private final File rulesFile;
+    private final Consumer<String> errors;
+    private final AtomicReference<AppenderRules> rules = new AtomicReference<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long lastModified;
+
+    private ScheduledExecutorService poller;
+    private ObjectName objectName;
+
+    /**
+     * Compiles the initial rules from {@code base} and the rules file, if any. Throws an
+     * {@link IllegalArgumentException} if they are invalid.
+     */
+    public RulesManager(RulesConfig base, String rulesFile, Consumer<String> errors) {
+        this.base = base;
+        this.rulesFile = rulesFile == null ? null : new File(rulesFile);
+        this.errors = errors;
+        if (this.rulesFile != null) {
+            lastModified = this.rulesFile.lastModified();
+            overlay = read(this.rulesFile);
+        }
+        rules.set(AppenderRules.compile(RulesConfig.merge(base, overlay), 1));
+    }
+
+    public AppenderRules current() {
+        return rules.get();
+    }
+
+    public void startPolling(long intervalMillis, String threadName) {
+        if (rulesFile == null) {
+            return;
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(Platform.concurrency().threadFactory(threadName));
+        poller.scheduleWithFixedDelay(this::reloadIfModified, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void registerMBean(String appenderName) {
+        objectName = Jmx.register(this, appenderName, null, errors);
+    }
+
+    public void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        Jmx.unregister(objectName, errors);
+        objectName = null;
+    }
+
+    private void reloadIfModified() {
+        lock.lock();
+        try {
+            long modified = rulesFile.lastModified();
+            if (modified != lastModified) {
+                lastModified = modified;
+                reload();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getRules() {
+        return GSON.toJson(current().getSource());
+    }
+
+    @Override
+    public void setRules(String json) {
+        lock.lock();
+        try {
+            swap(base, parse(json));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the settings coming from the logback configuration, keeping any rules loaded from the file or JMX on top.
+     */
+    public void setBase(RulesConfig base) {
+        lock.lock();
+        try {
+            swap(base, overlay);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean reload() {
+        if (rulesFile == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            swap(base, read(rulesFile));
+        } catch (IllegalArgumentException e) {
+            errors.accept("Keeping current rules, failed to load " + rulesFile + ": " + e.getMessage());
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public long getVersion() {
+        return current().getVersion();
+    }
+
+    // Called with the lock held. Readers never lock, they only see the reference change
+    private void swap(RulesConfig base, RulesConfig overlay) {
+        AppenderRules next = AppenderRules.compile(RulesConfig.merge(base, overlay), rules.get().getVersion() + 1);
+        this.base = base;
+        this.overlay = overlay;
+        rules.set(next);
+    }
+
+    private static RulesConfig read(File file) {
+        try {
+            return parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read rules file: " + e.getMessage(), e);
+        }
+    }
+
+    private static RulesConfig parse(String json) {
+        try {
+            RulesConfig config = GSON.fromJson(json, RulesConfig.class);
+            if (config == null) {
+                throw new IllegalArgumentException("rules are empty");
+            }
+            return config;
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("rules are not valid JSON: " + e.getMessage(), e);
+        }
+    }
+}
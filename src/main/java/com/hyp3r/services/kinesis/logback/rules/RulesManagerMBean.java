@@ -0,0 +1,25 @@
+package com.hyp3r.services.kinesis.logback.rules;
+
+/**
+ * JMX view of an appender's rules.
+ */
+public interface RulesManagerMBean {
+
+    /**
+     * The rules in effect, as JSON.
+     */
+    String getRules();
+
+    /**
+     * Replaces the rules with {@code json}, laid out like a rules file. Settings left out keep their value from the
+     * logback configuration.
+     */
+    void setRules(String json);
+
+    /**
+     * Re-reads the rules file. Returns false if no rules file is configured.
+     */
+    boolean reload();
+
+    long getVersion();
+}
@@ -0,0 +1,211 @@
+package com.hyp3r.services.kinesis.logback.sharding;
+
+import com.amazonaws.services.kinesis.producer.Attempt;
+import com.amazonaws.services.kinesis.producer.UserRecordFailedException;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.FutureCallback;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spreads records that have no ordering needs over the shards of one stream by explicit hash key, favouring shards
+ * that are less loaded. The hash key space is cut into {@link #BUCKETS} equal ranges. Every bucket has a callback of its
+ * own, so results tell which shard its range falls on, and how many records that shard took and how many of their put
+ * attempts were throttled. Nothing is needed up front about the stream's shards.
+ *
+ * Once per {@link #update(long)} the weight of each bucket moves against the load of its shard: down for shards that
+ * throttled or took more than their share of records, up for shards that took less. Picking buckets by weight then
+ * steers traffic towards underutilized hash key ranges.
+ */
+public class ShardBalancer {
+    public static final int BUCKETS = 64;
+    public static final String THROTTLED = "ProvisionedThroughputExceededException";
+
+    private static final int KEYS_PER_BUCKET = 16;
+    private static final double MIN_WEIGHT = 0.05;
+    private static final double MAX_WEIGHT = 20;
+    private static final double DECREASE = 0.8;
+    private static final double INCREASE = 1.1;
+    // Shares within this fraction of the mean count as balanced
+    private static final double TOLERANCE = 0.1;
+
+    private final FutureCallback<UserRecordResult> delegate;
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+    private final Map<String, ShardLoad> shards = new ConcurrentHashMap<>();
+    private volatile double[] cumulativeWeights;
+
+    /**
+     * Results are passed on to {@code delegate} after they are counted.
+     */
+    public ShardBalancer(FutureCallback<UserRecordResult> delegate) {
+        this.delegate = delegate;
+        BigInteger width = BigInteger.ONE.shiftLeft(128).divide(BigInteger.valueOf(BUCKETS));
+        Random random = new Random(BUCKETS);
+        for (int i = 0; i < BUCKETS; i++) {
+            BigInteger start = width.multiply(BigInteger.valueOf(i));
+            String[] keys = new String[KEYS_PER_BUCKET];
+            for (int k = 0; k < KEYS_PER_BUCKET; k++) {
+                keys[k] = start.add(new BigInteger(126, random).mod(width)).toString();
+            }
+            buckets[i] = new Bucket(keys);
+        }
+        rebuildWeights();
+    }
+
+    /**
+     * A bucket for the next record, drawn by weight.
+     */
+    public int pick() {
+        double[] cumulative = cumulativeWeights;
+        double target = ThreadLocalRandom.current().nextDouble() * cumulative[BUCKETS - 1];
+        int low = 0;
+        int high = BUCKETS - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] <= target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public String hashKey(int bucket) {
+        String[] keys = buckets[bucket].hashKeys;
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    /**
+     * The callback to attach to a record sent with a {@link #hashKey(int)} of {@code bucket}.
+     */
+    public FutureCallback<UserRecordResult> callback(int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * Turns the counts since the last update into per-shard rates and adjusts the bucket weights. Called from a single
+     * thread.
+     */
+    public void update(long elapsedMillis) {
+        if (elapsedMillis <= 0) {
+            return;
+        }
+        double total = 0;
+        int active = 0;
+        for (ShardLoad load : shards.values()) {
+            long records = load.records.sumThenReset();
+            long throttles = load.throttles.sumThenReset();
+            load.recordsPerSecond = records * 1000.0 / elapsedMillis;
+            load.throttleRatio = records + throttles == 0 ? 0 : (double) throttles / (records + throttles);
+            total += load.recordsPerSecond;
+            if (records + throttles > 0) {
+                active++;
+            }
+        }
+        if (active == 0) {
+            return;
+        }
+        double mean = total / active;
+        for (Bucket bucket : buckets) {
+            ShardLoad load = bucket.shardId == null ? null : shards.get(bucket.shardId);
+            if (load == null) {
+                continue;
+            }
+            if (load.throttleRatio > 0 || load.recordsPerSecond > mean * (1 + TOLERANCE)) {
+                bucket.weight = Math.max(MIN_WEIGHT, bucket.weight * DECREASE);
+            } else if (load.recordsPerSecond < mean * (1 - TOLERANCE)) {
+                bucket.weight = Math.min(MAX_WEIGHT, bucket.weight * INCREASE);
+            }
+        }
+        rebuildWeights();
+    }
+
+    private void rebuildWeights() {
+        double[] cumulative = new double[BUCKETS];
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            sum += buckets[i].weight;
+            cumulative[i] = sum;
+        }
+        cumulativeWeights = cumulative;
+    }
+
+    /**
+     * Records per second and share of throttled put attempts of every shard seen, as of the last update.
+     */
+    public Map<String, double[]> getShardLoads() {
+        Map<String, double[]> loads = new LinkedHashMap<>();
+        shards.forEach((shardId, load) -> loads.put(shardId, new double[]{load.recordsPerSecond, load.throttleRatio}));
+        return loads;
+    }
+
+    public double getWeight(int bucket) {
+        return buckets[bucket].weight;
+    }
+
+    private void record(Bucket bucket, UserRecordResult result, boolean successful) {
+        if (result.getShardId() != null) {
+            bucket.shardId = result.getShardId();
+        }
+        String shardId = bucket.shardId;
+        if (shardId == null) {
+            return;
+        }
+        ShardLoad load = shards.get(shardId);
+        if (load == null) {
+            load = shards.computeIfAbsent(shardId, id -> new ShardLoad());
+        }
+        if (successful) {
+            load.records.increment();
+        }
+        List<Attempt> attempts = result.getAttempts();
+        if (attempts != null) {
+            for (Attempt attempt : attempts) {
+                if (THROTTLED.equals(attempt.getErrorCode())) {
+                    load.throttles.increment();
+                }
+            }
+        }
+    }
+
+    private static final class ShardLoad {
+        private final LongAdder records = new LongAdder();
+        private final LongAdder throttles = new LongAdder();
+        private volatile double recordsPerSecond;
+        private volatile double throttleRatio;
+    }
+
+    private final class Bucket implements FutureCallback<UserRecordResult> {
+        private final String[] hashKeys;
+        private volatile String shardId;
+        private volatile double weight = 1;
+
+        private Bucket(String[] hashKeys) {
+            this.hashKeys = hashKeys;
+        }
+
+        @Override
+        public void onSuccess(UserRecordResult result) {
+            if (result != null) {
+                record(this, result, result.isSuccessful());
+            }
+            delegate.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            if (t instanceof UserRecordFailedException) {
+                record(this, ((UserRecordFailedException) t).getResult(), false);
+            }
+            delegate.onFailure(t);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.hyp3r.services.kinesis.logback.staging;
+
+import com.hyp3r.services.kinesis.logback.jmx.Jmx;
+
+import javax.management.ObjectName;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Off-heap staging area for records waiting on the producer, so a backlog during a Kinesis slowdown does not sit on
+ * the heap. Memory is taken from the JVM as direct {@link ByteBuffer} slabs of {@link #SLAB_BYTES}, up to
+ * {@code capacityBytes}, and bounded by {@code -XX:MaxDirectMemorySize} rather than the heap size.
+ *
+ * Slots come in power of two size classes from {@link #MIN_SLOT_BYTES} to {@link #SLAB_BYTES}. A slab is cut into
+ * slots of one class the first time that class runs out, and stays with it. {@link #stage(byte[])} copies a record into
+ * a free slot and returns it ready to read; the slot goes back with {@link #release(ByteBuffer)} once the producer has
+ * taken the record. The KPL copies record data within {@code addUserRecord}, so slots can be released as soon as the
+ * call returns.
+ *
+ * Free slots of each class sit on a stack guarded by its own lock, held only to push or pop a slot. The stacks grow
+ * when a slab is cut and never allocate per record.
+ */
+public class SlabPool implements SlabPoolMBean {
+    public static final int MIN_SLOT_BYTES = 256;
+    public static final int SLAB_BYTES = 1 << 20;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SLOT_BYTES);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(SLAB_BYTES) - MIN_SHIFT + 1;
+
+    private final long capacityBytes;
+    private final SizeClass[] classes = new SizeClass[CLASSES];
+    private final ReentrantLock growLock = new ReentrantLock();
+    private final LongAdder usedBytes = new LongAdder();
+    private final LongAdder stagedRecords = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+    private volatile long reservedBytes;
+    private ObjectName objectName;
+
+    public SlabPool(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+        for (int i = 0; i < CLASSES; i++) {
+            classes[i] = new SizeClass();
+        }
+    }
+
+    private static final class SizeClass {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+        private ByteBuffer pop() {
+            lock.lock();
+            try {
+                return free.pollLast();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void push(ByteBuffer slot) {
+            lock.lock();
+            try {
+                free.addLast(slot);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Copies {@code data} into a free slot. Returns null, leaving the record on the heap, if it is larger than a slab or
+     * no slot is free and the capacity is taken.
+     */
+    public ByteBuffer stage(byte[] data) {
+        int sizeClass = sizeClass(data.length);
+        ByteBuffer slot = sizeClass < 0 ? null : take(sizeClass);
+        if (slot == null) {
+            exhausted.increment();
+            return null;
+        }
+        slot.clear();
+        slot.put(data);
+        slot.flip();
+        usedBytes.add(slot.capacity());
+        stagedRecords.increment();
+        return slot;
+    }
+
+    /**
+     * Hands a slot returned by {@link #stage(byte[])} back to the pool. The buffer must not be used afterwards.
+     */
+    public void release(ByteBuffer slot) {
+        stagedRecords.decrement();
+        usedBytes.add(-slot.capacity());
+        classes[sizeClass(slot.capacity())].push(slot);
+    }
+
+    private ByteBuffer take(int sizeClass) {
+        SizeClass free = classes[sizeClass];
+        ByteBuffer slot = free.pop();
+        if (slot != null) {
+            return slot;
+        }
+        growLock.lock();
+        try {
+            // Another thread may have cut a slab for this class in the meantime
+            slot = free.pop();
+            if (slot != null || reservedBytes + SLAB_BYTES > capacityBytes) {
+                return slot;
+            }
+            ByteBuffer slab = ByteBuffer.allocateDirect(SLAB_BYTES);
+            reservedBytes += SLAB_BYTES;
+            int slotBytes = MIN_SLOT_BYTES << sizeClass;
+            for (int offset = slotBytes; offset < SLAB_BYTES; offset += slotBytes) {
+                free.push(slice(slab, offset, slotBytes));
+            }
+            return slice(slab, 0, slotBytes);
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer slab, int offset, int length) {
+        ByteBuffer view = slab.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    // Index of the smallest class holding length bytes, -1 if none does
+    private static int sizeClass(int length) {
+        if (length > SLAB_BYTES) {
+            return -1;
+        }
+        int shift = length <= MIN_SLOT_BYTES ? MIN_SHIFT : 32 - Integer.numberOfLeadingZeros(length - 1);
+        return shift - MIN_SHIFT;
+    }
+
+    public void registerMBean(String appenderName, Consumer<String> errors) {
+        objectName = Jmx.register(this, appenderName, "staging", errors);
+    }
+
+    public void unregisterMBean(Consumer<String> errors) {
+        Jmx.unregister(objectName, errors);
+        objectName = null;
+    }
+
+    @Override
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    @Override
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    @Override
+    public long getUsedBytes() {
+        return usedBytes.sum();
+    }
+
+    @Override
+    public long getStagedRecords() {
+        return stagedRecords.sum();
+    }
+
+    @Override
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+}
@@ -0,0 +1,26 @@
+package com.hyp3r.services.kinesis.logback.staging;
+
+/**
+ * JMX view of an appender's off-heap staging area.
+ */
+public interface SlabPoolMBean {
+
+    long getCapacityBytes();
+
+    /**
+     * Direct memory taken from the JVM so far, in whole slabs.
+     */
+    long getReservedBytes();
+
+    /**
+     * Bytes of the slots currently holding a record, rounded up to their size class.
+     */
+    long getUsedBytes();
+
+    long getStagedRecords();
+
+    /**
+     * Records that found no free slot and stayed on the heap.
+     */
+    long getExhausted();
+}
@@ -0,0 +1,34 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads for background work, so an idle drain or poll loop costs no platform thread, and lock-free
+ * VarHandle queues and counters.
+ */
+final class Java21Concurrency implements ConcurrencySupport {
+    static final Java21Concurrency INSTANCE = new Java21Concurrency();
+
+    private Java21Concurrency() {
+    }
+
+    @Override
+    public String getName() {
+        return "java21";
+    }
+
+    @Override
+    public ThreadFactory threadFactory(String name) {
+        return Thread.ofVirtual().name(name).factory();
+    }
+
+    @Override
+    public <T> BoundedQueue<T> newQueue(int capacity) {
+        return new VarHandleQueue<>(capacity);
+    }
+
+    @Override
+    public Counter newCounter() {
+        return new VarHandleCounter();
+    }
+}
@@ -0,0 +1,18 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+/**
+ * Java 21 version of the selector, loaded from {@code META-INF/versions/21} of the multi-release jar.
+ */
+public final class Platform {
+    public static final String CONCURRENCY_PROPERTY = "kinesis.appender.concurrency";
+
+    private static final ConcurrencySupport CONCURRENCY =
+        "java8".equalsIgnoreCase(System.getProperty(CONCURRENCY_PROPERTY)) ? Java8Concurrency.INSTANCE : Java21Concurrency.INSTANCE;
+
+    private Platform() {
+    }
+
+    public static ConcurrencySupport concurrency() {
+        return CONCURRENCY;
+    }
+}
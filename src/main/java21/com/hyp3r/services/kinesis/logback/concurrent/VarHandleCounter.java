@@ -0,0 +1,29 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A long updated through a VarHandle, padded to its own cache line so hot counters do not slow down their neighbours.
+ */
+final class VarHandleCounter implements Counter {
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int VALUE = 8;
+
+    private final long[] cells = new long[VALUE + 8];
+
+    @Override
+    public long incrementAndGet() {
+        return (long) LONGS.getAndAdd(cells, VALUE, 1L) + 1;
+    }
+
+    @Override
+    public long decrementAndGet() {
+        return (long) LONGS.getAndAdd(cells, VALUE, -1L) - 1;
+    }
+
+    @Override
+    public long get() {
+        return (long) LONGS.getVolatile(cells, VALUE);
+    }
+}
@@ -0,0 +1,89 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Bounded multi-producer multi-consumer array queue after Dmitry Vyukov's design. Every slot carries a sequence number
+ * telling whether it is free for the producer at a given position or holds the element for the consumer at that
+ * position, so producers and consumers only contend on a single CAS of their own index.
+ */
+final class VarHandleQueue<T> implements BoundedQueue<T> {
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    // Producer and consumer positions, a cache line apart in one array
+    private static final int TAIL = 8;
+    private static final int HEAD = 16;
+
+    private final int capacity;
+    private final long[] sequences;
+    private final Object[] elements;
+    private final long[] positions = new long[HEAD + 8];
+
+    VarHandleQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.sequences = new long[capacity];
+        this.elements = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences[i] = i;
+        }
+        VarHandle.releaseFence();
+    }
+
+    @Override
+    public boolean offer(T element) {
+        long position = (long) LONGS.getVolatile(positions, TAIL);
+        while (true) {
+            int slot = (int) (position % capacity);
+            long lag = (long) LONGS.getAcquire(sequences, slot) - position;
+            if (lag == 0) {
+                if (LONGS.compareAndSet(positions, TAIL, position, position + 1)) {
+                    ELEMENTS.set(elements, slot, element);
+                    LONGS.setRelease(sequences, slot, position + 1);
+                    return true;
+                }
+            } else if (lag < 0) {
+                // The slot still holds the element from the previous lap
+                return false;
+            }
+            position = (long) LONGS.getVolatile(positions, TAIL);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long position = (long) LONGS.getVolatile(positions, HEAD);
+        while (true) {
+            int slot = (int) (position % capacity);
+            long lag = (long) LONGS.getAcquire(sequences, slot) - (position + 1);
+            if (lag == 0) {
+                if (LONGS.compareAndSet(positions, HEAD, position, position + 1)) {
+                    T element = (T) ELEMENTS.get(elements, slot);
+                    ELEMENTS.set(elements, slot, null);
+                    LONGS.setRelease(sequences, slot, position + capacity);
+                    return element;
+                }
+            } else if (lag < 0) {
+                return null;
+            }
+            position = (long) LONGS.getVolatile(positions, HEAD);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int size() {
+        long head = (long) LONGS.getVolatile(positions, HEAD);
+        long tail = (long) LONGS.getVolatile(positions, TAIL);
+        return (int) Math.max(0, Math.min(capacity, tail - head));
+    }
+}
@@ -0,0 +1,137 @@
+package com.hyp3r.services.kinesis.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.hyp3r.services.kinesis.logback.ext.KinesisLogger;
+import com.hyp3r.services.kinesis.logback.ext.KinesisLoggerFactory;
+import com.hyp3r.services.kinesis.logback.load.NoopKinesisProducer;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes allocated per call on the logging hot path, measured on the calling thread. The budgets are the warmed-up
+ * figures with some headroom; a per-event map copy, UUID or String round trip takes a call over them.
+ *
+ * The figures only hold in a JVM of their own, since other tests leave the JIT with a different picture of the hot path.
+ * The {@code test} task skips this class and {@code allocationTest} runs it in a separate JVM.
+ */
+public class AllocationBudgetTest {
+    private static final String LOGGER_NAME = "com.hyp3r.services.kinesis.logback.AllocationBudget";
+    private static final int WARMUP_CALLS = 20_000;
+    private static final int MEASURED_CALLS = 10_000;
+    private static final int ROUNDS = 5;
+
+    // Bytes per call. Most of it is the logback event and the encoded record, a disabled call only pays for its varargs array
+    private static final long APPEND_BUDGET = 384;
+    private static final long KINFO_BUDGET = 1024;
+    private static final long DISABLED_BUDGET = 16;
+    private static final long TIMER_BUDGET = 960;
+
+    private KinesisAppender<ILoggingEvent> appender;
+    private Logger logbackLogger;
+    private KinesisLogger logger;
+
+    @Before
+    public void setup() {
+        assumeTrue(allocationCounting());
+
+        appender = new KinesisAppender<>();
+        appender.setContext((LoggerContext) LoggerFactory.getILoggerFactory());
+        appender.setName("allocation-budget");
+        appender.setAppName("myApp");
+        appender.setEnvironment("test");
+        appender.setStreamName("my-stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(new NoopKinesisProducer());
+        appender.start();
+
+        logbackLogger = (Logger) LoggerFactory.getLogger(LOGGER_NAME);
+        logbackLogger.setAdditive(false);
+        logbackLogger.setLevel(Level.INFO);
+        logbackLogger.addAppender(appender);
+        logger = KinesisLoggerFactory.getLogger(LOGGER_NAME);
+    }
+
+    @After
+    public void teardown() {
+        if (appender != null) {
+            logbackLogger.detachAppender(appender);
+            appender.stop();
+        }
+    }
+
+    @Test
+    public void appendStaysWithinBudget() {
+        LoggingEvent event = new LoggingEvent(Logger.FQCN, logbackLogger, Level.INFO, "request took {}ms", null, new Object[]{12});
+        event.setMDCPropertyMap(Collections.singletonMap("event_type", "request"));
+        event.getFormattedMessage();
+        assertWithinBudget("append", APPEND_BUDGET, () -> appender.doAppend(event));
+    }
+
+    @Test
+    public void kInfoWithMetadataStaysWithinBudget() {
+        assertWithinBudget("kInfo", KINFO_BUDGET, () -> logger.kInfo("request",
+            KinesisMetadata.withCapacity(3).put("user_id", 42L).put("latency", 1.5).put("region", "us-east-1"),
+            "request handled"));
+    }
+
+    @Test
+    public void disabledLevelStaysWithinBudget() {
+        assertWithinBudget("disabled kDebug", DISABLED_BUDGET, () -> logger.kDebug("request", "request handled"));
+    }
+
+    @Test
+    public void eventTimerStaysWithinBudget() {
+        assertWithinBudget("EventTimer", TIMER_BUDGET, () -> {
+            try (KinesisLogger.EventTimer ignored = logger.timer("request")) {
+                // timed section
+            }
+        });
+    }
+
+    private static void assertWithinBudget(String call, long budget, Runnable runnable) {
+        long bytes = bytesPerCall(runnable);
+        assertTrue(call + " allocated " + bytes + " bytes per call, over its budget of " + budget, bytes <= budget);
+    }
+
+    // The quietest of several rounds, so a stray JIT compilation or TLAB refill does not fail the build
+    private static long bytesPerCall(Runnable runnable) {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            runnable.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < MEASURED_CALLS; i++) {
+                runnable.run();
+            }
+            best = Math.min(best, (allocatedBytes() - before) / MEASURED_CALLS);
+        }
+        return best;
+    }
+
+    private static boolean allocationCounting() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -8,9 +8,15 @@ import ch.qos.logback.core.status.Status;
 import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.kinesis.producer.UserRecordResult;
 import com.google.common.util.concurrent.Futures;
+import com.hyp3r.services.kinesis.logback.batching.DictionaryBatch;
+import com.hyp3r.services.kinesis.logback.encoding.ChunkReassembler;
+import com.hyp3r.services.kinesis.logback.ext.BulkWriter;
 import com.hyp3r.services.kinesis.logback.ext.KinesisLogger;
 import com.hyp3r.services.kinesis.logback.ext.KinesisLoggerFactory;
 import com.hyp3r.services.kinesis.logback.ext.KinesisLoggerTest;
+import com.hyp3r.services.kinesis.logback.load.SimulatedStream;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import com.hyp3r.services.kinesis.logback.routing.KinesisRoute;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
@@ -18,10 +24,15 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
@@ -221,6 +232,361 @@ public class KinesisAppenderTest {
         reset(kinesisProducer);
     }
 
+    @Test
+    public void shouldFailToStartIfInvalidRoute() {
+        KinesisRoute route = new KinesisRoute();
+        route.setEventType("audit");
+
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.addRoute(route);
+        appender.start();
+        assertFalse(appender.isStarted());
+    }
+
+    @Test
+    public void shouldRouteEvents() {
+        KinesisRoute audit = new KinesisRoute();
+        audit.setStreamName("audit-stream");
+        audit.setEventType("audit_event");
+        audit.setPartitionKey("user_id");
+        KinesisRoute errors = new KinesisRoute();
+        errors.setStreamName("error-stream");
+        errors.setLevel("ERROR");
+
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.addRoute(audit);
+        appender.addRoute(errors);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+
+        LOGGER.kInfo("audit_event", Collections.singletonMap("user_id", "42"), "message");
+        LOGGER.kError("audit_event", "message");
+        LOGGER.kInfo("other_event", "message");
+        logger.detachAppender(appender);
+
+        verify(kinesisProducer, times(4)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        assertEquals(Arrays.asList("audit-stream", "audit-stream", "error-stream", "stream"), captoStreamName.getAllValues().stream().sorted().collect(Collectors.toList()));
+        assertEquals("42", captorUuid.getAllValues().get(0));
+
+        // Both routes of the error event share one encoding
+        List<ByteBuffer> buffers = captorByteBuffer.getAllValues();
+        assertSame(buffers.get(1).array(), buffers.get(2).array());
+
+        reset(kinesisProducer);
+    }
+
+    @Test
+    public void shouldProjectMdcPerRoute() {
+        KinesisRoute audit = new KinesisRoute();
+        audit.setStreamName("audit-stream");
+        audit.setEventType("audit_event");
+        audit.setMdcInclude("user_id");
+        audit.setMdcRename("user_id:uid");
+
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.setMdcExclude("trace_id");
+        appender.addRoute(audit);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        MDC.put("trace_id", "t-1");
+        MDC.put("user_id", "42");
+        MDC.put("span", "s-1");
+        try {
+            LOGGER.kInfo("audit_event", "message");
+            LOGGER.kInfo("other_event", "message");
+        } finally {
+            MDC.clear();
+            logger.detachAppender(appender);
+        }
+
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        String auditEvent = new String(captorByteBuffer.getAllValues().get(0).array(), StandardCharsets.UTF_8);
+        String otherEvent = new String(captorByteBuffer.getAllValues().get(1).array(), StandardCharsets.UTF_8);
+        assertTrue(auditEvent, auditEvent.contains("\"metadata\":{\"uid\":\"42\"}"));
+        assertTrue(otherEvent, otherEvent.contains("\"user_id\":\"42\"") && otherEvent.contains("\"span\":\"s-1\""));
+        assertFalse(otherEvent, otherEvent.contains("trace_id"));
+
+        reset(kinesisProducer);
+    }
+
+    @Test
+    public void shouldRouteBulkRowsOnTheirOwnMetadata() {
+        KinesisRoute acme = new KinesisRoute();
+        acme.setStreamName("acme-stream");
+        acme.setMdcKey("tenant");
+        acme.setMdcValue("acme");
+
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.addRoute(acme);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        try (BulkWriter writer = LOGGER.batch("row_processed", KinesisMetadata.create().put("tenant", "acme"))) {
+            writer.add(KinesisMetadata.create().put("row", 1L));
+            writer.add(KinesisMetadata.create().put("row", 2L).put("tenant", "other"));
+            writer.add(KinesisMetadata.create().put("row", 3L));
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+        verify(kinesisProducer, times(3)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        assertEquals(Arrays.asList("acme-stream", "stream", "acme-stream"), captoStreamName.getAllValues());
+        String other = new String(captorByteBuffer.getAllValues().get(1).array(), StandardCharsets.UTF_8);
+        assertTrue(other, other.contains("\"row\":2") && other.contains("\"tenant\":\"other\""));
+
+        reset(kinesisProducer);
+    }
+
+    @Test
+    public void shouldChunkOversizedEvents() {
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.setMaxRecordBytes(1024);
+        appender.setChunkOversized(true);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        char[] big = new char[5000];
+        Arrays.fill(big, 'x');
+        LOGGER.kInfo("big_event", new String(big));
+        logger.detachAppender(appender);
+
+        verify(kinesisProducer, atLeast(5)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        ChunkReassembler reassembler = new ChunkReassembler();
+        byte[] event = null;
+        for (ByteBuffer buffer : captorByteBuffer.getAllValues()) {
+            assertTrue(buffer.array().length <= 1024);
+            assertEquals(captorUuid.getAllValues().get(0), captorUuid.getValue());
+            event = reassembler.accept(buffer.array());
+        }
+        assertNotNull(event);
+        assertTrue(new String(event, StandardCharsets.UTF_8).contains(new String(big)));
+
+        reset(kinesisProducer);
+    }
+
+    @Test
+    public void shouldBatchEvents() {
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.setBatchMaxEvents(3);
+        appender.setBatchLingerMillis(60_000L);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        for (int i = 0; i < 4; i++) {
+            LOGGER.kInfo("batched_event", "event {}", i);
+        }
+        logger.detachAppender(appender);
+        verify(kinesisProducer, times(1)).addUserRecord(anyString(), anyString(), any(ByteBuffer.class));
+        // The partial batch goes out on stop
+        appender.stop();
+
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        List<String> events = captorByteBuffer.getAllValues().stream()
+            .flatMap(buffer -> DictionaryBatch.decode(buffer.array()).stream())
+            .map(bytes -> new String(bytes, StandardCharsets.UTF_8))
+            .collect(Collectors.toList());
+        assertEquals(4, events.size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(events.get(i).contains("\"description\":\"event " + i + "\""));
+        }
+
+        reset(kinesisProducer);
+    }
+
+    @Test
+    public void shouldBalanceRecordsOverShards() {
+        SimulatedStream stream = new SimulatedStream(10_000, 0.5);
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(stream);
+        appender.setBalanceShards(true);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        for (int i = 0; i < 200; i++) {
+            LOGGER.kInfo("balanced_event", "event {}", i);
+        }
+        logger.detachAppender(appender);
+        appender.stop();
+
+        assertEquals(200, stream.getAccepted(0) + stream.getAccepted(1));
+        assertTrue(stream.getAccepted(0) > 0 && stream.getAccepted(1) > 0);
+        assertNotNull(appender.getShardBalancer("stream"));
+    }
+
+    @Test
+    public void shouldDropOversizedEvents() {
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.setMaxRecordBytes(1024);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        char[] big = new char[5000];
+        Arrays.fill(big, 'x');
+        LOGGER.kInfo("big_event", new String(big));
+        logger.detachAppender(appender);
+
+        verify(kinesisProducer, never()).addUserRecord(anyString(), anyString(), any(ByteBuffer.class));
+        assertTrue(appender.getContext().getStatusManager().getCopyOfStatusList().stream()
+            .anyMatch(status -> status.getMessage().startsWith("Dropping event of")));
+    }
+
+    @Test
+    public void shouldCoalesceRepeatedEvents() {
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.setCoalesceWindowMillis(60_000L);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        for (int i = 0; i < 100; i++) {
+            LOGGER.kError("storm_event", "Same failure again");
+        }
+        logger.detachAppender(appender);
+        verify(kinesisProducer, times(1)).addUserRecord(anyString(), anyString(), any(ByteBuffer.class));
+
+        // Stopping closes the open window
+        appender.stop();
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        String summary = new String(captorByteBuffer.getAllValues().get(1).array(), StandardCharsets.UTF_8);
+        assertTrue(summary.contains("\"repeat_count\":99"));
+        assertTrue(summary.contains("\"event_type\":\"storm_event\""));
+
+        reset(kinesisProducer);
+    }
+
+    @Test
+    public void shouldShedUnderMemoryPressure() {
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.setPressureMonitoring(true);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        // The transition itself goes out even though the new level keeps errors only
+        appender.getPressureMonitor().evaluate(System.currentTimeMillis(), 0.96, 0);
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        LOGGER.kInfo("shed_event", "Dropped");
+        LOGGER.kError("kept_event", KinesisMetadata.create().put("key", "value"), "Kept");
+        logger.detachAppender(appender);
+        appender.stop();
+
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        String transition = new String(captorByteBuffer.getAllValues().get(0).array(), StandardCharsets.UTF_8);
+        assertTrue(transition.contains("\"event_type\":\"kinesis_appender_pressure\""));
+        assertTrue(transition.contains("\"to\":\"ERRORS_ONLY\""));
+        String kept = new String(captorByteBuffer.getAllValues().get(1).array(), StandardCharsets.UTF_8);
+        assertTrue(kept.contains("\"event_type\":\"kept_event\""));
+        assertTrue(kept.contains("\"metadata\":{}"));
+        assertEquals(1, appender.getPressureMonitor().getShedEvents());
+
+        reset(kinesisProducer);
+    }
+
+    @Test
+    public void shouldSwapRulesWithoutRestartingProducer() {
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext(new ContextBase());
+        appender.setAppName("app");
+        appender.setEnvironment("env");
+        appender.setStreamName("stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(kinesisProducer);
+        appender.start();
+        assertTrue(appender.isStarted());
+
+        final Logger logger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        logger.addAppender(appender);
+        LOGGER.kInfo("my_event", "before");
+        appender.getRulesManager().setRules("{\"routes\": [{\"streamName\": \"other-stream\", \"eventType\": \"my_event\"}]}");
+        LOGGER.kInfo("my_event", "after");
+        appender.getRulesManager().setRules("{\"excludeEventTypes\": [\"my_event\"]}");
+        LOGGER.kInfo("my_event", "excluded");
+        logger.detachAppender(appender);
+
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        assertEquals(Arrays.asList("stream", "other-stream"), captoStreamName.getAllValues());
+        verify(kinesisProducer, never()).flushSync();
+        verify(kinesisProducer, never()).destroy();
+
+        reset(kinesisProducer);
+    }
+
     @Test
     public void shouldStop() {
         KinesisAppender appender = new KinesisAppender();
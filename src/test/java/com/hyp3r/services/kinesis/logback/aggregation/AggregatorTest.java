@@ -0,0 +1,112 @@
+package com.hyp3r.services.kinesis.logback.aggregation;
+
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class AggregatorTest {
+    private final Map<String, KinesisMetadata> records = new HashMap<>();
+    private final Aggregator aggregator = new Aggregator((eventType, metadata) ->
+        assertNull("one record per key", records.put(eventType + metadata.get("status"), metadata)), 3);
+
+    @Test
+    public void shouldEmitOneRecordPerKey() {
+        aggregator.count("request", 1, "status", "200");
+        aggregator.count("request", 2, "status", "200");
+        aggregator.count("request", 1, "status", "500");
+        aggregator.sum("request", 1.5, "status", "200");
+        aggregator.sum("request", 2.0, "status", "200");
+        aggregator.gauge("queue", 4, "status", "ok");
+        aggregator.gauge("queue", 9, "status", "ok");
+        aggregator.gauge("queue", 6, "status", "ok");
+        aggregator.flush();
+
+        assertEquals(3, records.size());
+        KinesisMetadata ok = records.get("request200");
+        assertEquals("200", ok.get("status"));
+        assertEquals("3", ok.get("count"));
+        assertEquals("3.5", ok.get("sum"));
+        assertEquals("2", ok.get("samples"));
+        assertTrue(ok.containsKey("interval_millis"));
+        assertEquals("1", records.get("request500").get("count"));
+        assertFalse(records.get("request500").containsKey("sum"));
+        KinesisMetadata queue = records.get("queueok");
+        assertEquals("6.0", queue.get("gauge"));
+        assertEquals("4.0", queue.get("gauge_min"));
+        assertEquals("9.0", queue.get("gauge_max"));
+        assertFalse(queue.containsKey("count"));
+
+        // Values reset on flush and keys without updates stay quiet
+        records.clear();
+        aggregator.count("request", 1, "status", "500");
+        aggregator.flush();
+        assertEquals(1, records.size());
+        assertEquals("1", records.get("request500").get("count"));
+    }
+
+    @Test
+    public void shouldDropUpdatesToNewKeysWhenFull() {
+        aggregator.count("a", 1);
+        aggregator.count("b", 1);
+        aggregator.count("c", 1);
+        aggregator.count("d", 1);
+        aggregator.count("a", 1);
+        assertEquals(3, aggregator.getKeys());
+        assertEquals(1, aggregator.getDroppedUpdates());
+    }
+
+    @Test
+    public void shouldEvictKeysIdleForAnInterval() {
+        aggregator.count("a", 1);
+        aggregator.count("b", 1);
+        aggregator.count("c", 1);
+        aggregator.flush();
+        assertEquals(3, aggregator.getKeys());
+
+        records.clear();
+        aggregator.count("a", 1);
+        aggregator.flush();
+        assertEquals(1, aggregator.getKeys());
+        aggregator.count("d", 1);
+        aggregator.count("e", 1);
+        assertEquals(3, aggregator.getKeys());
+        assertEquals(0, aggregator.getDroppedUpdates());
+    }
+
+    @Test
+    public void shouldNotLoseConcurrentUpdates() throws Exception {
+        List<Long> counts = new ArrayList<>();
+        Aggregator concurrent = new Aggregator((eventType, metadata) -> {
+            synchronized (counts) {
+                counts.add(Long.parseLong(metadata.get("count")));
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    concurrent.count("event", 1, "tag", "value");
+                }
+            }));
+        }
+        while (!futures.stream().allMatch(Future::isDone)) {
+            concurrent.flush();
+        }
+        concurrent.flush();
+        executor.shutdown();
+
+        synchronized (counts) {
+            assertEquals(400_000, counts.stream().mapToLong(Long::longValue).sum());
+        }
+    }
+}
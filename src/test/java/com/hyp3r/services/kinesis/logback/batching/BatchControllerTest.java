@@ -0,0 +1,77 @@
+package com.hyp3r.services.kinesis.logback.batching;
+
+import ch.qos.logback.classic.Level;
+import com.amazonaws.services.kinesis.producer.Attempt;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class BatchControllerTest {
+    private static final byte[] EVENT = "{\"event_type\":\"request\",\"level\":\"INFO\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final RecordBatcher batcher = new RecordBatcher(100, 100, 64 * 1024, (level, lane, stream, batch) -> {
+    });
+    private final BatchController controller = new BatchController(batcher, 10, 1000, 5, 1000, 1000);
+    private long now = System.currentTimeMillis();
+
+    // Offers events spread over a second, letting batches go out by linger time as the flusher would
+    private void second(int events) {
+        for (int i = 0; i < events; i++) {
+            batcher.offer(Level.INFO, "stream", EVENT);
+            if ((i + 1) % Math.max(1, events * batcher.getLingerMillis() / 1000) == 0) {
+                batcher.flushAll();
+            }
+        }
+        batcher.flushAll();
+        now += 1000;
+        controller.adjust(now);
+    }
+
+    @Test
+    public void shouldCutLingerWhenTrafficIsQuiet() {
+        second(1);
+        assertEquals(50, batcher.getLingerMillis());
+        second(1);
+        second(1);
+        second(1);
+        assertEquals(6, batcher.getLingerMillis());
+        second(1);
+        second(1);
+        assertEquals(5, batcher.getLingerMillis());
+        assertEquals(1.0, controller.getArrivalRate(), 0.01);
+    }
+
+    @Test
+    public void shouldGrowBatchesAtPeak() {
+        second(100_000);
+        assertEquals(149, batcher.getMaxEvents());
+        assertEquals(1.0, controller.getFillRatio(), 0.01);
+        for (int i = 0; i < 30; i++) {
+            second(100_000);
+        }
+        assertEquals(1000, batcher.getMaxEvents());
+    }
+
+    @Test
+    public void shouldLingerLongerWhenBatchesGoOutHalfEmpty() {
+        second(200);
+        assertEquals(149, batcher.getLingerMillis());
+        assertTrue(controller.getFillRatio() < 0.5);
+    }
+
+    @Test
+    public void shouldBackOffWhenPutsAreSlow() {
+        UserRecordResult slow = new UserRecordResult(Collections.singletonList(new Attempt(400, 900, null, null, true)),
+            "1", "shardId-000000000000", true);
+        controller.onResult(slow);
+        second(200);
+        assertEquals(1300, controller.getPutLatencyMillis(), 0.01);
+        assertEquals(50, batcher.getLingerMillis());
+        assertEquals(50, batcher.getMaxEvents());
+        assertEquals(1, controller.getAdjustments());
+    }
+}
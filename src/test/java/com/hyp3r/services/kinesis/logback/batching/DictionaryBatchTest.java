@@ -0,0 +1,158 @@
+package com.hyp3r.services.kinesis.logback.batching;
+
+import ch.qos.logback.classic.Level;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DictionaryBatchTest {
+
+    private static byte[] json(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String event(int i) {
+        return "{\"app_name\":\"myApp\",\"environment\":\"test\",\"level\":\"INFO\",\"logger_name\":\"com.example.Service\","
+            + "\"event_type\":\"request\",\"description\":\"handled request " + i + "\",\"timestamp\":\"2018-01-0" + (i % 9 + 1)
+            + "T10:00:00+0000\",\"metadata\":{\"user_id\":" + (i * 1000 - 5000) + ",\"latency\":" + (i + 0.5) + ",\"cached\":"
+            + (i % 2 == 0) + ",\"region\":\"us-east-1\",\"tags\":[\"a\",\"b\\\"c\",null],\"nested\":{\"depth\":{}}}}";
+    }
+
+    @Test
+    public void shouldDecodeRecordsByteForByte() {
+        DictionaryBatchEncoder encoder = new DictionaryBatchEncoder(64 * 1024);
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            events.add(event(i));
+        }
+        events.add("{\"description\":\"\\u00e9 \\n \\\\ caf\u00e9\",\"metadata\":{\"big\":123456789012345678901,\"zero\":0,"
+            + "\"negative_zero\":-0,\"padded\":007,\"exponent\":1e10,\"empty\":\"\",\"list\":[]}}");
+
+        int jsonBytes = 0;
+        for (String event : events) {
+            assertTrue(encoder.fits(json(event).length));
+            encoder.add(json(event));
+            jsonBytes += json(event).length;
+        }
+        assertEquals(events.size(), encoder.count());
+        byte[] batch = encoder.finish();
+        assertEquals(0, encoder.count());
+
+        assertTrue(DictionaryBatch.isBatch(batch));
+        assertFalse(DictionaryBatch.isBatch(json(events.get(0))));
+        List<byte[]> decoded = DictionaryBatch.decode(batch);
+        assertEquals(events.size(), decoded.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(events.get(i), new String(decoded.get(i), StandardCharsets.UTF_8));
+        }
+        // Repeated keys and values are written once
+        assertTrue(batch.length + " of " + jsonBytes, batch.length < jsonBytes / 3);
+    }
+
+    @Test
+    public void shouldKeepHotStringsAcrossBatches() {
+        DictionaryBatchEncoder encoder = new DictionaryBatchEncoder(64 * 1024);
+        // Unique values seen once per batch turn cold and stop taking dictionary indexes
+        int first = 0;
+        int last = 0;
+        for (int batch = 0; batch < 4; batch++) {
+            for (int i = 0; i < 3; i++) {
+                encoder.add(json("{\"event_type\":\"request\",\"request_id\":\"id-" + i + "\"}"));
+            }
+            byte[] bytes = encoder.finish();
+            assertEquals(3, DictionaryBatch.decode(bytes).size());
+            assertEquals("{\"event_type\":\"request\",\"request_id\":\"id-2\"}",
+                new String(DictionaryBatch.decode(bytes).get(2), StandardCharsets.UTF_8));
+            if (batch == 0) {
+                first = bytes.length;
+            }
+            last = bytes.length;
+        }
+        assertEquals(first, last);
+    }
+
+    @Test
+    public void shouldRejectCorruptBatches() {
+        DictionaryBatchEncoder encoder = new DictionaryBatchEncoder(1024);
+        encoder.add(json(event(1)));
+        byte[] batch = encoder.finish();
+        try {
+            DictionaryBatch.decode(java.util.Arrays.copyOf(batch, batch.length - 3));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("truncated"));
+        }
+    }
+
+    @Test
+    public void shouldFlushBatchesBySizeCountAndAge() {
+        List<byte[]> sent = new ArrayList<>();
+        List<Level> levels = new ArrayList<>();
+        RecordBatcher batcher = new RecordBatcher(3, 1000, 2048, (level, lane, stream, batch) -> {
+            assertEquals("my-stream", stream);
+            levels.add(level);
+            sent.add(batch);
+        });
+
+        byte[] record = json(event(1));
+        assertTrue(batcher.offer(Level.INFO, "my-stream", record));
+        assertTrue(batcher.offer(Level.ERROR, "my-stream", record));
+        assertTrue(sent.isEmpty());
+        assertTrue(batcher.offer(Level.INFO, "my-stream", record));
+        assertEquals(1, sent.size());
+        assertEquals(Level.ERROR, levels.get(0));
+        assertEquals(3, DictionaryBatch.decode(sent.get(0)).size());
+
+        assertTrue(batcher.offer(Level.INFO, "my-stream", record));
+        batcher.flush(System.currentTimeMillis());
+        assertEquals(1, sent.size());
+        batcher.flush(System.currentTimeMillis() + 1000);
+        assertEquals(2, sent.size());
+        assertEquals(Level.INFO, levels.get(1));
+
+        // Too large to batch at all
+        assertFalse(batcher.offer(Level.INFO, "my-stream", new byte[1100]));
+    }
+
+    @Test
+    public void shouldKeepLanesInSeparateBatches() {
+        List<Integer> lanes = new ArrayList<>();
+        List<byte[]> sent = new ArrayList<>();
+        RecordBatcher batcher = new RecordBatcher(2, 1000, 2048, 2, (level, lane, stream, batch) -> {
+            lanes.add(lane);
+            sent.add(batch);
+        });
+
+        byte[] record = json(event(1));
+        assertTrue(batcher.offer(Level.INFO, 1, "my-stream", record));
+        assertTrue(batcher.offer(Level.INFO, 0, "my-stream", record));
+        assertTrue(sent.isEmpty());
+        assertTrue(batcher.offer(Level.INFO, 0, "my-stream", record));
+        assertEquals(Collections.singletonList(0), lanes);
+        batcher.flushAll();
+        assertEquals(Arrays.asList(0, 1), lanes);
+        assertEquals(1, DictionaryBatch.decode(sent.get(1)).size());
+    }
+
+    @Test
+    public void shouldLeaveEventsToCallerOnceClosed() {
+        List<byte[]> sent = new ArrayList<>();
+        RecordBatcher batcher = new RecordBatcher(10, 1000, 2048, (level, lane, stream, batch) -> sent.add(batch));
+
+        byte[] record = json(event(1));
+        assertTrue(batcher.offer(Level.INFO, "my-stream", record));
+        batcher.close();
+        assertEquals(1, sent.size());
+        assertFalse(batcher.offer(Level.INFO, "my-stream", record));
+        assertFalse(batcher.offer(Level.INFO, "other-stream", record));
+        batcher.flushAll();
+        assertEquals(1, sent.size());
+        assertEquals(1, batcher.getOffered());
+    }
+}
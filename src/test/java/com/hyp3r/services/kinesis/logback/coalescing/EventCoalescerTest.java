@@ -0,0 +1,121 @@
+package com.hyp3r.services.kinesis.logback.coalescing;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.hyp3r.services.kinesis.logback.ext.KinesisLogger;
+import com.hyp3r.services.kinesis.logback.ext.KinesisLoggerFactory;
+import com.hyp3r.services.kinesis.logback.ext.MetadataContext;
+import com.hyp3r.services.kinesis.logback.ext.MetadataMarker;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EventCoalescerTest {
+
+    private static final Logger LOGGER = (Logger) LoggerFactory.getLogger(EventCoalescerTest.class);
+
+    private final List<ILoggingEvent> summaries = Collections.synchronizedList(new ArrayList<>());
+
+    private static LoggingEvent event(Level level, String message, long timestamp) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), LOGGER, level, message, null, null);
+        event.setMDCPropertyMap(Collections.emptyMap());
+        event.setTimeStamp(timestamp);
+        return event;
+    }
+
+    @Test
+    public void shouldPassFirstOccurrenceAndSummarizeRepeats() {
+        EventCoalescer coalescer = new EventCoalescer(1000, 16, 2, summaries::add);
+
+        assertTrue(coalescer.offer(event(Level.ERROR, "db down", 100), "db_error", null));
+        assertFalse(coalescer.offer(event(Level.ERROR, "db down", 200), "db_error", KinesisMetadata.create().put("host", "a")));
+        assertFalse(coalescer.offer(event(Level.ERROR, "db down", 300), "db_error", KinesisMetadata.create().put("host", "a")));
+        assertFalse(coalescer.offer(event(Level.ERROR, "db down", 400), "db_error", KinesisMetadata.create().put("host", "b")));
+        // Any difference in the key is a different event
+        assertTrue(coalescer.offer(event(Level.WARN, "db down", 400), "db_error", null));
+        assertTrue(coalescer.offer(event(Level.ERROR, "db down", 400), "other_error", null));
+
+        coalescer.flush(1099);
+        assertTrue(summaries.isEmpty());
+        coalescer.flush(1100);
+        assertEquals(1, summaries.size());
+
+        ILoggingEvent summary = summaries.get(0);
+        assertEquals("db down", summary.getFormattedMessage());
+        assertEquals(400, summary.getTimeStamp());
+        KinesisMetadata metadata = MetadataMarker.of(summary).getMetadata();
+        assertEquals("db_error", MetadataMarker.of(summary).getEventType());
+        assertEquals("3", metadata.get(EventCoalescer.REPEAT_COUNT));
+        assertEquals(KinesisMetadata.formatDate(new Date(200)), metadata.get(EventCoalescer.FIRST_REPEAT));
+        List<?> samples = (List<?>) metadata.ref(metadata.indexOf(EventCoalescer.METADATA_SAMPLES));
+        assertEquals(2, samples.size());
+        assertEquals("a", ((Map<?, ?>) samples.get(0)).get("host"));
+        assertEquals("b", ((Map<?, ?>) samples.get(1)).get("host"));
+
+        // A new window starts with a first occurrence again
+        assertTrue(coalescer.offer(event(Level.ERROR, "db down", 1200), "db_error", null));
+        coalescer.flushAll();
+        assertEquals(1, summaries.size());
+    }
+
+    @Test
+    public void shouldKeepBoundMetadataOfPlainFirstOccurrence() {
+        EventCoalescer coalescer = new EventCoalescer(1000, 16, 2, summaries::add);
+
+        try (KinesisLogger.MetadataBinding run = KinesisLoggerFactory.getLogger(EventCoalescerTest.class).bindMetadata("run_id", 7L)) {
+            assertTrue(coalescer.offer(event(Level.ERROR, "db down", 100), "db_error", null));
+        }
+        assertFalse(coalescer.offer(event(Level.ERROR, "db down", 200), "db_error", null));
+        coalescer.flushAll();
+
+        MetadataContext bound = MetadataMarker.of(summaries.get(0)).getBoundMetadata();
+        assertEquals("run_id", bound.key());
+        assertEquals(7L, bound.value());
+    }
+
+    @Test
+    public void shouldCloseExpiredWindowOnNextOccurrence() {
+        EventCoalescer coalescer = new EventCoalescer(100, 16, 2, summaries::add);
+
+        assertTrue(coalescer.offer(event(Level.INFO, "retry", 0), "retry", null));
+        assertFalse(coalescer.offer(event(Level.INFO, "retry", 50), "retry", null));
+        assertTrue(coalescer.offer(event(Level.INFO, "retry", 150), "retry", null));
+        assertEquals(1, summaries.size());
+        assertEquals("1", MetadataMarker.of(summaries.get(0)).getMetadata().get(EventCoalescer.REPEAT_COUNT));
+    }
+
+    @Test
+    public void shouldCountEveryRepeatUnderContention() throws Exception {
+        EventCoalescer coalescer = new EventCoalescer(60_000, 16, 2, summaries::add);
+        long now = System.currentTimeMillis();
+        assertTrue(coalescer.offer(event(Level.ERROR, "storm", now), "storm", null));
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            pool.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    coalescer.offer(event(Level.ERROR, "storm", now), "storm", null);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+        coalescer.flushAll();
+        assertEquals(1, summaries.size());
+        assertEquals("40000", MetadataMarker.of(summaries.get(0)).getMetadata().get(EventCoalescer.REPEAT_COUNT));
+    }
+}
@@ -0,0 +1,177 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+import ch.qos.logback.classic.Level;
+import com.hyp3r.services.kinesis.logback.KinesisCallback;
+import com.hyp3r.services.kinesis.logback.dispatch.LaneDispatcher;
+import com.hyp3r.services.kinesis.logback.dispatch.PriorityLane;
+import com.hyp3r.services.kinesis.logback.load.NoopKinesisProducer;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the baseline {@link Java8Concurrency} with the implementation {@link Platform} selects, on the same JVM.
+ * Run it with {@code ./gradlew benchmark} against the multi-release jar; on Java 21 the second column is the virtual
+ * thread and VarHandle implementation. Threads and operations per thread are set with {@code -Dbenchmark.threads} and
+ * {@code -Dbenchmark.operations}.
+ */
+public class ConcurrencyBenchmark {
+    private static final int ROUNDS = 5;
+
+    private final int threads;
+    private final int operations;
+    private final PrintStream out;
+
+    public ConcurrencyBenchmark(int threads, int operations, PrintStream out) {
+        this.threads = threads;
+        this.operations = operations;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ConcurrencyBenchmark(Integer.getInteger("benchmark.threads", 4), Integer.getInteger("benchmark.operations", 1_000_000),
+            System.out).run();
+    }
+
+    public void run() throws Exception {
+        ConcurrencySupport baseline = Java8Concurrency.INSTANCE;
+        ConcurrencySupport selected = Platform.concurrency();
+        out.printf("java %s, %d threads, %d operations per thread%n", System.getProperty("java.version"), threads, operations);
+        if (selected == baseline) {
+            out.println("the baseline is selected on this JVM, both columns run the same implementation");
+        }
+        out.printf("%-22s %16s %16s%n", "ops/s", baseline.getName(), selected.getName());
+        report("queue", queue(baseline), queue(selected));
+        report("counter", counter(baseline), counter(selected));
+        report("lane dispatcher", dispatcher(baseline), dispatcher(selected));
+    }
+
+    private void report(String benchmark, double baseline, double selected) {
+        out.printf("%-22s %16.0f %16.0f%n", benchmark, baseline, selected);
+    }
+
+    private interface Workload {
+        void run(int thread) throws Exception;
+    }
+
+    // Best of several rounds, the first ones warm the JIT up
+    private double measure(ConcurrencySupport concurrency, long totalOperations, Runnable before, Workload workload, Runnable after)
+        throws InterruptedException {
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            before.run();
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers.add(concurrency.threadFactory("benchmark-" + t).newThread(() -> {
+                    try {
+                        start.await();
+                        workload.run(thread);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }));
+            }
+            workers.forEach(Thread::start);
+            long startNanos = System.nanoTime();
+            start.countDown();
+            done.await();
+            after.run();
+            best = Math.max(best, totalOperations / ((System.nanoTime() - startNanos) / 1e9));
+        }
+        return best;
+    }
+
+    // Producers hand elements to a consumer thread through a small queue, as the logging threads do to the drain thread
+    private double queue(ConcurrencySupport concurrency) throws InterruptedException {
+        long total = (long) threads * operations;
+        BoundedQueue<Object>[] queue = newQueueHolder();
+        Thread[] consumer = new Thread[1];
+        Object element = new Object();
+        return measure(concurrency, total, () -> {
+            queue[0] = concurrency.newQueue(1024);
+            consumer[0] = concurrency.threadFactory("benchmark-consumer").newThread(() -> {
+                for (long taken = 0; taken < total; ) {
+                    if (queue[0].poll() != null) {
+                        taken++;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            });
+            consumer[0].start();
+        }, thread -> {
+            for (int i = 0; i < operations; i++) {
+                while (!queue[0].offer(element)) {
+                    Thread.yield();
+                }
+            }
+        }, () -> join(consumer[0]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BoundedQueue<Object>[] newQueueHolder() {
+        return new BoundedQueue[1];
+    }
+
+    private double counter(ConcurrencySupport concurrency) throws InterruptedException {
+        Counter[] counter = new Counter[1];
+        return measure(concurrency, (long) threads * operations, () -> counter[0] = concurrency.newCounter(), thread -> {
+            for (int i = 0; i < operations; i++) {
+                counter[0].incrementAndGet();
+            }
+        }, () -> {
+        });
+    }
+
+    // Records offered to two lanes and sent by the drain thread to a producer that completes them at once
+    private double dispatcher(ConcurrencySupport concurrency) throws InterruptedException {
+        long total = (long) threads * operations;
+        PriorityLane errors = new PriorityLane();
+        errors.setName("errors");
+        errors.setLevel("ERROR");
+        LaneDispatcher[] dispatcher = new LaneDispatcher[1];
+        NoopKinesisProducer[] producer = new NoopKinesisProducer[1];
+        byte[] data = new byte[64];
+        return measure(concurrency, total, () -> {
+            producer[0] = new NoopKinesisProducer();
+            dispatcher[0] = new LaneDispatcher(Collections.singletonList(errors), 10_000, 50_000, 10_000, false, producer[0],
+                new KinesisCallback(), "benchmark-lanes", concurrency);
+            dispatcher[0].start();
+        }, thread -> {
+            for (int i = 0; i < operations; i++) {
+                Level level = (i & 15) == 0 ? Level.ERROR : Level.INFO;
+                // Back off like a saturated caller instead of counting drops as throughput
+                while (dispatcher[0].getQueued() >= 40_000) {
+                    Thread.yield();
+                }
+                dispatcher[0].offer(level, null, "stream", "key", data);
+            }
+        }, () -> {
+            while (producer[0].getRecords() + dropped(dispatcher[0]) < total) {
+                Thread.yield();
+            }
+            dispatcher[0].close();
+        });
+    }
+
+    private static long dropped(LaneDispatcher dispatcher) {
+        return dispatcher.getDropped().values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
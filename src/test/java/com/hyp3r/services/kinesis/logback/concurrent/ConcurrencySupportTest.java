@@ -0,0 +1,101 @@
+package com.hyp3r.services.kinesis.logback.concurrent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+// Runs against the baseline and whatever the running JVM selects, the Java 21 classes when run from the jar on Java 21
+@RunWith(Parameterized.class)
+public class ConcurrencySupportTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> implementations() {
+        return Arrays.asList(new Object[][]{
+            {Java8Concurrency.INSTANCE.getName(), Java8Concurrency.INSTANCE},
+            {"platform-" + Platform.concurrency().getName(), Platform.concurrency()}
+        });
+    }
+
+    private final ConcurrencySupport concurrency;
+
+    public ConcurrencySupportTest(String name, ConcurrencySupport concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    @Test
+    public void shouldQueueInOrderUpToCapacity() {
+        BoundedQueue<Integer> queue = concurrency.newQueue(3);
+        assertTrue(queue.isEmpty());
+        for (int lap = 0; lap < 3; lap++) {
+            assertTrue(queue.offer(1));
+            assertTrue(queue.offer(2));
+            assertTrue(queue.offer(3));
+            assertFalse(queue.offer(4));
+            assertEquals(3, queue.size());
+            assertEquals(Integer.valueOf(1), queue.poll());
+            assertEquals(Integer.valueOf(2), queue.poll());
+            assertEquals(Integer.valueOf(3), queue.poll());
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldHandOverEveryElementAcrossThreads() throws Exception {
+        int producers = 4;
+        int perProducer = 50_000;
+        BoundedQueue<Long> queue = concurrency.newQueue(64);
+        Counter counter = concurrency.newCounter();
+        AtomicLong sum = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(producers + 2);
+
+        for (int p = 0; p < producers; p++) {
+            concurrency.threadFactory("producer-" + p).newThread(() -> {
+                for (long i = 1; i <= perProducer; i++) {
+                    while (!queue.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        for (int c = 0; c < 2; c++) {
+            concurrency.threadFactory("consumer-" + c).newThread(() -> {
+                while (counter.get() < (long) producers * perProducer) {
+                    Long value = queue.poll();
+                    if (value == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    sum.addAndGet(value);
+                    counter.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertEquals((long) producers * perProducer, counter.get());
+        assertEquals(producers * ((long) perProducer * (perProducer + 1) / 2), sum.get());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void shouldMakeNamedDaemonThreads() {
+        Thread thread = concurrency.threadFactory("kinesis-test").newThread(() -> {
+        });
+        assertEquals("kinesis-test", thread.getName());
+        assertTrue(thread.isDaemon());
+
+        Counter counter = concurrency.newCounter();
+        assertEquals(1, counter.incrementAndGet());
+        assertEquals(0, counter.decrementAndGet());
+    }
+}
@@ -0,0 +1,158 @@
+package com.hyp3r.services.kinesis.logback.dispatch;
+
+import ch.qos.logback.classic.Level;
+import com.amazonaws.services.kinesis.producer.IKinesisProducer;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.SettableFuture;
+import com.hyp3r.services.kinesis.logback.staging.SlabPool;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class LaneDispatcherTest {
+
+    @SuppressWarnings("unchecked")
+    private final FutureCallback<UserRecordResult> callback = mock(FutureCallback.class);
+    private final IKinesisProducer producer = mock(IKinesisProducer.class);
+
+    @Before
+    public void setup() {
+        when(producer.addUserRecord(anyString(), anyString(), any(ByteBuffer.class))).thenReturn(SettableFuture.create());
+    }
+
+    private static PriorityLane lane(String name, String level, Integer reserved) {
+        PriorityLane lane = new PriorityLane();
+        lane.setName(name);
+        lane.setLevel(level);
+        lane.setReserved(reserved);
+        return lane;
+    }
+
+    private static byte[] data(String s) {
+        return s.getBytes();
+    }
+
+    @Test
+    public void shouldDropFromLowestLaneFirst() {
+        PriorityLane audit = lane("audit", null, null);
+        audit.setEventType("audit");
+        List<PriorityLane> lanes = Arrays.asList(lane("errors", "ERROR", null), audit);
+        LaneDispatcher dispatcher = new LaneDispatcher(lanes, 10, 3, 100, false, producer, callback, "test-lanes");
+
+        assertTrue(dispatcher.offer(Level.INFO, "noise", "s", "info-1", data("1")));
+        assertTrue(dispatcher.offer(Level.INFO, "audit", "s", "audit-1", data("2")));
+        assertTrue(dispatcher.offer(Level.INFO, "noise", "s", "info-2", data("3")));
+        // Full: an error displaces the oldest default lane record, then the next one
+        assertTrue(dispatcher.offer(Level.ERROR, "noise", "s", "error-1", data("4")));
+        assertTrue(dispatcher.offer(Level.ERROR, "noise", "s", "error-2", data("5")));
+        // Nothing below the default lane to displace
+        assertFalse(dispatcher.offer(Level.INFO, "noise", "s", "info-3", data("6")));
+        // An audit record can only displace default lane records, of which there are none left
+        assertFalse(dispatcher.offer(Level.INFO, "audit", "s", "audit-2", data("7")));
+
+        assertEquals(3, dispatcher.getQueued());
+        assertEquals(Long.valueOf(0), dispatcher.getDropped().get("errors"));
+        assertEquals(Long.valueOf(1), dispatcher.getDropped().get("audit"));
+        assertEquals(Long.valueOf(3), dispatcher.getDropped().get(LaneDispatcher.DEFAULT_LANE));
+
+        dispatcher.close();
+        ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+        verify(producer, times(3)).addUserRecord(eq("s"), keys.capture(), any(ByteBuffer.class));
+        assertEquals(Arrays.asList("error-1", "error-2", "audit-1"), keys.getAllValues());
+    }
+
+    @Test
+    public void shouldDropRecordsOfferedAfterClose() {
+        LaneDispatcher dispatcher = new LaneDispatcher(Collections.singletonList(lane("errors", "ERROR", null)), 10, 3, 100,
+            false, producer, callback, "test-lanes");
+        dispatcher.start();
+        dispatcher.close();
+
+        assertFalse(dispatcher.offer(Level.ERROR, null, "s", "error", data("1")));
+        assertFalse(dispatcher.offer(Level.INFO, null, "s", "info", data("2")));
+        assertEquals(0, dispatcher.getQueued());
+        assertEquals(Long.valueOf(1), dispatcher.getDropped().get("errors"));
+        assertEquals(Long.valueOf(1), dispatcher.getDropped().get(LaneDispatcher.DEFAULT_LANE));
+        verify(producer, never()).addUserRecord(anyString(), anyString(), any(ByteBuffer.class));
+    }
+
+    @Test
+    public void shouldKeepReservedCapacityForHigherLanes() {
+        when(producer.getOutstandingRecordsCount()).thenReturn(7);
+        LaneDispatcher dispatcher = new LaneDispatcher(Collections.singletonList(lane("errors", "ERROR", 5)), 10, 100, 10,
+            false, producer, callback, "test-lanes");
+        dispatcher.start();
+
+        dispatcher.offer(Level.INFO, null, "s", "info", data("1"));
+        dispatcher.offer(Level.ERROR, null, "s", "error", data("2"));
+
+        // 7 outstanding is over the 10 - 5 the default lane may use, but within the error lane's limit
+        verify(producer, timeout(1000)).addUserRecord("s", "error", ByteBuffer.wrap(data("2")));
+        verify(producer, after(100).never()).addUserRecord(eq("s"), eq("info"), any(ByteBuffer.class));
+
+        when(producer.getOutstandingRecordsCount()).thenReturn(0);
+        verify(producer, timeout(1000)).addUserRecord(eq("s"), eq("info"), any(ByteBuffer.class));
+        dispatcher.close();
+    }
+
+    @Test
+    public void shouldStageQueuedRecordsOffHeap() {
+        SlabPool staging = new SlabPool(SlabPool.SLAB_BYTES);
+        List<String> sent = new ArrayList<>();
+        when(producer.addUserRecord(anyString(), anyString(), any(ByteBuffer.class))).thenAnswer(invocation -> {
+            ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[2];
+            assertTrue(buffer.isDirect());
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            sent.add(new String(bytes));
+            return SettableFuture.create();
+        });
+        LaneDispatcher dispatcher = new LaneDispatcher(Collections.singletonList(lane("errors", "ERROR", null)), 10, 2, 100,
+            false, producer, callback, "test-lanes");
+        dispatcher.setStaging(staging);
+
+        assertTrue(dispatcher.offer(Level.INFO, null, "s", "info-1", data("first")));
+        assertTrue(dispatcher.offer(Level.INFO, null, "s", "info-2", data("second")));
+        assertEquals(2, staging.getStagedRecords());
+        assertEquals(2 * SlabPool.MIN_SLOT_BYTES, staging.getUsedBytes());
+        // Displacing a record hands its slot back
+        assertTrue(dispatcher.offer(Level.ERROR, null, "s", "error-1", data("third")));
+        assertEquals(2, staging.getStagedRecords());
+
+        dispatcher.close();
+        assertEquals(Arrays.asList("third", "second"), sent);
+        assertEquals(0, staging.getStagedRecords());
+        assertEquals(0, staging.getUsedBytes());
+        assertEquals(SlabPool.SLAB_BYTES, staging.getReservedBytes());
+    }
+
+    @Test
+    public void shouldDrainWeightedLanes() {
+        PriorityLane errors = lane("errors", "ERROR", null);
+        errors.setWeight(3);
+        LaneDispatcher dispatcher = new LaneDispatcher(Collections.singletonList(errors), 100, 1000, 10000, true,
+            producer, callback, "test-lanes");
+        for (int i = 0; i < 50; i++) {
+            dispatcher.offer(Level.ERROR, null, "s", "error", data("e"));
+            dispatcher.offer(Level.INFO, null, "s", "info", data("i"));
+        }
+        dispatcher.start();
+
+        verify(producer, timeout(1000).times(100)).addUserRecord(anyString(), anyString(), any(ByteBuffer.class));
+        assertEquals(0, dispatcher.getQueued());
+        dispatcher.close();
+    }
+}
@@ -0,0 +1,297 @@
+package com.hyp3r.services.kinesis.logback.encoding;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.pattern.ThrowableProxyConverter;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.hyp3r.services.kinesis.logback.ext.GlobalMetadata;
+import com.hyp3r.services.kinesis.logback.ext.KinesisLogger;
+import com.hyp3r.services.kinesis.logback.ext.KinesisLoggerFactory;
+import com.hyp3r.services.kinesis.logback.ext.MetadataContext;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class KinesisEventEncoderTest {
+
+    private static final Gson GSON = new Gson();
+    private static final Logger LOGGER = (Logger) LoggerFactory.getLogger(KinesisEventEncoderTest.class);
+
+    private final KinesisEventEncoder encoder = new KinesisEventEncoder("myApp", "test");
+
+    @After
+    public void teardown() {
+        KinesisLogger.clearGlobalMetadata();
+    }
+
+    static LoggingEvent event(Level level, String message, Throwable t, Map<String, String> mdc) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), LOGGER, level, message, t, null);
+        event.setMDCPropertyMap(mdc);
+        return event;
+    }
+
+    private JsonObject encode(LoggingEvent event) {
+        Map<String, String> mdc = event.getMDCPropertyMap();
+        byte[] bytes = encoder.encode(event, null, null, mdc.get("event_type"), mdc.get("context"));
+        return GSON.fromJson(new String(bytes, StandardCharsets.UTF_8), JsonObject.class);
+    }
+
+    @Test
+    public void shouldEncodeEvent() {
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("event_type", "my_event");
+        mdc.put("context", "ctx");
+        mdc.put("key", "value");
+        String message = "quote \" backslash \\ newline \n tab \t control \u0001 accent \u00e9 cjk \u4e2d emoji \ud83d\ude00";
+
+        JsonObject json = encode(event(Level.WARN, message, new IllegalStateException("boom"), mdc));
+        assertEquals("myApp", json.get("app_name").getAsString());
+        assertEquals("test", json.get("environment").getAsString());
+        assertEquals("WARN", json.get("level").getAsString());
+        assertEquals(KinesisEventEncoderTest.class.getName(), json.get("logger_name").getAsString());
+        assertEquals("my_event", json.get("event_type").getAsString());
+        assertEquals("ctx", json.get("context").getAsString());
+        assertEquals(message, json.get("description").getAsString());
+        assertTrue(json.get("stacktrace").getAsString().contains("IllegalStateException: boom"));
+        assertTrue(json.get("timestamp").getAsString().matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}[+-]\\d{4}"));
+        JsonObject metadata = json.getAsJsonObject("metadata");
+        assertEquals(1, metadata.size());
+        assertEquals("value", metadata.get("key").getAsString());
+    }
+
+    @Test
+    public void shouldOmitNullFields() {
+        JsonObject json = encode(event(Level.INFO, null, new IllegalStateException("boom"), new HashMap<>()));
+        assertFalse(json.has("event_type"));
+        assertFalse(json.has("context"));
+        assertFalse(json.has("description"));
+        assertFalse(json.has("stacktrace"));
+        assertEquals(0, json.getAsJsonObject("metadata").size());
+    }
+
+    @Test
+    public void shouldMergeGlobalMetadata() {
+        long version = GlobalMetadata.current().getVersion();
+        KinesisLogger.addGlobalMetadata("server_id", "10.0.0.1");
+        KinesisLogger.addGlobalMetadata("region", "us-east-1");
+        assertEquals(version + 2, GlobalMetadata.current().getVersion());
+
+        JsonObject metadata = encode(event(Level.INFO, "m", null, new HashMap<>())).getAsJsonObject("metadata");
+        assertEquals("10.0.0.1", metadata.get("server_id").getAsString());
+        assertEquals("us-east-1", metadata.get("region").getAsString());
+
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("server_id", "override");
+        mdc.put("other", "x");
+        metadata = encode(event(Level.INFO, "m", null, mdc)).getAsJsonObject("metadata");
+        assertEquals("override", metadata.get("server_id").getAsString());
+        assertEquals("us-east-1", metadata.get("region").getAsString());
+        assertEquals("x", metadata.get("other").getAsString());
+        assertEquals(3, metadata.size());
+    }
+
+    @Test
+    public void shouldWriteStacktraceLikeLogback() {
+        Exception cause = new IllegalArgumentException("cause");
+        Exception ex = new IllegalStateException("boom", cause);
+        ex.addSuppressed(new RuntimeException("suppressed"));
+        LoggingEvent event = event(Level.ERROR, "msg", ex, new HashMap<>());
+
+        ThrowableProxyConverter converter = new ThrowableProxyConverter();
+        converter.setOptionList(Collections.singletonList("full"));
+        converter.start();
+        assertEquals(converter.convert(event), encode(event).get("stacktrace").getAsString());
+    }
+
+    @Test
+    public void shouldProjectMdc() {
+        KinesisLogger.addGlobalMetadata("host", "global");
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("trace_id", "t-1");
+        mdc.put("span_id", "s-1");
+        mdc.put("userId", "42");
+        mdc.put("user_id", "stale");
+        mdc.put("hostname", "h-1");
+        mdc.put("other", "x");
+        LoggingEvent event = event(Level.INFO, "m", null, mdc);
+
+        MdcProjection denylist = MdcProjection.compile(null, "trace_id, span_id", "userId:user_id,hostname:host");
+        JsonObject metadata = encode(event, denylist);
+        assertEquals(3, metadata.size());
+        assertEquals("42", metadata.get("user_id").getAsString());
+        assertEquals("h-1", metadata.get("host").getAsString());
+        assertEquals("x", metadata.get("other").getAsString());
+
+        MdcProjection allowlist = MdcProjection.compile("trace_id,other", "other", "userId:user_id");
+        metadata = encode(event, allowlist);
+        assertEquals(3, metadata.size());
+        assertEquals("t-1", metadata.get("trace_id").getAsString());
+        assertEquals("42", metadata.get("user_id").getAsString());
+        // Without its MDC key, the global value is no longer shadowed
+        assertEquals("global", metadata.get("host").getAsString());
+
+        try {
+            MdcProjection.compile(null, null, "a:b,c:b");
+            fail("Expected two keys written as b to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(" b"));
+        }
+    }
+
+    @Test
+    public void shouldWriteBoundMetadataOutsideMdcProjection() {
+        try (KinesisLogger.MetadataBinding user = KinesisLoggerFactory.getLogger(KinesisEventEncoderTest.class).bindMetadata("user", "u-1")) {
+            // The event's MDC copy holds the mirror of the binding
+            Map<String, String> mdc = new HashMap<>(MDC.getCopyOfContextMap());
+            mdc.put("other", "x");
+            LoggingEvent event = event(Level.INFO, "m", null, mdc);
+
+            JsonObject metadata = encode(event, MetadataContext.current(), MdcProjection.compile(null, null, "user:uid,other:renamed"));
+            assertEquals(2, metadata.size());
+            assertEquals("u-1", metadata.get("user").getAsString());
+            assertEquals("x", metadata.get("renamed").getAsString());
+
+            metadata = encode(event, MetadataContext.current(), MdcProjection.compile(null, "user,other", null));
+            assertEquals(1, metadata.size());
+            assertEquals("u-1", metadata.get("user").getAsString());
+        }
+    }
+
+    private JsonObject encode(LoggingEvent event, MetadataContext bound, MdcProjection projection) {
+        byte[] bytes = encoder.encode(event, null, bound, null, null, true, projection);
+        return GSON.fromJson(new String(bytes, StandardCharsets.UTF_8), JsonObject.class).getAsJsonObject("metadata");
+    }
+
+    private JsonObject encode(LoggingEvent event, MdcProjection projection) {
+        byte[] bytes = encoder.encode(event, null, null, null, null, true, projection);
+        return GSON.fromJson(new String(bytes, StandardCharsets.UTF_8), JsonObject.class).getAsJsonObject("metadata");
+    }
+
+    @Test
+    public void shouldLeaveOutDetails() {
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("event_type", "my_event");
+        mdc.put("key", "value");
+        LoggingEvent event = event(Level.ERROR, "failed", new IllegalStateException("boom"), mdc);
+
+        byte[] bytes = encoder.encode(event, null, null, "my_event", null, false);
+        JsonObject json = GSON.fromJson(new String(bytes, StandardCharsets.UTF_8), JsonObject.class);
+        assertEquals("failed", json.get("description").getAsString());
+        assertEquals("my_event", json.get("event_type").getAsString());
+        assertFalse(json.has("stacktrace"));
+        assertEquals(0, json.getAsJsonObject("metadata").size());
+        assertTrue(json.has("timestamp"));
+    }
+
+    @Test
+    public void shouldEncodeAfterOversizedEvent() {
+        String large = StringUtils.repeat('x', 100 * 1024);
+        LoggingEvent first = event(Level.INFO, large, null, new HashMap<>());
+        LoggingEvent second = event(Level.INFO, "small", null, Collections.singletonMap("key", "value"));
+
+        JsonObject json = GSON.fromJson(new String(encoder.encode(first, null, null, null, null), StandardCharsets.UTF_8), JsonObject.class);
+        assertEquals(large, json.get("description").getAsString());
+        json = GSON.fromJson(new String(encoder.encode(second, null, null, null, null), StandardCharsets.UTF_8), JsonObject.class);
+        assertEquals("small", json.get("description").getAsString());
+        assertEquals("value", json.getAsJsonObject("metadata").get("key").getAsString());
+    }
+
+    @Test
+    public void shouldTruncateLongFields() {
+        KinesisEventEncoder bounded = new KinesisEventEncoder("myApp", "test", 10, 200);
+        LoggingEvent event = event(Level.ERROR, "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9", new IllegalStateException("boom"), new HashMap<>());
+
+        JsonObject json = GSON.fromJson(new String(bounded.encode(event, null, null, null, null), StandardCharsets.UTF_8), JsonObject.class);
+        // Two-byte characters are never split
+        assertEquals("\u00e9\u00e9\u00e9\u00e9\u00e9" + KinesisEventEncoder.TRUNCATED_SUFFIX, json.get("description").getAsString());
+        String stacktrace = json.get("stacktrace").getAsString();
+        assertTrue(stacktrace.startsWith("java.lang.IllegalStateException: boom"));
+        assertTrue(stacktrace.endsWith(KinesisEventEncoder.TRUNCATED_SUFFIX));
+        assertTrue(stacktrace.getBytes(StandardCharsets.UTF_8).length <= 200 + KinesisEventEncoder.TRUNCATED_SUFFIX.length());
+    }
+
+    @Test
+    public void shouldReassembleChunks() {
+        byte[] record = new byte[10000];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte) i;
+        }
+        List<byte[]> chunks = RecordChunker.split(record, "chunk-1", 1000);
+        assertEquals(15, chunks.size());
+        Collections.reverse(chunks);
+
+        ChunkReassembler reassembler = new ChunkReassembler();
+        assertArrayEquals(record, reassembler.accept(record));
+        byte[] result = null;
+        for (byte[] chunk : chunks) {
+            assertTrue(chunk.length <= 1000);
+            assertTrue(ChunkReassembler.isChunk(chunk));
+            assertNull(result);
+            result = reassembler.accept(chunk);
+        }
+        assertArrayEquals(record, result);
+        assertEquals(0, reassembler.pendingCount());
+    }
+
+    @Test
+    public void shouldWriteTemplatesAndTypedArguments() {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), LOGGER, Level.INFO, "user {} took {}ms, cached {} at {}", null,
+            new Object[]{"bob", 12, true, 1.5});
+        event.setMDCPropertyMap(Collections.singletonMap("event_type", "request"));
+
+        KinesisEventEncoder patterns = new KinesisEventEncoder("myApp", "test", Integer.MAX_VALUE, Integer.MAX_VALUE, TemplateMode.PATTERN, true);
+        JsonObject json = GSON.fromJson(new String(patterns.encode(event, null, null, "request", null), StandardCharsets.UTF_8), JsonObject.class);
+        assertEquals("user bob took 12ms, cached true at 1.5", json.get("description").getAsString());
+        assertEquals("user {} took {}ms, cached {} at {}", json.get("template").getAsString());
+        assertFalse(json.has("template_id"));
+        assertEquals("[\"bob\",12,true,1.5]", json.get("args").toString());
+
+        // Ids only come with their pattern the first time, and the description can be left unformatted
+        KinesisEventEncoder ids = new KinesisEventEncoder("myApp", "test", Integer.MAX_VALUE, Integer.MAX_VALUE, TemplateMode.ID, false);
+        String id = MessageTemplates.templateId("user {} took {}ms, cached {} at {}");
+        assertEquals(16, id.length());
+        json = GSON.fromJson(new String(ids.encode(event, null, null, "request", null), StandardCharsets.UTF_8), JsonObject.class);
+        assertEquals(id, json.get("template_id").getAsString());
+        assertTrue(json.has("template"));
+        assertFalse(json.has("description"));
+        json = GSON.fromJson(new String(ids.encode(event, null, null, "request", null), StandardCharsets.UTF_8), JsonObject.class);
+        assertEquals(id, json.get("template_id").getAsString());
+        assertFalse(json.has("template"));
+        assertEquals(4, json.getAsJsonArray("args").size());
+    }
+
+    @Test
+    public void shouldAnnounceTemplatesOnEachStreamAndPeriodically() {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), LOGGER, Level.INFO, "order {} shipped", null, new Object[]{7});
+        KinesisEventEncoder ids = new KinesisEventEncoder("myApp", "test", Integer.MAX_VALUE, Integer.MAX_VALUE, TemplateMode.ID, false);
+        assertTrue(ids.announcesPerStream());
+
+        assertTrue(hasTemplate(ids, event, "orders"));
+        assertFalse(hasTemplate(ids, event, "orders"));
+        assertTrue(hasTemplate(ids, event, "audit"));
+        assertFalse(hasTemplate(ids, event, "audit"));
+
+        event.setTimeStamp(event.getTimeStamp() + MessageTemplates.ANNOUNCE_INTERVAL_MILLIS - 1);
+        assertFalse(hasTemplate(ids, event, "orders"));
+        event.setTimeStamp(event.getTimeStamp() + 1);
+        assertTrue(hasTemplate(ids, event, "orders"));
+        assertFalse(hasTemplate(ids, event, "orders"));
+    }
+
+    private static boolean hasTemplate(KinesisEventEncoder encoder, LoggingEvent event, String stream) {
+        byte[] bytes = encoder.encode(event, null, null, null, null, true, MdcProjection.ALL, stream);
+        return GSON.fromJson(new String(bytes, StandardCharsets.UTF_8), JsonObject.class).has("template");
+    }
+}
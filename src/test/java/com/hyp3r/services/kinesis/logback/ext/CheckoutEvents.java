@@ -0,0 +1,18 @@
+package com.hyp3r.services.kinesis.logback.ext;
+
+import java.util.List;
+
+// Compiled with KinesisEventProcessor, which generates CheckoutEventsEmitter
+public interface CheckoutEvents {
+
+    enum Tier { GOLD, SILVER }
+
+    @KinesisEvent("checkout_completed")
+    void checkout(long orderId, double amount, boolean firstOrder, String currency, Tier tier, List<String> items);
+
+    @KinesisEvent(value = "checkout_failed", level = "ERROR", context = "payments", message = "Checkout failed")
+    void failed(@KinesisField("order") int orderId, Throwable cause);
+
+    @KinesisEvent(value = "cart_viewed", level = "DEBUG")
+    void viewed(long cartSize);
+}
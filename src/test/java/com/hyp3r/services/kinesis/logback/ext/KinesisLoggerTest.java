@@ -1,13 +1,19 @@
 package com.hyp3r.services.kinesis.logback.ext;
 
+import ch.qos.logback.classic.AsyncAppender;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
 import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
 import com.hyp3r.services.kinesis.logback.KinesisAppender;
 import com.hyp3r.services.kinesis.logback.models.KinesisLogEvent;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,15 +23,27 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
 import org.slf4j.helpers.MessageFormatter;
 
 import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.times;
@@ -94,6 +112,174 @@ public class KinesisLoggerTest {
         new KinesisLoggerFactory();
     }
 
+    @Test
+    public void shouldCacheLoggers() {
+        assertSame(LOGGER, KinesisLoggerFactory.getLogger(KinesisLoggerTest.class));
+        assertSame(LOGGER, KinesisLoggerFactory.getLogger(KinesisLoggerTest.class.getName()));
+        assertNotSame(LOGGER, KinesisLoggerFactory.getLogger(KinesisLogger.class));
+    }
+
+    @Test
+    public void shouldFollowLevelChanges() {
+        Logger logbackLogger = (Logger) LoggerFactory.getLogger(KinesisLoggerTest.class);
+        LOGGER.kDebug(EVENT_TYPE, MSG);
+        logbackLogger.setLevel(Level.INFO);
+        LOGGER.kDebug(EVENT_TYPE, MSG);
+        LOGGER.kInfo(EVENT_TYPE, MSG);
+        logbackLogger.setLevel(null);
+        LOGGER.kDebug(EVENT_TYPE, MSG);
+
+        verify(kinesisProducer, times(3)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        List<ByteBuffer> byteBuffers = captorByteBuffer.getAllValues();
+        assertEquals(Level.DEBUG.levelStr, getLogEvent(byteBuffers.get(0)).getLevel());
+        assertEquals(Level.INFO.levelStr, getLogEvent(byteBuffers.get(1)).getLevel());
+        assertEquals(Level.DEBUG.levelStr, getLogEvent(byteBuffers.get(2)).getLevel());
+    }
+
+    @Test
+    public void shouldLeaveLevelsToTurboFiltersAddedLater() {
+        Logger logbackLogger = (Logger) LoggerFactory.getLogger(KinesisLoggerTest.class);
+        LoggerContext context = logbackLogger.getLoggerContext();
+        TurboFilter acceptAll = new TurboFilter() {
+            @Override
+            public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+                return FilterReply.ACCEPT;
+            }
+        };
+        logbackLogger.setLevel(Level.INFO);
+        try {
+            assertFalse(LOGGER.isLevelEnabled(Level.DEBUG));
+            context.addTurboFilter(acceptAll);
+            assertTrue(LOGGER.isLevelEnabled(Level.DEBUG));
+            LOGGER.kDebug(EVENT_TYPE, MSG);
+        } finally {
+            context.getTurboFilterList().remove(acceptAll);
+            logbackLogger.setLevel(null);
+        }
+        assertTrue(LOGGER.isLevelEnabled(Level.DEBUG));
+
+        verify(kinesisProducer, times(1)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        assertEquals(Level.DEBUG.levelStr, getLogEvent(captorByteBuffer.getValue()).getLevel());
+    }
+
+    @Test
+    public void shouldFollowLevelChangesOfLoggersBuiltDirectly() {
+        LoggerContext context = new LoggerContext();
+        Logger logbackLogger = context.getLogger("direct");
+        KinesisLogger direct = new KinesisLogger(logbackLogger);
+        assertTrue(direct.isLevelEnabled(Level.DEBUG));
+        logbackLogger.setLevel(Level.WARN);
+        assertFalse(direct.isLevelEnabled(Level.INFO));
+        context.getLogger(Logger.ROOT_LOGGER_NAME).setLevel(Level.ERROR);
+        logbackLogger.setLevel(null);
+        assertFalse(direct.isLevelEnabled(Level.WARN));
+        assertTrue(direct.isLevelEnabled(Level.ERROR));
+    }
+
+    @Test
+    public void logWithLoggerMetadata() {
+        KinesisLogger.addGlobalMetadata("server", "global");
+        LOGGER.addLoggerMetadata("server", "logger");
+        LOGGER.addLoggerMetadata("component", "checkout");
+        LOGGER.kInfo(EVENT_TYPE, MSG);
+        LOGGER.kInfo(EVENT_TYPE, MDC, MSG);
+        KinesisLoggerFactory.getLogger(KinesisLogger.class).kInfo(EVENT_TYPE, MSG);
+        LOGGER.clearLoggerMetadata();
+        KinesisLogger.clearGlobalMetadata();
+
+        verify(kinesisProducer, times(3)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        List<ByteBuffer> byteBuffers = captorByteBuffer.getAllValues();
+        Map<String, Object> metadata = getLogEvent(byteBuffers.get(0)).getMetadata();
+        assertEquals("logger", metadata.get("server"));
+        assertEquals("checkout", metadata.get("component"));
+        metadata = getLogEvent(byteBuffers.get(1)).getMetadata();
+        assertEquals("checkout", metadata.get("component"));
+        assertEquals("value", metadata.get("key"));
+        metadata = getLogEvent(byteBuffers.get(2)).getMetadata();
+        assertEquals("global", metadata.get("server"));
+        assertFalse(metadata.containsKey("component"));
+    }
+
+    @Test
+    public void shouldSendAggregates() {
+        KinesisLogger.flushAggregates();
+        for (int i = 0; i < 1000; i++) {
+            LOGGER.count("page_view", "page", "home");
+        }
+        LOGGER.gauge("queue_depth", 7);
+        KinesisLogger.flushAggregates();
+
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        Map<String, KinesisLogEvent> events = new HashMap<>();
+        for (ByteBuffer byteBuffer : captorByteBuffer.getAllValues()) {
+            KinesisLogEvent logEvent = getLogEvent(byteBuffer);
+            events.put(logEvent.getEventType(), logEvent);
+        }
+        Map<String, Object> metadata = events.get("page_view").getMetadata();
+        assertEquals(Level.INFO.levelStr, events.get("page_view").getLevel());
+        assertEquals("home", metadata.get("page"));
+        assertEquals(1000.0, ((Number) metadata.get("count")).doubleValue(), 0);
+        assertEquals(7.0, ((Number) events.get("queue_depth").getMetadata().get("gauge")).doubleValue(), 0);
+    }
+
+    @Test
+    public void shouldSendGeneratedEvents() {
+        Logger logbackLogger = (Logger) LoggerFactory.getLogger(KinesisLoggerTest.class);
+        logbackLogger.setLevel(Level.INFO);
+        CheckoutEvents events = new CheckoutEventsEmitter(LOGGER);
+        events.checkout(42, 9.5, true, "EUR", CheckoutEvents.Tier.GOLD, Arrays.asList("a", "b"));
+        events.failed(43, new IllegalStateException(EXCEPTION_MSG));
+        events.viewed(3);
+        logbackLogger.setLevel(null);
+
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        List<ByteBuffer> byteBuffers = captorByteBuffer.getAllValues();
+        KinesisLogEvent checkout = getLogEvent(byteBuffers.get(0));
+        assertEquals("checkout_completed", checkout.getEventType());
+        Map<String, Object> metadata = checkout.getMetadata();
+        assertEquals(42.0, ((Number) metadata.get("order_id")).doubleValue(), 0);
+        assertEquals(9.5, ((Number) metadata.get("amount")).doubleValue(), 0);
+        assertEquals(true, metadata.get("first_order"));
+        assertEquals("EUR", metadata.get("currency"));
+        assertEquals("GOLD", metadata.get("tier"));
+        assertEquals(Arrays.asList("a", "b"), metadata.get("items"));
+
+        KinesisLogEvent failed = getLogEvent(byteBuffers.get(1));
+        assertEquals(Level.ERROR.levelStr, failed.getLevel());
+        assertEquals("payments", failed.getContext());
+        assertEquals("Checkout failed", failed.getDescription());
+        assertEquals(43.0, ((Number) failed.getMetadata().get("order")).doubleValue(), 0);
+        assertEquals(EXCEPTION_MSG, failed.getMetadata().get("exceptionMessage"));
+    }
+
+    @Test
+    public void shouldWriteRowsInBulk() {
+        KinesisLogger.addGlobalMetadata("job", "global");
+        try (KinesisLogger.MetadataBinding run = LOGGER.bindMetadata("run_id", "r-1");
+             BulkWriter writer = LOGGER.batch("row_processed", KinesisMetadata.create().put("job", "import").put("status", "ok"))) {
+            writer.chunkRows(2);
+            writer.add(KinesisMetadata.create().put("row", 1L));
+            writer.add(KinesisMetadata.create().put("row", 2L).put("status", "skipped"));
+            writer.add(KinesisMetadata.create().put("row", 3L).put("run_id", "r-2"));
+            assertEquals(2, writer.getWritten());
+        } finally {
+            KinesisLogger.clearGlobalMetadata();
+        }
+
+        verify(kinesisProducer, times(3)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        List<ByteBuffer> byteBuffers = captorByteBuffer.getAllValues();
+        for (int i = 0; i < 3; i++) {
+            KinesisLogEvent row = getLogEvent(byteBuffers.get(i));
+            Map<String, Object> metadata = row.getMetadata();
+            assertEquals("row_processed", row.getEventType());
+            assertEquals(i + 1.0, ((Number) metadata.get("row")).doubleValue(), 0);
+            assertEquals(i == 1 ? "skipped" : "ok", metadata.get("status"));
+            assertEquals(i == 2 ? "r-2" : "r-1", metadata.get("run_id"));
+            assertEquals("import", metadata.get("job"));
+            assertEquals(4, metadata.size());
+        }
+    }
+
     private static DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 
     @Test
@@ -108,8 +294,8 @@ public class KinesisLoggerTest {
         LOGGER.kError("my_error", "Something bad happened.", myThrowable);
         verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
         KinesisLogEvent logEvent = getLogEvent(captorByteBuffer.getAllValues().get(0));
-        Map<String, String> metadata = logEvent.getMetadata();
-        assertNotNull(dateFormat.parse(metadata.get("ts")));
+        Map<String, Object> metadata = logEvent.getMetadata();
+        assertNotNull(dateFormat.parse((String) metadata.get("ts")));
         assertTrue(metadata.containsKey("k1"));
         assertTrue(metadata.containsKey("k2"));
         assertTrue(metadata.containsKey("server"));
@@ -141,8 +327,8 @@ public class KinesisLoggerTest {
         LOGGER.kError("my_error", "Something bad happened.", myThrowable);
         verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
         KinesisLogEvent logEvent = getLogEvent(captorByteBuffer.getAllValues().get(0));
-        Map<String, String> metadata = logEvent.getMetadata();
-        assertNotNull(dateFormat.parse(metadata.get("ts")));
+        Map<String, Object> metadata = logEvent.getMetadata();
+        assertNotNull(dateFormat.parse((String) metadata.get("ts")));
         assertTrue(metadata.containsKey("k1"));
         assertTrue(metadata.containsKey("k2"));
         assertTrue(metadata.containsKey("server"));
@@ -164,6 +350,118 @@ public class KinesisLoggerTest {
 
 
 
+    @Test
+    public void logWithPropagatedMetadata() throws Exception {
+        ExecutorService executor = MetadataContext.wrapExecutorService(Executors.newSingleThreadExecutor());
+        try (KinesisLogger.MetadataBinding request = LOGGER.bindMetadata("request_id", "r-1")) {
+            executor.submit(() -> LOGGER.kInfo("my_event", "Logged from the pool")).get();
+            assertTrue(MetadataContext.supplyAsync(() -> MetadataContext.current().containsKey("request_id"), executor).get());
+        }
+        executor.submit(() -> LOGGER.kInfo("my_event", "Logged after the binding closed")).get();
+        executor.shutdown();
+
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        assertEquals("r-1", getLogEvent(captorByteBuffer.getAllValues().get(0)).getMetadata().get("request_id"));
+        assertFalse(getLogEvent(captorByteBuffer.getAllValues().get(1)).getMetadata().containsKey("request_id"));
+        assertTrue(MetadataContext.current().isEmpty());
+    }
+
+    @Test
+    public void shouldWrapPlainLambdas() throws Exception {
+        List<Boolean> seen = new ArrayList<>();
+        Runnable runnable;
+        Callable<Boolean> callable;
+        Supplier<Boolean> supplier;
+        Function<String, Boolean> function;
+        Consumer<String> consumer;
+        BiFunction<String, String, Boolean> biFunction;
+        Executor executor;
+        try (KinesisLogger.MetadataBinding request = LOGGER.bindMetadata("request_id", "r-1")) {
+            runnable = MetadataContext.wrap(() -> seen.add(MetadataContext.current().containsKey("request_id")));
+            callable = MetadataContext.wrapCallable(() -> MetadataContext.current().containsKey("request_id"));
+            supplier = MetadataContext.wrapSupplier(() -> MetadataContext.current().containsKey("request_id"));
+            function = MetadataContext.wrapFunction(key -> MetadataContext.current().containsKey(key));
+            consumer = MetadataContext.wrapConsumer(key -> seen.add(MetadataContext.current().containsKey(key)));
+            biFunction = MetadataContext.wrapBiFunction((key, other) -> MetadataContext.current().containsKey(key));
+            executor = MetadataContext.wrapExecutor(command -> command.run());
+        }
+        runnable.run();
+        consumer.accept("request_id");
+        executor.execute(() -> seen.add(MetadataContext.current().containsKey("request_id")));
+        assertEquals(Arrays.asList(true, true, false), seen);
+        assertTrue(callable.call());
+        assertTrue(supplier.get());
+        assertTrue(function.apply("request_id"));
+        assertTrue(biFunction.apply("request_id", "other"));
+        assertTrue(MetadataContext.current().isEmpty());
+    }
+
+    @Test
+    public void shouldUnbindEntriesAddedOverNestedBinding() {
+        KinesisLogger.MetadataBinding outer = LOGGER.bindMetadata("request", "r-1");
+        KinesisLogger.MetadataBinding inner = LOGGER.bindMetadata("step", "s-1");
+        outer.and("tenant", "t1");
+        inner.close();
+        assertTrue(MetadataContext.current().containsKey("tenant"));
+        assertFalse(MetadataContext.current().containsKey("step"));
+        outer.close();
+
+        assertTrue(MetadataContext.current().isEmpty());
+        assertNull(org.slf4j.MDC.get("tenant"));
+        assertNull(org.slf4j.MDC.get("request"));
+    }
+
+    @Test
+    public void shouldMirrorShadowedEntriesIntoMdc() {
+        Runnable task;
+        try (KinesisLogger.MetadataBinding outer = LOGGER.bindMetadata("step", "outer").and("request", "r-1")) {
+            try (KinesisLogger.MetadataBinding inner = LOGGER.bindMetadata("step", "inner")) {
+                assertEquals("inner", org.slf4j.MDC.get("step"));
+                task = MetadataContext.wrap(() -> assertEquals("inner", org.slf4j.MDC.get("step")));
+            }
+            assertEquals("outer", org.slf4j.MDC.get("step"));
+            task.run();
+            assertEquals("outer", org.slf4j.MDC.get("step"));
+            assertEquals("r-1", org.slf4j.MDC.get("request"));
+        }
+        assertNull(org.slf4j.MDC.get("step"));
+        assertNull(org.slf4j.MDC.get("request"));
+    }
+
+    @Test
+    public void shouldKeepBoundMetadataBehindAsyncAppender() {
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        KinesisAppender<ILoggingEvent> kinesis = new KinesisAppender<>();
+        kinesis.setContext(loggerContext);
+        kinesis.setAppName(MY_APP);
+        kinesis.setEnvironment(ENV);
+        kinesis.setEventsOnly(false);
+        kinesis.setStreamName(MY_STREAM);
+        kinesis.setAwsRegion("us-east-1");
+        kinesis.setKinesisProducer(kinesisProducer);
+        kinesis.start();
+        AsyncAppender async = new AsyncAppender();
+        async.setContext(loggerContext);
+        async.addAppender(kinesis);
+        async.start();
+
+        Logger asyncLogger = (Logger) LoggerFactory.getLogger("async." + KinesisLoggerTest.class.getName());
+        asyncLogger.setAdditive(false);
+        asyncLogger.addAppender(async);
+        try (KinesisLogger.MetadataBinding request = LOGGER.bindMetadata("request_id", "r-1").and("attempt", 2)) {
+            assertEquals("r-1", org.slf4j.MDC.get("request_id"));
+            asyncLogger.info("Logged through the async appender");
+        }
+        assertNull(org.slf4j.MDC.get("request_id"));
+        async.stop();
+        asyncLogger.detachAppender(async);
+
+        verify(kinesisProducer, times(1)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        Map<String, Object> metadata = getLogEvent(captorByteBuffer.getValue()).getMetadata();
+        assertEquals("r-1", metadata.get("request_id"));
+        assertEquals("2", metadata.get("attempt"));
+    }
+
     @Test
     public void logWithGlobals() throws Exception {
         Throwable myThrowable = new IllegalArgumentException("SBH!");
@@ -177,8 +475,8 @@ public class KinesisLoggerTest {
         LOGGER.kError("my_error", "Something bad happened.", myThrowable);
         verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
         KinesisLogEvent logEvent = getLogEvent(captorByteBuffer.getAllValues().get(0));
-        Map<String, String> metadata = logEvent.getMetadata();
-        assertNotNull(dateFormat.parse(metadata.get("ts")));
+        Map<String, Object> metadata = logEvent.getMetadata();
+        assertNotNull(dateFormat.parse((String) metadata.get("ts")));
         assertTrue(metadata.containsKey("k1"));
         assertTrue(metadata.containsKey("k2"));
         assertTrue(metadata.get("server").equals("tmpserver"));
@@ -212,6 +510,31 @@ public class KinesisLoggerTest {
 
         String json = new String(jsons.get(0).array());
         System.out.println(json);
+        assertTrue(((Number) getLogEvent(jsons.get(0)).getMetadata().get("took_millis")).longValue() >= 100);
+    }
+
+    @Test
+    public void logWithTypedMetadata() {
+        Map<String, Object> mdc = new HashMap<>();
+        mdc.put("count", 3);
+        mdc.put("ratio", 0.5);
+        mdc.put("ok", true);
+        mdc.put("tags", Arrays.asList("a", "b"));
+        LOGGER.kInfo(EVENT_TYPE, mdc, MSG);
+        LOGGER.kInfo(EVENT_TYPE, KinesisMetadata.create().put("took_millis", 12L).put("nested", Collections.singletonMap("k", 1)), MSG);
+
+        verify(kinesisProducer, times(2)).addUserRecord(captoStreamName.capture(), captorUuid.capture(), captorByteBuffer.capture());
+        List<ByteBuffer> byteBuffers = captorByteBuffer.getAllValues();
+        JsonObject metadata = GSON.fromJson(new String(byteBuffers.get(0).array()), JsonObject.class).getAsJsonObject("metadata");
+        assertTrue(metadata.get("count").getAsJsonPrimitive().isNumber());
+        assertEquals(3, metadata.get("count").getAsInt());
+        assertEquals(0.5, metadata.get("ratio").getAsDouble(), 0.0);
+        assertTrue(metadata.get("ok").getAsJsonPrimitive().isBoolean());
+        assertEquals(2, metadata.get("tags").getAsJsonArray().size());
+
+        metadata = GSON.fromJson(new String(byteBuffers.get(1).array()), JsonObject.class).getAsJsonObject("metadata");
+        assertTrue(metadata.get("took_millis").getAsJsonPrimitive().isNumber());
+        assertEquals(1, metadata.getAsJsonObject("nested").get("k").getAsInt());
     }
 
     @Test
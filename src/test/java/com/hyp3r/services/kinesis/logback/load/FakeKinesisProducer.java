@@ -0,0 +1,168 @@
+package com.hyp3r.services.kinesis.logback.load;
+
+import com.amazonaws.services.kinesis.producer.Attempt;
+import com.amazonaws.services.kinesis.producer.IKinesisProducer;
+import com.amazonaws.services.kinesis.producer.Metric;
+import com.amazonaws.services.kinesis.producer.UserRecord;
+import com.amazonaws.services.kinesis.producer.UserRecordFailedException;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.Setter;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-JVM stand-in for the KPL. Records complete after a simulated latency. Records over the per-second throughput limit
+ * fail the way Kinesis throttling does, and a configurable fraction fails outright.
+ */
+public class FakeKinesisProducer implements IKinesisProducer {
+    public static final String THROTTLED = "ProvisionedThroughputExceededException";
+    public static final String FAILED = "InternalFailure";
+
+    @Setter private long latencyMillis = 5;
+    @Setter private long latencyJitterMillis = 5;
+    @Setter private int recordsPerSecond;
+    @Setter private double failureRate;
+
+    private final ScheduledExecutorService completer = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "fake-kinesis-producer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong windowStart = new AtomicLong();
+    private final AtomicInteger windowCount = new AtomicInteger();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder acceptedBytes = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @Override
+    public ListenableFuture<UserRecordResult> addUserRecord(String stream, String partitionKey, ByteBuffer data) {
+        return addUserRecord(stream, partitionKey, null, data);
+    }
+
+    @Override
+    public ListenableFuture<UserRecordResult> addUserRecord(UserRecord userRecord) {
+        return addUserRecord(userRecord.getStreamName(), userRecord.getPartitionKey(), userRecord.getExplicitHashKey(), userRecord.getData());
+    }
+
+    @Override
+    public ListenableFuture<UserRecordResult> addUserRecord(String stream, String partitionKey, String explicitHashKey, ByteBuffer data) {
+        SettableFuture<UserRecordResult> future = SettableFuture.create();
+        outstanding.incrementAndGet();
+        String error = isThrottled() ? THROTTLED : ThreadLocalRandom.current().nextDouble() < failureRate ? FAILED : null;
+        int size = data.remaining();
+
+        long delay = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis) : 0);
+        completer.schedule(() -> {
+            outstanding.decrementAndGet();
+            if (error == null) {
+                accepted.increment();
+                acceptedBytes.add(size);
+                future.set(result(null));
+            } else {
+                (THROTTLED.equals(error) ? throttled : failed).increment();
+                future.setException(new UserRecordFailedException(result(error)));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private static UserRecordResult result(String errorCode) {
+        Attempt attempt = new Attempt(0, 1, errorCode, errorCode, errorCode == null);
+        return new UserRecordResult(Collections.singletonList(attempt), errorCode == null ? "0" : null, errorCode == null ? "shardId-000000000000" : null, errorCode == null);
+    }
+
+    // Fixed one second windows, like a stream with a records per second limit
+    private boolean isThrottled() {
+        if (recordsPerSecond <= 0) {
+            return false;
+        }
+        long second = System.currentTimeMillis() / 1000;
+        long start = windowStart.get();
+        if (second != start && windowStart.compareAndSet(start, second)) {
+            windowCount.set(0);
+        }
+        return windowCount.incrementAndGet() > recordsPerSecond;
+    }
+
+    @Override
+    public int getOutstandingRecordsCount() {
+        return outstanding.get();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getAcceptedBytes() {
+        return acceptedBytes.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public List<Metric> getMetrics(String metricName, int windowSeconds) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Metric> getMetrics(String metricName) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Metric> getMetrics() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Metric> getMetrics(int windowSeconds) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void flush(String stream) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void flushSync() {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (outstanding.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        completer.shutdownNow();
+    }
+}
@@ -0,0 +1,313 @@
+package com.hyp3r.services.kinesis.logback.load;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.hyp3r.services.kinesis.logback.KinesisAppender;
+import com.hyp3r.services.kinesis.logback.dispatch.PriorityLane;
+import com.hyp3r.services.kinesis.logback.ext.KinesisLogger;
+import com.hyp3r.services.kinesis.logback.ext.KinesisLoggerFactory;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import lombok.Getter;
+import lombok.Setter;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives {@link KinesisLogger} and {@link KinesisAppender} against a {@link FakeKinesisProducer} and reports, per
+ * interval and for the whole run: sustained throughput, caller-thread latency percentiles, GC pauses, allocation rate
+ * of the logging threads, and dropped, throttled and failed records.
+ *
+ * Run it with {@code ./gradlew loadTest}, tuning the run through {@code -Dload.*} system properties (see
+ * {@link Config#fromSystemProperties()}).
+ */
+public class LoadGenerator {
+    private static final String LOGGER_NAME = "com.hyp3r.services.kinesis.logback.load.Generated";
+
+    private final Config config;
+    private final PrintStream out;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder issued = new LongAdder();
+
+    public LoadGenerator(Config config, PrintStream out) {
+        this.config = config;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(Config.fromSystemProperties(), System.out).run();
+    }
+
+    @Getter
+    @Setter
+    public static class Config {
+        private int threads = 4;
+        private int seconds = 60;
+        private int reportSeconds = 5;
+        // Events per second per thread, 0 for as fast as possible
+        private int rate = 1000;
+        // Share of calls that carry an event type and pass the eventsOnly filter
+        private double eventRatio = 0.8;
+        private double throwableRatio = 0.01;
+        private int metadataKeys = 8;
+        private int descriptionChars = 120;
+
+        // Fake producer behaviour
+        private long latencyMillis = 20;
+        private long latencyJitterMillis = 20;
+        private int recordsPerSecond;
+        private double failureRate = 0.001;
+
+        // Appender settings
+        private boolean lanes;
+        private Long coalesceWindowMillis;
+
+        public static Config fromSystemProperties() {
+            Config config = new Config();
+            config.threads = Integer.getInteger("load.threads", config.threads);
+            config.seconds = Integer.getInteger("load.seconds", config.seconds);
+            config.reportSeconds = Integer.getInteger("load.reportSeconds", config.reportSeconds);
+            config.rate = Integer.getInteger("load.rate", config.rate);
+            config.eventRatio = Double.parseDouble(System.getProperty("load.eventRatio", String.valueOf(config.eventRatio)));
+            config.throwableRatio = Double.parseDouble(System.getProperty("load.throwableRatio", String.valueOf(config.throwableRatio)));
+            config.metadataKeys = Integer.getInteger("load.metadataKeys", config.metadataKeys);
+            config.descriptionChars = Integer.getInteger("load.descriptionChars", config.descriptionChars);
+            config.latencyMillis = Long.getLong("load.latencyMillis", config.latencyMillis);
+            config.latencyJitterMillis = Long.getLong("load.latencyJitterMillis", config.latencyJitterMillis);
+            config.recordsPerSecond = Integer.getInteger("load.recordsPerSecond", config.recordsPerSecond);
+            config.failureRate = Double.parseDouble(System.getProperty("load.failureRate", String.valueOf(config.failureRate)));
+            config.lanes = Boolean.getBoolean("load.lanes");
+            config.coalesceWindowMillis = Long.getLong("load.coalesceWindowMillis");
+            return config;
+        }
+    }
+
+    @Getter
+    public static class Report {
+        private long issued;
+        private long accepted;
+        private long throttled;
+        private long failed;
+        private long dropped;
+        private long gcCount;
+        private long gcMillis;
+        private long allocatedBytes;
+        private LatencyHistogram.Snapshot latencies;
+        private double seconds;
+
+        public double getThroughput() {
+            return issued / seconds;
+        }
+    }
+
+    public Report run() throws InterruptedException {
+        FakeKinesisProducer producer = new FakeKinesisProducer();
+        producer.setLatencyMillis(config.latencyMillis);
+        producer.setLatencyJitterMillis(config.latencyJitterMillis);
+        producer.setRecordsPerSecond(config.recordsPerSecond);
+        producer.setFailureRate(config.failureRate);
+
+        KinesisAppender<ILoggingEvent> appender = new KinesisAppender<>();
+        appender.setContext((LoggerContext) LoggerFactory.getILoggerFactory());
+        appender.setName("load-test");
+        appender.setAppName("load-test");
+        appender.setEnvironment("local");
+        appender.setStreamName("load-stream");
+        appender.setAwsRegion("us-east-1");
+        appender.setKinesisProducer(producer);
+        appender.setCoalesceWindowMillis(config.coalesceWindowMillis);
+        if (config.lanes) {
+            PriorityLane errors = new PriorityLane();
+            errors.setName("errors");
+            errors.setLevel("ERROR");
+            errors.setReserved(1000);
+            appender.addLane(errors);
+        }
+        appender.start();
+
+        Logger logbackLogger = (Logger) LoggerFactory.getLogger(LOGGER_NAME);
+        logbackLogger.setAdditive(false);
+        logbackLogger.setLevel(Level.INFO);
+        logbackLogger.addAppender(appender);
+        KinesisLogger logger = KinesisLoggerFactory.getLogger(LOGGER_NAME);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.seconds);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < config.threads; i++) {
+            Thread worker = new Thread(() -> generate(logger, deadline), "load-generator-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+
+        LatencyHistogram.Snapshot allLatencies = latencies.drain();
+        Sampler total = new Sampler(workers);
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Sampler interval = new Sampler(workers);
+        out.printf("%8s %12s %10s %10s %10s %10s %8s %8s %10s %10s %10s%n",
+            "elapsed", "events/s", "p50 us", "p99 us", "p99.9 us", "max us", "gc #", "gc ms", "alloc MB/s", "dropped", "throttled");
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(config.reportSeconds),
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            LatencyHistogram.Snapshot snapshot = latencies.drain();
+            allLatencies = allLatencies.merge(snapshot);
+            Report report = interval.report(snapshot, producer, appender);
+            out.printf("%8.1f %12.0f %10d %10d %10d %10d %8d %8d %10.1f %10d %10d%n",
+                (System.nanoTime() - total.startNanos) / 1e9, report.getThroughput(),
+                snapshot.percentile(50) / 1000, snapshot.percentile(99) / 1000, snapshot.percentile(99.9) / 1000,
+                snapshot.max() / 1000, report.gcCount, report.gcMillis, report.allocatedBytes / report.seconds / (1 << 20),
+                report.dropped, report.throttled);
+            interval = new Sampler(workers);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        allLatencies = allLatencies.merge(latencies.drain());
+
+        logbackLogger.detachAppender(appender);
+        appender.stop();
+        Report report = total.report(allLatencies, producer, appender);
+        out.printf("total: %d events in %.1fs, %.0f events/s, p50 %dus, p99 %dus, p99.9 %dus, max %dus, %d GCs (%dms), "
+                + "%.1f MB/s allocated, %d accepted, %d dropped, %d throttled, %d failed%n",
+            report.issued, report.seconds, report.getThroughput(), allLatencies.percentile(50) / 1000,
+            allLatencies.percentile(99) / 1000, allLatencies.percentile(99.9) / 1000, allLatencies.max() / 1000,
+            report.gcCount, report.gcMillis, report.allocatedBytes / report.seconds / (1 << 20), report.accepted,
+            report.dropped, report.throttled, report.failed);
+        return report;
+    }
+
+    private void generate(KinesisLogger logger, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Logger plain = (Logger) LoggerFactory.getLogger(LOGGER_NAME);
+        String description = description(config.descriptionChars);
+        Exception failure = new IllegalStateException("simulated failure");
+        long period = config.rate > 0 ? TimeUnit.SECONDS.toNanos(1) / config.rate : 0;
+        long next = System.nanoTime();
+
+        while (next < deadline && System.nanoTime() < deadline) {
+            if (period > 0) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                next += period;
+            }
+
+            boolean event = random.nextDouble() < config.eventRatio;
+            boolean throwable = random.nextDouble() < config.throwableRatio;
+            long start = System.nanoTime();
+            if (!event) {
+                plain.info(description);
+            } else if (throwable) {
+                logger.kError("load_failure", metadata(random), description, failure);
+            } else {
+                logger.kInfo("load_event", metadata(random), description);
+            }
+            latencies.record(System.nanoTime() - start);
+            issued.increment();
+        }
+    }
+
+    private KinesisMetadata metadata(ThreadLocalRandom random) {
+        KinesisMetadata metadata = KinesisMetadata.withCapacity(config.metadataKeys);
+        for (int i = 0; i < config.metadataKeys; i++) {
+            switch (i % 3) {
+                case 0:
+                    metadata.put(KEYS[i % KEYS.length], random.nextLong(1_000_000));
+                    break;
+                case 1:
+                    metadata.put(KEYS[i % KEYS.length], random.nextDouble());
+                    break;
+                default:
+                    metadata.put(KEYS[i % KEYS.length], "value-" + random.nextInt(100));
+            }
+        }
+        return metadata;
+    }
+
+    private static final String[] KEYS = {"user_id", "latency", "region", "account_id", "ratio", "shard", "order_id",
+        "score", "tenant", "request_id", "weight", "service"};
+
+    private static String description(int chars) {
+        StringBuilder sb = new StringBuilder(chars);
+        while (sb.length() < chars) {
+            sb.append("load test event ");
+        }
+        return sb.substring(0, chars);
+    }
+
+    // Counters at the start of a reporting period
+    private final class Sampler {
+        private final long startNanos = System.nanoTime();
+        private final long issuedAtStart = issued.sum();
+        private final long gcCount;
+        private final long gcMillis;
+        private final long allocated;
+        private final List<Thread> workers;
+        private long accepted;
+        private long throttled;
+        private long failed;
+        private long dropped;
+
+        private Sampler(List<Thread> workers) {
+            this.workers = workers;
+            long count = 0;
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            this.gcCount = count;
+            this.gcMillis = millis;
+            this.allocated = allocatedBytes(workers);
+        }
+
+        private Report report(LatencyHistogram.Snapshot snapshot, FakeKinesisProducer producer, KinesisAppender<?> appender) {
+            Sampler now = new Sampler(workers);
+            Report report = new Report();
+            report.seconds = (now.startNanos - startNanos) / 1e9;
+            report.issued = now.issuedAtStart - issuedAtStart;
+            report.gcCount = now.gcCount - gcCount;
+            report.gcMillis = now.gcMillis - gcMillis;
+            report.allocatedBytes = now.allocated - allocated;
+            report.latencies = snapshot;
+
+            long droppedNow = appender.getDroppedByLane().values().stream().mapToLong(Long::longValue).sum();
+            report.accepted = producer.getAccepted() - accepted;
+            report.throttled = producer.getThrottled() - throttled;
+            report.failed = producer.getFailed() - failed;
+            report.dropped = droppedNow - dropped;
+            accepted = producer.getAccepted();
+            throttled = producer.getThrottled();
+            failed = producer.getFailed();
+            dropped = droppedNow;
+            return report;
+        }
+    }
+
+    // Bytes allocated so far by the given threads, 0 where the JVM cannot tell
+    private static long allocatedBytes(List<Thread> threads) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long[] ids = threads.stream().mapToLong(Thread::getId).toArray();
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(ids)) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,35 @@
+package com.hyp3r.services.kinesis.logback.load;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+
+    @Test
+    public void shouldReportShortRun() throws Exception {
+        LoadGenerator.Config config = new LoadGenerator.Config();
+        config.setThreads(2);
+        config.setSeconds(1);
+        config.setReportSeconds(1);
+        config.setRate(500);
+        config.setLatencyMillis(1);
+        config.setLatencyJitterMillis(1);
+        config.setRecordsPerSecond(300);
+        config.setFailureRate(0.0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LoadGenerator.Report report = new LoadGenerator(config, new PrintStream(out, true, "UTF-8")).run();
+
+        assertTrue(report.getIssued() > 0);
+        assertEquals(report.getIssued(), report.getLatencies().getCount());
+        assertTrue(report.getAccepted() > 0);
+        // Two threads at 500/s against a 300/s stream must hit the throughput limit
+        assertTrue(report.getThrottled() > 0);
+        assertEquals(0, report.getFailed());
+        assertTrue(out.toString("UTF-8").contains("total: "));
+    }
+}
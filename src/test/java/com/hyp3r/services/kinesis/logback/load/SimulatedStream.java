@@ -0,0 +1,163 @@
+package com.hyp3r.services.kinesis.logback.load;
+
+import com.amazonaws.services.kinesis.producer.Attempt;
+import com.amazonaws.services.kinesis.producer.IKinesisProducer;
+import com.amazonaws.services.kinesis.producer.Metric;
+import com.amazonaws.services.kinesis.producer.UserRecord;
+import com.amazonaws.services.kinesis.producer.UserRecordFailedException;
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in for a stream whose shards own ranges of the hash key space, each with a records per window limit. Records
+ * land on the shard owning their explicit hash key, or the MD5 of their partition key as in Kinesis, and complete at
+ * once. Records over their shard's limit fail as throttled. Windows are advanced by the test with {@link #nextWindow()}
+ * so runs are deterministic.
+ */
+public class SimulatedStream implements IKinesisProducer {
+    private static final BigInteger HASH_KEY_SPACE = BigInteger.ONE.shiftLeft(128);
+
+    private final BigInteger[] startingHashKeys;
+    private final int recordsPerWindow;
+    private final long[] windowRecords;
+    private final long[] accepted;
+    private final long[] throttled;
+
+    /**
+     * Shards splitting the hash key space at the given fractions, e.g. {@code 0.75} for a first shard owning three
+     * quarters of it and a second shard owning the rest.
+     */
+    public SimulatedStream(int recordsPerWindow, double... splits) {
+        this.recordsPerWindow = recordsPerWindow;
+        startingHashKeys = new BigInteger[splits.length + 1];
+        startingHashKeys[0] = BigInteger.ZERO;
+        for (int i = 0; i < splits.length; i++) {
+            startingHashKeys[i + 1] = new BigDecimal(HASH_KEY_SPACE).multiply(BigDecimal.valueOf(splits[i])).toBigInteger();
+        }
+        windowRecords = new long[startingHashKeys.length];
+        accepted = new long[startingHashKeys.length];
+        throttled = new long[startingHashKeys.length];
+    }
+
+    public static String shardId(int shard) {
+        return String.format("shardId-%012d", shard);
+    }
+
+    public int getShards() {
+        return startingHashKeys.length;
+    }
+
+    public synchronized long getAccepted(int shard) {
+        return accepted[shard];
+    }
+
+    public synchronized long getThrottled(int shard) {
+        return throttled[shard];
+    }
+
+    public synchronized void nextWindow() {
+        Arrays.fill(windowRecords, 0);
+    }
+
+    public synchronized void reset() {
+        nextWindow();
+        Arrays.fill(accepted, 0);
+        Arrays.fill(throttled, 0);
+    }
+
+    @Override
+    public ListenableFuture<UserRecordResult> addUserRecord(String stream, String partitionKey, ByteBuffer data) {
+        return addUserRecord(stream, partitionKey, null, data);
+    }
+
+    @Override
+    public ListenableFuture<UserRecordResult> addUserRecord(UserRecord userRecord) {
+        return addUserRecord(userRecord.getStreamName(), userRecord.getPartitionKey(), userRecord.getExplicitHashKey(), userRecord.getData());
+    }
+
+    @Override
+    public synchronized ListenableFuture<UserRecordResult> addUserRecord(String stream, String partitionKey, String explicitHashKey,
+                                                                          ByteBuffer data) {
+        int shard = shardOf(explicitHashKey != null ? new BigInteger(explicitHashKey) : md5(partitionKey));
+        if (++windowRecords[shard] > recordsPerWindow) {
+            throttled[shard]++;
+            Attempt attempt = new Attempt(0, 1, "ProvisionedThroughputExceededException", "Rate exceeded for shard", false);
+            return Futures.immediateFailedFuture(new UserRecordFailedException(
+                new UserRecordResult(Collections.singletonList(attempt), null, shardId(shard), false)));
+        }
+        accepted[shard]++;
+        Attempt attempt = new Attempt(0, 1, null, null, true);
+        return Futures.immediateFuture(new UserRecordResult(Collections.singletonList(attempt),
+            Long.toString(accepted[shard]), shardId(shard), true));
+    }
+
+    private int shardOf(BigInteger hashKey) {
+        for (int shard = startingHashKeys.length - 1; shard > 0; shard--) {
+            if (hashKey.compareTo(startingHashKeys[shard]) >= 0) {
+                return shard;
+            }
+        }
+        return 0;
+    }
+
+    private static BigInteger md5(String partitionKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(partitionKey.getBytes(StandardCharsets.UTF_8));
+            return new BigInteger(1, digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int getOutstandingRecordsCount() {
+        return 0;
+    }
+
+    @Override
+    public List<Metric> getMetrics(String metricName, int windowSeconds) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Metric> getMetrics(String metricName) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Metric> getMetrics() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Metric> getMetrics(int windowSeconds) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void flush(String stream) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void flushSync() {
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
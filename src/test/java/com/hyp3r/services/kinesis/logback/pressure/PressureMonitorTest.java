@@ -0,0 +1,63 @@
+package com.hyp3r.services.kinesis.logback.pressure;
+
+import ch.qos.logback.classic.Level;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PressureMonitorTest {
+
+    private final List<String> transitions = new ArrayList<>();
+    private final PressureMonitor monitor = new PressureMonitor(1000, 0, (from, to, heap, gc) -> transitions.add(from + ">" + to));
+
+    @Test
+    public void shouldEscalateAtOnceAndRecoverOneStepAtATime() {
+        assertEquals(DegradationLevel.NORMAL, monitor.evaluate(0, 0.5, 0));
+        assertEquals(DegradationLevel.STRIP_DETAILS, monitor.evaluate(100, 0.91, 0));
+        assertEquals(DegradationLevel.ERRORS_ONLY, monitor.evaluate(200, 0.5, 0.6));
+
+        // Just under the threshold is not far enough under it to recover
+        assertEquals(DegradationLevel.ERRORS_ONLY, monitor.evaluate(300, 0.93, 0));
+        assertEquals(DegradationLevel.ERRORS_ONLY, monitor.evaluate(5000, 0.93, 0));
+
+        assertEquals(DegradationLevel.ERRORS_ONLY, monitor.evaluate(6000, 0.5, 0));
+        assertEquals(DegradationLevel.STRIP_DETAILS, monitor.evaluate(7000, 0.5, 0));
+        assertEquals(DegradationLevel.STRIP_DETAILS, monitor.evaluate(7500, 0.5, 0));
+        // A spike resets the recovery period
+        assertEquals(DegradationLevel.STRIP_DETAILS, monitor.evaluate(7600, 0.88, 0));
+        assertEquals(DegradationLevel.STRIP_DETAILS, monitor.evaluate(8000, 0.5, 0));
+        assertEquals(DegradationLevel.SAMPLE_INFO, monitor.evaluate(9000, 0.5, 0));
+        assertEquals(DegradationLevel.DROP_DEBUG, monitor.evaluate(10000, 0.5, 0));
+        assertEquals(DegradationLevel.NORMAL, monitor.evaluate(11000, 0.5, 0));
+
+        assertEquals(6, transitions.size());
+        assertEquals("NORMAL>STRIP_DETAILS", transitions.get(0));
+        assertEquals("DROP_DEBUG>NORMAL", transitions.get(5));
+        assertEquals(Long.valueOf(1), monitor.getTransitions().get("ERRORS_ONLY"));
+        assertEquals(Long.valueOf(2), monitor.getTransitions().get("STRIP_DETAILS"));
+    }
+
+    @Test
+    public void shouldShedByLevel() {
+        assertTrue(monitor.admits(Level.DEBUG));
+
+        monitor.evaluate(0, 0.8, 0);
+        assertFalse(monitor.admits(Level.DEBUG));
+        assertTrue(monitor.admits(Level.INFO));
+        assertTrue(DegradationLevel.DROP_DEBUG.keepsDetails());
+
+        monitor.evaluate(0, 0.86, 0);
+        assertFalse(monitor.admits(Level.INFO));
+        assertTrue(monitor.admits(Level.WARN));
+        assertTrue(DegradationLevel.SAMPLE_INFO.admits(Level.INFO, 1));
+
+        monitor.evaluate(0, 0.96, 0);
+        assertFalse(monitor.admits(Level.WARN));
+        assertTrue(monitor.admits(Level.ERROR));
+        assertFalse(monitor.current().keepsDetails());
+        assertEquals(3, monitor.getShedEvents());
+    }
+}
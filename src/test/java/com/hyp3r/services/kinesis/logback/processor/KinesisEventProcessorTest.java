@@ -0,0 +1,102 @@
+package com.hyp3r.services.kinesis.logback.processor;
+
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class KinesisEventProcessorTest {
+
+    @Test
+    public void shouldConvertNamesToSnakeCase() {
+        assertEquals("order_id", KinesisEventProcessor.snakeCase("orderId"));
+        assertEquals("http_url_count", KinesisEventProcessor.snakeCase("httpURLCount"));
+        assertEquals("amount", KinesisEventProcessor.snakeCase("amount"));
+    }
+
+    @Test
+    public void shouldReportInvalidEvents() {
+        List<String> errors = compile("package events;\n"
+            + "import com.hyp3r.services.kinesis.logback.ext.KinesisEvent;\n"
+            + "import com.hyp3r.services.kinesis.logback.ext.KinesisField;\n"
+            + "public interface BadEvents {\n"
+            + "    @KinesisEvent(value = \"bad_level\", level = \"FATAL\") void badLevel(long id);\n"
+            + "    @KinesisEvent(\"bad_return\") int badReturn(long id);\n"
+            + "    @KinesisEvent(\"bad_keys\") void badKeys(long orderId, @KinesisField(\"order_id\") long other);\n"
+            + "    @KinesisEvent(\"bad_type\") void badType(long[] ids);\n"
+            + "    void missing(long id);\n"
+            + "}\n");
+
+        assertEquals(errors.toString(), 5, errors.size());
+        assertTrue(errors.contains("@KinesisEvent level must be one of TRACE, DEBUG, INFO, WARN or ERROR"));
+        assertTrue(errors.contains("@KinesisEvent methods must return void and take no type parameters"));
+        assertTrue(errors.contains("Duplicate @KinesisEvent key order_id"));
+        assertTrue(errors.contains("Unsupported @KinesisEvent parameter type long[]"));
+        assertTrue(errors.contains("Every abstract method of an event interface needs @KinesisEvent"));
+    }
+
+    @Test
+    public void shouldGenerateEmittersWithoutRedundantCasts() throws Exception {
+        String source = "package events;\n"
+            + "import com.hyp3r.services.kinesis.logback.ext.KinesisEvent;\n"
+            + "import java.util.List;\n"
+            + "import java.util.Map;\n"
+            + "public interface BadEvents {\n"
+            + "    enum Kind { A, B }\n"
+            + "    @KinesisEvent(\"typed\") void typed(byte b, short s, int i, long l, float f, double d, boolean flag,\n"
+            + "        String text, Kind kind, Integer boxed, Map<String, Object> map, List<String> list, Object other);\n"
+            + "}\n";
+        Path out = Files.createTempDirectory("kinesis-emitters");
+        try {
+            List<Diagnostic<? extends JavaFileObject>> diagnostics = compile(source, "-Xlint:cast", "-d", out.toString());
+            assertEquals(diagnostics.toString(), 0, diagnostics.size());
+        } finally {
+            try (Stream<Path> files = Files.walk(out)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static List<String> compile(String source) {
+        return compile(source, "-proc:only").stream()
+            .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+            .map(d -> d.getMessage(null))
+            .collect(Collectors.toList());
+    }
+
+    // Errors and warnings of compiling source with the processor
+    private static List<Diagnostic<? extends JavaFileObject>> compile(String source, String... extraOptions) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///events/BadEvents.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = new ArrayList<>(Arrays.asList("-classpath", System.getProperty("java.class.path"),
+            "-processor", KinesisEventProcessor.class.getName()));
+        options.addAll(Arrays.asList(extraOptions));
+        compiler.getTask(null, null, diagnostics, options, null, Collections.singletonList(file)).call();
+        return diagnostics.getDiagnostics().stream()
+            .filter(d -> d.getKind() == Diagnostic.Kind.ERROR || d.getKind() == Diagnostic.Kind.WARNING
+                || d.getKind() == Diagnostic.Kind.MANDATORY_WARNING)
+            .collect(Collectors.toList());
+    }
+}
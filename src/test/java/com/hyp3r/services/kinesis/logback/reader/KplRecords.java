@@ -0,0 +1,40 @@
+package com.hyp3r.services.kinesis.logback.reader;
+
+import com.amazonaws.services.kinesis.producer.protobuf.Messages;
+import com.google.protobuf.ByteString;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds Kinesis records in the KPL aggregation format with the KPL's own protocol buffer classes.
+ */
+public final class KplRecords {
+
+    private KplRecords() {
+    }
+
+    public static byte[] aggregate(byte[]... userRecords) {
+        Messages.AggregatedRecord.Builder aggregated = Messages.AggregatedRecord.newBuilder()
+            .addPartitionKeyTable("partition-key")
+            .addExplicitHashKeyTable("1234");
+        for (byte[] userRecord : userRecords) {
+            aggregated.addRecords(Messages.Record.newBuilder()
+                .setPartitionKeyIndex(0)
+                .setExplicitHashKeyIndex(0)
+                .setData(ByteString.copyFrom(userRecord)));
+        }
+        byte[] message = aggregated.build().toByteArray();
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(message);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] record = new byte[KplDeaggregator.MAGIC.length + message.length + digest.length];
+        System.arraycopy(KplDeaggregator.MAGIC, 0, record, 0, KplDeaggregator.MAGIC.length);
+        System.arraycopy(message, 0, record, KplDeaggregator.MAGIC.length, message.length);
+        System.arraycopy(digest, 0, record, KplDeaggregator.MAGIC.length + message.length, digest.length);
+        return record;
+    }
+}
@@ -0,0 +1,150 @@
+package com.hyp3r.services.kinesis.logback.reader;
+
+import com.amazonaws.services.kinesis.producer.protobuf.Messages;
+import com.google.gson.Gson;
+import com.hyp3r.services.kinesis.logback.batching.DictionaryBatch;
+import com.hyp3r.services.kinesis.logback.batching.DictionaryBatchEncoder;
+import com.hyp3r.services.kinesis.logback.models.KinesisLogEvent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares {@link RecordReader} with what consumers did before it: parsing KPL aggregates with the protocol buffer
+ * classes, decoding batches and mapping every event onto a {@link KinesisLogEvent} with Gson, then reading three
+ * fields. Records are built from the recorded events in {@code reader/sample-events.jsonl}, either as plain events or
+ * as batches of {@code -Dbenchmark.batchEvents} events, packed into KPL aggregates of
+ * {@code -Dbenchmark.userRecords} user records. Run it with {@code ./gradlew readerBenchmark}.
+ */
+public class ReaderBenchmark {
+    private static final int ROUNDS = 5;
+    private static final byte[] KPL_MAGIC = KplDeaggregator.MAGIC;
+
+    private final int records;
+    private final int userRecords;
+    private final int batchEvents;
+    private final PrintStream out;
+    private final Gson gson = new Gson();
+    private long checksum;
+
+    public ReaderBenchmark(int records, int userRecords, int batchEvents, PrintStream out) {
+        this.records = records;
+        this.userRecords = userRecords;
+        this.batchEvents = batchEvents;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ReaderBenchmark(Integer.getInteger("benchmark.records", 2_000), Integer.getInteger("benchmark.userRecords", 10),
+            Integer.getInteger("benchmark.batchEvents", 20), System.out).run();
+    }
+
+    public void run() throws IOException {
+        List<byte[]> samples = samples();
+        out.printf("java %s, %d records of %d user records, %d events per batch%n", System.getProperty("java.version"),
+            records, userRecords, batchEvents);
+        out.printf("%-12s %16s %16s %8s%n", "events/s", "gson", "reader", "speedup");
+        report("plain", build(samples, 1));
+        report("batched", build(samples, batchEvents));
+        // Keeps the JIT from dropping the reads
+        out.println("checksum " + checksum);
+    }
+
+    private void report(String name, byte[][] kinesisRecords) {
+        long events = 0;
+        for (byte[] record : kinesisRecords) {
+            events += gson(record);
+        }
+        double gson = measure(events, kinesisRecords, this::gson);
+        RecordReader reader = new RecordReader(FieldSelector.of("event_type", "level", "metadata.order_id"));
+        double selective = measure(events, kinesisRecords, record -> reader.read(record, view -> {
+            checksum += view.valueLength(0) + view.valueLength(1) + view.getLong(2, 0);
+        }));
+        out.printf("%-12s %16.0f %16.0f %7.1fx%n", name, gson, selective, selective / gson);
+    }
+
+    private interface Consumer {
+        int read(byte[] record);
+    }
+
+    // Best of several rounds, the first ones warm the JIT up
+    private static double measure(long events, byte[][] kinesisRecords, Consumer consumer) {
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (byte[] record : kinesisRecords) {
+                consumer.read(record);
+            }
+            best = Math.max(best, events * 1e9 / (System.nanoTime() - start));
+        }
+        return best;
+    }
+
+    private int gson(byte[] record) {
+        List<byte[]> data = new ArrayList<>();
+        if (record.length > KPL_MAGIC.length + 16 && Arrays.equals(Arrays.copyOf(record, KPL_MAGIC.length), KPL_MAGIC)) {
+            try {
+                Messages.AggregatedRecord aggregated = Messages.AggregatedRecord.parseFrom(
+                    Arrays.copyOfRange(record, KPL_MAGIC.length, record.length - 16));
+                for (Messages.Record userRecord : aggregated.getRecordsList()) {
+                    data.add(userRecord.getData().toByteArray());
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            data.add(record);
+        }
+        int events = 0;
+        for (byte[] userRecord : data) {
+            for (byte[] json : DictionaryBatch.isBatch(userRecord) ? DictionaryBatch.decode(userRecord) : Arrays.asList(userRecord)) {
+                KinesisLogEvent event = gson.fromJson(new String(json, StandardCharsets.UTF_8), KinesisLogEvent.class);
+                Object orderId = event.getMetadata().get("order_id");
+                checksum += event.getEventType().length() + event.getLevel().length()
+                    + (orderId instanceof Number ? ((Number) orderId).longValue() : 0);
+                events++;
+            }
+        }
+        return events;
+    }
+
+    private byte[][] build(List<byte[]> samples, int eventsPerUserRecord) {
+        byte[][] kinesisRecords = new byte[records][];
+        int next = 0;
+        for (int r = 0; r < records; r++) {
+            byte[][] data = new byte[userRecords][];
+            for (int u = 0; u < userRecords; u++) {
+                if (eventsPerUserRecord == 1) {
+                    data[u] = samples.get(next++ % samples.size());
+                    continue;
+                }
+                DictionaryBatchEncoder batch = new DictionaryBatchEncoder(1024 * 1024);
+                for (int e = 0; e < eventsPerUserRecord; e++) {
+                    batch.add(samples.get(next++ % samples.size()));
+                }
+                data[u] = batch.finish();
+            }
+            kinesisRecords[r] = KplRecords.aggregate(data);
+        }
+        return kinesisRecords;
+    }
+
+    private static List<byte[]> samples() throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+            ReaderBenchmark.class.getResourceAsStream("/reader/sample-events.jsonl"), StandardCharsets.UTF_8))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                if (!line.isEmpty()) {
+                    samples.add(line.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,119 @@
+package com.hyp3r.services.kinesis.logback.reader;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.hyp3r.services.kinesis.logback.batching.DictionaryBatchEncoder;
+import com.hyp3r.services.kinesis.logback.encoding.KinesisEventEncoder;
+import com.hyp3r.services.kinesis.logback.encoding.RecordChunker;
+import com.hyp3r.services.kinesis.logback.ext.MetadataContext;
+import com.hyp3r.services.kinesis.logback.ext.MetadataMarker;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class RecordReaderTest {
+
+    private static final Logger LOGGER = (Logger) LoggerFactory.getLogger(RecordReaderTest.class);
+    private static final FieldSelector FIELDS = FieldSelector.of("event_type", "description", "metadata.order_id",
+        "metadata.amount", "metadata.note", "metadata.first");
+    private static final int EVENT_TYPE = 0;
+    private static final int DESCRIPTION = 1;
+    private static final int ORDER_ID = 2;
+    private static final int AMOUNT = 3;
+    private static final int NOTE = 4;
+    private static final int FIRST = 5;
+
+    private final KinesisEventEncoder encoder = new KinesisEventEncoder("myApp", "test");
+    private final RecordReader reader = new RecordReader(FIELDS);
+
+    private byte[] event(long orderId, String description) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), LOGGER, Level.INFO, description, null, null);
+        event.setMDCPropertyMap(Collections.emptyMap());
+        KinesisMetadata metadata = KinesisMetadata.create()
+            .put("order_id", orderId)
+            .put("amount", 9.5)
+            .put("note", "quote \" tab \t accent \u00e9")
+            .put("first", true)
+            .put("nested", Collections.singletonMap("order_id", "not this one"));
+        MetadataMarker marker = new MetadataMarker("checkout", null, metadata, MetadataContext.EMPTY, null);
+        return encoder.encode(event, marker, MetadataContext.EMPTY, "checkout", null);
+    }
+
+    private List<String> read(byte[] record) {
+        List<String> read = new ArrayList<>();
+        reader.read(record, view -> read.add(view.getString(EVENT_TYPE) + "/" + view.getLong(ORDER_ID, -1)));
+        return read;
+    }
+
+    @Test
+    public void shouldReadSelectedFields() {
+        byte[] record = event(42, "checkout {} done");
+        int events = reader.read(ByteBuffer.wrap(record), view -> {
+            assertTrue(view.stringEquals(EVENT_TYPE, "checkout"));
+            assertEquals("checkout {} done", view.getString(DESCRIPTION));
+            assertEquals(42, view.getLong(ORDER_ID, -1));
+            assertEquals(9.5, view.getDouble(AMOUNT, 0), 0);
+            assertEquals(9, view.getLong(AMOUNT, 0));
+            assertEquals("quote \" tab \t accent \u00e9", view.getString(NOTE));
+            assertTrue(view.getBoolean(FIRST, false));
+            assertEquals("42", view.getRaw(ORDER_ID));
+            assertArrayEquals(record, view.toByteArray());
+        });
+        assertEquals(1, events);
+
+        FieldSelector missing = FieldSelector.of("context", "metadata.absent");
+        new RecordReader(missing).read(record, view -> {
+            assertFalse(view.has(0));
+            assertNull(view.getString(1));
+            assertEquals(7, view.getLong(1, 7));
+        });
+    }
+
+    @Test
+    public void shouldUnpackAggregatedBatchedAndCompressedRecords() throws IOException {
+        DictionaryBatchEncoder batch = new DictionaryBatchEncoder(1024 * 1024);
+        batch.add(event(1, "batched"));
+        batch.add(event(2, "batched"));
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(event(3, "compressed"));
+        }
+
+        byte[] aggregated = KplRecords.aggregate(batch.finish(), event(4, "plain"), compressed.toByteArray());
+        assertEquals(4, reader.read(aggregated, view -> { }));
+        assertEquals(Arrays.asList("checkout/1", "checkout/2", "checkout/4", "checkout/3"), read(aggregated));
+
+        // A wrong digest means the record was never aggregated
+        aggregated[aggregated.length - 1] ^= 1;
+        try {
+            read(aggregated);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Read as a malformed JSON event
+        }
+    }
+
+    @Test
+    public void shouldReassembleChunks() {
+        byte[] big = event(5, new String(new char[3000]).replace('\0', 'x'));
+        List<byte[]> chunks = RecordChunker.split(big, "chunk-1", 1024);
+        assertTrue(chunks.size() > 1);
+        for (int i = chunks.size() - 1; i > 0; i--) {
+            assertTrue(read(chunks.get(i)).isEmpty());
+        }
+        assertEquals(Collections.singletonList("checkout/5"), read(KplRecords.aggregate(chunks.get(0))));
+    }
+}
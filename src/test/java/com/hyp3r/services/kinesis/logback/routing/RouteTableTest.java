@@ -0,0 +1,131 @@
+package com.hyp3r.services.kinesis.logback.routing;
+
+import ch.qos.logback.classic.Level;
+import com.hyp3r.services.kinesis.logback.encoding.MdcProjection;
+import com.hyp3r.services.kinesis.logback.models.KinesisMetadata;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RouteTableTest {
+
+    private static KinesisRoute route(String streamName) {
+        KinesisRoute route = new KinesisRoute();
+        route.setStreamName(streamName);
+        return route;
+    }
+
+    private static String streams(List<RouteTable.Route> routes) {
+        StringBuilder sb = new StringBuilder();
+        routes.stream().map(RouteTable.Route::getStreamName).sorted().forEach(s -> sb.append(s).append(' '));
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void shouldMatchNothingWhenEmpty() {
+        assertTrue(RouteTable.EMPTY.isEmpty());
+        assertTrue(RouteTable.EMPTY.match(Level.ERROR, "a.b", "event", null, null, null).isEmpty());
+    }
+
+    @Test
+    public void shouldMatchOnEventType() {
+        KinesisRoute audit = route("audit");
+        audit.setEventType("login, logout");
+        RouteTable table = RouteTable.compile(Collections.singletonList(audit));
+
+        assertEquals("audit", streams(table.match(Level.INFO, "a.b", "login", null, null, null)));
+        assertEquals("audit", streams(table.match(Level.INFO, "a.b", "logout", null, null, null)));
+        assertTrue(table.match(Level.INFO, "a.b", "checkout", null, null, null).isEmpty());
+        assertTrue(table.match(Level.INFO, "a.b", null, null, null, null).isEmpty());
+    }
+
+    @Test
+    public void shouldMatchRowsOnTheirOwnMetadata() {
+        KinesisRoute tenant = route("tenant");
+        tenant.setMdcKey("tenant");
+        tenant.setMdcValue("acme");
+        RouteTable table = RouteTable.compile(Collections.singletonList(tenant));
+        KinesisMetadata shared = KinesisMetadata.create().put("tenant", "acme");
+
+        assertTrue(table.matchesOnMetadata());
+        assertFalse(RouteTable.compile(Collections.singletonList(route("other"))).matchesOnMetadata());
+        assertEquals("tenant", streams(table.match(Level.INFO, "a", "e", KinesisMetadata.create().put("row", 1L), shared, null, null)));
+        assertTrue(table.match(Level.INFO, "a", "e", KinesisMetadata.create().put("tenant", "other"), shared, null, null).isEmpty());
+        assertEquals("tenant", streams(table.match(Level.INFO, "a", "e", KinesisMetadata.create().put("tenant", "acme"), null, null, null)));
+    }
+
+    @Test
+    public void shouldMatchOnLoggerPrefix() {
+        KinesisRoute metrics = route("metrics");
+        metrics.setLoggerPrefix("com.hyp3r.metrics");
+        KinesisRoute nested = route("nested");
+        nested.setLoggerPrefix("com.hyp3r.metrics.jvm");
+        RouteTable table = RouteTable.compile(Arrays.asList(metrics, nested));
+
+        assertEquals("metrics", streams(table.match(Level.INFO, "com.hyp3r.metrics.Http", "e", null, null, null)));
+        assertEquals("metrics nested", streams(table.match(Level.INFO, "com.hyp3r.metrics.jvm.Gc", "e", null, null, null)));
+        assertTrue(table.match(Level.INFO, "com.hyp3r.met", "e", null, null, null).isEmpty());
+        assertTrue(table.match(Level.INFO, "org.other", "e", null, null, null).isEmpty());
+    }
+
+    @Test
+    public void shouldCombineCriteria() {
+        KinesisRoute errors = route("errors");
+        errors.setLevel("WARN");
+        KinesisRoute tenant = route("tenant");
+        tenant.setMdcKey("tenant");
+        tenant.setMdcValue("acme");
+        KinesisRoute auditErrors = route("audit-errors");
+        auditErrors.setEventType("audit");
+        auditErrors.setLevel("ERROR");
+        RouteTable table = RouteTable.compile(Arrays.asList(errors, tenant, auditErrors));
+
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("tenant", "acme");
+
+        assertEquals("audit-errors errors tenant", streams(table.match(Level.ERROR, "a", "audit", null, null, mdc)));
+        assertEquals("errors", streams(table.match(Level.WARN, "a", "audit", null, null, null)));
+        assertEquals("tenant", streams(table.match(Level.INFO, "a", "audit", null, null, mdc)));
+        mdc.put("tenant", "other");
+        assertTrue(table.match(Level.INFO, "a", "audit", null, null, mdc).isEmpty());
+    }
+
+    @Test
+    public void shouldSampleAndPickPartitionKey() {
+        KinesisRoute never = route("never");
+        never.setSampleRate(0.0);
+        never.setPartitionKey("user_id");
+        RouteTable.Route compiled = RouteTable.compile(Collections.singletonList(never)).match(Level.INFO, "a", null, null, null, null).get(0);
+
+        assertFalse(compiled.sample());
+        assertNull(compiled.partitionKey(null, null, Collections.emptyMap()));
+        assertEquals("42", compiled.partitionKey(null, null, Collections.singletonMap("user_id", "42")));
+    }
+
+    @Test
+    public void shouldShareEqualMdcProjections() {
+        KinesisRoute audit = route("audit");
+        audit.setMdcInclude("user_id, tenant");
+        KinesisRoute billing = route("billing");
+        billing.setMdcInclude("tenant,user_id");
+        KinesisRoute traced = route("traced");
+        traced.setMdcExclude("span");
+        KinesisRoute plain = route("plain");
+        MdcProjection appenderProjection = MdcProjection.compile(null, "span", null);
+        List<RouteTable.Route> routes = RouteTable.compile(Arrays.asList(audit, billing, traced, plain), appenderProjection)
+            .match(Level.INFO, "a", null, null, null, null);
+
+        Map<String, MdcProjection> projections = new HashMap<>();
+        routes.forEach(route -> projections.put(route.getStreamName(), route.projection(appenderProjection)));
+        assertSame(projections.get("audit"), projections.get("billing"));
+        assertNotEquals(appenderProjection, projections.get("audit"));
+        assertSame(appenderProjection, projections.get("traced"));
+        assertSame(appenderProjection, projections.get("plain"));
+    }
+}
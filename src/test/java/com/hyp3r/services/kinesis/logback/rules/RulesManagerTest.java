@@ -0,0 +1,139 @@
+package com.hyp3r.services.kinesis.logback.rules;
+
+import ch.qos.logback.classic.Level;
+import com.hyp3r.services.kinesis.logback.encoding.MdcProjection;
+import com.hyp3r.services.kinesis.logback.routing.RouteTable;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RulesManagerTest {
+
+    private final List<String> errors = new ArrayList<>();
+    private File rulesFile;
+
+    @After
+    public void teardown() {
+        if (rulesFile != null) {
+            rulesFile.delete();
+        }
+    }
+
+    private static RulesConfig base() {
+        RulesConfig base = new RulesConfig();
+        base.setEventsOnly(true);
+        return base;
+    }
+
+    private File writeRules(String json) throws Exception {
+        if (rulesFile == null) {
+            rulesFile = File.createTempFile("kinesis-rules", ".json");
+        }
+        Files.write(rulesFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        return rulesFile;
+    }
+
+    @Test
+    public void shouldSwapRulesOverJmx() {
+        RulesManager manager = new RulesManager(base(), null, errors::add);
+        AppenderRules initial = manager.current();
+        assertFalse(initial.accepts(Level.INFO, null));
+        assertTrue(initial.getRouteTable().isEmpty());
+
+        manager.setRules("{\"eventsOnly\": false, \"level\": \"WARN\", \"excludeEventTypes\": [\"noisy\"],"
+            + " \"routes\": [{\"streamName\": \"errors\", \"level\": \"ERROR\"}]}");
+        AppenderRules swapped = manager.current();
+        assertEquals(initial.getVersion() + 1, swapped.getVersion());
+        assertTrue(swapped.accepts(Level.WARN, null));
+        assertFalse(swapped.accepts(Level.INFO, "event"));
+        assertFalse(swapped.accepts(Level.ERROR, "noisy"));
+        assertEquals(1, swapped.getRouteTable().size());
+        assertTrue(manager.getRules().contains("\"streamName\":\"errors\""));
+
+        // The compiled rules a reader already holds never change
+        assertFalse(initial.accepts(Level.INFO, null));
+    }
+
+    @Test
+    public void shouldSwapMdcProjectionWithRoutes() {
+        RulesConfig base = base();
+        base.setMdcExclude("span");
+        RulesManager manager = new RulesManager(base, null, errors::add);
+        AppenderRules initial = manager.current();
+        assertEquals(MdcProjection.compile(null, "span", null), initial.getMdcProjection());
+
+        manager.setRules("{\"mdcInclude\": \"user_id\", \"routes\": [{\"streamName\": \"audit\", \"mdcInclude\": \"user_id\"}]}");
+        AppenderRules swapped = manager.current();
+        assertEquals(MdcProjection.compile("user_id", "span", null), swapped.getMdcProjection());
+        RouteTable.Route audit = swapped.getRouteTable().match(Level.INFO, "a", null, null, null, null).get(0);
+        assertNotSame(swapped.getMdcProjection(), audit.projection(swapped.getMdcProjection()));
+
+        // Invalid lists are rejected along with the rest of the rules
+        try {
+            manager.setRules("{\"mdcRename\": \"user_id\"}");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("from:to"));
+        }
+        assertSame(swapped, manager.current());
+    }
+
+    @Test
+    public void shouldKeepCurrentRulesWhenInvalid() {
+        RulesManager manager = new RulesManager(base(), null, errors::add);
+        long version = manager.getVersion();
+
+        try {
+            manager.setRules("{\"routes\": [{\"streamName\": \"bad stream\"}]}");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("streamName"));
+        }
+        try {
+            manager.setRules("{\"sampleRate\": ");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("JSON"));
+        }
+        assertEquals(version, manager.getVersion());
+    }
+
+    @Test
+    public void shouldReloadRulesFile() throws Exception {
+        RulesManager manager = new RulesManager(base(), writeRules("{\"eventsOnly\": false}").getPath(), errors::add);
+        assertTrue(manager.current().accepts(Level.INFO, null));
+
+        writeRules("{\"sampleRate\": 0.0}");
+        assertTrue(manager.reload());
+        // Settings left out of the file fall back to the logback configuration
+        assertFalse(manager.current().accepts(Level.INFO, null));
+        assertFalse(manager.current().sample());
+
+        writeRules("{\"level\": \"LOUD\"}");
+        assertFalse(manager.reload());
+        assertEquals(1, errors.size());
+        assertFalse(manager.current().sample());
+    }
+
+    @Test
+    public void shouldPollRulesFile() throws Exception {
+        RulesManager manager = new RulesManager(base(), writeRules("{}").getPath(), errors::add);
+        manager.startPolling(10, "test-rules");
+        long version = manager.getVersion();
+
+        writeRules("{\"eventsOnly\": false}");
+        rulesFile.setLastModified(rulesFile.lastModified() + 2000);
+        for (int i = 0; i < 200 && manager.getVersion() == version; i++) {
+            Thread.sleep(10);
+        }
+        manager.close();
+        assertTrue(manager.current().accepts(Level.INFO, null));
+    }
+}
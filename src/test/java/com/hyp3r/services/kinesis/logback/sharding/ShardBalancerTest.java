@@ -0,0 +1,54 @@
+package com.hyp3r.services.kinesis.logback.sharding;
+
+import com.amazonaws.services.kinesis.producer.UserRecordResult;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.hyp3r.services.kinesis.logback.load.SimulatedStream;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ShardBalancerTest {
+    private static final ByteBuffer DATA = ByteBuffer.wrap(new byte[16]);
+    private static final int RECORDS_PER_SECOND = 1000;
+
+    // A stream whose first shard owns three quarters of the hash key space, each shard taking 600 records a second
+    private final SimulatedStream stream = new SimulatedStream(600, 0.75);
+    private final ShardBalancer balancer = new ShardBalancer(new FutureCallback<UserRecordResult>() {
+        @Override
+        public void onSuccess(UserRecordResult result) {
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+        }
+    });
+
+    @Test
+    public void randomKeysOverloadTheLargerShard() {
+        for (int i = 0; i < RECORDS_PER_SECOND; i++) {
+            stream.addUserRecord("stream", UUID.randomUUID().toString(), DATA);
+        }
+        assertTrue(stream.getThrottled(0) > 50);
+    }
+
+    @Test
+    public void shouldSteerRecordsToTheUnderusedShard() {
+        for (int second = 0; second < 30; second++) {
+            stream.reset();
+            for (int i = 0; i < RECORDS_PER_SECOND; i++) {
+                int bucket = balancer.pick();
+                Futures.addCallback(stream.addUserRecord("stream", "key", balancer.hashKey(bucket), DATA), balancer.callback(bucket));
+            }
+            balancer.update(1000);
+        }
+
+        assertEquals(0, stream.getThrottled(0) + stream.getThrottled(1));
+        assertEquals(RECORDS_PER_SECOND / 2, stream.getAccepted(1), RECORDS_PER_SECOND / 10);
+        assertEquals(2, balancer.getShardLoads().size());
+        assertTrue(balancer.getWeight(ShardBalancer.BUCKETS - 1) > balancer.getWeight(0));
+    }
+}
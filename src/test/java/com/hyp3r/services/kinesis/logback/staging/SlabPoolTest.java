@@ -0,0 +1,60 @@
+package com.hyp3r.services.kinesis.logback.staging;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SlabPoolTest {
+
+    @Test
+    public void shouldStageIntoSizeClasses() {
+        SlabPool pool = new SlabPool(4L * SlabPool.SLAB_BYTES);
+        ByteBuffer small = pool.stage(new byte[10]);
+        ByteBuffer exact = pool.stage(new byte[512]);
+        ByteBuffer large = pool.stage(new byte[513]);
+
+        assertTrue(small.isDirect());
+        assertEquals(10, small.remaining());
+        assertEquals(SlabPool.MIN_SLOT_BYTES, small.capacity());
+        assertEquals(512, exact.capacity());
+        assertEquals(1024, large.capacity());
+        assertEquals(3, pool.getStagedRecords());
+        assertEquals(SlabPool.MIN_SLOT_BYTES + 512 + 1024, pool.getUsedBytes());
+        assertEquals(3L * SlabPool.SLAB_BYTES, pool.getReservedBytes());
+        assertNull(pool.stage(new byte[SlabPool.SLAB_BYTES + 1]));
+
+        pool.release(small);
+        pool.release(exact);
+        pool.release(large);
+        assertEquals(0, pool.getUsedBytes());
+        assertEquals(0, pool.getStagedRecords());
+    }
+
+    @Test
+    public void shouldReuseSlotsAndStopAtCapacity() {
+        SlabPool pool = new SlabPool(SlabPool.SLAB_BYTES);
+        ByteBuffer whole = pool.stage(new byte[SlabPool.SLAB_BYTES]);
+        assertNotNull(whole);
+        assertNull(pool.stage(new byte[1]));
+        assertEquals(1, pool.getExhausted());
+
+        pool.release(whole);
+        // The slab stays with its size class
+        assertNull(pool.stage(new byte[1]));
+        assertNotNull(pool.stage(new byte[SlabPool.SLAB_BYTES / 2 + 1]));
+        assertEquals(SlabPool.SLAB_BYTES, pool.getReservedBytes());
+    }
+
+    @Test
+    public void shouldCopyTheRecord() {
+        SlabPool pool = new SlabPool(SlabPool.SLAB_BYTES);
+        byte[] data = "record".getBytes();
+        ByteBuffer staged = pool.stage(data);
+        data[0] = 'X';
+        byte[] read = new byte[staged.remaining()];
+        staged.get(read);
+        assertEquals("record", new String(read));
+    }
+}